@@ -18,4 +18,15 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+
+# Strip debug and verbose logging from release builds. Lazy GatewayLog.Message lambdas
+# go with the call, so their text is never built either.
+-assumenosideeffects class android.util.Log {
+    public static int v(...);
+    public static int d(...);
+}
+-assumenosideeffects class com.b4g.smsgateway_app.GatewayLog {
+    public static void v(...);
+    public static void d(...);
+}
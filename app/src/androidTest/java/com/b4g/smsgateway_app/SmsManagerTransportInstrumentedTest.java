@@ -0,0 +1,46 @@
+package com.b4g.smsgateway_app;
+
+import android.content.Intent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for reading delivery broadcasts in {@link SmsManagerTransport}, which
+ * needs the platform's PDU parser.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsManagerTransportInstrumentedTest {
+
+    @Test
+    public void deliveryBroadcast_readsTheStatusFromThePdu() {
+        assertEquals(SmsTransport.DELIVERY_DELIVERED, SmsManagerTransport.deliveryStatus(report(0x00)));
+        assertEquals(SmsTransport.DELIVERY_PENDING, SmsManagerTransport.deliveryStatus(report(0x20)));
+        assertEquals(SmsTransport.DELIVERY_FAILED, SmsManagerTransport.deliveryStatus(report(0x41)));
+    }
+
+    @Test
+    public void deliveryBroadcastWithoutPdu_countsAsDelivered() {
+        assertEquals(SmsTransport.DELIVERY_DELIVERED, SmsManagerTransport.deliveryStatus(new Intent("delivered")));
+    }
+
+    // A GSM SMS-STATUS-REPORT for +15550100123 with the given TP-Status
+    private static Intent report(int status) {
+        byte[] pdu = {
+                0x00,                                           // no service centre address
+                0x02,                                           // TP-MTI: status report
+                0x01,                                           // TP-MR
+                0x0B, (byte) 0x91, 0x51, 0x55, 0x10, 0x00, 0x21, (byte) 0xF3,
+                0x42, 0x01, 0x71, 0x21, 0x43, 0x00, 0x00,       // TP-SCTS
+                0x42, 0x01, 0x71, 0x21, 0x43, 0x10, 0x00,       // TP-DT
+                (byte) status                                   // TP-ST
+        };
+        return new Intent("delivered")
+                .putExtra("pdu", pdu)
+                .putExtra("format", "3gpp");
+    }
+}
@@ -0,0 +1,118 @@
+package com.b4g.smsgateway_app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link SmsOutbox}, which needs the device's SQLite.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmsOutboxTest {
+    private Context context;
+    private SmsOutbox outbox;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase("outbox.db");
+        outbox = new SmsOutbox(context);
+    }
+
+    @After
+    public void tearDown() {
+        outbox.close();
+        context.deleteDatabase("outbox.db");
+    }
+
+    @Test
+    public void messageGivenUpOn_isAcceptedAgainWhenTheServerResendsIt() {
+        SmsMessage sms = new SmsMessage("1", "+15550100", "hello");
+        assertEquals(1, outbox.addBatch(Collections.singletonList(sms)).size());
+        outbox.markSending(sms.getKey());
+        outbox.markDead(sms.getKey());
+
+        // Not until the server has heard it failed
+        assertTrue(outbox.addBatch(Collections.singletonList(sms)).isEmpty());
+        assertEquals("failed", outbox.unreportedStatuses().get(sms.getKey()));
+        outbox.markReported(Collections.singletonList(sms.getKey()));
+
+        List<SmsMessage> again = outbox.addBatch(Collections.singletonList(sms));
+        assertEquals(1, again.size());
+        assertEquals(SmsOutbox.STATE_PENDING, outbox.stateOf(sms.getKey()));
+        assertTrue(outbox.unreportedStatuses().isEmpty());
+    }
+
+    @Test
+    public void sentMessage_isNeverAcceptedAgain() {
+        SmsMessage sms = new SmsMessage("2", "+15550100", "hello");
+        outbox.addBatch(Collections.singletonList(sms));
+        outbox.markSent(sms.getKey());
+        outbox.markReported(Collections.singletonList(sms.getKey()));
+
+        assertTrue(outbox.addBatch(Collections.singletonList(sms)).isEmpty());
+        assertEquals(SmsOutbox.STATE_SENT, outbox.stateOf(sms.getKey()));
+    }
+
+    @Test
+    public void sameIdFromTwoSources_isStoredTwice() {
+        SmsMessage shop = new SmsMessage("3", "+15550100", "hello", 0, "shop");
+        SmsMessage bank = new SmsMessage("3", "+15550101", "code 1234", 0, "bank");
+        assertEquals(2, outbox.addBatch(Arrays.asList(shop, bank)).size());
+        outbox.markSent(shop.getKey());
+
+        assertEquals(SmsOutbox.STATE_SENT, outbox.stateOf(shop.getKey()));
+        assertEquals(SmsOutbox.STATE_PENDING, outbox.stateOf(bank.getKey()));
+        List<SmsMessage> pending = outbox.pendingMessages();
+        assertEquals(1, pending.size());
+        assertEquals("3", pending.get(0).getId());
+        assertEquals("bank", pending.get(0).getSource());
+    }
+
+    @Test
+    public void upgradeFromBareIds_keysOutboxAndDeadLetters() {
+        outbox.close();
+        context.deleteDatabase("outbox.db");
+        SQLiteDatabase old = context.openOrCreateDatabase("outbox.db", Context.MODE_PRIVATE, null);
+        old.execSQL("CREATE TABLE outbox (id TEXT PRIMARY KEY, phone_number TEXT NOT NULL, message TEXT NOT NULL, "
+                + "sim_slot INTEGER NOT NULL DEFAULT 0, source TEXT NOT NULL DEFAULT 'default', "
+                + "priority INTEGER NOT NULL DEFAULT 0, send_at INTEGER NOT NULL DEFAULT 0, "
+                + "state TEXT NOT NULL, reported INTEGER NOT NULL DEFAULT 0, updated_at INTEGER NOT NULL)");
+        old.execSQL("CREATE TABLE dead_letter (kind TEXT NOT NULL, id TEXT NOT NULL, detail TEXT, "
+                + "attempts INTEGER NOT NULL, created_at INTEGER NOT NULL, PRIMARY KEY (kind, id))");
+        old.execSQL("INSERT INTO outbox (id, phone_number, message, source, state, updated_at) "
+                + "VALUES ('7', '+15550100', 'hello', 'shop', 'dead', 0)");
+        old.execSQL("INSERT INTO dead_letter VALUES ('send', '7', 'no service', 5, 0)");
+        old.execSQL("INSERT INTO dead_letter VALUES ('status', '8', 'timeout', 10, 0)");
+        old.setVersion(5);
+        old.close();
+
+        outbox = new SmsOutbox(context);
+
+        assertEquals(SmsOutbox.STATE_DEAD, outbox.stateOf("shop:7"));
+        Cursor cursor = outbox.getReadableDatabase().rawQuery("SELECT id FROM dead_letter ORDER BY id", null);
+        try {
+            assertTrue(cursor.moveToNext());
+            assertEquals("default:8", cursor.getString(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals("shop:7", cursor.getString(0));
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+}
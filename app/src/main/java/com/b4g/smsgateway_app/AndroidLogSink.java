@@ -0,0 +1,49 @@
+package com.b4g.smsgateway_app;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+
+/**
+ * Writes {@link GatewayLog} lines to logcat.
+ */
+public final class AndroidLogSink implements GatewayLog.Sink {
+    private static final AndroidLogSink INSTANCE = new AndroidLogSink();
+
+    private AndroidLogSink() {
+    }
+
+    /**
+     * Debug builds log everything in the clear; release builds drop debug lines and redact.
+     */
+    public static void install(Context context) {
+        boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        GatewayLog.setMinLevel(debuggable ? GatewayLog.DEBUG : GatewayLog.INFO);
+        GatewayLog.setRedact(!debuggable);
+        GatewayLog.setSink(INSTANCE);
+    }
+
+    @Override
+    public void write(int level, String tag, String message, Throwable error) {
+        switch (level) {
+            case GatewayLog.VERBOSE:
+                Log.v(tag, message);
+                break;
+            case GatewayLog.DEBUG:
+                Log.d(tag, message);
+                break;
+            case GatewayLog.INFO:
+                Log.i(tag, message);
+                break;
+            case GatewayLog.WARN:
+                Log.w(tag, message);
+                break;
+            default:
+                if (error != null) {
+                    Log.e(tag, message, error);
+                } else {
+                    Log.e(tag, message);
+                }
+        }
+    }
+}
@@ -4,7 +4,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
-import android.util.Log;
 
 public class BootReceiver extends BroadcastReceiver {
     private static final String TAG = "BootReceiver";
@@ -12,7 +11,7 @@ public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-            Log.d(TAG, "Boot completed, starting SMS Gateway Service");
+            GatewayLog.d(TAG, "Boot completed, starting SMS Gateway Service");
             Intent serviceIntent = new Intent(context, SMSGatewayService.class);
             
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -0,0 +1,461 @@
+package com.b4g.smsgateway_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Server endpoints and credentials, editable from {@link MainActivity} and kept in shared
+ * preferences.
+ *
+ * Messages can come from several sources, each an upstream queue with its own fetch URL,
+ * priority and optionally its own token. Messages are tracked by source and ID, so sources may
+ * reuse each other's IDs; status updates and lease renewals go to the shared endpoints and name
+ * the source, so the server can route them.
+ * Sources are edited as text, one per line: {@code name url [priority] [token]}, where the
+ * token is the rest of the line. Names are case-insensitively unique and can't be
+ * {@link #LOCAL_API_SOURCE}.
+ *
+ * With a lease URL set, fetches lease messages to this device instead of taking every pending
+ * one, so several devices can share a queue; see {@link LeaseClient}.
+ *
+ * The local API is off unless a listen address is set, as {@code port} for loopback only or
+ * {@code address:port}. It needs the shared token, sent in the auth header, on every request.
+ *
+ * Sends are paced per SIM at {@code perMinute/perHour}. The defaults stay under Android's
+ * prompt after 30 SMS in 30 minutes; higher limits only help once that limit has been raised
+ * on the device.
+ */
+public class GatewayConfig {
+    public static final String DEFAULT_FETCH_URL = "https://byte4ge.com/admin/API/mobileSMSgateway/v1/get_sms.php";
+    public static final String DEFAULT_STATUS_URL = "https://byte4ge.com/admin/API/mobileSMSgateway/v1/update_sms_status.php";
+    public static final String DEFAULT_BATCH_STATUS_URL = "https://byte4ge.com/admin/API/mobileSMSgateway/v1/update_sms_status_batch.php";
+    public static final String DEFAULT_AUTH_HEADER = "Authorization";
+    public static final String DEFAULT_SOURCE = SmsMessage.DEFAULT_SOURCE;
+    public static final String DEFAULT_LOCAL_API_ADDRESS = "127.0.0.1";
+    /** Source of messages pushed to the local API. */
+    public static final String LOCAL_API_SOURCE = "local";
+    // One a minute never gets to 30 within Android's 30 minute window
+    public static final int DEFAULT_SEND_LIMIT_PER_MINUTE = 1;
+    public static final int DEFAULT_SEND_LIMIT_PER_HOUR = 60;
+
+    private static final String PREFS_NAME = "gateway_config";
+    static final String KEY_SOURCES = "sources";
+    static final String KEY_STATUS_URL = "status_url";
+    static final String KEY_BATCH_STATUS_URL = "batch_status_url";
+    static final String KEY_AUTH_HEADER = "auth_header";
+    static final String KEY_AUTH_TOKEN = "auth_token";
+    static final String KEY_LEASE_URL = "lease_url";
+    static final String KEY_INBOUND_URL = "inbound_url";
+    static final String KEY_LOCAL_API = "local_api";
+    static final String KEY_SEND_LIMITS = "send_limits";
+    private static final String KEY_DEVICE_ID = "device_id";
+
+    public static final class Source {
+        private final String name;
+        private final String fetchUrl;
+        private final int priority;
+        private final String authToken;
+
+        public Source(String name, String fetchUrl, int priority, String authToken) {
+            this.name = name;
+            this.fetchUrl = fetchUrl;
+            this.priority = priority;
+            this.authToken = authToken;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFetchUrl() {
+            return fetchUrl;
+        }
+
+        /**
+         * Higher keeps polling while the send queues are backed up, when lower ones wait. It
+         * doesn't change the order messages are sent in; each message's own priority does.
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Token for this source only, or null to use the shared one.
+         */
+        public String getAuthToken() {
+            return authToken;
+        }
+    }
+
+    private final List<Source> sources;
+    private final String statusUrl;
+    private final String batchStatusUrl;
+    private final String authHeader;
+    private final String authToken;
+    private final String leaseUrl;
+    private final String inboundUrl;
+    private final String localApiAddress;
+    private final int localApiPort;
+    private final int sendLimitPerMinute;
+    private final int sendLimitPerHour;
+
+    public GatewayConfig(List<Source> sources, String statusUrl, String batchStatusUrl,
+                         String authHeader, String authToken) {
+        this(sources, statusUrl, batchStatusUrl, authHeader, authToken, null);
+    }
+
+    public GatewayConfig(List<Source> sources, String statusUrl, String batchStatusUrl,
+                         String authHeader, String authToken, String leaseUrl) {
+        this(sources, statusUrl, batchStatusUrl, authHeader, authToken, leaseUrl, null);
+    }
+
+    public GatewayConfig(List<Source> sources, String statusUrl, String batchStatusUrl,
+                         String authHeader, String authToken, String leaseUrl, String inboundUrl) {
+        this(sources, statusUrl, batchStatusUrl, authHeader, authToken, leaseUrl, inboundUrl, null);
+    }
+
+    public GatewayConfig(List<Source> sources, String statusUrl, String batchStatusUrl,
+                         String authHeader, String authToken, String leaseUrl, String inboundUrl,
+                         String localApi) {
+        this(sources, statusUrl, batchStatusUrl, authHeader, authToken, leaseUrl, inboundUrl, localApi, null);
+    }
+
+    /**
+     * @param leaseUrl   where leases are renewed, or null or blank to fetch without leases
+     * @param inboundUrl where received SMS and delivery reports are forwarded, or null or blank
+     *                   to not listen for them
+     * @param localApi   {@code port} or {@code address:port} for the local API to listen on, or
+     *                   null or blank to not serve it
+     * @param sendLimits {@code perMinute/perHour} for each SIM, or null or blank for the defaults
+     */
+    public GatewayConfig(List<Source> sources, String statusUrl, String batchStatusUrl,
+                         String authHeader, String authToken, String leaseUrl, String inboundUrl,
+                         String localApi, String sendLimits) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one source is needed");
+        }
+        checkUrl(statusUrl);
+        checkUrl(batchStatusUrl);
+        if (!isBlank(leaseUrl)) {
+            checkUrl(leaseUrl.trim());
+        }
+        if (!isBlank(inboundUrl)) {
+            checkUrl(inboundUrl.trim());
+        }
+        this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+        this.statusUrl = statusUrl;
+        this.batchStatusUrl = batchStatusUrl;
+        this.authHeader = isBlank(authHeader) ? DEFAULT_AUTH_HEADER : authHeader.trim();
+        this.authToken = isBlank(authToken) ? null : authToken.trim();
+        this.leaseUrl = isBlank(leaseUrl) ? null : leaseUrl.trim();
+        this.inboundUrl = isBlank(inboundUrl) ? null : inboundUrl.trim();
+        if (isBlank(localApi)) {
+            this.localApiAddress = null;
+            this.localApiPort = 0;
+        } else {
+            if (this.authToken == null) {
+                throw new IllegalArgumentException("The local API needs an auth token");
+            }
+            String listen = localApi.trim();
+            int colon = listen.lastIndexOf(':');
+            String address = colon >= 0 ? listen.substring(0, colon).trim() : DEFAULT_LOCAL_API_ADDRESS;
+            if (address.startsWith("[") && address.endsWith("]")) {
+                address = address.substring(1, address.length() - 1);
+            }
+            int port;
+            try {
+                port = Integer.parseInt(listen.substring(colon + 1).trim());
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+            if (address.isEmpty() || port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Local API must be a port or address:port: " + listen);
+            }
+            this.localApiAddress = address;
+            this.localApiPort = port;
+        }
+        if (isBlank(sendLimits)) {
+            this.sendLimitPerMinute = DEFAULT_SEND_LIMIT_PER_MINUTE;
+            this.sendLimitPerHour = DEFAULT_SEND_LIMIT_PER_HOUR;
+        } else {
+            String[] limits = sendLimits.trim().split("\\s*/\\s*");
+            int perMinute;
+            int perHour;
+            try {
+                perMinute = limits.length == 2 ? Integer.parseInt(limits[0]) : -1;
+                perHour = limits.length == 2 ? Integer.parseInt(limits[1]) : -1;
+            } catch (NumberFormatException e) {
+                perMinute = -1;
+                perHour = -1;
+            }
+            if (perMinute < 1 || perHour < 1) {
+                throw new IllegalArgumentException("Send limits must be perMinute/perHour: " + sendLimits.trim());
+            }
+            this.sendLimitPerMinute = perMinute;
+            this.sendLimitPerHour = perHour;
+        }
+    }
+
+    /**
+     * The single byte4ge queue the app always used.
+     */
+    public static GatewayConfig defaults() {
+        return new GatewayConfig(Collections.singletonList(new Source(DEFAULT_SOURCE, DEFAULT_FETCH_URL, 0, null)),
+                DEFAULT_STATUS_URL, DEFAULT_BATCH_STATUS_URL, DEFAULT_AUTH_HEADER, null);
+    }
+
+    public static GatewayConfig load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : new String[]{KEY_SOURCES, KEY_STATUS_URL, KEY_BATCH_STATUS_URL, KEY_AUTH_HEADER, KEY_AUTH_TOKEN,
+                KEY_LEASE_URL, KEY_INBOUND_URL, KEY_LOCAL_API, KEY_SEND_LIMITS}) {
+            values.put(key, prefs.getString(key, null));
+        }
+        try {
+            return fromMap(values);
+        } catch (IllegalArgumentException e) {
+            GatewayLog.e("GatewayConfig", "Ignoring bad saved config: " + e.getMessage());
+            return defaults();
+        }
+    }
+
+    public void save(Context context) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        for (Map.Entry<String, String> entry : toMap().entrySet()) {
+            editor.putString(entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    /**
+     * This install's ID for the lease protocol, created on first use.
+     */
+    public static String deviceId(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String deviceId = prefs.getString(KEY_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            prefs.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        }
+        return deviceId;
+    }
+
+    /**
+     * Builds a config from stored values, falling back to the defaults for missing ones.
+     *
+     * @throws IllegalArgumentException if a value is malformed
+     */
+    static GatewayConfig fromMap(Map<String, String> values) {
+        String sources = values.get(KEY_SOURCES);
+        return new GatewayConfig(
+                isBlank(sources) ? defaults().getSources() : parseSources(sources),
+                orDefault(values.get(KEY_STATUS_URL), DEFAULT_STATUS_URL),
+                orDefault(values.get(KEY_BATCH_STATUS_URL), DEFAULT_BATCH_STATUS_URL),
+                values.get(KEY_AUTH_HEADER),
+                values.get(KEY_AUTH_TOKEN),
+                values.get(KEY_LEASE_URL),
+                values.get(KEY_INBOUND_URL),
+                values.get(KEY_LOCAL_API),
+                values.get(KEY_SEND_LIMITS));
+    }
+
+    Map<String, String> toMap() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put(KEY_SOURCES, formatSources(sources));
+        values.put(KEY_STATUS_URL, statusUrl);
+        values.put(KEY_BATCH_STATUS_URL, batchStatusUrl);
+        values.put(KEY_AUTH_HEADER, authHeader);
+        values.put(KEY_AUTH_TOKEN, authToken);
+        values.put(KEY_LEASE_URL, leaseUrl);
+        values.put(KEY_INBOUND_URL, inboundUrl);
+        values.put(KEY_LOCAL_API, formatLocalApi());
+        values.put(KEY_SEND_LIMITS, formatSendLimits());
+        return values;
+    }
+
+    /**
+     * Parses one source per line; blank lines and lines starting with # are skipped.
+     *
+     * @throws IllegalArgumentException naming the first bad line
+     */
+    public static List<Source> parseSources(String text) {
+        List<Source> sources = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+", 4);
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": expected a name and a URL");
+            }
+            if (!fields[0].matches("[A-Za-z0-9_]+")) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": name may only use letters, digits and _");
+            }
+            if (LOCAL_API_SOURCE.equalsIgnoreCase(fields[0])) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + fields[0] + " is reserved for the local API");
+            }
+            if (!names.add(fields[0].toLowerCase(Locale.US))) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": duplicate name " + fields[0]);
+            }
+            checkUrl(fields[1]);
+
+            int priority = 0;
+            if (fields.length > 2) {
+                try {
+                    priority = Integer.parseInt(fields[2]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Line " + (i + 1) + ": priority must be a number");
+                }
+            }
+            sources.add(new Source(fields[0], fields[1], priority, fields.length > 3 ? fields[3] : null));
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one source is needed");
+        }
+        return sources;
+    }
+
+    public static String formatSources(List<Source> sources) {
+        StringBuilder text = new StringBuilder();
+        for (Source source : sources) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(source.getName()).append(' ').append(source.getFetchUrl()).append(' ').append(source.getPriority());
+            if (source.getAuthToken() != null) {
+                text.append(' ').append(source.getAuthToken());
+            }
+        }
+        return text.toString();
+    }
+
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * Highest priority of any source.
+     */
+    public int getTopPriority() {
+        int top = Integer.MIN_VALUE;
+        for (Source source : sources) {
+            top = Math.max(top, source.getPriority());
+        }
+        return top;
+    }
+
+    public String getStatusUrl() {
+        return statusUrl;
+    }
+
+    public String getBatchStatusUrl() {
+        return batchStatusUrl;
+    }
+
+    public String getAuthHeader() {
+        return authHeader;
+    }
+
+    /**
+     * Shared token sent with status updates and with fetches from sources without their own,
+     * or null for none.
+     */
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    /**
+     * The token to send when fetching from {@code source}, or null for none.
+     */
+    public String authTokenFor(Source source) {
+        return source.getAuthToken() != null ? source.getAuthToken() : authToken;
+    }
+
+    /**
+     * Where leases are renewed, or null if fetches don't use leases.
+     */
+    public String getLeaseUrl() {
+        return leaseUrl;
+    }
+
+    /**
+     * Where received SMS and delivery reports are forwarded, or null if they aren't.
+     */
+    public String getInboundUrl() {
+        return inboundUrl;
+    }
+
+    public boolean isLocalApiEnabled() {
+        return localApiAddress != null;
+    }
+
+    /**
+     * Address the local API binds to, or null if it's off.
+     */
+    public String getLocalApiAddress() {
+        return localApiAddress;
+    }
+
+    public int getLocalApiPort() {
+        return localApiPort;
+    }
+
+    /**
+     * The local API setting as it's edited, or null if it's off.
+     */
+    public String formatLocalApi() {
+        if (localApiAddress == null) {
+            return null;
+        }
+        String address = localApiAddress.indexOf(':') >= 0 ? "[" + localApiAddress + "]" : localApiAddress;
+        return address + ":" + localApiPort;
+    }
+
+    /**
+     * SMS parts each SIM may send per minute.
+     */
+    public int getSendLimitPerMinute() {
+        return sendLimitPerMinute;
+    }
+
+    /**
+     * SMS parts each SIM may send per hour.
+     */
+    public int getSendLimitPerHour() {
+        return sendLimitPerHour;
+    }
+
+    /**
+     * The send limits as they're edited.
+     */
+    public String formatSendLimits() {
+        return sendLimitPerMinute + "/" + sendLimitPerHour;
+    }
+
+    private static void checkUrl(String url) {
+        if (url == null || !(url.startsWith("https://") || url.startsWith("http://"))) {
+            throw new IllegalArgumentException("Not an http(s) URL: " + url);
+        }
+    }
+
+    private static String orDefault(String value, String fallback) {
+        return isBlank(value) ? fallback : value.trim();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
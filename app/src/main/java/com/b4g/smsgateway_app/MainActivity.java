@@ -1,53 +1,106 @@
 package com.b4g.smsgateway_app;
 
 import android.Manifest;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.IBinder;
+import android.text.TextUtils;
+import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE = 100;
     private static final int NOTIFICATION_PERMISSION_REQUEST_CODE = 101;
     private static final String TAG = "SMSGatewayApp";
+    private static final int LOG_CAPACITY = 300;
 
     private TextView statusText;
-    private TextView logText;
+    private TextView statsText;
+    private ListView logList;
+    private StatusLogAdapter logAdapter;
     private Button startStopButton;
     private boolean isServiceRunning = false;
     private boolean isEmulator = false;
+    private StatusFeed statusFeed;
+
+    // Feed updates arrive once a second at most while the activity is started
+    private final StatusFeed.Listener feedListener = new StatusFeed.Listener() {
+        @Override
+        public void onUpdate(final StatusFeed.Update update) {
+            runOnUiThread(() -> render(update));
+        }
+    };
+
+    // Bound without BIND_AUTO_CREATE, so this connects whenever the service is running and
+    // never starts it by itself
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            detachFeed();
+            statusFeed = ((SMSGatewayService.LocalBinder) binder).getService().getStatusFeed();
+            if (statusFeed != null) {
+                statusFeed.addListener(feedListener);
+            }
+            setServiceRunning(true);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            detachFeed();
+            setServiceRunning(false);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        AndroidLogSink.install(this);
 
         try {
             // Initialize UI components
             statusText = findViewById(R.id.statusText);
-            logText = findViewById(R.id.logText);
+            statsText = findViewById(R.id.statsText);
+            logList = findViewById(R.id.logList);
+            logAdapter = new StatusLogAdapter(getLayoutInflater(), LOG_CAPACITY);
+            logList.setAdapter(logAdapter);
             startStopButton = findViewById(R.id.fetchButton);
             startStopButton.setText("Start Service");
 
             // Check if running on emulator
             isEmulator = isEmulator();
-            Log.d(TAG, "Running on emulator: " + isEmulator);
+            GatewayLog.d(TAG, "Running on emulator: " + isEmulator);
             
             if (isEmulator) {
                 appendLog("Detected emulator environment - SMS sending will be simulated");
             }
 
+            // Long press shows the gateway's full recent log, debug lines included, no adb needed
+            logList.setOnItemLongClickListener((parent, view, position, id) -> {
+                showFullLog();
+                return true;
+            });
+
+            Button settingsButton = findViewById(R.id.settingsButton);
+            settingsButton.setOnClickListener(v -> showSettings());
+
             // Set up button click listener
             startStopButton.setOnClickListener(v -> {
                 if (hasRequiredPermissions()) {
@@ -62,14 +115,93 @@ public class MainActivity extends AppCompatActivity {
                 requestPermissions();
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error initializing activity: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error initializing activity: " + e.getMessage(), e);
             Toast.makeText(this, "Error initializing app: " + e.getMessage(), Toast.LENGTH_LONG).show();
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, SMSGatewayService.class), serviceConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        // Nothing renders in the background, and the feed stops snapshotting once nobody listens
+        detachFeed();
+        unbindService(serviceConnection);
+        super.onStop();
+    }
+
+    private void detachFeed() {
+        if (statusFeed != null) {
+            statusFeed.removeListener(feedListener);
+            statusFeed = null;
+        }
+    }
+
+    private void setServiceRunning(boolean running) {
+        isServiceRunning = running;
+        startStopButton.setText(running ? "Stop Service" : "Start Service");
+    }
+
+    // Main thread
+    private void render(StatusFeed.Update update) {
+        if (!update.running) {
+            detachFeed();
+            setServiceRunning(false);
+        }
+        logAdapter.addAll(update.events);
+
+        StatusFeed.Snapshot snapshot = update.snapshot;
+        if (snapshot == null) {
+            statsText.setText(update.running ? update.status : "Service stopped");
+            return;
+        }
+        StringBuilder text = new StringBuilder(256);
+        text.append(update.running ? update.status : "Service stopped").append('\n')
+                .append(String.format(Locale.US, "Sent %d, failed %d, %.1f parts/s%n",
+                        snapshot.sent, snapshot.failed, snapshot.partsPerSecond))
+                .append(String.format(Locale.US, "Queued %d, scheduled %d, in flight %d, retrying %d, status backlog %d",
+                        snapshot.queueDepth, snapshot.scheduled, snapshot.inFlight, snapshot.retryDepth,
+                        snapshot.statusDepth));
+        for (StatusFeed.SimState sim : snapshot.sims) {
+            text.append(String.format(Locale.US, "%nSIM%d %s: queued %d, %.2f/s, failed %d%s", sim.slot, sim.name,
+                    sim.queueDepth, sim.sentPerSecond, sim.failed, sim.enabled ? "" : " (cooling down)"));
+        }
+        if (update.lastError != null) {
+            text.append("\nLast error: ").append(update.lastError.message);
+        }
+        statsText.setText(text);
+    }
+
+    private void showFullLog() {
+        new AlertDialog.Builder(this)
+                .setTitle("Gateway log")
+                .setMessage(TextUtils.join("\n", GatewayLog.dump()))
+                .setPositiveButton("Close", null)
+                .show();
+    }
+
+    // Replies only reach the app with RECEIVE_SMS, which is asked for once an inbound URL is set
+    private List<String> requiredSmsPermissions() {
+        List<String> permissions = new ArrayList<>();
+        permissions.add(Manifest.permission.SEND_SMS);
+        permissions.add(Manifest.permission.READ_PHONE_STATE);
+        if (GatewayConfig.load(this).getInboundUrl() != null) {
+            permissions.add(Manifest.permission.RECEIVE_SMS);
+        }
+        return permissions;
+    }
+
     private boolean hasRequiredPermissions() {
-        boolean hasBasicPermissions = ContextCompat.checkSelfPermission(this, Manifest.permission.SEND_SMS) == PackageManager.PERMISSION_GRANTED &&
-                ContextCompat.checkSelfPermission(this, Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED;
+        boolean hasBasicPermissions = true;
+        for (String permission : requiredSmsPermissions()) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                hasBasicPermissions = false;
+            }
+        }
                 
         boolean hasNotificationPermission = true;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
@@ -84,12 +216,10 @@ public class MainActivity extends AppCompatActivity {
             List<String> permissionsToRequest = new ArrayList<>();
             
             // Add basic permissions
-            if (ContextCompat.checkSelfPermission(this, Manifest.permission.SEND_SMS) != PackageManager.PERMISSION_GRANTED) {
-                permissionsToRequest.add(Manifest.permission.SEND_SMS);
-            }
-            
-            if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
-                permissionsToRequest.add(Manifest.permission.READ_PHONE_STATE);
+            for (String permission : requiredSmsPermissions()) {
+                if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                    permissionsToRequest.add(permission);
+                }
             }
             
             // Request basic permissions if needed
@@ -113,7 +243,7 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error requesting permissions: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error requesting permissions: " + e.getMessage(), e);
             updateStatus("Error requesting permissions: " + e.getMessage());
         }
     }
@@ -124,7 +254,16 @@ public class MainActivity extends AppCompatActivity {
 
         try {
             if (requestCode == PERMISSION_REQUEST_CODE) {
-                if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                boolean granted = grantResults.length > 0;
+                for (int i = 0; i < grantResults.length; i++) {
+                    if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+                        granted = false;
+                        if (Manifest.permission.RECEIVE_SMS.equals(permissions[i])) {
+                            GatewayLog.w(TAG, "RECEIVE_SMS denied, replies won't be forwarded");
+                        }
+                    }
+                }
+                if (granted) {
                     updateStatus("SMS permissions granted");
                     
                     // Check notification permission for Android 13+
@@ -148,7 +287,7 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error in permission result: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error in permission result: " + e.getMessage(), e);
         }
     }
     
@@ -178,8 +317,8 @@ public class MainActivity extends AppCompatActivity {
             } else {
                 startService(serviceIntent);
             }
-            isServiceRunning = true;
-            startStopButton.setText("Stop Service");
+            // The service connection confirms this once the service is up
+            setServiceRunning(true);
             
             if (isEmulator) {
                 updateStatus("Service started in simulation mode (emulator detected)");
@@ -187,7 +326,7 @@ public class MainActivity extends AppCompatActivity {
                 updateStatus("Service started. Running in background.");
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error starting service: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error starting service: " + e.getMessage(), e);
             updateStatus("Error starting service: " + e.getMessage());
         }
     }
@@ -196,15 +335,86 @@ public class MainActivity extends AppCompatActivity {
         try {
             Intent serviceIntent = new Intent(this, SMSGatewayService.class);
             stopService(serviceIntent);
-            isServiceRunning = false;
-            startStopButton.setText("Start Service");
+            detachFeed();
+            setServiceRunning(false);
             updateStatus("Service stopped.");
         } catch (Exception e) {
-            Log.e(TAG, "Error stopping service: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error stopping service: " + e.getMessage(), e);
             updateStatus("Error stopping service: " + e.getMessage());
         }
     }
 
+    private void showSettings() {
+        GatewayConfig config = GatewayConfig.load(this);
+        View form = getLayoutInflater().inflate(R.layout.dialog_settings, null);
+        EditText sourcesInput = form.findViewById(R.id.sourcesInput);
+        EditText statusUrlInput = form.findViewById(R.id.statusUrlInput);
+        EditText batchStatusUrlInput = form.findViewById(R.id.batchStatusUrlInput);
+        EditText authHeaderInput = form.findViewById(R.id.authHeaderInput);
+        EditText authTokenInput = form.findViewById(R.id.authTokenInput);
+        EditText leaseUrlInput = form.findViewById(R.id.leaseUrlInput);
+        EditText inboundUrlInput = form.findViewById(R.id.inboundUrlInput);
+        EditText localApiInput = form.findViewById(R.id.localApiInput);
+        EditText sendLimitsInput = form.findViewById(R.id.sendLimitsInput);
+        TextView deviceIdText = form.findViewById(R.id.deviceIdText);
+
+        sourcesInput.setText(GatewayConfig.formatSources(config.getSources()));
+        statusUrlInput.setText(config.getStatusUrl());
+        batchStatusUrlInput.setText(config.getBatchStatusUrl());
+        authHeaderInput.setText(config.getAuthHeader());
+        authTokenInput.setText(config.getAuthToken());
+        leaseUrlInput.setText(config.getLeaseUrl());
+        inboundUrlInput.setText(config.getInboundUrl());
+        localApiInput.setText(config.formatLocalApi());
+        sendLimitsInput.setText(config.formatSendLimits());
+        deviceIdText.setText("Device ID: " + GatewayConfig.deviceId(this));
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("Gateway settings")
+                .setView(form)
+                .setPositiveButton("Save", null)
+                .setNegativeButton("Cancel", null)
+                .create();
+        dialog.setOnShowListener(d -> dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v -> {
+            // Keep the dialog open on bad input so nothing typed is lost
+            GatewayConfig updated;
+            try {
+                updated = new GatewayConfig(
+                        GatewayConfig.parseSources(sourcesInput.getText().toString()),
+                        statusUrlInput.getText().toString().trim(),
+                        batchStatusUrlInput.getText().toString().trim(),
+                        authHeaderInput.getText().toString(),
+                        authTokenInput.getText().toString(),
+                        leaseUrlInput.getText().toString(),
+                        inboundUrlInput.getText().toString(),
+                        localApiInput.getText().toString(),
+                        sendLimitsInput.getText().toString());
+            } catch (IllegalArgumentException e) {
+                Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+                return;
+            }
+            updated.save(this);
+            dialog.dismiss();
+            applySettings();
+        }));
+        dialog.show();
+    }
+
+    // The service reads its config when it starts
+    private void applySettings() {
+        // A new inbound URL needs RECEIVE_SMS before the restarted service can hear replies
+        if (!hasRequiredPermissions()) {
+            requestPermissions();
+        }
+        if (isServiceRunning) {
+            stopService();
+            startService();
+            updateStatus("Settings saved, service restarted");
+        } else {
+            updateStatus("Settings saved");
+        }
+    }
+
     private void updateStatus(String message) {
         try {
             if (statusText != null) {
@@ -212,26 +422,13 @@ public class MainActivity extends AppCompatActivity {
                 appendLog(message);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error updating status: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error updating status: " + e.getMessage(), e);
         }
     }
 
     private void appendLog(String message) {
-        try {
-            if (logText != null && logText.getLayout() != null) {
-                String timestamp = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault())
-                        .format(new java.util.Date());
-                String logMessage = timestamp + " - " + message + "\n";
-                logText.append(logMessage);
-                
-                // Scroll to bottom
-                int scrollAmount = logText.getLayout().getLineTop(logText.getLineCount()) - logText.getHeight();
-                if (scrollAmount > 0) {
-                    logText.scrollTo(0, scrollAmount);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error appending to log: " + e.getMessage(), e);
+        if (logAdapter != null) {
+            logAdapter.add(new StatusFeed.Event(System.currentTimeMillis(), GatewayLog.INFO, TAG, message));
         }
     }
     
@@ -0,0 +1,123 @@
+package com.b4g.smsgateway_app;
+
+import android.app.NotificationManager;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folds status changes into the foreground notification at a bounded rate.
+ *
+ * Callers only store the latest status text or bump a counter, from any thread. At most one
+ * render is pending at a time, and renders are spaced at least {@code minIntervalMs} apart on
+ * the main thread, reusing a single builder. Android drops updates beyond a few per second
+ * anyway, so anything in between would only cost binder calls.
+ */
+public class NotificationCoalescer {
+    private static final String TAG = "NotificationCoalescer";
+
+    /**
+     * Supplies the number of messages still queued at render time.
+     */
+    public interface QueueDepth {
+        int get();
+    }
+
+    private final NotificationManager notificationManager;
+    private final int notificationId;
+    private final NotificationCompat.Builder builder;
+    private final Handler mainHandler;
+    private final long minIntervalMs;
+    private final QueueDepth queueDepth;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean();
+    private volatile String status = "";
+    private long lastRenderAt; // main thread only
+
+    private final Runnable render = new Runnable() {
+        @Override
+        public void run() {
+            renderNow();
+        }
+    };
+
+    public NotificationCoalescer(NotificationManager notificationManager, int notificationId,
+                                 NotificationCompat.Builder builder, Handler mainHandler,
+                                 long minIntervalMs, QueueDepth queueDepth) {
+        this.notificationManager = notificationManager;
+        this.notificationId = notificationId;
+        this.builder = builder.setOnlyAlertOnce(true);
+        this.mainHandler = mainHandler;
+        this.minIntervalMs = minIntervalMs;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Replaces the status line shown in the notification.
+     */
+    public void setStatus(String status) {
+        this.status = status;
+        requestRender();
+    }
+
+    public void onSent() {
+        sent.incrementAndGet();
+        requestRender();
+    }
+
+    public void onFailed() {
+        failed.incrementAndGet();
+        requestRender();
+    }
+
+    /**
+     * Number of changes folded into renders so far, next to {@link #getRenderCount()}.
+     */
+    public long getUpdateCount() {
+        return updates.get();
+    }
+
+    public long getRenderCount() {
+        return renders.get();
+    }
+
+    private void requestRender() {
+        updates.incrementAndGet();
+        // Only the first change after a render posts anything, later ones ride along
+        if (renderScheduled.compareAndSet(false, true)) {
+            mainHandler.post(render);
+        }
+    }
+
+    // Runs on the main thread
+    private void renderNow() {
+        long now = SystemClock.elapsedRealtime();
+        long wait = lastRenderAt + minIntervalMs - now;
+        if (lastRenderAt != 0 && wait > 0) {
+            mainHandler.postDelayed(render, wait);
+            return;
+        }
+
+        // Cleared before reading, so a change made while rendering schedules another render
+        renderScheduled.set(false);
+        lastRenderAt = now;
+        renders.incrementAndGet();
+
+        try {
+            builder.setContentText(status)
+                    .setSubText("Sent " + sent.get() + ", failed " + failed.get()
+                            + ", queued " + queueDepth.get());
+            notificationManager.notify(notificationId, builder.build());
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error updating notification: " + e.getMessage(), e);
+        }
+    }
+}
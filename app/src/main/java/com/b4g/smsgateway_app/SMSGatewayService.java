@@ -1,72 +1,449 @@
 package com.b4g.smsgateway_app;
 
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.telephony.SmsManager;
-import android.util.Log;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.provider.Telephony;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.FormBody;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class SMSGatewayService extends Service {
     private static final String TAG = "SMSGatewayService";
     private static final String CHANNEL_ID = "SMSGatewayChannel";
     private static final int NOTIFICATION_ID = 1;
-    private static final String API_URL = "https://byte4ge.com/admin/API/mobileSMSgateway/v1/get_sms.php";
-    private static final String UPDATE_API_URL = "https://byte4ge.com/admin/API/mobileSMSgateway/v1/update_sms_status.php";
-    private static final long FETCH_INTERVAL = 5000; // 5 seconds
+    private static final long MIN_FETCH_INTERVAL = 1000; // 1 second
+    private static final long MAX_IDLE_FETCH_INTERVAL = 60000; // 1 minute
+    private static final long MAX_ERROR_FETCH_INTERVAL = 300000; // 5 minutes
+    // Lower priority sources wait while the SIM queues are more than half full
+    private static final long LOW_PRIORITY_DEFER_DELAY = 5000; // 5 seconds
+    private static final double FETCH_JITTER = 0.2;
+    private static final boolean LONG_POLL_ENABLED = false;
+    private static final int LONG_POLL_WAIT_SECONDS = 25;
+    private static final long HTTP_TIMEOUT_SECONDS = 30;
+    // Sends the last ETag back so an unchanged queue costs a 304 without a body
+    private static final boolean CONDITIONAL_POLL_ENABLED = true;
+    // Only if the status endpoints accept Content-Encoding: gzip
+    private static final boolean GZIP_STATUS_UPDATES = false;
+    private static final int STATUS_BATCH_SIZE = 100;
+    private static final long STATUS_FLUSH_INTERVAL = 1000; // 1 second
+    // A failing batch is retried as a batch before its updates go to statusRetries
+    private static final int STATUS_BATCH_ATTEMPTS = 3;
+    private static final long STATUS_BATCH_MAX_BACKOFF = 60000; // 1 minute
+    private static final long OUTBOX_RETENTION = 7L * 24 * 60 * 60 * 1000; // 7 days
+    private static final int SENT_ID_CAPACITY = 65536;
+    private static final long SENT_ID_TTL = 24L * 60 * 60 * 1000; // 24 hours
+    // The default source keeps the file name from before there were several
+    private static final String SENT_ID_SNAPSHOT = "sent_ids";
+    private static final int PARSE_QUEUE_CAPACITY = 4;
+    private static final int DISPATCH_QUEUE_CAPACITY = 500;
+    private static final boolean STREAMING_PARSE_ENABLED = true;
+    private static final int STREAM_CHUNK_SIZE = 50;
+    // Offers the binary format on fetch; servers that don't know it answer in JSON as before
+    private static final boolean WIRE_FORMAT_ENABLED = true;
+    private static final long SMS_SENT_TIMEOUT = 120000; // 2 minutes
+    private static final long SMS_DELIVERY_TIMEOUT = 30L * 60 * 1000; // 30 minutes
+    // Spread messages without a SIM hint evenly; LEAST_LOADED favours whichever radio is faster
+    private static final SimDispatcher.Strategy SIM_STRATEGY = SimDispatcher.Strategy.ROUND_ROBIN;
+    private static final int SIM_MAX_CONSECUTIVE_FAILURES = 5;
+    private static final long SIM_COOLDOWN = 10L * 60 * 1000; // 10 minutes
+    private static final long SEND_RETRY_BASE_DELAY = 30000; // 30 seconds
+    private static final long SEND_RETRY_MAX_DELAY = 30L * 60 * 1000; // 30 minutes
+    private static final int SEND_MAX_ATTEMPTS = 5;
+    private static final long STATUS_RETRY_BASE_DELAY = 2000; // 2 seconds
+    private static final long STATUS_RETRY_MAX_DELAY = 5L * 60 * 1000; // 5 minutes
+    private static final int STATUS_MAX_ATTEMPTS = 10;
+    // Android drops notification updates beyond roughly 5 per second per app
+    private static final long NOTIFICATION_MIN_INTERVAL = 500;
+    // What the activity shows while it's open: one snapshot a second, the last 200 log lines
+    private static final long STATUS_FEED_INTERVAL = 1000;
+    private static final int STATUS_FEED_EVENTS = 200;
+    // Only used when the local API is configured; lets clients push messages instead of
+    // waiting for the next poll
+    private static final String LOCAL_API_SOURCE = GatewayConfig.LOCAL_API_SOURCE;
+    private static final int LOCAL_API_THREADS = 2;
+    private static final int LOCAL_API_QUEUE_CAPACITY = 16;
+    private static final int LOCAL_API_MAX_CONNECTIONS = 32;
+    private static final int LOCAL_API_MAX_BODY = 1024 * 1024; // 1 MB
+    private static final long LOCAL_API_IDLE_TIMEOUT = 30000; // 30 seconds
+    // Only used when a lease URL is configured. Fetches lease no more than the SIMs can queue
+    // and send before the leases expire; with nothing to spare, the fetch waits this long
+    private static final long LEASE_TTL = 120000; // 2 minutes
+    private static final long LEASE_FULL_DELAY = 10000; // 10 seconds
+    // Only used when an inbound URL is configured. Reports and received messages are queued
+    // apart, so a storm of texts can't push out delivery reports
+    private static final int INBOUND_REPORT_CAPACITY = 2000;
+    private static final int INBOUND_CAPACITY = 500;
+    private static final int INBOUND_BATCH_SIZE = 200;
+    private static final long INBOUND_MIN_INTERVAL = 5000; // 5 seconds
+    private static final long INBOUND_MAX_BACKOFF = 5L * 60 * 1000; // 5 minutes
+    
+    // Backstop for a wake lock whose work never finishes; every new message refreshes it
+    private static final long WAKE_LOCK_TIMEOUT = 10L * 60 * 1000; // 10 minutes
+    // Shorter waits happen while busy, when the wake lock is keeping the CPU up anyway
+    private static final long WAKEUP_ALARM_MIN_DELAY = 30000; // 30 seconds
+    // An alarm this close to a fetch's due time runs it rather than waiting for the timer
+    private static final long WAKEUP_SLACK = 1000; // 1 second
+    // Broadcast by the wakeup alarm to the running service only
+    private static final String ACTION_WAKEUP_ALARM = "com.b4g.smsgateway_app.action.WAKEUP_ALARM";
+    
+    /**
+     * Wakes the service to poll, from a push message for example. Polls that are due run right
+     * away; for any reason but {@link #WAKEUP_ALARM}, which the service's own alarm uses, every
+     * source is polled.
+     */
+    public static final String ACTION_WAKEUP = "com.b4g.smsgateway_app.action.WAKEUP";
+    public static final String EXTRA_WAKEUP_REASON = "reason";
+    public static final String WAKEUP_ALARM = "alarm";
+    public static final String WAKEUP_PUSH = "push";
+    public static final String WAKEUP_NETWORK = "network";
 
     private OkHttpClient client;
+    private OkHttpClient pollClient;
+    private OkHttpClient longPollClient;
+    private GatewayConfig config;
+    private final Map<String, SourcePoller> pollers = new LinkedHashMap<>();
+    private StatusReporter statusReporter;
+    private SmsOutbox outbox;
+    // One per source, so numeric IDs keep the fast path; filled before any send
+    private final Map<String, SentIdIndex> sentIds = new HashMap<>();
+    private SmsSendEngine sendEngine;
     private Handler handler;
-    private boolean isRunning = false;
+    private ScheduledExecutorService fetchExecutor;
+    private PipelineStage parseStage;
+    private SimDispatcher simDispatcher;
+    private RetryQueue<SmsMessage> sendRetries;
+    private RetryQueue<String[]> statusRetries;
+    private volatile boolean isRunning = false;
     private boolean isEmulator = false;
     private NotificationManager notificationManager;
+    private NotificationCoalescer notifications;
+    private LocalApiServer localApi;
+    private LeaseClient leases;
+    private InboundForwarder inboundForwarder;
+    private BroadcastReceiver inboundReceiver;
+    private StatusFeed statusFeed;
     private PendingIntent pendingIntent;
+    private WakeTracker wake;
+    private AlarmManager alarmManager;
+    private PendingIntent wakeupIntent;
+    private long wakeupAlarmAt;
+    private BroadcastReceiver alarmReceiver;
+    private ConnectivityManager connectivity;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    // Assumed until the callback says otherwise
+    private volatile boolean networkAvailable = true;
+    private final IBinder binder = new LocalBinder();
+    
+    private final MetricsRegistry metrics = new MetricsRegistry("smsgateway_");
+    private final MetricsRegistry.Histogram fetchLatency = metrics.timer("fetch_seconds",
+            "Time until get_sms.php returned response headers");
+    private final MetricsRegistry.Histogram parseTime = metrics.timer("parse_seconds",
+            "Time to parse a poll response and queue its messages, including waiting on full queues");
+    private final MetricsRegistry.Histogram messagesPerPoll = metrics.histogram("messages_per_poll",
+            "Messages returned by one poll", 1);
+    private final MetricsRegistry.Counter polls = metrics.counter("polls_total", "Polls that got a usable response");
+    private final MetricsRegistry.Counter pollErrors = metrics.counter("poll_errors_total", "Polls that failed");
+    private final MetricsRegistry.Counter notModifiedPolls = metrics.counter("polls_not_modified_total",
+            "Polls answered with 304 Not Modified");
+    private final MetricsRegistry.Counter messagesSent = metrics.counter("messages_sent_total",
+            "Messages every part of which was sent");
+    private final MetricsRegistry.Counter sendFailures = metrics.counter("send_failures_total",
+            "Send attempts that failed, including ones retried later");
+    
+    /**
+     * Lets in-process clients read metrics and stats from the running service.
+     */
+    public class LocalBinder extends Binder {
+        public SMSGatewayService getService() {
+            return SMSGatewayService.this;
+        }
+    }
+    
+    /**
+     * Fetch schedule and throughput of one configured source.
+     */
+    private final class SourcePoller implements Runnable {
+        final GatewayConfig.Source source;
+        final FetchScheduler scheduler;
+        final MetricsRegistry.Counter fetched;
+        final MetricsRegistry.Counter sent;
+        final MetricsRegistry.Counter failed;
+        ScheduledFuture<?> nextFetch;
+        // In elapsedRealtime(), which keeps counting while the CPU sleeps
+        long dueAt;
+
+        SourcePoller(GatewayConfig.Source source) {
+            this.source = source;
+            this.scheduler = new AdaptiveFetchScheduler(MIN_FETCH_INTERVAL, MAX_IDLE_FETCH_INTERVAL,
+                    MAX_ERROR_FETCH_INTERVAL, FETCH_JITTER, LONG_POLL_ENABLED, new Random());
+            String prefix = "source_" + source.getName().toLowerCase(Locale.US) + "_";
+            this.fetched = metrics.counter(prefix + "fetched_total", "Messages fetched from source " + source.getName());
+            this.sent = metrics.counter(prefix + "sent_total", "Messages from source " + source.getName() + " sent");
+            this.failed = metrics.counter(prefix + "send_failures_total",
+                    "Failed send attempts for messages from source " + source.getName());
+        }
+        
+        String wakeKey() {
+            return "poll:" + source.getName();
+        }
+
+        @Override
+        public void run() {
+            startFetchingJob(this);
+        }
+
+        @Override
+        public String toString() {
+            return source.getName() + " " + scheduler;
+        }
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        Log.d(TAG, "Service onCreate called");
+        AndroidLogSink.install(this);
+        GatewayLog.d(TAG, "Service onCreate called");
         
         try {
-            // Initialize OkHttpClient with longer timeouts
-            client = new OkHttpClient.Builder()
-                    .connectTimeout(30, TimeUnit.SECONDS)
-                    .readTimeout(30, TimeUnit.SECONDS)
-                    .writeTimeout(30, TimeUnit.SECONDS)
+            // One connection pool for polls and status updates; clients derived with
+            // newBuilder() share it
+            client = HttpClients.create(HTTP_TIMEOUT_SECONDS, metrics);
+            pollClient = CONDITIONAL_POLL_ENABLED
+                    ? client.newBuilder().addInterceptor(new HttpClients.EtagInterceptor()).build()
+                    : client;
+            
+            // Long-poll requests are held open by the server, so give them a longer read timeout
+            longPollClient = pollClient.newBuilder()
+                    .readTimeout(LONG_POLL_WAIT_SECONDS + 30, TimeUnit.SECONDS)
                     .build();
             
-            // Create handler on main thread
+            // Endpoints and tokens as last saved from the app
+            config = GatewayConfig.load(this);
+            
+            // Each source polls on its own schedule: right away while messages keep coming,
+            // backing off while idle or failing
+            for (GatewayConfig.Source source : config.getSources()) {
+                pollers.put(source.getName(), new SourcePoller(source));
+            }
+            GatewayLog.i(TAG, "Polling " + pollers.size() + " source(s): " + pollers.keySet());
+            
+            // Status updates are batched and sent from their own thread
+            OkHttpClient.Builder statusClient = client.newBuilder();
+            if (config.getAuthToken() != null) {
+                final String authHeader = config.getAuthHeader();
+                final String authToken = config.getAuthToken();
+                statusClient.addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                        .header(authHeader, authToken)
+                        .build()));
+            }
+            if (GZIP_STATUS_UPDATES) {
+                statusClient.addInterceptor(new HttpClients.GzipRequestInterceptor());
+            }
+            OkHttpClient statusHttp = statusClient.build();
+            statusReporter = new StatusReporter(statusHttp, config.getBatchStatusUrl(), config.getStatusUrl(),
+                    STATUS_BATCH_SIZE, STATUS_FLUSH_INTERVAL, STATUS_BATCH_ATTEMPTS, STATUS_BATCH_MAX_BACKOFF);
+            
+            // Several devices sharing a queue each lease what they fetch; status updates
+            // carry the device ID so they complete or release the lease
+            if (config.getLeaseUrl() != null) {
+                leases = new LeaseClient(statusHttp, config.getLeaseUrl(), GatewayConfig.deviceId(this), LEASE_TTL);
+                statusReporter.setDeviceId(leases.getDeviceId());
+                GatewayLog.i(TAG, "Leasing messages as device " + leases.getDeviceId());
+            }
+            
+            // Replies and delivery reports go upstream in batches of their own, throttled so
+            // they never compete much with fetches and status updates
+            if (config.getInboundUrl() != null) {
+                inboundForwarder = new InboundForwarder(statusHttp, config.getInboundUrl(),
+                        GatewayConfig.deviceId(this), INBOUND_REPORT_CAPACITY, INBOUND_CAPACITY,
+                        INBOUND_BATCH_SIZE, INBOUND_MIN_INTERVAL, INBOUND_MAX_BACKOFF);
+            }
+            
+            // Fetched messages are persisted so a batch survives the process being killed
+            outbox = new SmsOutbox(this);
+            
+            // Failed status updates are retried with backoff and dead-lettered after too many attempts
+            statusRetries = new RetryQueue<>("status", STATUS_RETRY_BASE_DELAY, STATUS_RETRY_MAX_DELAY,
+                    STATUS_MAX_ATTEMPTS, new Random(), new RetryQueue.Listener<String[]>() {
+                        @Override
+                        public void onRetry(final String[] update, final int attempt) {
+                            GatewayLog.d(TAG, () -> "Retrying status update for SMS ID " + update[0] + ", attempt " + attempt);
+                            statusReporter.report(update[0], SmsMessage.idOf(update[0]), update[1]);
+                        }
+                        
+                        @Override
+                        public void onDeadLetter(String[] update, int attempts) {
+                            // Stays unreported in the outbox, so the next start tries once more
+                            GatewayLog.e(TAG, "Giving up on status update for SMS ID " + update[0] + " after " + attempts + " attempts");
+                            outbox.addDeadLetter(SmsOutbox.DEAD_LETTER_STATUS, update[0], update[1], attempts);
+                        }
+                    });
+            statusReporter.setListener(new StatusReporter.Listener() {
+                @Override
+                public void onReported(List<String> keys) {
+                    outbox.markReported(keys);
+                    if (leases != null) {
+                        leases.onReported(keys);
+                    }
+                    for (String key : keys) {
+                        statusRetries.succeeded(key);
+                    }
+                }
+                
+                @Override
+                public void onFailed(String key, String status) {
+                    statusRetries.retry(key, new String[]{key, status});
+                }
+            });
+            
+            // Recently sent IDs, restored from the last run
+            List<String> sentIdSources = new ArrayList<>(pollers.keySet());
+            if (config.isLocalApiEnabled()) {
+                sentIdSources.add(LOCAL_API_SOURCE);
+            }
+            for (String source : sentIdSources) {
+                SentIdIndex index = new SentIdIndex(SENT_ID_CAPACITY, SENT_ID_TTL);
+                try {
+                    index.load(sentIdSnapshot(source), System.currentTimeMillis());
+                    GatewayLog.d(TAG, "Loaded " + index.size() + " recently sent SMS IDs of " + source);
+                } catch (IOException e) {
+                    GatewayLog.e(TAG, "Could not load sent ID snapshot of " + source + ": " + e.getMessage(), e);
+                }
+                sentIds.put(source, index);
+            }
+            
+            // Main thread handler, only used for UI work
             handler = new Handler(Looper.getMainLooper());
             
+            // The CPU stays up only while a poll or a message is in flight; idle waits between
+            // polls are bridged by alarms that also fire in doze
+            createWakeLock();
+            createWakeupAlarm();
+            
+            // fetch -> parse -> dispatch -> report, each stage on its own bounded executor.
+            // A full dispatch queue blocks parsing, which in turn holds back the next fetch.
+            // One fetch thread per source so a long-poll on one doesn't hold up the others
+            fetchExecutor = Executors.newScheduledThreadPool(pollers.size(), r -> new Thread(r, "Pipeline-fetch"));
+            parseStage = new PipelineStage("parse", 1, PARSE_QUEUE_CAPACITY);
+            
             // Check if running on emulator
             isEmulator = checkIsEmulator();
-            Log.d(TAG, "Running on emulator: " + isEmulator);
+            GatewayLog.d(TAG, "Running on emulator: " + isEmulator);
+            
+            // Status is only reported once every part of a message has a sent result
+            sendEngine = new SmsSendEngine(new SmsSendEngine.Callback() {
+                @Override
+                public void onSent(SmsMessage sms, boolean success, int errorCode) {
+                    if (!success) {
+                        GatewayLog.e(TAG, "SMS ID " + sms.getId() + " failed with error " + errorCode);
+                    }
+                    onSendFinished(sms, success, true);
+                }
+                
+                @Override
+                public void onDelivered(final SmsMessage sms, final String status) {
+                    GatewayLog.d(TAG, () -> "SMS ID " + sms.getId() + " delivery " + status);
+                    if (inboundForwarder != null
+                            && !inboundForwarder.onDeliveryReport(sms.getKey(), status, System.currentTimeMillis())) {
+                        GatewayLog.w(TAG, "Delivery report queue full, dropped report for SMS ID " + sms.getId());
+                    }
+                }
+            }, SMS_SENT_TIMEOUT, SMS_DELIVERY_TIMEOUT);
+            
+            // One dispatch queue and rate limiter per SIM, limits are counted in parts since
+            // that's what carriers count
+            simDispatcher = new SimDispatcher(
+                    SmsManagerTransport.discoverChannels(this, config.getSendLimitPerMinute(), config.getSendLimitPerHour(),
+                            DISPATCH_QUEUE_CAPACITY, isEmulator, sendEngine),
+                    SIM_STRATEGY, new SimDispatcher.Sender() {
+                        @Override
+                        public void send(SmsMessage sms, SimDispatcher.SimChannel channel) {
+                            // A scheduled message was let go while it waited for its send time.
+                            // Otherwise it's in flight until the send engine has a result
+                            wake.begin(wakeKey(sms));
+                            if (!processSMSMessage(sms, channel)) {
+                                wake.end(wakeKey(sms));
+                            }
+                            // The next scheduled message may need its own alarm
+                            if (sms.getSendAt() > 0) {
+                                armWakeupAlarm();
+                            }
+                            
+                            // Snapshot the sent IDs whenever the dispatch queues drain
+                            if (simDispatcher.getQueueDepth() == 0) {
+                                saveSentIds();
+                            }
+                        }
+                    }, SIM_MAX_CONSECUTIVE_FAILURES, SIM_COOLDOWN);
+            
+            // Failed sends wait here instead of going back to the server as pending
+            sendRetries = new RetryQueue<>("send", SEND_RETRY_BASE_DELAY, SEND_RETRY_MAX_DELAY,
+                    SEND_MAX_ATTEMPTS, new Random(), new RetryQueue.Listener<SmsMessage>() {
+                        @Override
+                        public void onRetry(final SmsMessage sms, final int attempt) throws InterruptedException {
+                            GatewayLog.d(TAG, () -> "Retrying SMS ID " + sms.getId() + ", attempt " + attempt);
+                            submitForDispatch(sms);
+                        }
+                        
+                        @Override
+                        public void onDeadLetter(SmsMessage sms, int attempts) {
+                            GatewayLog.e(TAG, "Giving up on SMS ID " + sms.getId() + " after " + attempts + " attempt(s)");
+                            outbox.markDead(sms.getKey());
+                            if (leases != null) {
+                                leases.onFinished(sms.getKey());
+                            }
+                            outbox.addDeadLetter(SmsOutbox.DEAD_LETTER_SEND, sms.getKey(), sms.getPhoneNumber(), attempts);
+                            updateSmsStatus(sms.getKey(), SmsOutbox.toServerStatus(SmsOutbox.STATE_DEAD));
+                        }
+                    });
             
             // Create notification channel
             createNotificationChannel();
@@ -81,15 +458,50 @@ public class SMSGatewayService extends Service {
             // Get notification manager
             notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             
+            // Status changes from every thread are folded into at most one render per interval
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                    .setContentTitle("SMS Gateway")
+                    .setSmallIcon(android.R.drawable.ic_dialog_info)
+                    .setPriority(NotificationCompat.PRIORITY_LOW)
+                    .setOngoing(true)
+                    .setContentIntent(pendingIntent);
+            notifications = new NotificationCoalescer(notificationManager, NOTIFICATION_ID, builder, handler,
+                    NOTIFICATION_MIN_INTERVAL, new NotificationCoalescer.QueueDepth() {
+                        @Override
+                        public int get() {
+                            return simDispatcher.getQueueDepth();
+                        }
+                    });
+            
+            registerMetrics();
+            registerWakeMetrics();
+            if (inboundForwarder != null) {
+                // Without it SMS_RECEIVED never arrives, though delivery reports still do
+                if (ContextCompat.checkSelfPermission(this, android.Manifest.permission.RECEIVE_SMS)
+                        != PackageManager.PERMISSION_GRANTED) {
+                    GatewayLog.w(TAG, "RECEIVE_SMS not granted, received SMS won't be forwarded");
+                }
+                registerInboundReceiver();
+                registerInboundMetrics();
+            }
+            
+            // Only does any work while the activity is bound and listening
+            statusFeed = new StatusFeed(new StatusFeed.Source() {
+                @Override
+                public StatusFeed.Snapshot snapshot() {
+                    return takeSnapshot();
+                }
+            }, STATUS_FEED_INTERVAL, GatewayLog.INFO, STATUS_FEED_EVENTS);
+            
         } catch (Exception e) {
-            Log.e(TAG, "Error in onCreate: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error in onCreate: " + e.getMessage(), e);
             showToast("Error initializing service: " + e.getMessage());
         }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        Log.d(TAG, "Service onStartCommand called");
+        GatewayLog.d(TAG, "Service onStartCommand called");
         
         try {
             // Create and show the notification
@@ -99,27 +511,47 @@ public class SMSGatewayService extends Service {
             // Start the periodic job if not already running
             if (!isRunning) {
                 isRunning = true;
-                Log.d(TAG, "Starting fetch timer");
+                GatewayLog.d(TAG, "Starting fetch timer");
                 
                 if (isEmulator) {
                     updateNotification("Running in emulator mode - SMS sending will be simulated");
                     showToast("Running in emulator mode - SMS will be simulated");
                 }
                 
-                // Start the first fetch after a short delay
-                handler.postDelayed(new Runnable() {
+                // Finish whatever the last run left in the outbox before the first fetch is parsed
+                parseStage.submit(new Runnable() {
                     @Override
                     public void run() {
-                        startFetchingJob();
+                        replayOutbox();
                     }
-                }, 1000);
+                });
+                
+                // Start the first fetch of every source after a short delay
+                for (SourcePoller poller : pollers.values()) {
+                    scheduleNextFetch(poller, 1000);
+                }
+                
+                if (config.isLocalApiEnabled()) {
+                    startLocalApi();
+                }
+                
+                if (leases != null) {
+                    leases.start();
+                }
+                
+                registerNetworkCallback();
+            }
+            
+            if (intent != null && ACTION_WAKEUP.equals(intent.getAction())) {
+                String reason = intent.getStringExtra(EXTRA_WAKEUP_REASON);
+                onWakeup(reason != null ? reason : WAKEUP_PUSH);
             }
             
             // Return sticky to restart if killed
             return START_STICKY;
             
         } catch (Exception e) {
-            Log.e(TAG, "Error in onStartCommand: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error in onStartCommand: " + e.getMessage(), e);
             showToast("Error starting service: " + e.getMessage());
             stopSelf();
             return START_NOT_STICKY;
@@ -129,19 +561,125 @@ public class SMSGatewayService extends Service {
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+    
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Wakes the service to poll every source now. For a push handler (such as a high-priority
+     * FCM message) to call when the server has messages waiting.
+     */
+    public static void wakeUp(Context context, String reason) {
+        Intent intent = new Intent(context, SMSGatewayService.class)
+                .setAction(ACTION_WAKEUP)
+                .putExtra(EXTRA_WAKEUP_REASON, reason);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(intent);
+            } else {
+                context.startService(intent);
+            }
+        } catch (IllegalStateException e) {
+            // ForegroundServiceStartNotAllowedException: the caller isn't allowed to start
+            // it from the background, e.g. a push that wasn't high priority
+            GatewayLog.e(TAG, "Could not wake the service for " + reason + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Live state for the UI; null if the service failed to start.
+     */
+    public StatusFeed getStatusFeed() {
+        return statusFeed;
     }
 
     @Override
     public void onDestroy() {
-        Log.d(TAG, "Service onDestroy called");
+        GatewayLog.d(TAG, "Service onDestroy called");
         isRunning = false;
         
+        if (statusFeed != null) {
+            statusFeed.close();
+        }
+        
+        if (networkCallback != null) {
+            connectivity.unregisterNetworkCallback(networkCallback);
+        }
+        if (inboundReceiver != null) {
+            unregisterReceiver(inboundReceiver);
+        }
+        if (alarmManager != null) {
+            alarmManager.cancel(wakeupIntent);
+            unregisterReceiver(alarmReceiver);
+        }
+        
         // Remove all pending callbacks
         if (handler != null) {
             handler.removeCallbacksAndMessages(null);
         }
         
+        // Stop the pipeline before closing the outbox it writes to
+        if (localApi != null) {
+            localApi.stop();
+        }
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdownNow();
+        }
+        if (parseStage != null) {
+            parseStage.shutdownNow();
+        }
+        // Messages waiting for a retry are still pending in the outbox
+        if (sendRetries != null) {
+            sendRetries.shutdownNow();
+        }
+        if (statusRetries != null) {
+            statusRetries.shutdownNow();
+        }
+        if (simDispatcher != null) {
+            simDispatcher.shutdownNow();
+            try {
+                simDispatcher.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        if (sendEngine != null) {
+            sendEngine.shutdown();
+        }
+        
+        // Hand unsent leased messages back so other devices don't wait out the TTL; the
+        // outbox drops them on the next start
+        if (leases != null) {
+            leases.shutdown();
+            for (String key : leases.unfinished()) {
+                updateSmsStatus(key, SmsOutbox.toServerStatus(SmsOutbox.STATE_PENDING));
+            }
+        }
+        
+        // Send any status updates that are still queued
+        if (statusReporter != null) {
+            statusReporter.shutdown();
+        }
+        if (inboundForwarder != null) {
+            inboundForwarder.shutdown();
+        }
+        
+        if (outbox != null) {
+            outbox.close();
+        }
+        
+        saveSentIds();
+        
+        if (wake != null) {
+            GatewayLog.i(TAG, "Wake lock held " + wake.getHeldMillis() / 1000 + " s for "
+                    + messagesSent.get() + " sent messages");
+            wake.releaseAll();
+        }
+        
         super.onDestroy();
     }
 
@@ -177,12 +715,12 @@ public class SMSGatewayService extends Service {
                 NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
                 if (manager != null) {
                     manager.createNotificationChannel(channel);
-                    Log.d(TAG, "Notification channel created");
+                    GatewayLog.d(TAG, "Notification channel created");
                 } else {
-                    Log.e(TAG, "NotificationManager is null");
+                    GatewayLog.e(TAG, "NotificationManager is null");
                 }
             } catch (Exception e) {
-                Log.e(TAG, "Error creating notification channel: " + e.getMessage(), e);
+                GatewayLog.e(TAG, "Error creating notification channel: " + e.getMessage(), e);
             }
         }
     }
@@ -202,7 +740,7 @@ public class SMSGatewayService extends Service {
             
             return builder.build();
         } catch (Exception e) {
-            Log.e(TAG, "Error creating notification: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error creating notification: " + e.getMessage(), e);
             // Create a minimal notification in case of error
             return new NotificationCompat.Builder(this, CHANNEL_ID)
                     .setContentTitle("SMS Gateway")
@@ -212,276 +750,977 @@ public class SMSGatewayService extends Service {
         }
     }
 
+    // Safe from any thread, the coalescer renders on the main thread
     private void updateNotification(String message) {
-        try {
-            if (notificationManager != null) {
-                Notification notification = createNotification(message);
-                notificationManager.notify(NOTIFICATION_ID, notification);
-                Log.d(TAG, "Notification updated: " + message);
-            } else {
-                Log.e(TAG, "NotificationManager is null when updating notification");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error updating notification: " + e.getMessage(), e);
+        if (statusFeed != null) {
+            statusFeed.setStatus(message);
+        }
+        if (notifications != null) {
+            notifications.setStatus(message);
+        } else {
+            GatewayLog.e(TAG, "Notifications not initialized when updating notification");
         }
     }
 
-    private void startFetchingJob() {
+    // Runs on the status feed thread
+    private StatusFeed.Snapshot takeSnapshot() {
+        long now = System.currentTimeMillis();
+        List<StatusFeed.SimState> sims = new ArrayList<>();
+        for (SimDispatcher.SimChannel channel : simDispatcher.getChannels()) {
+            sims.add(new StatusFeed.SimState(channel.getSlot(), channel.getName(), channel.getQueueDepth(),
+                    channel.getSentPerSecond(), channel.getFailedCount(), channel.isEnabled(now)));
+        }
+        return new StatusFeed.Snapshot(simDispatcher.getQueueDepth(), simDispatcher.getScheduledCount(),
+                sendEngine.getInFlightCount(), messagesSent.get(), sendFailures.get(), sendEngine.getPartsPerSecond(),
+                sendRetries.size() + statusRetries.size(), statusReporter.getQueueDepth(), sims);
+    }
+
+    private void startFetchingJob(SourcePoller poller) {
         if (!isRunning) {
-            Log.d(TAG, "Service not running, won't start fetch job");
+            GatewayLog.d(TAG, "Service not running, won't start fetch job");
+            wake.end(poller.wakeKey());
             return;
         }
         
-        Log.d(TAG, "Starting fetch job");
+        // Polling resumes as soon as the network is back; the long wait is in case that
+        // callback never comes
+        if (!networkAvailable) {
+            GatewayLog.d(TAG, () -> "Offline, not polling " + poller.source.getName());
+            scheduleNextFetch(poller, MAX_ERROR_FETCH_INTERVAL);
+            return;
+        }
+        wake.begin(poller.wakeKey());
+        
+        // The SIMs are shared, so under load they go to the most important sources first
+        if (poller.source.getPriority() < config.getTopPriority()
+                && simDispatcher.getQueueDepth() > DISPATCH_QUEUE_CAPACITY / 2) {
+            GatewayLog.d(TAG, () -> "Deferring fetch from " + poller.source.getName() + ", SIM queues are busy");
+            scheduleNextFetch(poller, LOW_PRIORITY_DEFER_DELAY);
+            return;
+        }
+        
+        GatewayLog.d(TAG, "Starting fetch job for " + poller.source.getName());
         updateNotification("Checking for pending SMS...");
         
         try {
-            fetchAndProcessSMS();
+            // The next run is scheduled once we know how the poll went
+            fetchAndProcessSMS(poller);
+        } catch (InterruptedException e) {
+            GatewayLog.d(TAG, "Fetch job interrupted");
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
-            Log.e(TAG, "Error in fetch job: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error in fetch job: " + e.getMessage(), e);
             updateNotification("Error fetching SMS: " + e.getMessage());
+            scheduleNextFetch(poller, onPollError(poller));
         }
+    }
+
+    // Everything sampled at export time rather than recorded as it happens
+    private void registerMetrics() {
+        sendEngine.setSendLatency(metrics.timer("send_seconds",
+                "Time from handing a message to the radio until every part was sent"));
+        sendEngine.setDeliveryLatency(metrics.timer("delivery_seconds",
+                "Time from handing a message to the radio until every part was delivered"));
+        statusReporter.setAckLatency(metrics.timer("status_ack_seconds",
+                "Time from a status update being queued until the server accepted it"));
         
-        // Schedule next execution
-        if (isRunning && handler != null) {
-            handler.postDelayed(new Runnable() {
+        metrics.gauge("http_pool_connections", "Open connections in the HTTP pool",
+                () -> client.connectionPool().connectionCount());
+        metrics.gauge("http_pool_idle_connections", "Idle connections kept alive in the HTTP pool",
+                () -> client.connectionPool().idleConnectionCount());
+        metrics.gauge("parse_queue_depth", "Poll responses waiting to be parsed", () -> parseStage.getQueueDepth());
+        metrics.gauge("dispatch_queue_depth", "Messages queued on all SIMs", () -> simDispatcher.getQueueDepth());
+        metrics.gauge("scheduled_messages", "Messages held until their send_at time",
+                () -> simDispatcher.getScheduledCount());
+        // Indexed by priority, so an OTP stuck behind bulk traffic shows up on its own
+        simDispatcher.setQueueWait(new MetricsRegistry.Histogram[]{
+                metrics.timer("queue_wait_low_seconds", "Time low priority messages waited for a SIM"),
+                metrics.timer("queue_wait_normal_seconds", "Time normal priority messages waited for a SIM"),
+                metrics.timer("queue_wait_high_seconds", "Time high priority messages waited for a SIM")});
+        metrics.gauge("sends_in_flight", "Messages waiting for a sent or delivery result",
+                () -> sendEngine.getInFlightCount());
+        metrics.gauge("status_queue_depth", "Status updates waiting for the next flush",
+                () -> statusReporter.getQueueDepth());
+        metrics.gauge("retry_queue_depth", "Sends and status updates waiting for a retry",
+                () -> sendRetries.size() + statusRetries.size());
+        metrics.counter("send_retries_total", "Sends retried after a failure", () -> sendRetries.getRetriedCount());
+        metrics.counter("status_retries_total", "Status updates retried after a failure",
+                () -> statusRetries.getRetriedCount());
+        metrics.counter("dead_letters_total", "Sends and status updates given up on",
+                () -> sendRetries.getDeadLetterCount() + statusRetries.getDeadLetterCount());
+        if (leases != null) {
+            metrics.gauge("leases_held", "Messages leased to this device", () -> leases.size());
+            metrics.counter("lease_renewals_total", "Leases extended by the server",
+                    () -> leases.getRenewedCount());
+            metrics.counter("leases_lost_total", "Leases that ran out or the server took back",
+                    () -> leases.getLostCount());
+        }
+    }
+
+    private void startLocalApi() {
+        InetSocketAddress address = new InetSocketAddress(config.getLocalApiAddress(), config.getLocalApiPort());
+        LocalApiServer.Handler handler = LocalApiServer.authenticated(config.getAuthHeader(), config.getAuthToken(),
+                new LocalApiServer.Handler() {
+                    @Override
+                    public LocalApiServer.Response handle(LocalApiServer.Request request) throws Exception {
+                        return handleApiRequest(request);
+                    }
+                });
+        localApi = new LocalApiServer(address, handler, LOCAL_API_THREADS, LOCAL_API_QUEUE_CAPACITY, LOCAL_API_MAX_CONNECTIONS, LOCAL_API_MAX_BODY,
+                LOCAL_API_IDLE_TIMEOUT);
+        try {
+            localApi.start();
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Could not start local API on " + config.formatLocalApi() + ": " + e.getMessage(), e);
+            localApi = null;
+            return;
+        }
+        metrics.counter("api_requests_total", "Requests to the local API", () -> localApi.getRequestCount());
+        metrics.counter("api_rejected_total", "Local API requests and connections turned away while busy",
+                () -> localApi.getRejectedCount());
+    }
+
+    // Runs on a local API worker thread
+    private LocalApiServer.Response handleApiRequest(LocalApiServer.Request request)
+            throws InterruptedException, JSONException {
+        String path = request.getPath();
+        if ("/messages".equals(path)) {
+            if (!"POST".equals(request.getMethod())) {
+                return LocalApiServer.Response.text(405, "Use POST");
+            }
+            return acceptPushedMessages(request.getBody());
+        }
+        if (path.startsWith("/messages/")) {
+            if (!"GET".equals(request.getMethod())) {
+                return LocalApiServer.Response.text(405, "Use GET");
+            }
+            // Pushed messages unless another source is named
+            String smsId = path.substring("/messages/".length());
+            String source = request.getQueryParameter("source");
+            String key = SmsMessage.keyOf(source != null ? source : LOCAL_API_SOURCE, smsId);
+            String state = outbox != null ? outbox.stateOf(key) : null;
+            if (state == null) {
+                return LocalApiServer.Response.json(404, new JSONObject().put("id", smsId).toString());
+            }
+            return LocalApiServer.Response.json(200, new JSONObject()
+                    .put("id", smsId)
+                    .put("state", state)
+                    .put("status", SmsOutbox.toServerStatus(state))
+                    .toString());
+        }
+        if ("/metrics".equals(path)) {
+            return LocalApiServer.Response.text(200, metrics.toPrometheus());
+        }
+        return LocalApiServer.Response.text(404, "Not found");
+    }
+
+    // Same path as a poll response, minus the status field the server would add
+    private LocalApiServer.Response acceptPushedMessages(byte[] body) throws InterruptedException, JSONException {
+        final List<SmsMessage> pushed = new ArrayList<>();
+        SmsStreamParser parser = new SmsStreamParser(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), false);
+        parser.setSource(LOCAL_API_SOURCE);
+        try {
+            parser.parse(new SmsStreamParser.Listener() {
                 @Override
-                public void run() {
-                    startFetchingJob();
+                public void onMessage(SmsMessage sms) {
+                    pushed.add(sms);
+                }
+            });
+        } catch (IOException e) {
+            return LocalApiServer.Response.json(400, new JSONObject().put("error", e.getMessage()).toString());
+        }
+        
+        // Blocks while the SIM queues are backed up, which in turn fills the API queue
+        int queued = dispatchBatch(pushed);
+        GatewayLog.d(TAG, "Local API queued " + queued + " of " + parser.getObjectCount() + " pushed messages");
+        if (queued > 0) {
+            updateNotification("Queued " + queued + " pushed messages");
+        }
+        return LocalApiServer.Response.json(202, new JSONObject()
+                .put("accepted", queued)
+                .put("duplicates", pushed.size() - queued)
+                .put("invalid", parser.getInvalidCount())
+                .toString());
+    }
+
+    private long onPollResult(SourcePoller poller, int messageCount) {
+        return onPollResult(poller, messageCount, messageCount);
+    }
+
+    // Only new messages count as the server having more; rows already in the outbox come
+    // back on every poll while a backlog waits for the rate limiter
+    private long onPollResult(SourcePoller poller, int messageCount, int queuedCount) {
+        polls.inc();
+        messagesPerPoll.record(messageCount);
+        poller.fetched.add(messageCount);
+        return poller.scheduler.onPollResult(queuedCount);
+    }
+
+    private long onPollError(SourcePoller poller) {
+        pollErrors.inc();
+        return poller.scheduler.onPollError();
+    }
+
+    private synchronized void scheduleNextFetch(SourcePoller poller, long delay) {
+        if (!isRunning || fetchExecutor == null || fetchExecutor.isShutdown()) {
+            return;
+        }
+        
+        GatewayLog.d(TAG, () -> "Fetch scheduler: " + poller + " | " + getPipelineStats());
+        if (poller.nextFetch != null) {
+            poller.nextFetch.cancel(false);
+        }
+        poller.nextFetch = fetchExecutor.schedule(poller, delay, TimeUnit.MILLISECONDS);
+        poller.dueAt = SystemClock.elapsedRealtime() + delay;
+        
+        // A fetch about to run keeps the CPU up until it's done; a later one lets it sleep,
+        // with an alarm to wake it if the wait is long
+        if (delay <= 0) {
+            wake.begin(poller.wakeKey());
+        } else {
+            wake.end(poller.wakeKey());
+            armWakeupAlarm();
+        }
+    }
+    
+    // The executor's timer and the SIM queues' waits stop while the CPU sleeps, so an idle
+    // backoff or a scheduled send could stretch far past its due time in doze without this
+    private synchronized void armWakeupAlarm() {
+        if (alarmManager == null) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (SourcePoller poller : pollers.values()) {
+            earliest = Math.min(earliest, poller.dueAt);
+        }
+        long now = SystemClock.elapsedRealtime();
+        long nextSendAt = simDispatcher != null ? simDispatcher.getNextSendAt() : 0;
+        if (nextSendAt > 0) {
+            earliest = Math.min(earliest, now + nextSendAt - System.currentTimeMillis());
+        }
+        if (earliest - now < WAKEUP_ALARM_MIN_DELAY || earliest == wakeupAlarmAt) {
+            return;
+        }
+        wakeupAlarmAt = earliest;
+        try {
+            // Exact alarms that fire in doze are limited to about one per 9 minutes there
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarmManager.canScheduleExactAlarms()) {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, earliest, wakeupIntent);
+            } else {
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, earliest, wakeupIntent);
+            }
+        } catch (RuntimeException e) {
+            GatewayLog.e(TAG, "Could not set wakeup alarm: " + e.getMessage(), e);
+        }
+    }
+    
+    // Runs on the main thread, or a connectivity callback thread
+    private void onWakeup(String reason) {
+        if (wake == null) {
+            return;
+        }
+        wake.onWakeup(reason);
+        // Scheduled sends that came due while asleep go out now
+        if (simDispatcher != null) {
+            simDispatcher.recheckScheduled();
+        }
+        boolean all = !WAKEUP_ALARM.equals(reason);
+        long now = SystemClock.elapsedRealtime();
+        int started = 0;
+        synchronized (this) {
+            if (WAKEUP_ALARM.equals(reason)) {
+                wakeupAlarmAt = 0;
+            }
+            for (SourcePoller poller : pollers.values()) {
+                if (all || poller.dueAt <= now + WAKEUP_SLACK) {
+                    scheduleNextFetch(poller, 0);
+                    started++;
+                }
+            }
+        }
+        GatewayLog.d(TAG, "Woken by " + reason + ", polling " + started + " source(s)");
+        // Anything not yet due gets its own alarm again
+        armWakeupAlarm();
+    }
+    
+    private static boolean isScheduled(SmsMessage sms) {
+        return sms.getSendAt() > System.currentTimeMillis();
+    }
+    
+    private void createWakeLock() {
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock lock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                "SMSGateway:inFlight");
+        // Held or not; the tracker does the counting
+        lock.setReferenceCounted(false);
+        wake = new WakeTracker(new WakeTracker.Lock() {
+            @Override
+            public void acquire() {
+                lock.acquire(WAKE_LOCK_TIMEOUT);
+            }
+            
+            @Override
+            public void release() {
+                if (lock.isHeld()) {
+                    lock.release();
+                }
+            }
+        });
+    }
+    
+    // A broadcast to the running service rather than a service start, which Android 12+
+    // refuses from the background once the alarm is inexact
+    private void createWakeupAlarm() {
+        alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(ACTION_WAKEUP_ALARM).setPackage(getPackageName());
+        wakeupIntent = PendingIntent.getBroadcast(this, 0, intent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        alarmReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onWakeup(WAKEUP_ALARM);
+            }
+        };
+        ContextCompat.registerReceiver(this, alarmReceiver, new IntentFilter(ACTION_WAKEUP_ALARM),
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+    
+    private void registerNetworkCallback() {
+        connectivity = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                if (!networkAvailable) {
+                    networkAvailable = true;
+                    GatewayLog.i(TAG, "Network is back, resuming polls");
+                    onWakeup(WAKEUP_NETWORK);
+                }
+            }
+            
+            @Override
+            public void onLost(Network network) {
+                networkAvailable = false;
+                GatewayLog.w(TAG, "Network lost, pausing polls");
+                updateNotification("Waiting for network...");
+            }
+        };
+        try {
+            connectivity.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e) {
+            // Polls just keep failing and backing off as before
+            GatewayLog.e(TAG, "Could not watch network state: " + e.getMessage(), e);
+            networkCallback = null;
+        }
+    }
+    
+    private void registerWakeMetrics() {
+        metrics.counter("wakeups_alarm_total", "Times an alarm woke the service to poll",
+                () -> wake.getWakeupCount(WAKEUP_ALARM));
+        metrics.counter("wakeups_push_total", "Times a push message woke the service to poll",
+                () -> wake.getWakeupCount(WAKEUP_PUSH));
+        metrics.counter("wakeups_network_total", "Times polling resumed because the network came back",
+                () -> wake.getWakeupCount(WAKEUP_NETWORK));
+        metrics.counter("wake_lock_acquisitions_total", "Times the CPU was kept awake for a poll or a send",
+                () -> wake.getAcquisitionCount());
+        metrics.counter("wake_lock_held_milliseconds_total", "Time the wake lock was held",
+                () -> wake.getHeldMillis());
+        metrics.gauge("wake_lock_milliseconds_per_1000_sent", "Wake lock time per 1,000 messages sent",
+                () -> wake.getHeldMillisPerThousand(messagesSent.get()));
+    }
+
+    // Received messages are only queued here; parsing and sending happen off the main thread
+    private void registerInboundReceiver() {
+        inboundReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                android.telephony.SmsMessage[] pdus = Telephony.Sms.Intents.getMessagesFromIntent(intent);
+                if (pdus == null || pdus.length == 0) {
+                    return;
+                }
+                // The parts of one long message arrive together; join them per sender
+                Map<String, StringBuilder> bodies = new LinkedHashMap<>();
+                // When the carrier's service centre got the first part
+                long receivedAt = pdus[0] != null ? pdus[0].getTimestampMillis() : System.currentTimeMillis();
+                for (android.telephony.SmsMessage pdu : pdus) {
+                    if (pdu == null || pdu.getOriginatingAddress() == null) {
+                        continue;
+                    }
+                    StringBuilder body = bodies.get(pdu.getOriginatingAddress());
+                    if (body == null) {
+                        body = new StringBuilder();
+                        bodies.put(pdu.getOriginatingAddress(), body);
+                    }
+                    body.append(pdu.getMessageBody() != null ? pdu.getMessageBody() : "");
                 }
-            }, FETCH_INTERVAL);
+                int slot = simSlotOf(intent.getIntExtra("subscription", -1));
+                for (Map.Entry<String, StringBuilder> entry : bodies.entrySet()) {
+                    String from = entry.getKey();
+                    if (!inboundForwarder.onReceived(from, entry.getValue().toString(), receivedAt, slot)) {
+                        GatewayLog.w(TAG, "Inbound queue full, dropped SMS from " + GatewayLog.phone(from));
+                    }
+                }
+            }
+        };
+        // Only the platform may send SMS_RECEIVED
+        ContextCompat.registerReceiver(this, inboundReceiver,
+                new IntentFilter(Telephony.Sms.Intents.SMS_RECEIVED_ACTION),
+                android.Manifest.permission.BROADCAST_SMS, null, ContextCompat.RECEIVER_EXPORTED);
+    }
+    
+    // 1-based SIM slot for a subscription ID, or 0 if it isn't one we send on
+    private int simSlotOf(int subscriptionId) {
+        for (SimDispatcher.SimChannel channel : simDispatcher.getChannels()) {
+            if (channel.getSubscriptionId() == subscriptionId) {
+                return channel.getSlot();
+            }
+        }
+        return 0;
+    }
+    
+    private void registerInboundMetrics() {
+        metrics.gauge("inbound_queue_depth", "Received messages and delivery reports waiting to be forwarded",
+                () -> inboundForwarder.getQueueDepth());
+        metrics.counter("inbound_forwarded_total", "Received messages and delivery reports forwarded upstream",
+                () -> inboundForwarder.getForwardedCount());
+        metrics.counter("inbound_dropped_total", "Received messages dropped because the inbound queue was full",
+                () -> inboundForwarder.getDroppedInboundCount());
+        metrics.counter("delivery_reports_dropped_total", "Delivery reports dropped because their queue was full",
+                () -> inboundForwarder.getDroppedReportCount());
+        metrics.counter("inbound_failed_batches_total", "Inbound batches the server didn't accept",
+                () -> inboundForwarder.getFailedBatchCount());
+    }
+
+    /**
+     * Current queue depth of every pipeline stage, for spotting where messages pile up.
+     */
+    public String getPipelineStats() {
+        int fetching = 0;
+        synchronized (this) {
+            for (SourcePoller poller : pollers.values()) {
+                if (poller.nextFetch == null || poller.nextFetch.isDone()) {
+                    fetching++;
+                }
+            }
         }
+        return "fetch " + fetching + "/" + pollers.size() + " running"
+                + ", " + parseStage
+                + ", send " + sendEngine.getInFlightCount() + " in flight, "
+                + sendEngine.getTotalParts() + " parts at " + String.format(Locale.US, "%.1f", sendEngine.getPartsPerSecond()) + " parts/s"
+                + ", " + simDispatcher
+                + ", report " + statusReporter.getQueueDepth() + " queued"
+                + ", " + sendRetries + ", " + statusRetries
+                + ", notification " + notifications.getRenderCount() + "/" + notifications.getUpdateCount() + " rendered";
     }
 
-    private void fetchAndProcessSMS() {
-        Log.d(TAG, "Fetching SMS data from API");
+    // Runs on the fetch thread
+    private void fetchAndProcessSMS(final SourcePoller poller) throws InterruptedException {
+        GatewayLog.d(TAG, "Fetching SMS data from " + poller.source.getName());
         
         if (client == null) {
-            Log.e(TAG, "OkHttpClient is null");
+            GatewayLog.e(TAG, "OkHttpClient is null");
             updateNotification("Error: Network client not initialized");
+            scheduleNextFetch(poller, onPollError(poller));
             return;
         }
         
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .build();
+        HttpUrl url = HttpUrl.get(poller.source.getFetchUrl());
+        if (leases != null) {
+            // Only as many as this device can get through before the leases run out
+            final int limit = simDispatcher.getSendableWithin(LEASE_TTL);
+            if (limit <= 0) {
+                GatewayLog.d(TAG, () -> "Not leasing from " + poller.source.getName() + ", SIMs are full until "
+                        + "the leases would expire");
+                scheduleNextFetch(poller, LEASE_FULL_DELAY);
+                return;
+            }
+            url = leases.leaseUrl(url, limit);
+        }
+        OkHttpClient fetchClient = pollClient;
+        if (poller.scheduler.isLongPoll()) {
+            // Ask the server to hold the request until it has something for us
+            url = url.newBuilder()
+                    .addQueryParameter("wait", String.valueOf(LONG_POLL_WAIT_SECONDS))
+                    .build();
+            fetchClient = longPollClient;
+        }
+        
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(url);
+        if (WIRE_FORMAT_ENABLED && STREAMING_PARSE_ENABLED) {
+            requestBuilder.header("Accept", SmsWireCodec.MEDIA_TYPE + ", application/json;q=0.9");
+        }
+        String authToken = config.authTokenFor(poller.source);
+        if (authToken != null) {
+            requestBuilder.header(config.getAuthHeader(), authToken);
+        }
+        Request request = requestBuilder.build();
 
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "API request failed: " + e.getMessage(), e);
-                updateNotification("Network error: " + e.getMessage());
+        Response response;
+        long fetchStart = System.nanoTime();
+        try {
+            response = fetchClient.newCall(request).execute();
+            fetchLatency.recordSince(fetchStart);
+        } catch (IOException e) {
+            fetchLatency.recordSince(fetchStart);
+            GatewayLog.e(TAG, "API request failed: " + e.getMessage(), e);
+            updateNotification("Network error: " + e.getMessage());
+            scheduleNextFetch(poller, onPollError(poller));
+            return;
+        }
+
+        final String responseBody;
+        try {
+            if (response.code() == 304) {
+                // Same queue as last time, and those messages are already in the outbox
+                notModifiedPolls.inc();
+                GatewayLog.d(TAG, "No changes from " + poller.source.getName());
+                scheduleNextFetch(poller, onPollResult(poller, 0));
+                return;
+            }
+            
+            if (!response.isSuccessful()) {
+                GatewayLog.e(TAG, "API responded with error: " + response.code());
+                updateNotification("Server error: " + response.code());
+                scheduleNextFetch(poller, onPollError(poller));
+                return;
             }
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                try {
-                    if (!response.isSuccessful()) {
-                        Log.e(TAG, "API responded with error: " + response.code());
-                        updateNotification("Server error: " + response.code());
-                        return;
-                    }
+            if (response.body() == null) {
+                GatewayLog.e(TAG, "Response body is null");
+                updateNotification("Error: Empty response from server");
+                scheduleNextFetch(poller, onPollError(poller));
+                return;
+            }
 
-                    String responseBody = "";
-                    if (response.body() != null) {
-                        responseBody = response.body().string();
-                        Log.d(TAG, "API Response: " + responseBody);
-                    } else {
-                        Log.e(TAG, "Response body is null");
-                        updateNotification("Error: Empty response from server");
-                        return;
+            if (STREAMING_PARSE_ENABLED) {
+                // The parse stage reads the body as it arrives and closes the response
+                final Response streamed = response;
+                parseStage.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        parseStreamAndDispatch(poller, streamed);
                     }
+                });
+                response = null;
+                return;
+            }
 
-                    if (responseBody.isEmpty()) {
-                        Log.e(TAG, "Response body is empty");
-                        updateNotification("Error: Empty response from server");
-                        return;
-                    }
+            responseBody = response.body().string();
+            // Only the size, the payload is full of phone numbers and message text
+            GatewayLog.d(TAG, () -> "API response of " + responseBody.length() + " chars");
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "API request failed: " + e.getMessage(), e);
+            updateNotification("Network error: " + e.getMessage());
+            scheduleNextFetch(poller, onPollError(poller));
+            return;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
 
-                    try {
-                        // First check if it's a JSON array
-                        if (responseBody.trim().startsWith("[")) {
-                            // Handle array of messages
-                            JSONArray messagesArray = new JSONArray(responseBody);
-                            Log.d(TAG, "Processing " + messagesArray.length() + " SMS messages");
-                            updateNotification("Processing " + messagesArray.length() + " SMS messages");
-                            
-                            int processedCount = 0;
-                            for (int i = 0; i < messagesArray.length(); i++) {
-                                JSONObject smsData = messagesArray.getJSONObject(i);
-                                if (processSMSMessage(smsData)) {
-                                    processedCount++;
-                                }
-                            }
-                            
-                            if (processedCount > 0) {
-                                updateNotification("Processed " + processedCount + " of " + messagesArray.length() + " messages");
-                            } else {
-                                updateNotification("No pending SMS to send");
-                            }
-                        } else {
-                            // Handle single message
-                            JSONObject smsData = new JSONObject(responseBody);
-                            processSMSMessage(smsData);
-                        }
-                    } catch (JSONException e) {
-                        Log.e(TAG, "JSON parsing error: " + e.getMessage(), e);
-                        updateNotification("Error parsing response: " + e.getMessage());
+        if (responseBody.isEmpty()) {
+            GatewayLog.e(TAG, "Response body is empty");
+            updateNotification("Error: Empty response from server");
+            scheduleNextFetch(poller, onPollResult(poller, 0));
+            return;
+        }
+
+        // Blocks while the parse stage is backed up
+        parseStage.submit(new Runnable() {
+            @Override
+            public void run() {
+                parseAndDispatch(poller, responseBody);
+            }
+        });
+    }
+
+    // Runs on the parse thread; messages are queued in small chunks as soon as they are parsed
+    private void parseStreamAndDispatch(SourcePoller poller, Response response) {
+        // Anything that doesn't set this counts as a failed poll
+        long nextDelay = -1;
+        long parseStart = System.nanoTime();
+        try (Response streamed = response) {
+            final List<SmsMessage> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+            final int[] queued = {0};
+            SmsStreamParser.Listener listener = new SmsStreamParser.Listener() {
+                @Override
+                public void onMessage(SmsMessage sms) throws InterruptedException {
+                    chunk.add(sms);
+                    if (chunk.size() >= STREAM_CHUNK_SIZE) {
+                        queued[0] += dispatchBatch(chunk);
+                        chunk.clear();
                     }
+                }
+            };
+            
+            int objectCount;
+            int messageCount;
+            int invalidCount;
+            if (SmsWireCodec.isWireType(streamed.header("Content-Type"))) {
+                // A server that answers in the binary format takes status batches in it too
+                statusReporter.setWireSupported(true);
+                SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(streamed.body().byteStream());
+                reader.setSource(poller.source.getName());
+                reader.parse(listener);
+                objectCount = reader.getObjectCount();
+                messageCount = reader.getMessageCount();
+                invalidCount = reader.getInvalidCount();
+            } else {
+                SmsStreamParser parser = new SmsStreamParser(streamed.body().charStream());
+                parser.setSource(poller.source.getName());
+                parser.parse(listener);
+                objectCount = parser.getObjectCount();
+                messageCount = parser.getMessageCount();
+                invalidCount = parser.getInvalidCount();
+            }
+            queued[0] += dispatchBatch(chunk);
+            
+            if (invalidCount > 0) {
+                GatewayLog.e(TAG, "Skipped " + invalidCount + " messages with missing fields");
+            }
+            GatewayLog.d(TAG, "Streamed " + objectCount + " SMS messages, queued " + queued[0]);
+            if (queued[0] > 0) {
+                updateNotification("Queued " + queued[0] + " of " + messageCount + " messages");
+            } else {
+                updateNotification("No pending SMS to send");
+            }
+            parseTime.recordSince(parseStart);
+            nextDelay = onPollResult(poller, messageCount, queued[0]);
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Error reading response: " + e.getMessage(), e);
+            updateNotification("Error parsing response: " + e.getMessage());
+        } catch (InterruptedException e) {
+            GatewayLog.d(TAG, "Dispatch interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error processing response: " + e.getMessage(), e);
+            updateNotification("Error processing response: " + e.getMessage());
+        }
+        scheduleNextFetch(poller, nextDelay >= 0 ? nextDelay : onPollError(poller));
+    }
 
-                } catch (Exception e) {
-                    Log.e(TAG, "Error processing response: " + e.getMessage(), e);
-                    updateNotification("Error processing response: " + e.getMessage());
+    // Runs on the parse thread
+    private void parseAndDispatch(SourcePoller poller, String responseBody) {
+        // Anything that doesn't set this counts as a failed poll
+        long nextDelay = -1;
+        long parseStart = System.nanoTime();
+        try {
+            // Same parser as the streaming path, so both accept the same messages and campaigns
+            final List<SmsMessage> fetched = new ArrayList<>();
+            SmsStreamParser parser = new SmsStreamParser(new StringReader(responseBody));
+            parser.setSource(poller.source.getName());
+            parser.parse(new SmsStreamParser.Listener() {
+                @Override
+                public void onMessage(SmsMessage sms) {
+                    fetched.add(sms);
                 }
+            });
+            if (parser.getInvalidCount() > 0) {
+                GatewayLog.e(TAG, "Skipped " + parser.getInvalidCount() + " messages with missing fields");
             }
-        });
+            GatewayLog.d(TAG, "Parsed " + parser.getObjectCount() + " SMS messages");
+            
+            int queued = dispatchBatch(fetched);
+            if (queued > 0) {
+                updateNotification("Queued " + queued + " of " + fetched.size() + " messages");
+            } else {
+                updateNotification("No pending SMS to send");
+            }
+            parseTime.recordSince(parseStart);
+            nextDelay = onPollResult(poller, fetched.size(), queued);
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Error parsing response: " + e.getMessage(), e);
+            updateNotification("Error parsing response: " + e.getMessage());
+        } catch (InterruptedException e) {
+            GatewayLog.d(TAG, "Dispatch interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error processing response: " + e.getMessage(), e);
+            updateNotification("Error processing response: " + e.getMessage());
+        }
+        scheduleNextFetch(poller, nextDelay >= 0 ? nextDelay : onPollError(poller));
     }
 
-    private boolean processSMSMessage(JSONObject smsData) {
+    private void replayOutbox() {
+        if (outbox == null) {
+            return;
+        }
+        
         try {
-            // Check if object contains required fields
-            if (!smsData.has("id") || !smsData.has("phone_number") || 
-                !smsData.has("message") || !smsData.has("status")) {
-                Log.e(TAG, "Missing required fields in response: " + smsData.toString());
-                updateNotification("Error: Invalid response format");
-                return false;
+            int recovered = outbox.recoverInterrupted();
+            if (recovered > 0) {
+                GatewayLog.w(TAG, "Recovered " + recovered + " SMS interrupted while sending");
+            }
+            outbox.prune(OUTBOX_RETENTION);
+            
+            // Re-send statuses the server never acknowledged
+            Map<String, String> unreported = outbox.unreportedStatuses();
+            for (Map.Entry<String, String> entry : unreported.entrySet()) {
+                updateSmsStatus(entry.getKey(), entry.getValue());
             }
             
-            String id = smsData.getString("id");
-            String phoneNumber = smsData.getString("phone_number");
-            String message = smsData.getString("message");
-            String status = smsData.getString("status");
+            List<SmsMessage> pending = outbox.pendingMessages();
+            if (leases != null) {
+                // Their leases ended with the last run, the server hands them out again
+                List<SmsMessage> unleased = new ArrayList<>();
+                for (SmsMessage sms : pending) {
+                    if (LOCAL_API_SOURCE.equals(sms.getSource())) {
+                        unleased.add(sms);
+                    } else {
+                        outbox.delete(sms.getKey());
+                    }
+                }
+                if (unleased.size() < pending.size()) {
+                    GatewayLog.d(TAG, "Dropped " + (pending.size() - unleased.size()) + " leased SMS from last run");
+                }
+                pending = unleased;
+            }
+            if (!pending.isEmpty()) {
+                GatewayLog.d(TAG, "Replaying " + pending.size() + " SMS from outbox");
+                updateNotification("Resuming " + pending.size() + " SMS from last run");
+                for (SmsMessage sms : pending) {
+                    submitForDispatch(sms);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error replaying outbox: " + e.getMessage(), e);
+        }
+    }
+
+    private int dispatchBatch(List<SmsMessage> fetched) throws InterruptedException {
+        if (fetched.isEmpty()) {
+            return 0;
+        }
+        
+        List<SmsMessage> toSend = fetched;
+        if (outbox != null) {
+            // One transaction per poll (or stream chunk); messages already in the outbox are dropped here
+            toSend = outbox.addBatch(fetched);
+        }
+        
+        long now = System.currentTimeMillis();
+        for (SmsMessage sms : toSend) {
+            if (leases != null && !LOCAL_API_SOURCE.equals(sms.getSource())) {
+                leases.onLeased(sms.getKey(), sms.getId(), now);
+            }
+            submitForDispatch(sms);
+        }
+        return toSend.size();
+    }
 
-            Log.d(TAG, "Processing SMS ID: " + id + " | Status: " + status);
+    private void submitForDispatch(SmsMessage sms) throws InterruptedException {
+        // Held until it's sent or given up on, so the CPU doesn't sleep with messages queued.
+        // A scheduled message doesn't keep it up while it waits for its send time
+        if (sms.getSendAt() <= System.currentTimeMillis()) {
+            wake.begin(wakeKey(sms));
+        }
+        // Blocks while the chosen SIM's queue is backed up
+        simDispatcher.dispatch(sms);
+        if (isScheduled(sms)) {
+            armWakeupAlarm();
+        }
+    }
+    
+    private static String wakeKey(SmsMessage sms) {
+        return "sms:" + sms.getKey();
+    }
 
-            if ("pending".equalsIgnoreCase(status)) {
-                Log.d(TAG, "Found pending SMS to: " + phoneNumber);
-                sendSMS(phoneNumber, message, id);
-                return true;
-            } else {
-                Log.d(TAG, "SMS already processed, status: " + status);
-                updateNotification("No pending SMS to send");
+    private void saveSentIds() {
+        for (Map.Entry<String, SentIdIndex> entry : sentIds.entrySet()) {
+            if (!entry.getValue().isDirty()) {
+                continue;
+            }
+            try {
+                entry.getValue().save(sentIdSnapshot(entry.getKey()));
+            } catch (IOException e) {
+                GatewayLog.e(TAG, "Could not save sent ID snapshot of " + entry.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+    
+    private File sentIdSnapshot(String source) {
+        return new File(getFilesDir(), GatewayConfig.DEFAULT_SOURCE.equals(source)
+                ? SENT_ID_SNAPSHOT + ".bin" : SENT_ID_SNAPSHOT + "_" + source + ".bin");
+    }
+
+    // Runs on the dispatch thread of the SIM the message was queued on
+    private boolean processSMSMessage(SmsMessage sms, SimDispatcher.SimChannel channel) {
+        try {
+            GatewayLog.d(TAG, () -> "Found pending SMS to: " + GatewayLog.phone(sms.getPhoneNumber()));
+            
+            // The server keeps handing out an ID until our status update lands
+            SentIdIndex sent = sentIds.get(sms.getSource());
+            if (sent != null && sent.contains(sms.getId(), System.currentTimeMillis())) {
+                GatewayLog.d(TAG, "SMS ID " + sms.getId() + " was already sent, re-reporting status");
+                if (outbox != null) {
+                    outbox.markSent(sms.getKey());
+                }
+                if (leases != null) {
+                    leases.onFinished(sms.getKey());
+                }
+                updateSmsStatus(sms.getKey(), "success");
+                return false;
+            }
+            
+            // Another device may have it by now, and the server hands it out again if not
+            if (leases != null && leases.isLost(sms.getKey(), System.currentTimeMillis())) {
+                GatewayLog.w(TAG, "Lease on SMS ID " + sms.getId() + " ran out, not sending");
+                leases.forget(sms.getKey());
+                sendRetries.succeeded(sms.getKey());
+                if (outbox != null) {
+                    outbox.delete(sms.getKey());
+                }
                 return false;
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "Error processing SMS data: " + e.getMessage(), e);
-            updateNotification("Error processing SMS data");
+            
+            // No retry can fix these
+            if (sms.getPhoneNumber() == null || sms.getPhoneNumber().isEmpty()) {
+                GatewayLog.e(TAG, "Invalid phone number");
+                updateNotification("Error: Invalid phone number");
+                onSendFinished(sms, false, false);
+                return false;
+            }
+            if (sms.getMessage() == null || sms.getMessage().isEmpty()) {
+                GatewayLog.e(TAG, "Empty message");
+                updateNotification("Error: Empty message");
+                onSendFinished(sms, false, false);
+                return false;
+            }
+            
+            if (outbox != null) {
+                outbox.markSending(sms.getKey());
+            }
+            
+            // On success the send engine reports the outcome once the radio answers
+            if (!sendSMS(sms, channel)) {
+                onSendFinished(sms, false, true);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // Shutting down; the outbox still has it as sending and resends it next start
+            GatewayLog.d(TAG, "Interrupted while sending SMS ID " + sms.getId());
+            Thread.currentThread().interrupt();
             return false;
         } catch (Exception e) {
-            Log.e(TAG, "Unknown error processing SMS: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Unknown error processing SMS: " + e.getMessage(), e);
             updateNotification("Unknown error processing SMS");
             return false;
         }
     }
 
-    private void sendSMS(String phoneNumber, String message, String smsId) {
-        if (phoneNumber == null || phoneNumber.isEmpty()) {
-            Log.e(TAG, "Invalid phone number");
-            updateNotification("Error: Invalid phone number");
+    private void onSendFinished(SmsMessage sms, boolean sent, boolean retryable) {
+        simDispatcher.onResult(sms, sent);
+        // A retry waits without the wake lock and takes it again when it's dispatched
+        wake.end(wakeKey(sms));
+        
+        SourcePoller poller = pollers.get(sms.getSource());
+        if (!sent) {
+            sendFailures.inc();
+            if (poller != null) {
+                poller.failed.inc();
+            }
+            if (notifications != null) {
+                notifications.onFailed();
+            }
+            if (!retryable) {
+                sendRetries.giveUp(sms.getKey(), sms);
+            } else if (sendRetries.retry(sms.getKey(), sms) && outbox != null) {
+                // Still ours to send, the server hears about it once it's sent or given up on
+                outbox.markRetrying(sms.getKey());
+            }
             return;
         }
         
-        if (message == null || message.isEmpty()) {
-            Log.e(TAG, "Empty message");
-            updateNotification("Error: Empty message");
-            return;
+        sendRetries.succeeded(sms.getKey());
+        messagesSent.inc();
+        if (poller != null) {
+            poller.sent.inc();
+        }
+        SentIdIndex sentIndex = sentIds.get(sms.getSource());
+        if (sentIndex != null) {
+            sentIndex.add(sms.getId(), System.currentTimeMillis());
+        }
+        if (outbox != null) {
+            outbox.markSent(sms.getKey());
+        }
+        if (leases != null) {
+            leases.onFinished(sms.getKey());
+        }
+        if (inboundForwarder != null) {
+            inboundForwarder.onSent(sms.getPhoneNumber(), sms.getKey());
+        }
+        
+        GatewayLog.d(TAG, () -> "SMS successfully sent to " + GatewayLog.phone(sms.getPhoneNumber()));
+        // Only a counter bump here; the notification shows totals instead of every number
+        if (notifications != null) {
+            notifications.onSent();
         }
         
+        // Update status on server
+        updateSmsStatus(sms.getKey(), "success");
+    }
+
+    // Returns true once the message is handed to the send engine
+    private boolean sendSMS(SmsMessage sms, SimDispatcher.SimChannel channel) throws InterruptedException {
         try {
-            if (isEmulator) {
-                // Simulate sending SMS in emulator
-                Log.d(TAG, "EMULATOR MODE: Simulated SMS to " + phoneNumber + ": " + message);
-                updateNotification("SIMULATED: SMS sent to " + phoneNumber);
-                // Update status on server
-                updateSmsStatus(smsId, "success");
-                return;
-            }
-            
-            // Use the SMS manager to send the SMS
-            SmsManager smsManager = SmsManager.getDefault();
-            if (smsManager == null) {
-                Log.e(TAG, "SmsManager is null");
-                updateNotification("Error: SMS service not available");
-                updateSmsStatus(smsId, "pending");
-                return;
-            }
+            // The SIM this message was queued on; simulated in the emulator
+            SmsTransport transport = channel.getTransport();
             
-            // Send the SMS
-            smsManager.sendTextMessage(phoneNumber, null, message, null, null);
-            Log.d(TAG, "SMS successfully sent to " + phoneNumber);
-            updateNotification("SMS sent to " + phoneNumber);
+            // Wait for enough tokens to send every part; while we wait the message stays
+            // queued here instead of going back to the server as pending
+            List<String> parts = transport.divide(sms.getMessage());
+            channel.getRateLimiter().acquire(parts == null || parts.isEmpty() ? 1 : parts.size());
             
-            // Update status on server
-            updateSmsStatus(smsId, "success");
+            // The outcome arrives through the send engine callback
+            simDispatcher.onHandedOff(sms, channel);
+            sendEngine.send(sms, transport, parts);
+            return true;
 
         } catch (SecurityException se) {
-            Log.e(TAG, "SMS permission denied: " + se.getMessage(), se);
+            GatewayLog.e(TAG, "SMS permission denied: " + se.getMessage(), se);
             updateNotification("Error: SMS permission denied");
-            updateSmsStatus(smsId, "pending");
+            return false;
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
-            Log.e(TAG, "SMS sending failed: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "SMS sending failed: " + e.getMessage(), e);
             updateNotification("Failed to send SMS: " + e.getMessage());
-            updateSmsStatus(smsId, "pending");
+            return false;
         }
     }
     
-    private void updateSmsStatus(final String smsId, final String status) {
-        if (smsId == null || smsId.isEmpty()) {
-            Log.e(TAG, "Invalid SMS ID for status update");
+    // Takes the message's key; the server gets the ID its source handed out
+    private void updateSmsStatus(final String key, final String status) {
+        if (key == null || key.isEmpty()) {
+            GatewayLog.e(TAG, "Invalid SMS ID for status update");
             return;
         }
         
-        if (client == null) {
-            Log.e(TAG, "OkHttpClient is null for status update");
+        // Pushed messages have no row upstream, and their bare ID could match an unrelated
+        // one there; their state is only served by the local API
+        if (LOCAL_API_SOURCE.equals(SmsMessage.sourceOf(key))) {
+            if (outbox != null) {
+                outbox.markReported(Collections.singletonList(key));
+            }
+            return;
+        }
+        
+        if (statusReporter == null) {
+            GatewayLog.e(TAG, "StatusReporter is null for status update");
             return;
         }
         
         try {
-            Log.d(TAG, "Updating SMS ID: " + smsId + " with status: " + status);
-            
-            // Create request body with form data
-            RequestBody formBody = new FormBody.Builder()
-                    .add("id", smsId)
-                    .add("status", status)
-                    .build();
-            
-            // Build the request
-            Request request = new Request.Builder()
-                    .url(UPDATE_API_URL)
-                    .post(formBody)
-                    .build();
-            
-            // Execute the request asynchronously
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    Log.e(TAG, "Failed to update SMS status: " + e.getMessage(), e);
-                }
-                
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    try {
-                        if (!response.isSuccessful()) {
-                            Log.e(TAG, "Server error when updating SMS status: " + response.code());
-                            return;
-                        }
-                        
-                        String responseBody = "";
-                        if (response.body() != null) {
-                            responseBody = response.body().string();
-                            Log.d(TAG, "Status update response: " + responseBody);
-                        }
-                        
-                        Log.d(TAG, "Successfully updated SMS ID: " + smsId + " to status: " + status);
-                        
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error processing status update response: " + e.getMessage(), e);
-                    }
-                }
-            });
-            
+            GatewayLog.d(TAG, () -> "Queueing status update for SMS " + key + " with status: " + status);
+            statusReporter.report(key, SmsMessage.idOf(key), status);
         } catch (Exception e) {
-            Log.e(TAG, "Error updating SMS status: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error updating SMS status: " + e.getMessage(), e);
         }
     }
     
@@ -494,7 +1733,7 @@ public class SMSGatewayService extends Service {
                 }
             });
         } catch (Exception e) {
-            Log.e(TAG, "Error showing toast: " + e.getMessage(), e);
+            GatewayLog.e(TAG, "Error showing toast: " + e.getMessage(), e);
         }
     }
 } 
\ No newline at end of file
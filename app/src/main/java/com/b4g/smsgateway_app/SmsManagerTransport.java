@@ -0,0 +1,211 @@
+package com.b4g.smsgateway_app;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.telephony.SmsManager;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends through one SIM's {@link SmsManager}.
+ *
+ * Each part gets its own sent and delivery {@link PendingIntent}; the broadcasts come back to a
+ * receiver registered for this transport only, so two SIMs never see each other's results.
+ */
+public class SmsManagerTransport implements SmsTransport {
+    private static final String TAG = "SmsManagerTransport";
+    private static final String ACTION_SMS_SENT = "com.b4g.smsgateway_app.SMS_SENT.";
+    private static final String ACTION_SMS_DELIVERED = "com.b4g.smsgateway_app.SMS_DELIVERED.";
+    private static final String EXTRA_SMS_KEY = "sms_key";
+    private static final String EXTRA_PART = "part";
+    // Added to delivery broadcasts by the platform
+    private static final String EXTRA_PDU = "pdu";
+    private static final String EXTRA_FORMAT = "format";
+    static final String FORMAT_3GPP2 = "3gpp2";
+    private static final AtomicInteger requestCodes = new AtomicInteger();
+
+    private final Context context;
+    private final SmsManager smsManager;
+    private final String sentAction;
+    private final String deliveredAction;
+    private final BroadcastReceiver resultReceiver;
+
+    public SmsManagerTransport(Context context, SmsManager smsManager, int subscriptionId, final Listener listener) {
+        this.context = context.getApplicationContext();
+        this.smsManager = smsManager;
+        this.sentAction = ACTION_SMS_SENT + subscriptionId;
+        this.deliveredAction = ACTION_SMS_DELIVERED + subscriptionId;
+
+        resultReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String key = intent.getStringExtra(EXTRA_SMS_KEY);
+                if (key == null) {
+                    return;
+                }
+                int part = intent.getIntExtra(EXTRA_PART, 0);
+                if (sentAction.equals(intent.getAction())) {
+                    listener.onPartSent(key, part, getResultCode());
+                } else if (deliveredAction.equals(intent.getAction())) {
+                    listener.onPartDelivered(key, part, deliveryStatus(intent));
+                }
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(sentAction);
+        filter.addAction(deliveredAction);
+        ContextCompat.registerReceiver(this.context, resultReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+    }
+
+    /**
+     * Builds one channel per active subscription, or a single default channel if the
+     * subscriptions can't be read (no permission, no SIM). In the emulator there is one
+     * simulated channel behaving like a typical carrier.
+     */
+    @SuppressWarnings("deprecation")
+    public static List<SimDispatcher.SimChannel> discoverChannels(Context context, int perMinute, int perHour,
+                                                                  int queueCapacity, boolean simulate,
+                                                                  Listener listener) {
+        List<SimDispatcher.SimChannel> channels = new ArrayList<>();
+        if (simulate) {
+            channels.add(new SimDispatcher.SimChannel(SubscriptionManager.INVALID_SUBSCRIPTION_ID, 1, "simulated",
+                    new SimulatedTransport(listener, SimulatedTransport.Profile.typical(), new Random()),
+                    new SendRateLimiter(perMinute, perHour), queueCapacity));
+            return channels;
+        }
+
+        try {
+            SubscriptionManager subscriptionManager = (SubscriptionManager)
+                    context.getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+            List<SubscriptionInfo> subscriptions = subscriptionManager != null
+                    ? subscriptionManager.getActiveSubscriptionInfoList() : null;
+            if (subscriptions != null) {
+                for (SubscriptionInfo info : subscriptions) {
+                    int subscriptionId = info.getSubscriptionId();
+                    SmsManager smsManager;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                        smsManager = context.getSystemService(SmsManager.class)
+                                .createForSubscriptionId(subscriptionId);
+                    } else {
+                        smsManager = SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+                    }
+                    channels.add(new SimDispatcher.SimChannel(subscriptionId, info.getSimSlotIndex() + 1,
+                            String.valueOf(info.getDisplayName()),
+                            new SmsManagerTransport(context, smsManager, subscriptionId, listener),
+                            new SendRateLimiter(perMinute, perHour), queueCapacity));
+                }
+            }
+        } catch (SecurityException e) {
+            GatewayLog.e(TAG, "No permission to read SIM subscriptions: " + e.getMessage(), e);
+        }
+
+        if (channels.isEmpty()) {
+            int subscriptionId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+            channels.add(new SimDispatcher.SimChannel(subscriptionId, 1, "default",
+                    new SmsManagerTransport(context, SmsManager.getDefault(), subscriptionId, listener),
+                    new SendRateLimiter(perMinute, perHour), queueCapacity));
+        }
+        GatewayLog.d(TAG, "Sending on " + channels.size() + " SIM(s)");
+        return channels;
+    }
+
+    @Override
+    public List<String> divide(String text) {
+        return smsManager.divideMessage(text);
+    }
+
+    @Override
+    public void send(SmsMessage sms, List<String> parts) {
+        int partCount = parts == null || parts.isEmpty() ? 1 : parts.size();
+        if (partCount == 1) {
+            smsManager.sendTextMessage(sms.getPhoneNumber(), null, sms.getMessage(),
+                    resultIntent(sentAction, sms.getKey(), 0),
+                    deliveryIntent(sms.getKey(), 0));
+            return;
+        }
+
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>(partCount);
+        ArrayList<PendingIntent> deliveryIntents = new ArrayList<>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            sentIntents.add(resultIntent(sentAction, sms.getKey(), i));
+            deliveryIntents.add(deliveryIntent(sms.getKey(), i));
+        }
+        smsManager.sendMultipartTextMessage(sms.getPhoneNumber(), null, new ArrayList<>(parts),
+                sentIntents, deliveryIntents);
+    }
+
+    @Override
+    public void close() {
+        try {
+            context.unregisterReceiver(resultReceiver);
+        } catch (IllegalArgumentException e) {
+            GatewayLog.e(TAG, "Result receiver was not registered", e);
+        }
+    }
+
+    /**
+     * Reads the status from the delivery report PDU. Reports that can't be parsed count as
+     * delivered, which is what the broadcast arriving at all used to mean.
+     */
+    static String deliveryStatus(Intent intent) {
+        byte[] pdu = intent.getByteArrayExtra(EXTRA_PDU);
+        String format = intent.getStringExtra(EXTRA_FORMAT);
+        if (pdu == null || format == null) {
+            return DELIVERY_DELIVERED;
+        }
+        try {
+            android.telephony.SmsMessage report = android.telephony.SmsMessage.createFromPdu(pdu, format);
+            return report != null ? deliveryStatus(report.getStatus(), format) : DELIVERY_DELIVERED;
+        } catch (RuntimeException e) {
+            GatewayLog.e(TAG, "Unreadable delivery report: " + e.getMessage(), e);
+            return DELIVERY_DELIVERED;
+        }
+    }
+
+    /**
+     * Maps a report status to a delivery status. GSM reports carry the TP-Status (3GPP TS 23.040
+     * 9.2.3.15): below 0x20 completed, below 0x40 still trying, anything else given up. CDMA
+     * reports carry the error class in the top byte: 0 no error, 2 temporary, 3 permanent.
+     */
+    static String deliveryStatus(int status, String format) {
+        if (FORMAT_3GPP2.equals(format)) {
+            int errorClass = (status >> 24) & 0x03;
+            return errorClass == 0 ? DELIVERY_DELIVERED : errorClass == 2 ? DELIVERY_PENDING : DELIVERY_FAILED;
+        }
+        if (status < 0x20) {
+            return DELIVERY_DELIVERED;
+        }
+        return status < 0x40 ? DELIVERY_PENDING : DELIVERY_FAILED;
+    }
+
+    private PendingIntent resultIntent(String action, String key, int part) {
+        return resultIntent(action, key, part, PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    // The platform fills in the report's pdu and format, which an immutable intent would drop
+    private PendingIntent deliveryIntent(String key, int part) {
+        return resultIntent(deliveredAction, key, part,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0);
+    }
+
+    private PendingIntent resultIntent(String action, String key, int part, int mutability) {
+        Intent intent = new Intent(action)
+                .setPackage(context.getPackageName())
+                .putExtra(EXTRA_SMS_KEY, key)
+                .putExtra(EXTRA_PART, part);
+        return PendingIntent.getBroadcast(context, requestCodes.incrementAndGet(), intent,
+                mutability | PendingIntent.FLAG_ONE_SHOT);
+    }
+}
@@ -0,0 +1,319 @@
+package com.b4g.smsgateway_app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite backed outbox for fetched messages, so a batch survives the service being killed.
+ *
+ * Each server message is stored once, under its {@link SmsMessage#getKey key}, and moves
+ * pending -> sending -> sent, back to pending while a failed send waits for its retry, or to
+ * dead once it has run out of retries. The {@code reported} flag is set once the server has
+ * acknowledged the final status. Sends and status updates that were given up on are also
+ * kept in a dead letter table for inspection.
+ */
+public class SmsOutbox extends SQLiteOpenHelper {
+    private static final String TAG = "SmsOutbox";
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 6;
+
+    public static final String STATE_PENDING = "pending";
+    public static final String STATE_SENDING = "sending";
+    public static final String STATE_SENT = "sent";
+    public static final String STATE_DEAD = "dead";
+
+    public static final String DEAD_LETTER_SEND = "send";
+    public static final String DEAD_LETTER_STATUS = "status";
+
+    private static final String TABLE = "outbox";
+    private static final String DEAD_LETTER_TABLE = "dead_letter";
+
+    public SmsOutbox(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // WAL avoids a full journal sync on every commit
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "id TEXT PRIMARY KEY, "
+                + "phone_number TEXT NOT NULL, "
+                + "message TEXT NOT NULL, "
+                + "sim_slot INTEGER NOT NULL DEFAULT 0, "
+                + "source TEXT NOT NULL DEFAULT '" + GatewayConfig.DEFAULT_SOURCE + "', "
+                + "priority INTEGER NOT NULL DEFAULT " + SmsMessage.PRIORITY_NORMAL + ", "
+                + "send_at INTEGER NOT NULL DEFAULT 0, "
+                + "state TEXT NOT NULL, "
+                + "reported INTEGER NOT NULL DEFAULT 0, "
+                + "updated_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX outbox_state ON " + TABLE + " (state, reported)");
+        createDeadLetterTable(db);
+    }
+
+    private static void createDeadLetterTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + DEAD_LETTER_TABLE + " ("
+                + "kind TEXT NOT NULL, "
+                + "id TEXT NOT NULL, "
+                + "detail TEXT, "
+                + "attempts INTEGER NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "PRIMARY KEY (kind, id))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN sim_slot INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 3) {
+            createDeadLetterTable(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN source TEXT NOT NULL DEFAULT '"
+                    + GatewayConfig.DEFAULT_SOURCE + "'");
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN priority INTEGER NOT NULL DEFAULT "
+                    + SmsMessage.PRIORITY_NORMAL);
+            db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN send_at INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 6) {
+            // IDs are only unique within a source. Dead letters take the source of their
+            // outbox row while the IDs still match, or the default one if it's gone
+            db.execSQL("UPDATE " + DEAD_LETTER_TABLE + " SET id = COALESCE((SELECT source FROM " + TABLE
+                    + " WHERE " + TABLE + ".id = " + DEAD_LETTER_TABLE + ".id), '"
+                    + GatewayConfig.DEFAULT_SOURCE + "') || ':' || id");
+            db.execSQL("UPDATE " + TABLE + " SET id = source || ':' || id");
+        }
+    }
+
+    /**
+     * Stores a fetched batch in a single transaction and returns the messages that should be sent.
+     *
+     * Messages already in the outbox are skipped, unless they were given up on, that was
+     * reported, and the server has since handed them out again.
+     */
+    public List<SmsMessage> addBatch(List<SmsMessage> messages) {
+        List<SmsMessage> toSend = new ArrayList<>(messages.size());
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE
+                + " (id, phone_number, message, sim_slot, source, priority, send_at, state, reported, updated_at)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0, ?)");
+        SQLiteStatement retry = db.compileStatement("UPDATE " + TABLE
+                + " SET state = ?, reported = 0, updated_at = ? WHERE id = ? AND state = ? AND reported = 1");
+        try {
+            for (SmsMessage sms : messages) {
+                insert.bindString(1, sms.getKey());
+                insert.bindString(2, sms.getPhoneNumber());
+                insert.bindString(3, sms.getMessage());
+                insert.bindLong(4, sms.getSimSlot());
+                insert.bindString(5, sms.getSource());
+                insert.bindLong(6, sms.getPriority());
+                insert.bindLong(7, sms.getSendAt());
+                insert.bindString(8, STATE_PENDING);
+                insert.bindLong(9, now);
+                if (insert.executeInsert() != -1) {
+                    toSend.add(sms);
+                    continue;
+                }
+
+                retry.bindString(1, STATE_PENDING);
+                retry.bindLong(2, now);
+                retry.bindString(3, sms.getKey());
+                retry.bindString(4, STATE_DEAD);
+                if (retry.executeUpdateDelete() > 0) {
+                    toSend.add(sms);
+                } else {
+                    GatewayLog.d(TAG, "SMS " + sms.getKey() + " already in outbox, skipping");
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            retry.close();
+            db.endTransaction();
+        }
+        return toSend;
+    }
+
+    public void markSending(String key) {
+        setState(key, STATE_SENDING);
+    }
+
+    public void markSent(String key) {
+        setState(key, STATE_SENT);
+    }
+
+    /**
+     * Puts a message waiting for a retry back to pending, so it is resent after a restart too.
+     */
+    public void markRetrying(String key) {
+        setState(key, STATE_PENDING);
+    }
+
+    public void markDead(String key) {
+        setState(key, STATE_DEAD);
+    }
+
+    /**
+     * Forgets a message that is no longer ours to send, such as one whose lease was lost. If
+     * the server hands it out again it is accepted like a new one.
+     */
+    public void delete(String key) {
+        getWritableDatabase().delete(TABLE, "id = ?", new String[]{key});
+    }
+
+    /**
+     * Records a send or status update that was given up on. A later dead letter for the same
+     * message replaces the earlier one.
+     */
+    public void addDeadLetter(String kind, String key, String detail, int attempts) {
+        SQLiteStatement statement = getWritableDatabase().compileStatement("INSERT OR REPLACE INTO "
+                + DEAD_LETTER_TABLE + " (kind, id, detail, attempts, created_at) VALUES (?, ?, ?, ?, ?)");
+        try {
+            statement.bindString(1, kind);
+            statement.bindString(2, key);
+            if (detail != null) {
+                statement.bindString(3, detail);
+            } else {
+                statement.bindNull(3);
+            }
+            statement.bindLong(4, attempts);
+            statement.bindLong(5, System.currentTimeMillis());
+            statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public long deadLetterCount() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), DEAD_LETTER_TABLE);
+    }
+
+    /**
+     * Records that the server acknowledged the status of the given messages.
+     */
+    public void markReported(Collection<String> keys) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE
+                + " SET reported = 1 WHERE id = ? AND state IN ('" + STATE_SENT + "', '" + STATE_DEAD + "')");
+        try {
+            for (String key : keys) {
+                statement.bindString(1, key);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            statement.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Moves messages that were mid-send when the process died back to pending.
+     *
+     * The sending window is a single SmsManager call, so a possible duplicate is
+     * preferred over silently dropping the message.
+     */
+    public int recoverInterrupted() {
+        SQLiteStatement statement = getWritableDatabase().compileStatement("UPDATE " + TABLE
+                + " SET state = ?, updated_at = ? WHERE state = ?");
+        try {
+            statement.bindString(1, STATE_PENDING);
+            statement.bindLong(2, System.currentTimeMillis());
+            statement.bindString(3, STATE_SENDING);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    public List<SmsMessage> pendingMessages() {
+        List<SmsMessage> messages = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT id, phone_number, message, sim_slot, source, priority, send_at FROM " + TABLE
+                + " WHERE state = ? ORDER BY updated_at", new String[]{STATE_PENDING});
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(new SmsMessage(SmsMessage.idOf(cursor.getString(0)), cursor.getString(1), cursor.getString(2),
+                        cursor.getInt(3), cursor.getString(4), cursor.getInt(5), cursor.getLong(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+
+    /**
+     * The outbox state of a message, or null if it isn't in the outbox.
+     */
+    public String stateOf(String key) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT state FROM " + TABLE + " WHERE id = ?",
+                new String[]{key});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns key -> server status for finished messages the server hasn't acknowledged yet.
+     */
+    public Map<String, String> unreportedStatuses() {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT id, state FROM " + TABLE
+                + " WHERE reported = 0 AND state IN (?, ?)", new String[]{STATE_SENT, STATE_DEAD});
+        try {
+            while (cursor.moveToNext()) {
+                statuses.put(cursor.getString(0), toServerStatus(cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return statuses;
+    }
+
+    /**
+     * Deletes acknowledged messages that haven't changed for {@code maxAgeMs}.
+     */
+    public int prune(long maxAgeMs) {
+        String[] cutoff = new String[]{String.valueOf(System.currentTimeMillis() - maxAgeMs)};
+        getWritableDatabase().delete(DEAD_LETTER_TABLE, "created_at < ?", cutoff);
+        return getWritableDatabase().delete(TABLE, "reported = 1 AND updated_at < ?", cutoff);
+    }
+
+    public static String toServerStatus(String state) {
+        if (STATE_SENT.equals(state)) {
+            return "success";
+        }
+        return STATE_DEAD.equals(state) ? "failed" : "pending";
+    }
+
+    private void setState(String key, String state) {
+        SQLiteStatement statement = getWritableDatabase().compileStatement("UPDATE " + TABLE
+                + " SET state = ?, updated_at = ? WHERE id = ?");
+        try {
+            statement.bindString(1, state);
+            statement.bindLong(2, System.currentTimeMillis());
+            statement.bindString(3, key);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+}
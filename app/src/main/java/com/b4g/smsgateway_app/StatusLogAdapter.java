@@ -0,0 +1,83 @@
+package com.b4g.smsgateway_app;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows the newest status feed events in a recycled list.
+ *
+ * Events live in a fixed-size {@link RingBuffer}, so the list stays the same size however long
+ * the activity is open, and rows are only built for what is on screen. Main thread only.
+ */
+public class StatusLogAdapter extends BaseAdapter {
+    private final LayoutInflater inflater;
+    private final RingBuffer<StatusFeed.Event> events;
+    // One formatter for every row; only touched on the main thread
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+
+    public StatusLogAdapter(LayoutInflater inflater, int capacity) {
+        this.inflater = inflater;
+        this.events = new RingBuffer<>(capacity);
+    }
+
+    public void add(StatusFeed.Event event) {
+        events.add(event);
+        notifyDataSetChanged();
+    }
+
+    public void addAll(List<StatusFeed.Event> newEvents) {
+        if (newEvents.isEmpty()) {
+            return;
+        }
+        events.addAll(newEvents);
+        notifyDataSetChanged();
+    }
+
+    public void clear() {
+        events.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return events.size();
+    }
+
+    @Override
+    public StatusFeed.Event getItem(int position) {
+        return events.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView row = (TextView) convertView;
+        if (row == null) {
+            row = (TextView) inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+            row.setTextSize(13);
+            row.setMinHeight(0);
+            row.setPadding(row.getPaddingLeft(), 2, row.getPaddingRight(), 2);
+        }
+
+        StatusFeed.Event event = events.get(position);
+        date.setTime(event.time);
+        row.setText(timeFormat.format(date) + " - " + event.message);
+        row.setTextColor(event.level >= GatewayLog.ERROR ? Color.RED
+                : event.level == GatewayLog.WARN ? Color.rgb(0xB0, 0x60, 0x00) : Color.DKGRAY);
+        return row;
+    }
+}
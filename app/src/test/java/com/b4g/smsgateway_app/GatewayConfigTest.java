@@ -0,0 +1,194 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GatewayConfig}.
+ */
+public class GatewayConfigTest {
+
+    @Test
+    public void parseSources_readsPriorityAndTokenWithSpaces() {
+        List<GatewayConfig.Source> sources = GatewayConfig.parseSources(
+                "# tenants\n"
+                        + "shop https://a.example/get_sms.php 10 Bearer abc 123\n"
+                        + "\n"
+                        + "  news   http://b.example/queue  \n");
+
+        assertEquals(2, sources.size());
+        assertEquals("shop", sources.get(0).getName());
+        assertEquals("https://a.example/get_sms.php", sources.get(0).getFetchUrl());
+        assertEquals(10, sources.get(0).getPriority());
+        assertEquals("Bearer abc 123", sources.get(0).getAuthToken());
+        assertEquals("news", sources.get(1).getName());
+        assertEquals(0, sources.get(1).getPriority());
+        assertNull(sources.get(1).getAuthToken());
+    }
+
+    @Test
+    public void parseSources_rejectsBadLines() {
+        assertRejected("only_a_name");
+        assertRejected("a ftp://x/y");
+        assertRejected("a https://x/y high");
+        assertRejected("bad-name https://x/y");
+        assertRejected("a https://x/y\na https://x/z");
+        assertRejected("shop https://x/y\nShop https://x/z");
+        assertRejected("Local https://x/y");
+        assertRejected("# nothing but comments");
+    }
+
+    @Test
+    public void map_roundTripsEverySetting() {
+        GatewayConfig config = new GatewayConfig(
+                GatewayConfig.parseSources("a https://x/get 5 tok-a\nb https://y/get"),
+                "https://x/status", "https://x/status_batch", "X-Api-Key", "shared");
+
+        GatewayConfig restored = GatewayConfig.fromMap(config.toMap());
+
+        assertEquals("a https://x/get 5 tok-a\nb https://y/get 0",
+                GatewayConfig.formatSources(restored.getSources()));
+        assertEquals("https://x/status", restored.getStatusUrl());
+        assertEquals("https://x/status_batch", restored.getBatchStatusUrl());
+        assertEquals("X-Api-Key", restored.getAuthHeader());
+        assertEquals("tok-a", restored.authTokenFor(restored.getSources().get(0)));
+        assertEquals("shared", restored.authTokenFor(restored.getSources().get(1)));
+        assertEquals(5, restored.getTopPriority());
+    }
+
+    @Test
+    public void emptyMap_givesTheDefaults() {
+        GatewayConfig config = GatewayConfig.fromMap(new HashMap<String, String>());
+
+        assertEquals(1, config.getSources().size());
+        assertEquals(GatewayConfig.DEFAULT_SOURCE, config.getSources().get(0).getName());
+        assertEquals(GatewayConfig.DEFAULT_FETCH_URL, config.getSources().get(0).getFetchUrl());
+        assertEquals(GatewayConfig.DEFAULT_STATUS_URL, config.getStatusUrl());
+        assertEquals(GatewayConfig.DEFAULT_AUTH_HEADER, config.getAuthHeader());
+        assertNull(config.getAuthToken());
+    }
+
+    @Test
+    public void blankToken_meansNoAuth() {
+        Map<String, String> values = new HashMap<>();
+        values.put(GatewayConfig.KEY_AUTH_TOKEN, "  ");
+        assertNull(GatewayConfig.fromMap(values).getAuthToken());
+    }
+
+    @Test
+    public void leaseUrl_isOptionalButMustBeHttp() {
+        Map<String, String> values = new HashMap<>();
+        assertNull(GatewayConfig.fromMap(values).getLeaseUrl());
+
+        values.put(GatewayConfig.KEY_LEASE_URL, " https://x/lease_renew.php ");
+        GatewayConfig config = GatewayConfig.fromMap(values);
+        assertEquals("https://x/lease_renew.php", config.getLeaseUrl());
+        assertEquals("https://x/lease_renew.php", GatewayConfig.fromMap(config.toMap()).getLeaseUrl());
+
+        values.put(GatewayConfig.KEY_LEASE_URL, "x/lease_renew.php");
+        try {
+            GatewayConfig.fromMap(values);
+            fail("Expected a relative lease URL to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void inboundUrl_isOptionalAndRoundTrips() {
+        Map<String, String> values = new HashMap<>();
+        assertNull(GatewayConfig.fromMap(values).getInboundUrl());
+
+        values.put(GatewayConfig.KEY_INBOUND_URL, "https://x/report_inbound.php");
+        GatewayConfig config = GatewayConfig.fromMap(values);
+        assertEquals("https://x/report_inbound.php", GatewayConfig.fromMap(config.toMap()).getInboundUrl());
+
+        values.put(GatewayConfig.KEY_INBOUND_URL, "ftp://x/report_inbound.php");
+        try {
+            GatewayConfig.fromMap(values);
+            fail("Expected a non-http inbound URL to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void localApi_isOffByDefaultAndBindsToLoopback() {
+        Map<String, String> values = new HashMap<>();
+        assertFalse(GatewayConfig.fromMap(values).isLocalApiEnabled());
+
+        values.put(GatewayConfig.KEY_AUTH_TOKEN, "Bearer s3cret");
+        values.put(GatewayConfig.KEY_LOCAL_API, "8080");
+        GatewayConfig config = GatewayConfig.fromMap(values);
+        assertTrue(config.isLocalApiEnabled());
+        assertEquals("127.0.0.1", config.getLocalApiAddress());
+        assertEquals(8080, config.getLocalApiPort());
+
+        values.put(GatewayConfig.KEY_LOCAL_API, "0.0.0.0:9000");
+        config = GatewayConfig.fromMap(GatewayConfig.fromMap(values).toMap());
+        assertEquals("0.0.0.0", config.getLocalApiAddress());
+        assertEquals(9000, config.getLocalApiPort());
+    }
+
+    @Test
+    public void localApi_needsATokenAndAValidPort() {
+        Map<String, String> values = new HashMap<>();
+        values.put(GatewayConfig.KEY_LOCAL_API, "8080");
+        assertConfigRejected(values);
+
+        values.put(GatewayConfig.KEY_AUTH_TOKEN, "Bearer s3cret");
+        values.put(GatewayConfig.KEY_LOCAL_API, "127.0.0.1:70000");
+        assertConfigRejected(values);
+        values.put(GatewayConfig.KEY_LOCAL_API, "localhost");
+        assertConfigRejected(values);
+    }
+
+    @Test
+    public void sendLimits_defaultUnderThePlatformLimitAndRoundTrip() {
+        Map<String, String> values = new HashMap<>();
+        GatewayConfig config = GatewayConfig.fromMap(values);
+        // Android prompts after 30 SMS in 30 minutes
+        assertEquals(1, config.getSendLimitPerMinute());
+        assertEquals(60, config.getSendLimitPerHour());
+
+        values.put(GatewayConfig.KEY_SEND_LIMITS, " 30 / 600 ");
+        config = GatewayConfig.fromMap(GatewayConfig.fromMap(values).toMap());
+        assertEquals(30, config.getSendLimitPerMinute());
+        assertEquals(600, config.getSendLimitPerHour());
+        assertEquals("30/600", config.formatSendLimits());
+    }
+
+    @Test
+    public void sendLimits_needTwoPositiveNumbers() {
+        Map<String, String> values = new HashMap<>();
+        values.put(GatewayConfig.KEY_SEND_LIMITS, "30");
+        assertConfigRejected(values);
+        values.put(GatewayConfig.KEY_SEND_LIMITS, "0/60");
+        assertConfigRejected(values);
+        values.put(GatewayConfig.KEY_SEND_LIMITS, "fast/60");
+        assertConfigRejected(values);
+    }
+
+    private static void assertConfigRejected(Map<String, String> values) {
+        try {
+            GatewayConfig.fromMap(values);
+            fail("Expected " + values + " to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    private static void assertRejected(String text) {
+        try {
+            GatewayConfig.parseSources(text);
+            fail("Expected " + text + " to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for reading {@link SmsManagerTransport} delivery reports.
+ */
+public class SmsManagerTransportTest {
+
+    @Test
+    public void deliveryStatus_readsTheGsmStatus() {
+        assertEquals(SmsTransport.DELIVERY_DELIVERED, SmsManagerTransport.deliveryStatus(0x00, "3gpp"));
+        assertEquals(SmsTransport.DELIVERY_DELIVERED, SmsManagerTransport.deliveryStatus(0x02, "3gpp"));
+        assertEquals(SmsTransport.DELIVERY_PENDING, SmsManagerTransport.deliveryStatus(0x20, "3gpp"));
+        assertEquals(SmsTransport.DELIVERY_FAILED, SmsManagerTransport.deliveryStatus(0x41, "3gpp"));
+        assertEquals(SmsTransport.DELIVERY_FAILED, SmsManagerTransport.deliveryStatus(0x60, "3gpp"));
+    }
+
+    @Test
+    public void deliveryStatus_readsTheCdmaErrorClass() {
+        assertEquals(SmsTransport.DELIVERY_DELIVERED, SmsManagerTransport.deliveryStatus(0x02 << 16, "3gpp2"));
+        assertEquals(SmsTransport.DELIVERY_PENDING, SmsManagerTransport.deliveryStatus(0x0204 << 16, "3gpp2"));
+        assertEquals(SmsTransport.DELIVERY_FAILED, SmsManagerTransport.deliveryStatus(0x0304 << 16, "3gpp2"));
+    }
+}
@@ -0,0 +1,53 @@
+// Gateway logic that doesn't need Android: parsing, queues, scheduling, retries, status
+// reporting and metrics. Unit tests and benchmarks run on a plain JVM.
+plugins {
+    `java-library`
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    api("com.squareup.okhttp3:okhttp:4.10.0")
+
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.10.0")
+
+    // Android's org.json, for benchmarking the old JSONArray parse path against the others
+    jmh("org.json:json:20231013")
+}
+
+// ./gradlew :gateway-core:jmh, results in build/results/jmh
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
+
+// The soak test runs for a few seconds with the unit tests; this runs it for real, e.g.
+// ./gradlew :gateway-core:soak -Psoak.seconds=3600 -Psoak.perMinute=30000
+val soak by tasks.registering(Test::class) {
+    description = "Runs the end-to-end soak test against the load generator."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    filter { includeTestsMatching("com.b4g.smsgateway_app.SoakTest") }
+    systemProperty("soak.seconds", findProperty("soak.seconds") ?: "600")
+    systemProperty("soak.perMinute", findProperty("soak.perMinute") ?: "12000")
+    maxHeapSize = "256m"
+    testLogging.showStandardStreams = true
+    outputs.upToDateWhen { false }
+}
+
+// Local stand-in for the SMS server, e.g.
+// ./gradlew :gateway-core:loadGenerator -Pport=8080 -PperMinute=6000
+val loadGenerator by tasks.registering(JavaExec::class) {
+    description = "Serves generated SMS on get_sms.php and collects status updates."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.b4g.smsgateway_app.LoadGenerator")
+    args(findProperty("port") ?: "8080", findProperty("perMinute") ?: "6000", findProperty("seconds") ?: "0")
+}
@@ -0,0 +1,115 @@
+package com.b4g.smsgateway_app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bulk send fetched as fully rendered rows against the same send as one campaign, in JSON and
+ * in the binary format. Payload sizes are printed at setup. Rendering a compiled template is
+ * compared with the usual chain of {@code String.replace}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CampaignBenchmark {
+    private static final String TEMPLATE = "Hi {{name}}, your order {{order}} has shipped and arrives on "
+            + "{{date}}. Reply STOP to opt out.";
+
+    @Param({"100", "5000"})
+    public int recipients;
+
+    private byte[] rowsJson;
+    private byte[] campaignJson;
+    private byte[] campaignWire;
+    private SmsTemplate template;
+    private String[] values;
+
+    @Setup
+    public void setUp() {
+        StringBuilder rows = new StringBuilder(recipients * 200).append('[');
+        StringBuilder campaign = new StringBuilder(recipients * 100)
+                .append("{\"campaign\":\"bench\",\"template\":\"").append(TEMPLATE)
+                .append("\",\"priority\":\"bulk\",\"recipients\":[");
+        SmsCampaign model = new SmsCampaign("bench", TEMPLATE, 0, SmsMessage.PRIORITY_LOW, 0);
+        for (int i = 0; i < recipients; i++) {
+            String id = String.valueOf(100_000 + i);
+            String name = "Customer" + i;
+            String order = "A" + (500_000 + i);
+            String message = "Hi " + name + ", your order " + order + " has shipped and arrives on 2024-05-"
+                    + (10 + i % 20) + ". Reply STOP to opt out.";
+            rows.append(i > 0 ? "," : "").append("{\"id\":\"").append(id).append("\",\"phone_number\":\"+15550")
+                    .append(i).append("\",\"message\":\"").append(message)
+                    .append("\",\"status\":\"pending\",\"priority\":\"bulk\"}");
+            campaign.append(i > 0 ? "," : "").append("{\"id\":\"").append(id).append("\",\"phone_number\":\"+15550")
+                    .append(i).append("\",\"vars\":{\"name\":\"").append(name).append("\",\"order\":\"")
+                    .append(order).append("\",\"date\":\"2024-05-").append(10 + i % 20).append("\"}}");
+            Map<String, String> vars = new HashMap<>();
+            vars.put("name", name);
+            vars.put("order", order);
+            vars.put("date", "2024-05-" + (10 + i % 20));
+            model.addRecipient(id, "+15550" + i, vars);
+        }
+        rowsJson = rows.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        campaignJson = campaign.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        List<SmsMessage> none = new ArrayList<>();
+        List<SmsCampaign> campaigns = new ArrayList<>();
+        campaigns.add(model);
+        campaignWire = SmsWireCodec.encodeMessages(none, campaigns);
+
+        template = SmsTemplate.compile(TEMPLATE);
+        values = new String[]{"Customer42", "A500042", "2024-05-12"};
+        System.out.println("\n" + recipients + " recipients: rows JSON " + rowsJson.length + " bytes, campaign JSON "
+                + campaignJson.length + " bytes, campaign wire " + campaignWire.length + " bytes");
+    }
+
+    @Benchmark
+    public int parseRows(Blackhole blackhole) throws IOException, InterruptedException {
+        return parse(rowsJson, blackhole);
+    }
+
+    @Benchmark
+    public int parseCampaign(Blackhole blackhole) throws IOException, InterruptedException {
+        return parse(campaignJson, blackhole);
+    }
+
+    @Benchmark
+    public int parseCampaignWire(Blackhole blackhole) throws IOException, InterruptedException {
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(campaignWire));
+        reader.parse(blackhole::consume);
+        return reader.getMessageCount();
+    }
+
+    @Benchmark
+    public String renderCompiled() {
+        return template.render(values);
+    }
+
+    @Benchmark
+    public String renderReplace() {
+        return TEMPLATE.replace("{{name}}", values[0]).replace("{{order}}", values[1]).replace("{{date}}", values[2]);
+    }
+
+    private static int parse(byte[] json, Blackhole blackhole) throws IOException, InterruptedException {
+        SmsStreamParser parser = new SmsStreamParser(
+                new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+        parser.parse(blackhole::consume);
+        return parser.getMessageCount();
+    }
+}
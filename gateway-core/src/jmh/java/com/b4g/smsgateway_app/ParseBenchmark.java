@@ -0,0 +1,50 @@
+package com.b4g.smsgateway_app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How fast a get_sms.php response turns into messages. Divide the score by {@code messages}
+ * for the cost per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParseBenchmark {
+    @Param({"100", "5000"})
+    public int messages;
+
+    private String payload;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder(messages * 160).append('[');
+        for (int i = 0; i < messages; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(i).append("\",\"phone_number\":\"+15550").append(i)
+                    .append("\",\"message\":\"Your verification code is ").append(i)
+                    .append(". It expires in 10 minutes.\",\"status\":\"pending\",\"priority\":\"otp\"}");
+        }
+        payload = json.append(']').toString();
+    }
+
+    @Benchmark
+    public int parse(final Blackhole blackhole) throws IOException, InterruptedException {
+        SmsStreamParser parser = new SmsStreamParser(new StringReader(payload));
+        parser.parse(blackhole::consume);
+        return parser.getMessageCount();
+    }
+}
@@ -0,0 +1,48 @@
+package com.b4g.smsgateway_app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch queue operations per second: one put and one take against a queue that already
+ * holds {@code backlog} bulk messages, so the heaps are as deep as under load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SendQueueBenchmark {
+    @Param({"0", "500"})
+    public int backlog;
+
+    private SendQueue queue;
+    private SmsMessage[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        queue = new SendQueue(backlog + 16);
+        for (int i = 0; i < backlog; i++) {
+            queue.put(new SmsMessage("bulk" + i, "+1", "x", 0, SmsMessage.DEFAULT_SOURCE, SmsMessage.PRIORITY_LOW, 0));
+        }
+        // Every priority, so puts land all over the heap
+        messages = new SmsMessage[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new SmsMessage(String.valueOf(i), "+1", "x", 0, SmsMessage.DEFAULT_SOURCE, i % 3, 0);
+        }
+    }
+
+    @Benchmark
+    public SmsMessage putTake() throws InterruptedException {
+        // One in, one out, so the backlog stays at the same depth
+        queue.put(messages[next++ & 63]);
+        return queue.take();
+    }
+}
@@ -0,0 +1,90 @@
+package com.b4g.smsgateway_app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Status updates per second through {@link StatusReporter}, from {@code report()} to the
+ * server accepting the batch. The server is an interceptor that answers 200 without touching
+ * the network, so this measures queuing, batching and JSON encoding only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StatusBatchBenchmark {
+    private static final int UPDATES = 1000;
+
+    private StatusReporter reporter;
+    private final Semaphore reported = new Semaphore(0);
+    private List<StatusReporter.Update> batch;
+
+    @Setup
+    public void setUp() {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(chain -> new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .body(ResponseBody.create("", MediaType.get("text/plain")))
+                        .build())
+                .build();
+        reporter = new StatusReporter(client, "http://localhost/update_sms_status_batch.php",
+                "http://localhost/update_sms_status.php", 100, 1000);
+        reporter.setDeviceId("bench-device");
+        reporter.setListener(new StatusReporter.Listener() {
+            @Override
+            public void onReported(List<String> smsIds) {
+                reported.release(smsIds.size());
+            }
+
+            @Override
+            public void onFailed(String smsId, String status) {
+                throw new IllegalStateException("Status update failed for " + smsId);
+            }
+        });
+
+        batch = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            batch.add(new StatusReporter.Update(String.valueOf(100_000 + i), "success", 0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.shutdown();
+    }
+
+    /**
+     * A thousand updates, i.e. ten full batches; the score is in thousands of updates.
+     */
+    @Benchmark
+    public void reportAndFlush() throws InterruptedException {
+        for (int i = 0; i < UPDATES; i++) {
+            reporter.report(String.valueOf(i), "success");
+        }
+        reported.acquire(UPDATES);
+    }
+
+    @Benchmark
+    public String encodeBatch() {
+        return StatusReporter.toJson(batch, "bench-device");
+    }
+}
@@ -0,0 +1,107 @@
+package com.b4g.smsgateway_app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same get_sms.php batch as JSON and as {@link SmsWireCodec}: read through the old
+ * {@code JSONArray} path, the streaming parser, and the binary reader, all from bytes as they
+ * come off the socket. Payload sizes are printed at setup. Status batches are compared the
+ * same way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WireFormatBenchmark {
+    @Param({"100", "5000"})
+    public int messages;
+
+    private byte[] json;
+    private byte[] wire;
+    private List<StatusReporter.Update> statuses;
+
+    @Setup
+    public void setUp() {
+        List<SmsMessage> batch = new ArrayList<>(messages);
+        StringBuilder text = new StringBuilder(messages * 160).append('[');
+        for (int i = 0; i < messages; i++) {
+            String id = String.valueOf(100_000 + i);
+            String message = "Your verification code is " + i + ". It expires in 10 minutes.";
+            batch.add(new SmsMessage(id, "+15550" + i, message, 0, SmsMessage.DEFAULT_SOURCE,
+                    SmsMessage.PRIORITY_HIGH, 0));
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append("{\"id\":\"").append(id).append("\",\"phone_number\":\"+15550").append(i)
+                    .append("\",\"message\":\"").append(message)
+                    .append("\",\"status\":\"pending\",\"priority\":\"otp\"}");
+        }
+        json = text.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        wire = SmsWireCodec.encodeMessages(batch);
+
+        statuses = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            statuses.add(new StatusReporter.Update(String.valueOf(100_000 + i), "success", 0));
+        }
+        System.out.println("\nfetch of " + messages + ": JSON " + json.length + " bytes, wire " + wire.length
+                + " bytes; status batch of 100: JSON "
+                + StatusReporter.toJson(statuses, "bench-device").getBytes(StandardCharsets.UTF_8).length
+                + " bytes, wire " + SmsWireCodec.encodeStatuses(statuses, "bench-device").length + " bytes");
+    }
+
+    @Benchmark
+    public int parseJsonArray(Blackhole blackhole) throws JSONException {
+        JSONArray array = new JSONArray(new String(json, StandardCharsets.UTF_8));
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.getJSONObject(i);
+            blackhole.consume(new SmsMessage(object.getString("id"), object.getString("phone_number"),
+                    object.getString("message"), object.optInt("sim", 0), SmsMessage.DEFAULT_SOURCE,
+                    SmsStreamParser.parsePriority(object.optString("priority", null)),
+                    SmsStreamParser.parseSendAt(object.optString("send_at", null))));
+        }
+        return array.length();
+    }
+
+    @Benchmark
+    public int parseJsonStream(Blackhole blackhole) throws IOException, InterruptedException {
+        SmsStreamParser parser = new SmsStreamParser(
+                new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+        parser.parse(blackhole::consume);
+        return parser.getMessageCount();
+    }
+
+    @Benchmark
+    public int parseWire(Blackhole blackhole) throws IOException, InterruptedException {
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(wire));
+        reader.parse(blackhole::consume);
+        return reader.getMessageCount();
+    }
+
+    @Benchmark
+    public byte[] encodeStatusJson() {
+        return StatusReporter.toJson(statuses, "bench-device").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeStatusWire() {
+        return SmsWireCodec.encodeStatuses(statuses, "bench-device");
+    }
+}
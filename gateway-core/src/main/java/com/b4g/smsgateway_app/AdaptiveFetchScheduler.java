@@ -0,0 +1,103 @@
+package com.b4g.smsgateway_app;
+
+import java.util.Random;
+
+/**
+ * Polls again after {@code minIntervalMs} while the server has new messages, and backs off
+ * exponentially with jitter while it's idle or failing. The floor keeps a server that keeps
+ * handing out the same backlog from being polled in a loop.
+ *
+ * With long-polling enabled an empty response means the server already waited for
+ * messages, so the next poll goes out immediately instead of backing off.
+ */
+public class AdaptiveFetchScheduler implements FetchScheduler {
+    private final long minIntervalMs;
+    private final long maxIdleIntervalMs;
+    private final long maxErrorIntervalMs;
+    private final double jitter;
+    private final boolean longPoll;
+    private final Random random;
+
+    private int consecutiveEmptyPolls;
+    private int consecutiveErrors;
+    private long currentInterval;
+    private Decision lastDecision = Decision.IMMEDIATE;
+
+    public AdaptiveFetchScheduler(long minIntervalMs, long maxIdleIntervalMs, long maxErrorIntervalMs,
+                                  double jitter, boolean longPoll, Random random) {
+        this.minIntervalMs = minIntervalMs;
+        this.maxIdleIntervalMs = maxIdleIntervalMs;
+        this.maxErrorIntervalMs = maxErrorIntervalMs;
+        this.jitter = jitter;
+        this.longPoll = longPoll;
+        this.random = random;
+    }
+
+    @Override
+    public synchronized long onPollResult(int messageCount) {
+        consecutiveErrors = 0;
+
+        if (messageCount > 0) {
+            consecutiveEmptyPolls = 0;
+            return decide(Decision.IMMEDIATE, minIntervalMs);
+        }
+
+        if (longPoll) {
+            consecutiveEmptyPolls = 0;
+            return decide(Decision.LONG_POLL, 0);
+        }
+
+        consecutiveEmptyPolls++;
+        return decide(Decision.IDLE_BACKOFF, backoff(consecutiveEmptyPolls, maxIdleIntervalMs));
+    }
+
+    @Override
+    public synchronized long onPollError() {
+        consecutiveErrors++;
+        return decide(Decision.ERROR_BACKOFF, backoff(consecutiveErrors, maxErrorIntervalMs));
+    }
+
+    @Override
+    public boolean isLongPoll() {
+        return longPoll;
+    }
+
+    @Override
+    public synchronized long getCurrentInterval() {
+        return currentInterval;
+    }
+
+    @Override
+    public synchronized Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    public synchronized int getConsecutiveEmptyPolls() {
+        return consecutiveEmptyPolls;
+    }
+
+    public synchronized int getConsecutiveErrors() {
+        return consecutiveErrors;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return lastDecision + " next poll in " + currentInterval + " ms"
+                + " (empty=" + consecutiveEmptyPolls + ", errors=" + consecutiveErrors + ")";
+    }
+
+    private long decide(Decision decision, long interval) {
+        lastDecision = decision;
+        currentInterval = interval;
+        return interval;
+    }
+
+    private long backoff(int attempt, long maxIntervalMs) {
+        // min * 2^(attempt - 1), capped before the shift can overflow
+        int shift = Math.min(attempt - 1, 30);
+        long interval = Math.min(maxIntervalMs, minIntervalMs << shift);
+
+        // Knock up to `jitter` off so devices that failed together don't retry together
+        return interval - (long) (interval * jitter * random.nextDouble());
+    }
+}
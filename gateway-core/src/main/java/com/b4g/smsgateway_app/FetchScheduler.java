@@ -0,0 +1,38 @@
+package com.b4g.smsgateway_app;
+
+/**
+ * Decides how long the service waits before polling the server again.
+ */
+public interface FetchScheduler {
+
+    enum Decision {
+        /** New messages came back, so more are probably waiting; poll again at the shortest interval. */
+        IMMEDIATE,
+        /** Nothing to send, wait longer each time. */
+        IDLE_BACKOFF,
+        /** The poll failed, back off harder. */
+        ERROR_BACKOFF,
+        /** The server held the request open, it's safe to ask again right away. */
+        LONG_POLL
+    }
+
+    /**
+     * Called after a successful poll with the number of messages that were new to the gateway,
+     * returns the delay in ms before the next one.
+     */
+    long onPollResult(int messageCount);
+
+    /**
+     * Called after a failed poll, returns the delay in ms before the next one.
+     */
+    long onPollError();
+
+    /**
+     * Whether the next poll should ask the server to hold the request until messages arrive.
+     */
+    boolean isLongPoll();
+
+    long getCurrentInterval();
+
+    Decision getLastDecision();
+}
@@ -0,0 +1,208 @@
+package com.b4g.smsgateway_app;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Leveled logging for the gateway, written to a {@link Sink} such as logcat.
+ *
+ * Lines below the minimum level cost one int compare; use the {@link Message} overloads on hot
+ * paths so the text is only built when it will be written. Everything that passes also goes
+ * into a fixed-size ring buffer that {@link #dump()} returns, for inspecting a device without
+ * adb. With redaction on, {@link #phone} and {@link #body} keep phone numbers and message text
+ * out of the log. Release builds strip the debug and verbose calls entirely (see proguard-rules.pro).
+ */
+public final class GatewayLog {
+    // Same values as android.util.Log
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final int RING_SIZE = 512;
+    private static final String LEVELS = "??VDIWE";
+
+    /**
+     * Builds the log text only when the line is actually written.
+     */
+    public interface Message {
+        String get();
+    }
+
+    /**
+     * Receives buffered lines from {@link #read}.
+     */
+    public interface LineReader {
+        void line(long time, int level, String tag, String message);
+    }
+
+    /**
+     * Where lines go besides the ring buffer.
+     */
+    public interface Sink {
+        void write(int level, String tag, String message, Throwable error);
+    }
+
+    private static volatile Sink sink;
+    private static volatile int minLevel = DEBUG;
+    private static volatile boolean redact = false;
+
+    // Parallel arrays so a logged line adds no objects beyond its text
+    private static final long[] ringTimes = new long[RING_SIZE];
+    private static final int[] ringLevels = new int[RING_SIZE];
+    private static final String[] ringTags = new String[RING_SIZE];
+    private static final String[] ringMessages = new String[RING_SIZE];
+    private static long ringCount;
+
+    private GatewayLog() {
+    }
+
+    /**
+     * Sets where lines are written, or null to only keep them in the ring buffer.
+     */
+    public static void setSink(Sink sink) {
+        GatewayLog.sink = sink;
+    }
+
+    /**
+     * Sets the lowest level that is written, e.g. {@link #INFO} to drop debug lines.
+     */
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    /**
+     * Masks phone numbers and message bodies passed through {@link #phone} and {@link #body}.
+     */
+    public static void setRedact(boolean enabled) {
+        redact = enabled;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public static void v(String tag, String message) {
+        if (VERBOSE >= minLevel) {
+            write(VERBOSE, tag, message, null);
+        }
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG >= minLevel) {
+            write(DEBUG, tag, message, null);
+        }
+    }
+
+    public static void d(String tag, Message message) {
+        if (DEBUG >= minLevel) {
+            write(DEBUG, tag, message.get(), null);
+        }
+    }
+
+    public static void i(String tag, String message) {
+        if (INFO >= minLevel) {
+            write(INFO, tag, message, null);
+        }
+    }
+
+    public static void w(String tag, String message) {
+        if (WARN >= minLevel) {
+            write(WARN, tag, message, null);
+        }
+    }
+
+    public static void e(String tag, String message) {
+        if (ERROR >= minLevel) {
+            write(ERROR, tag, message, null);
+        }
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        if (ERROR >= minLevel) {
+            write(ERROR, tag, message, error);
+        }
+    }
+
+    /**
+     * The phone number as it may appear in logs: only the last two digits when redacting.
+     */
+    public static String phone(String number) {
+        if (!redact || number == null) {
+            return number;
+        }
+        int keep = Math.min(2, number.length());
+        StringBuilder masked = new StringBuilder(number.length());
+        for (int i = 0; i < number.length() - keep; i++) {
+            masked.append('*');
+        }
+        return masked.append(number, number.length() - keep, number.length()).toString();
+    }
+
+    /**
+     * The message text as it may appear in logs: only its length when redacting.
+     */
+    public static String body(String message) {
+        if (!redact || message == null) {
+            return message;
+        }
+        return "<" + message.length() + " chars>";
+    }
+
+    /**
+     * The buffered lines, oldest first.
+     */
+    public static List<String> dump() {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        synchronized (ringTimes) {
+            int size = (int) Math.min(ringCount, RING_SIZE);
+            List<String> lines = new ArrayList<>(size);
+            for (long i = ringCount - size; i < ringCount; i++) {
+                int slot = (int) (i % RING_SIZE);
+                lines.add(format.format(new Date(ringTimes[slot])) + " " + LEVELS.charAt(ringLevels[slot])
+                        + "/" + ringTags[slot] + ": " + ringMessages[slot]);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Passes the buffered lines at or above {@code level} from position {@code from} on, oldest
+     * first, and returns the position to read from next time. Lines that were overwritten since
+     * are skipped; start at 0 for everything still buffered. The reader runs under the buffer
+     * lock, so it should only copy what it needs.
+     */
+    public static long read(long from, int level, LineReader reader) {
+        synchronized (ringTimes) {
+            for (long i = Math.max(from, ringCount - RING_SIZE); i < ringCount; i++) {
+                int slot = (int) (i % RING_SIZE);
+                if (ringLevels[slot] >= level) {
+                    reader.line(ringTimes[slot], ringLevels[slot], ringTags[slot], ringMessages[slot]);
+                }
+            }
+            return ringCount;
+        }
+    }
+
+    private static void write(int level, String tag, String message, Throwable error) {
+        Sink current = sink;
+        if (current != null) {
+            current.write(level, tag, message, error);
+        }
+
+        if (error != null) {
+            message = message + " (" + error.getClass().getSimpleName() + ")";
+        }
+        synchronized (ringTimes) {
+            int slot = (int) (ringCount++ % RING_SIZE);
+            ringTimes[slot] = System.currentTimeMillis();
+            ringLevels[slot] = level;
+            ringTags[slot] = tag;
+            ringMessages[slot] = message;
+        }
+    }
+}
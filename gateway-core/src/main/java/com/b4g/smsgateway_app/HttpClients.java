@@ -0,0 +1,199 @@
+package com.b4g.smsgateway_app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * Builds the one {@link OkHttpClient} the gateway talks to its servers with.
+ *
+ * Polls and status updates share a connection pool, so a connection opened for one poll is
+ * reused by the next poll and by status updates in between, with HTTP/2 multiplexing where
+ * the server supports it. OkHttp already asks for and unzips gzip responses; request bodies
+ * are only gzipped on request since the server has to expect it. Every call records its DNS,
+ * connect, TLS and time-to-first-byte timings.
+ */
+public final class HttpClients {
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long PING_INTERVAL_SECONDS = 30;
+
+    private HttpClients() {
+    }
+
+    /**
+     * @param metrics where call timings go, or null for none
+     */
+    public static OkHttpClient create(long timeoutSeconds, MetricsRegistry metrics) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                // Keeps an idle HTTP/2 connection from being silently dropped by NAT between polls
+                .pingInterval(PING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (metrics != null) {
+            builder.eventListenerFactory(new Timings(metrics));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Records per-phase call timings. One listener is created per call and holds that call's
+     * start times.
+     */
+    static final class Timings implements EventListener.Factory {
+        private final MetricsRegistry.Histogram dns;
+        private final MetricsRegistry.Histogram connect;
+        private final MetricsRegistry.Histogram tls;
+        private final MetricsRegistry.Histogram ttfb;
+        private final MetricsRegistry.Counter connectionsOpened;
+        private final MetricsRegistry.Counter connectionsReused;
+
+        Timings(MetricsRegistry metrics) {
+            dns = metrics.timer("http_dns_seconds", "DNS lookup time");
+            connect = metrics.timer("http_connect_seconds", "Time to open a connection, TLS included");
+            tls = metrics.timer("http_tls_seconds", "TLS handshake time");
+            ttfb = metrics.timer("http_ttfb_seconds", "Time from sending a request until the response headers start");
+            connectionsOpened = metrics.counter("http_connections_opened_total", "Calls that opened a new connection");
+            connectionsReused = metrics.counter("http_connections_reused_total", "Calls that reused a pooled connection");
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            return new EventListener() {
+                private long dnsStart;
+                private long connectStart;
+                private long tlsStart;
+                private long requestStart;
+                private boolean connected;
+
+                @Override
+                public void dnsStart(Call call, String domainName) {
+                    dnsStart = System.nanoTime();
+                }
+
+                @Override
+                public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+                    dns.recordSince(dnsStart);
+                }
+
+                @Override
+                public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+                    connectStart = System.nanoTime();
+                    connected = true;
+                }
+
+                @Override
+                public void secureConnectStart(Call call) {
+                    tlsStart = System.nanoTime();
+                }
+
+                @Override
+                public void secureConnectEnd(Call call, Handshake handshake) {
+                    tls.recordSince(tlsStart);
+                }
+
+                @Override
+                public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+                    connect.recordSince(connectStart);
+                }
+
+                @Override
+                public void connectionAcquired(Call call, Connection connection) {
+                    (connected ? connectionsOpened : connectionsReused).inc();
+                }
+
+                @Override
+                public void requestHeadersStart(Call call) {
+                    requestStart = System.nanoTime();
+                }
+
+                @Override
+                public void responseHeadersStart(Call call) {
+                    ttfb.recordSince(requestStart);
+                }
+            };
+        }
+    }
+
+    /**
+     * Conditional GETs: remembers the ETag of each URL's last response and sends it back as
+     * If-None-Match, so an unchanged queue costs a 304 with no body. Callers must treat 304 as
+     * "nothing new".
+     */
+    public static final class EtagInterceptor implements Interceptor {
+        private final Map<String, String> etags = new ConcurrentHashMap<>();
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            if (!"GET".equals(request.method())) {
+                return chain.proceed(request);
+            }
+
+            String key = request.url().toString();
+            String etag = etags.get(key);
+            if (etag != null && request.header("If-None-Match") == null) {
+                request = request.newBuilder().header("If-None-Match", etag).build();
+            }
+
+            Response response = chain.proceed(request);
+            String newEtag = response.header("ETag");
+            if (response.isSuccessful() && newEtag != null) {
+                etags.put(key, newEtag);
+            } else if (response.isSuccessful()) {
+                etags.remove(key);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Gzips request bodies and marks them with Content-Encoding. Only for servers that decode
+     * gzip uploads.
+     */
+    public static final class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            RequestBody body = request.body();
+            if (body == null || request.header("Content-Encoding") != null) {
+                return chain.proceed(request);
+            }
+
+            Buffer raw = new Buffer();
+            body.writeTo(raw);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(raw.size(), 64 * 1024));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(raw.readByteArray());
+            }
+            return chain.proceed(request.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(request.method(), RequestBody.create(compressed.toByteArray(), body.contentType()))
+                    .build());
+        }
+    }
+}
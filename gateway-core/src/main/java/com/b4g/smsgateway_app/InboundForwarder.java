@@ -0,0 +1,303 @@
+package com.b4g.smsgateway_app;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Forwards received SMS and delivery reports upstream in gzipped JSON batches.
+ *
+ * Receivers hand events over without blocking. Delivery reports and received messages each have
+ * their own bounded queue, so a flood of incoming texts can't crowd out reports, and once a
+ * queue is full new events are dropped and counted rather than held. One thread sends at most
+ * one batch per {@code minIntervalMs}, reports first, and backs off after failures, so a storm
+ * never takes more than that from the connection the outbound pipeline uses. A received
+ * message from a number we recently sent to carries that message's ID and source as
+ * {@code reply_to} and {@code reply_source}. Messages are passed in by {@link SmsMessage#getKey key}
+ * and go out as ID and source, since sources may hand out the same IDs.
+ *
+ * The body is {@code {"device_id": "...", "events": [...]}} with events such as
+ * {@code {"type": "delivery", "id": "123", "source": "default", "status": "delivered", "at": 1700000000000}}
+ * and {@code {"type": "sms", "from": "+155...", "body": "...", "at": ..., "sim": 1, "reply_to": "123",
+ * "reply_source": "default"}}.
+ */
+public class InboundForwarder {
+    private static final String TAG = "InboundForwarder";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    // Numbers we recently sent to, for matching replies
+    private static final int RECENT_RECIPIENTS = 1024;
+    // Enough to tell numbers apart whatever prefix the carrier adds or drops
+    private static final int PHONE_SUFFIX_DIGITS = 9;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String deviceId;
+    private final int reportCapacity;
+    private final int inboundCapacity;
+    private final int maxBatchSize;
+    private final long minIntervalMs;
+    private final long maxBackoffMs;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    // Rendered to JSON when they arrive; only the flush thread takes from the front
+    private final ArrayDeque<String> reports = new ArrayDeque<>();
+    private final ArrayDeque<String> inbound = new ArrayDeque<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long nextFlushAt;
+    private int failures;
+
+    private final Map<String, String> recentRecipients = new LinkedHashMap<String, String>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > RECENT_RECIPIENTS;
+        }
+    };
+
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong droppedReports = new AtomicLong();
+    private final AtomicLong droppedInbound = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /**
+     * @param client        gets a gzip interceptor added for these requests only
+     * @param minIntervalMs least time between two batches
+     * @param maxBackoffMs  longest wait after failed batches
+     */
+    public InboundForwarder(OkHttpClient client, String url, String deviceId, int reportCapacity,
+                            int inboundCapacity, int maxBatchSize, long minIntervalMs, long maxBackoffMs) {
+        this.client = client.newBuilder().addInterceptor(new HttpClients.GzipRequestInterceptor()).build();
+        this.url = url;
+        this.deviceId = deviceId;
+        this.reportCapacity = reportCapacity;
+        this.inboundCapacity = inboundCapacity;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.minIntervalMs = minIntervalMs;
+        this.maxBackoffMs = Math.max(minIntervalMs, maxBackoffMs);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Remembers the last message sent to a number, so a reply can be matched to it.
+     */
+    public void onSent(String phoneNumber, String key) {
+        String phone = phoneKey(phoneNumber);
+        if (phone.isEmpty()) {
+            return;
+        }
+        synchronized (recentRecipients) {
+            // Re-inserted so the newest sends are the last to be forgotten
+            recentRecipients.remove(phone);
+            recentRecipients.put(phone, key);
+        }
+    }
+
+    /**
+     * Queues a delivery report for a message we sent. Returns false if it was dropped.
+     */
+    public boolean onDeliveryReport(String key, String status, long time) {
+        StringBuilder json = new StringBuilder(100).append("{\"type\":\"delivery\",\"id\":");
+        StatusReporter.appendQuoted(json, SmsMessage.idOf(key));
+        json.append(",\"source\":");
+        StatusReporter.appendQuoted(json, SmsMessage.sourceOf(key));
+        json.append(",\"status\":");
+        StatusReporter.appendQuoted(json, status);
+        json.append(",\"at\":").append(time).append('}');
+        return offer(reports, reportCapacity, droppedReports, json.toString());
+    }
+
+    /**
+     * Queues a received message. Returns false if it was dropped.
+     *
+     * @param simSlot 1-based slot it arrived on, or 0 if unknown
+     */
+    public boolean onReceived(String from, String body, long time, int simSlot) {
+        String replyTo;
+        synchronized (recentRecipients) {
+            replyTo = recentRecipients.get(phoneKey(from));
+        }
+        StringBuilder json = new StringBuilder(body.length() + 128).append("{\"type\":\"sms\",\"from\":");
+        StatusReporter.appendQuoted(json, from);
+        json.append(",\"body\":");
+        StatusReporter.appendQuoted(json, body);
+        json.append(",\"at\":").append(time);
+        if (simSlot > 0) {
+            json.append(",\"sim\":").append(simSlot);
+        }
+        if (replyTo != null) {
+            json.append(",\"reply_to\":");
+            StatusReporter.appendQuoted(json, SmsMessage.idOf(replyTo));
+            json.append(",\"reply_source\":");
+            StatusReporter.appendQuoted(json, SmsMessage.sourceOf(replyTo));
+        }
+        return offer(inbound, inboundCapacity, droppedInbound, json.append('}').toString());
+    }
+
+    /**
+     * Tries once more to send what's queued, then stops. Anything still queued is lost.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            cancelScheduledFlush();
+        }
+        executor.execute(this::flushNow);
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return reports.size() + inbound.size();
+        }
+    }
+
+    public long getForwardedCount() {
+        return forwarded.get();
+    }
+
+    public long getDroppedReportCount() {
+        return droppedReports.get();
+    }
+
+    public long getDroppedInboundCount() {
+        return droppedInbound.get();
+    }
+
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+
+    private boolean offer(ArrayDeque<String> queue, int capacity, AtomicLong dropped, String event) {
+        synchronized (lock) {
+            if (queue.size() >= capacity) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            queue.addLast(event);
+            if (scheduledFlush == null && !executor.isShutdown()) {
+                long delay = Math.max(0, nextFlushAt - System.currentTimeMillis());
+                scheduledFlush = executor.schedule(this::flushNow, delay, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    // Runs on the executor thread only. scheduledFlush stays set until the batch is done, so
+    // events arriving meanwhile wait for the next slot instead of queueing a flush of their own
+    private void flushNow() {
+        int reportCount;
+        int inboundCount;
+        StringBuilder json = new StringBuilder(4096).append("{\"device_id\":");
+        StatusReporter.appendQuoted(json, deviceId != null ? deviceId : "");
+        json.append(",\"events\":[");
+        synchronized (lock) {
+            // Reports first; they're small and a storm of texts shouldn't hold them up
+            reportCount = Math.min(reports.size(), maxBatchSize);
+            inboundCount = Math.min(inbound.size(), maxBatchSize - reportCount);
+            int n = 0;
+            for (String event : reports) {
+                if (n == reportCount) {
+                    break;
+                }
+                json.append(n++ > 0 ? "," : "").append(event);
+            }
+            int m = 0;
+            for (String event : inbound) {
+                if (m++ == inboundCount) {
+                    break;
+                }
+                json.append(n++ > 0 ? "," : "").append(event);
+            }
+        }
+        if (reportCount + inboundCount == 0) {
+            synchronized (lock) {
+                scheduledFlush = null;
+            }
+            return;
+        }
+        json.append("]}");
+
+        boolean sent = post(json.toString());
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            if (sent) {
+                // Nothing else takes from the front, so these are still the ones we sent
+                for (int i = 0; i < reportCount; i++) {
+                    reports.pollFirst();
+                }
+                for (int i = 0; i < inboundCount; i++) {
+                    inbound.pollFirst();
+                }
+                forwarded.addAndGet(reportCount + inboundCount);
+                failures = 0;
+                nextFlushAt = now + minIntervalMs;
+            } else {
+                failedBatches.incrementAndGet();
+                failures = Math.min(failures + 1, 20);
+                nextFlushAt = now + Math.min(maxBackoffMs, minIntervalMs << failures);
+            }
+            scheduledFlush = null;
+            if ((!reports.isEmpty() || !inbound.isEmpty()) && !executor.isShutdown()) {
+                scheduledFlush = executor.schedule(this::flushNow, nextFlushAt - now, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private boolean post(String body) {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(body, JSON))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return true;
+            }
+            GatewayLog.e(TAG, "Server error when forwarding inbound events: " + response.code());
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Failed to forward inbound events: " + e.getMessage(), e);
+        }
+        return false;
+    }
+
+    // Trailing digits only, so "+1 555-0100" and "15550100" match
+    static String phoneKey(String phoneNumber) {
+        if (phoneNumber == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder(PHONE_SUFFIX_DIGITS);
+        for (int i = phoneNumber.length() - 1; i >= 0 && digits.length() < PHONE_SUFFIX_DIGITS; i--) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.reverse().toString();
+    }
+}
@@ -0,0 +1,329 @@
+package com.b4g.smsgateway_app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Client side of the lease protocol that lets several devices share one queue.
+ *
+ * A fetch asks for at most {@code limit} messages for this device ID and the server leases
+ * them to us for {@code lease_ttl} seconds; other devices don't see them until the lease runs
+ * out. Leases are renewed in one POST for every message we still hold, and end with the status
+ * update: success or failed completes a lease, pending releases it. A message whose lease ran
+ * out or wasn't renewed may already be with another device, so it must not be sent.
+ *
+ * Leases are tracked under the same key as the rest of the gateway uses for a message, and
+ * renewed under the server's ID with one POST per source, each naming its {@code source}, so
+ * sources that hand out the same IDs are renewed apart.
+ */
+public class LeaseClient {
+    private static final String TAG = "LeaseClient";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static final class Lease {
+        final String source;
+        final String smsId;
+        long expiresAt;
+        // Sent or given up on, kept until the server has the final status
+        boolean finished;
+        boolean lost;
+
+        Lease(String source, String smsId, long expiresAt) {
+            this.source = source;
+            this.smsId = smsId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final String renewUrl;
+    private final String deviceId;
+    private final long ttlMs;
+    private final long safetyMarginMs;
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, Lease> leases = new LinkedHashMap<>();
+    private long renewedCount;
+    private long lostCount;
+
+    public LeaseClient(OkHttpClient client, String renewUrl, String deviceId, long ttlMs) {
+        this.client = client;
+        this.renewUrl = renewUrl;
+        this.deviceId = deviceId;
+        this.ttlMs = ttlMs;
+        // Room for one send between checking a lease and the radio taking the message
+        this.safetyMarginMs = ttlMs / 4;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Renews every held lease three times per TTL, so one failed renewal doesn't lose them.
+     */
+    public void start() {
+        long interval = Math.max(1000, ttlMs / 3);
+        executor.scheduleWithFixedDelay(() -> renewNow(System.currentTimeMillis()),
+                interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The fetch URL with this device's ID, how many messages it wants and for how long.
+     */
+    public HttpUrl leaseUrl(HttpUrl fetchUrl, int limit) {
+        return fetchUrl.newBuilder()
+                .addQueryParameter("device_id", deviceId)
+                .addQueryParameter("limit", String.valueOf(limit))
+                .addQueryParameter("lease_ttl", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(ttlMs)))
+                .build();
+    }
+
+    /**
+     * Starts tracking a message the server just leased to us.
+     */
+    public void onLeased(String smsId, long now) {
+        onLeased(smsId, smsId, now);
+    }
+
+    /**
+     * Starts tracking a message the server just leased to us under {@code smsId}.
+     */
+    public synchronized void onLeased(String key, String smsId, long now) {
+        Lease lease = leases.get(key);
+        if (lease == null) {
+            leases.put(key, new Lease(SmsMessage.sourceOf(key), smsId, now + ttlMs));
+        } else if (!lease.lost) {
+            // Handed out again before we reported it, the server restarted the lease
+            lease.expiresAt = Math.max(lease.expiresAt, now + ttlMs);
+        }
+    }
+
+    /**
+     * True if the message was leased to us and the lease is gone or about to run out, so
+     * sending it could duplicate another device's send. Messages that were never leased, such
+     * as ones pushed to the local API, are never lost.
+     */
+    public synchronized boolean isLost(String key, long now) {
+        Lease lease = leases.get(key);
+        return lease != null && (lease.lost || lease.expiresAt - safetyMarginMs <= now);
+    }
+
+    /**
+     * The message was sent or given up on. Its lease is still renewed until the status update
+     * that completes it is acknowledged.
+     */
+    public synchronized void onFinished(String key) {
+        Lease lease = leases.get(key);
+        if (lease != null) {
+            lease.finished = true;
+        }
+    }
+
+    /**
+     * The server acknowledged a status update for these messages, which completed or
+     * released their leases.
+     */
+    public synchronized void onReported(Collection<String> keys) {
+        for (String key : keys) {
+            leases.remove(key);
+        }
+    }
+
+    /**
+     * Stops tracking a message, normally one whose lease was lost.
+     */
+    public synchronized void forget(String key) {
+        leases.remove(key);
+    }
+
+    /**
+     * Keys of messages we hold but haven't finished, to be released on shutdown.
+     */
+    public synchronized List<String> unfinished() {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            if (!entry.getValue().finished && !entry.getValue().lost) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Leases currently held, finished or not.
+     */
+    public synchronized int size() {
+        int held = 0;
+        for (Lease lease : leases.values()) {
+            if (!lease.lost) {
+                held++;
+            }
+        }
+        return held;
+    }
+
+    public synchronized long getRenewedCount() {
+        return renewedCount;
+    }
+
+    public synchronized long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * Renews every held lease, in one request per source. Returns false if the server couldn't
+     * be reached for some source, in which case its leases that ran out meanwhile are given up on.
+     */
+    public boolean renewNow(long now) {
+        Map<String, List<String>> heldBySource = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+                Lease lease = entry.getValue();
+                if (!lease.lost) {
+                    List<String> held = heldBySource.get(lease.source);
+                    if (held == null) {
+                        held = new ArrayList<>();
+                        heldBySource.put(lease.source, held);
+                    }
+                    held.add(entry.getKey());
+                }
+            }
+        }
+
+        boolean reached = true;
+        for (Map.Entry<String, List<String>> entry : heldBySource.entrySet()) {
+            reached &= renew(entry.getKey(), entry.getValue(), now);
+        }
+        return reached;
+    }
+
+    private boolean renew(String source, List<String> held, long now) {
+        List<String> heldIds = new ArrayList<>(held.size());
+        synchronized (this) {
+            for (String key : held) {
+                Lease lease = leases.get(key);
+                if (lease != null) {
+                    heldIds.add(lease.smsId);
+                }
+            }
+        }
+
+        Request request = new Request.Builder()
+                .url(renewUrl)
+                .post(RequestBody.create(toJson(deviceId, source, TimeUnit.MILLISECONDS.toSeconds(ttlMs), heldIds), JSON))
+                .build();
+
+        Set<String> renewed = null;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful() && response.body() != null) {
+                renewed = new HashSet<>(parseIds(response.body().string()));
+            } else {
+                GatewayLog.e(TAG, "Server error when renewing leases of " + source + ": " + response.code());
+            }
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Failed to renew leases of " + source + ": " + e.getMessage(), e);
+        }
+
+        int lost = 0;
+        synchronized (this) {
+            for (String key : held) {
+                Lease lease = leases.get(key);
+                if (lease == null || lease.lost) {
+                    continue;
+                }
+                if (renewed != null && renewed.contains(lease.smsId)) {
+                    lease.expiresAt = now + ttlMs;
+                    renewedCount++;
+                } else if (renewed != null || lease.expiresAt <= now) {
+                    lease.lost = true;
+                    lostCount++;
+                    lost++;
+                }
+            }
+        }
+
+        if (lost > 0) {
+            // They are dropped when their turn to send comes
+            GatewayLog.w(TAG, "Lost the lease on " + lost + " message(s) of " + source);
+        }
+        return renewed != null;
+    }
+
+    static String toJson(String deviceId, String source, long ttlSeconds, List<String> smsIds) {
+        StringBuilder json = new StringBuilder(smsIds.size() * 8 + 64);
+        json.append("{\"device_id\":");
+        StatusReporter.appendQuoted(json, deviceId);
+        json.append(",\"source\":");
+        StatusReporter.appendQuoted(json, source);
+        json.append(",\"lease_ttl\":").append(ttlSeconds).append(",\"ids\":[");
+        for (int i = 0; i < smsIds.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            StatusReporter.appendQuoted(json, smsIds.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Reads the renew response, a JSON array of the IDs whose lease was extended. IDs may be
+     * strings or numbers.
+     */
+    static List<String> parseIds(String json) {
+        List<String> ids = new ArrayList<>();
+        int i = json.indexOf('[');
+        if (i < 0) {
+            return ids;
+        }
+        StringBuilder id = new StringBuilder();
+        for (i++; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                id.setLength(0);
+                for (i++; i < json.length() && json.charAt(i) != '"'; i++) {
+                    if (json.charAt(i) == '\\' && i + 1 < json.length()) {
+                        i++;
+                    }
+                    id.append(json.charAt(i));
+                }
+                ids.add(id.toString());
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                id.setLength(0);
+                while (i < json.length() && (json.charAt(i) == '-' || Character.isDigit(json.charAt(i)))) {
+                    id.append(json.charAt(i++));
+                }
+                i--;
+                ids.add(id.toString());
+            } else if (c == ']') {
+                break;
+            }
+        }
+        return ids;
+    }
+}
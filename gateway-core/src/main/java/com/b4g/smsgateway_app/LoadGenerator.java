@@ -0,0 +1,349 @@
+package com.b4g.smsgateway_app;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the SMS server, for load and soak testing without touching production.
+ *
+ * Generates messages at a fixed rate and serves them from {@code get_sms.php} the way the real
+ * server does. A message handed out is offered again if no final status arrives within
+ * {@code reofferAfterMs}. Status updates are accepted on both the batch JSON and the form
+ * endpoint, and the time from a message being generated to its final status is recorded, so
+ * the numbers cover the whole gateway rather than one stage. A final status for a message
+ * that was already finished counts as a duplicate. A gateway asking for {@link SmsWireCodec}
+ * in {@code Accept} is answered in that format, and binary status batches are read too.
+ *
+ * Run it with {@code ./gradlew :gateway-core:loadGenerator} and point the gateway's source
+ * and status URLs at it.
+ */
+public class LoadGenerator {
+    private static final String TAG = "LoadGenerator";
+    private static final long TICK_MS = 100;
+    private static final Pattern STATUS = Pattern.compile("\"id\":\"([^\"]*)\",\"status\":\"([^\"]*)\"");
+    private static final String LONG_TEXT = "Your order has shipped and is on its way. Track it any time from the"
+            + " app, and reply STOP to opt out of delivery updates. Thanks for shopping with us, we hope to"
+            + " see you again soon.";
+
+    private static final class Message {
+        final String id;
+        final long createdAtNanos;
+        long offeredAt; // 0 until handed out
+
+        Message(String id, long createdAtNanos) {
+            this.id = id;
+            this.createdAtNanos = createdAtNanos;
+        }
+    }
+
+    private final int perMinute;
+    private final int maxOutstanding;
+    private final long reofferAfterMs;
+
+    // Guarded by this
+    private final Map<String, Message> outstanding = new LinkedHashMap<>();
+    private long nextId = 1;
+    private double credit;
+
+    private final MetricsRegistry metrics = new MetricsRegistry("loadgen_");
+    private final MetricsRegistry.Counter generated = metrics.counter("generated_total", "Messages generated");
+    private final MetricsRegistry.Counter offered = metrics.counter("offered_total", "Messages handed out, counting re-offers");
+    private final MetricsRegistry.Counter reoffered = metrics.counter("reoffered_total", "Messages handed out again after no status");
+    private final MetricsRegistry.Counter sent = metrics.counter("sent_total", "Messages reported sent (success)");
+    private final MetricsRegistry.Counter failed = metrics.counter("failed_total", "Messages reported failed");
+    private final MetricsRegistry.Counter delivered = metrics.counter("delivered_total", "Delivery reports");
+    private final MetricsRegistry.Counter duplicates = metrics.counter("duplicates_total",
+            "Final statuses for messages that were already finished");
+    private final MetricsRegistry.Counter skipped = metrics.counter("skipped_total",
+            "Messages not generated because too many were outstanding");
+    private final MetricsRegistry.Histogram endToEnd = metrics.timer("end_to_end_seconds",
+            "Time from a message being generated to its final status");
+
+    private LocalApiServer server;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * @param maxOutstanding generation pauses while this many messages have no final status,
+     *                       so a gateway that can't keep up doesn't grow the backlog forever
+     */
+    public LoadGenerator(int perMinute, int maxOutstanding, long reofferAfterMs) {
+        this.perMinute = perMinute;
+        this.maxOutstanding = maxOutstanding;
+        this.reofferAfterMs = reofferAfterMs;
+        metrics.gauge("outstanding", "Messages without a final status", this::getOutstandingCount);
+    }
+
+    public synchronized void start(InetSocketAddress bindAddress) throws IOException {
+        server = new LocalApiServer(bindAddress, new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LoadGenerator.this.handle(request);
+            }
+        }, 4, 256, 256, 1 << 20, 30_000);
+        server.start();
+
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        GatewayLog.i(TAG, "Generating " + perMinute + " SMS/min on port " + server.getPort());
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    /**
+     * Stops generating new messages; the ones already out can still finish.
+     */
+    public synchronized void pause() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public long getGeneratedCount() {
+        return generated.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public long getReofferedCount() {
+        return reoffered.get();
+    }
+
+    public synchronized long getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    public MetricsRegistry.Histogram getEndToEndLatency() {
+        return endToEnd;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * One line for the console: totals and end-to-end latency percentiles.
+     */
+    public String summary() {
+        return String.format(Locale.US,
+                "generated=%d sent=%d failed=%d delivered=%d outstanding=%d reoffered=%d duplicates=%d"
+                        + " e2e p50=%dms p99=%dms max=%dms",
+                generated.get(), sent.get(), failed.get(), delivered.get(), getOutstandingCount(), reoffered.get(),
+                duplicates.get(), endToEnd.getQuantile(0.5) / 1000, endToEnd.getQuantile(0.99) / 1000,
+                endToEnd.getMax() / 1000);
+    }
+
+    private synchronized void tick() {
+        credit += perMinute * (double) TICK_MS / 60_000;
+        int due = (int) credit;
+        credit -= due;
+        generate(due);
+    }
+
+    synchronized void generate(int count) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (outstanding.size() >= maxOutstanding) {
+                skipped.add(count - i);
+                return;
+            }
+            String id = String.valueOf(nextId++);
+            outstanding.put(id, new Message(id, now));
+            generated.inc();
+        }
+    }
+
+    LocalApiServer.Response handle(LocalApiServer.Request request) {
+        String path = request.getPath();
+        if (path.endsWith("/get_sms.php")) {
+            String limit = request.getQueryParameter("limit");
+            int count = limit != null ? Integer.parseInt(limit) : 100;
+            String accept = request.getHeader("Accept");
+            if (accept != null && accept.contains(SmsWireCodec.MEDIA_TYPE)) {
+                return new LocalApiServer.Response(200, SmsWireCodec.MEDIA_TYPE, offerWire(count));
+            }
+            return LocalApiServer.Response.json(200, offer(count));
+        }
+        if (path.endsWith("/update_sms_status_batch.php")) {
+            if (SmsWireCodec.isWireType(request.getHeader("Content-Type"))) {
+                try {
+                    SmsWireCodec.readStatuses(new ByteArrayInputStream(request.getBody()),
+                            (source, id, status) -> onStatus(id, status));
+                } catch (IOException e) {
+                    return LocalApiServer.Response.text(400, e.getMessage());
+                }
+                return LocalApiServer.Response.json(200, "{\"status\":\"ok\"}");
+            }
+            Matcher entry = STATUS.matcher(new String(request.getBody(), StandardCharsets.UTF_8));
+            while (entry.find()) {
+                onStatus(entry.group(1), entry.group(2));
+            }
+            return LocalApiServer.Response.json(200, "{\"status\":\"ok\"}");
+        }
+        if (path.endsWith("/update_sms_status.php")) {
+            String id = request.getFormParameter("id");
+            String status = request.getFormParameter("status");
+            if (id == null || status == null) {
+                return LocalApiServer.Response.text(400, "Missing id or status");
+            }
+            onStatus(id, status);
+            return LocalApiServer.Response.json(200, "{\"status\":\"ok\"}");
+        }
+        if (path.endsWith("/metrics")) {
+            return new LocalApiServer.Response(200, "text/plain; version=0.0.4", metrics.toPrometheus());
+        }
+        return LocalApiServer.Response.text(404, "Not found");
+    }
+
+    String offer(int limit) {
+        List<String> ids = take(limit);
+        StringBuilder json = new StringBuilder(ids.size() * 96 + 2).append('[');
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String id = ids.get(i);
+            json.append("{\"id\":\"").append(id)
+                    .append("\",\"phone_number\":\"").append(phone(id))
+                    .append("\",\"message\":");
+            StatusReporter.appendQuoted(json, text(id));
+            json.append(",\"status\":\"pending\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    byte[] offerWire(int limit) {
+        List<String> ids = take(limit);
+        List<SmsMessage> messages = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            messages.add(new SmsMessage(id, phone(id), text(id)));
+        }
+        return SmsWireCodec.encodeMessages(messages);
+    }
+
+    // IDs of up to limit messages to hand out: new ones, and ones out too long without a status
+    private synchronized List<String> take(int limit) {
+        long now = System.currentTimeMillis();
+        List<String> ids = new ArrayList<>(Math.min(limit, outstanding.size()));
+        Iterator<Message> messages = outstanding.values().iterator();
+        while (ids.size() < limit && messages.hasNext()) {
+            Message message = messages.next();
+            if (message.offeredAt != 0) {
+                if (now - message.offeredAt < reofferAfterMs) {
+                    continue;
+                }
+                reoffered.inc();
+            }
+            message.offeredAt = now;
+            offered.inc();
+            ids.add(message.id);
+        }
+        return ids;
+    }
+
+    synchronized void onStatus(String id, String status) {
+        if ("delivered".equals(status)) {
+            delivered.inc();
+            return;
+        }
+        Message message = outstanding.get(id);
+        if ("pending".equals(status)) {
+            // Released by a gateway shutting down, hand it out again right away
+            if (message != null) {
+                message.offeredAt = 0;
+            }
+            return;
+        }
+        if (message == null) {
+            duplicates.inc();
+            return;
+        }
+        outstanding.remove(id);
+        endToEnd.recordSince(message.createdAtNanos);
+        if ("success".equals(status) || "sent".equals(status)) {
+            sent.inc();
+        } else {
+            failed.inc();
+        }
+    }
+
+    static String phone(String id) {
+        return "+1555" + (1_000_000 + Long.parseLong(id) % 1_000_000);
+    }
+
+    // Mostly single-part GSM text, with some multipart and some UCS-2 messages in the mix
+    static String text(String id) {
+        long n = Long.parseLong(id);
+        if (n % 20 == 0) {
+            return "Ваш код подтверждения " + id;
+        }
+        if (n % 10 == 0) {
+            return LONG_TEXT + " Ref " + id;
+        }
+        return "Your verification code is " + id;
+    }
+
+    /**
+     * Arguments: port, messages per minute, seconds to run (0 to run until killed).
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int perMinute = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        LoadGenerator generator = new LoadGenerator(perMinute, 100_000, 60_000);
+        generator.start(new InetSocketAddress(port));
+        System.out.println("Serving http://<this host>:" + generator.getPort()
+                + "/get_sms.php, update_sms_status.php, update_sms_status_batch.php and /metrics");
+        long end = seconds > 0 ? System.currentTimeMillis() + seconds * 1000 : Long.MAX_VALUE;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.max(0, Math.min(10_000, end - System.currentTimeMillis())));
+            System.out.println(generator.summary());
+        }
+        generator.stop();
+    }
+}
@@ -0,0 +1,579 @@
+package com.b4g.smsgateway_app;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small HTTP/1.1 server for pushing messages to the gateway over the LAN.
+ *
+ * Anyone who can reach it can send SMS from the device, so wrap the handler in
+ * {@link #authenticated} and bind to loopback unless LAN clients really need it.
+ *
+ * One selector thread accepts connections and reads and writes every socket without blocking.
+ * Complete requests go to a bounded {@link PipelineStage}; when that queue is full the request
+ * is answered with 503 right away instead of piling up. Connections are kept alive between
+ * requests, handle one request at a time, and are closed after {@code idleTimeoutMs} of silence.
+ */
+public class LocalApiServer {
+    private static final String TAG = "LocalApiServer";
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final long SELECT_TIMEOUT = 1000;
+
+    public static final class Request {
+        private final String method;
+        private final String path;
+        private final String query;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        /**
+         * @param headers keyed by lower case name, or null for none
+         */
+        Request(String method, String path, String query, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers != null ? headers : Collections.<String, String>emptyMap();
+            this.body = body;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /** Path without the query string. */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * First value of a query string parameter, URL-decoded, or null.
+         */
+        public String getQueryParameter(String name) {
+            return parameter(query, name);
+        }
+
+        /**
+         * First value of a parameter in a form-encoded body, or null.
+         */
+        public String getFormParameter(String name) {
+            return parameter(new String(body, StandardCharsets.UTF_8), name);
+        }
+
+        /** Value of the Authorization header, or null. */
+        public String getAuthorization() {
+            return getHeader("authorization");
+        }
+
+        /** Value of a header, or null; the name is case-insensitive. */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        private static String parameter(String encoded, String name) {
+            if (encoded == null) {
+                return null;
+            }
+            for (String pair : encoded.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq >= 0 ? pair.substring(0, eq) : pair;
+                if (name.equals(decode(key))) {
+                    return eq >= 0 ? decode(pair.substring(eq + 1)) : "";
+                }
+            }
+            return null;
+        }
+
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return value;
+            }
+        }
+    }
+
+    public static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        public Response(int status, String contentType, String body) {
+            this(status, contentType, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public static Response json(int status, String json) {
+            return new Response(status, "application/json; charset=utf-8", json);
+        }
+
+        public static Response text(int status, String text) {
+            return new Response(status, "text/plain; charset=utf-8", text);
+        }
+    }
+
+    public interface Handler {
+        /** Runs on a worker thread; may block on the dispatch pipeline. */
+        Response handle(Request request) throws Exception;
+    }
+
+    /**
+     * Wraps {@code handler} so requests whose {@code header} isn't exactly {@code token} get 401.
+     * The comparison takes the same time wherever the values differ.
+     *
+     * @throws IllegalArgumentException if the token is null or empty
+     */
+    public static Handler authenticated(final String header, String token, final Handler handler) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("An API token is needed");
+        }
+        final byte[] expected = token.getBytes(StandardCharsets.UTF_8);
+        return new Handler() {
+            @Override
+            public Response handle(Request request) throws Exception {
+                String given = request.getHeader(header);
+                if (given == null || !MessageDigest.isEqual(expected, given.getBytes(StandardCharsets.UTF_8))) {
+                    return Response.text(401, "Unauthorized");
+                }
+                return handler.handle(request);
+            }
+        };
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096); // kept in write mode
+        ByteBuffer out;
+        boolean busy;
+        boolean closeAfterWrite;
+        long lastActive;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    private final InetSocketAddress bindAddress;
+    private final Handler handler;
+    private final PipelineStage workers;
+    private final int maxConnections;
+    private final int maxBodyBytes;
+    private final long idleTimeoutMs;
+
+    // Selector thread only
+    private final Set<Connection> connections = new HashSet<>();
+    private final ConcurrentLinkedQueue<Connection> responsesReady = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+
+    public LocalApiServer(InetSocketAddress bindAddress, Handler handler, int workerThreads,
+                          int queueCapacity, int maxConnections, int maxBodyBytes, long idleTimeoutMs) {
+        this.bindAddress = bindAddress;
+        this.handler = handler;
+        this.workers = new PipelineStage("http", workerThreads, queueCapacity);
+        this.maxConnections = maxConnections;
+        this.maxBodyBytes = maxBodyBytes;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public synchronized void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(bindAddress);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        GatewayLog.i(TAG, "Listening on " + serverChannel.socket().getLocalSocketAddress());
+    }
+
+    /**
+     * The bound port, useful when started on port 0.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        workers.shutdownNow();
+        if (thread != null) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "http " + requests.get() + " requests, " + rejected.get() + " rejected, " + workers;
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+
+                Connection ready;
+                while ((ready = responsesReady.poll()) != null) {
+                    if (ready.key.isValid()) {
+                        ready.key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read((Connection) key.attachment());
+                        } else if (key.isWritable()) {
+                            write((Connection) key.attachment());
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) {
+                            close((Connection) key.attachment());
+                        }
+                    }
+                }
+
+                closeIdle(System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Selector failed: " + e.getMessage(), e);
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                close(connection);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                GatewayLog.e(TAG, "Error closing server socket: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (connections.size() >= maxConnections) {
+                rejected.incrementAndGet();
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            connection.lastActive = System.currentTimeMillis();
+            key.attach(connection);
+            connections.add(connection);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (!connection.in.hasRemaining()) {
+            respondNow(connection, Response.text(413, "Request too large"), false);
+            return;
+        }
+        int read = connection.channel.read(connection.in);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        parse(connection);
+    }
+
+    // Takes one complete request off the input buffer, if there is one
+    private void parse(Connection connection) {
+        ByteBuffer in = connection.in;
+        in.flip();
+        int headerEnd = indexOfHeaderEnd(in);
+        if (headerEnd < 0) {
+            boolean tooLong = in.remaining() >= MAX_HEADER_BYTES;
+            in.compact();
+            if (tooLong) {
+                respondNow(connection, Response.text(431, "Headers too large"), false);
+            } else if (!in.hasRemaining()) {
+                grow(connection, MAX_HEADER_BYTES);
+            }
+            return;
+        }
+
+        String head = new String(in.array(), in.position(), headerEnd - in.position(), StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            in.clear();
+            respondNow(connection, Response.text(400, "Bad request line"), false);
+            return;
+        }
+
+        int contentLength = 0;
+        String connectionHeader = null;
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = lines[i].substring(colon + 1).trim();
+            headers.put(name, value);
+            if ("content-length".equals(name)) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    contentLength = -1;
+                }
+            } else if ("connection".equals(name)) {
+                connectionHeader = value.toLowerCase(Locale.US);
+            } else if ("transfer-encoding".equals(name)) {
+                in.clear();
+                respondNow(connection, Response.text(411, "Content-Length required"), false);
+                return;
+            }
+        }
+        if (contentLength < 0 || contentLength > maxBodyBytes) {
+            in.clear();
+            respondNow(connection, Response.text(413, "Request too large"), false);
+            return;
+        }
+
+        int bodyStart = headerEnd + 4;
+        if (in.limit() - bodyStart < contentLength) {
+            // Wait for the rest of the body, making room for it first
+            int needed = bodyStart - in.position() + contentLength;
+            in.compact();
+            if (in.capacity() < needed) {
+                grow(connection, needed);
+            }
+            return;
+        }
+
+        byte[] body = new byte[contentLength];
+        in.position(bodyStart);
+        in.get(body);
+        in.compact();
+
+        String version = requestLine[2];
+        boolean keepAlive = "HTTP/1.1".equals(version)
+                ? !"close".equals(connectionHeader)
+                : "keep-alive".equals(connectionHeader);
+        String target = requestLine[1];
+        int query = target.indexOf('?');
+        Request request = new Request(requestLine[0], query >= 0 ? target.substring(0, query) : target,
+                query >= 0 ? target.substring(query + 1) : null, headers, body);
+        dispatch(connection, request, keepAlive);
+    }
+
+    private void dispatch(final Connection connection, final Request request, final boolean keepAlive) {
+        requests.incrementAndGet();
+        connection.busy = true;
+        // No more reads until this response is out, so one slow request can't queue up many more
+        connection.key.interestOps(0);
+
+        boolean queued = workers.trySubmit(new Runnable() {
+            @Override
+            public void run() {
+                Response response;
+                try {
+                    response = handler.handle(request);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    response = Response.text(503, "Shutting down");
+                } catch (Exception e) {
+                    GatewayLog.e(TAG, "Error handling " + request.getMethod() + " " + request.getPath()
+                            + ": " + e.getMessage(), e);
+                    response = Response.text(500, "Internal error");
+                }
+                connection.out = encode(response, keepAlive);
+                connection.closeAfterWrite = !keepAlive;
+                responsesReady.add(connection);
+                selector.wakeup();
+            }
+        });
+        if (!queued) {
+            rejected.incrementAndGet();
+            respondNow(connection, Response.text(503, "Busy, try again"), keepAlive);
+        }
+    }
+
+    // Selector thread only
+    private void respondNow(Connection connection, Response response, boolean keepAlive) {
+        connection.busy = true;
+        connection.out = encode(response, keepAlive);
+        connection.closeAfterWrite = !keepAlive;
+        connection.key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write(Connection connection) throws IOException {
+        connection.channel.write(connection.out);
+        if (connection.out.hasRemaining()) {
+            return;
+        }
+        connection.out = null;
+        connection.lastActive = System.currentTimeMillis();
+        if (connection.closeAfterWrite) {
+            close(connection);
+            return;
+        }
+
+        connection.busy = false;
+        connection.key.interestOps(SelectionKey.OP_READ);
+        // A pipelined request may already be waiting in the buffer
+        if (connection.in.position() > 0) {
+            parse(connection);
+        }
+    }
+
+    private void closeIdle(long now) {
+        List<Connection> idle = null;
+        for (Connection connection : connections) {
+            if (!connection.busy && now - connection.lastActive > idleTimeoutMs) {
+                if (idle == null) {
+                    idle = new ArrayList<>();
+                }
+                idle.add(connection);
+            }
+        }
+        if (idle != null) {
+            for (Connection connection : idle) {
+                close(connection);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        connections.remove(connection);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            GatewayLog.d(TAG, "Error closing connection: " + e.getMessage());
+        }
+    }
+
+    private static void grow(Connection connection, int needed) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, connection.in.capacity() * 2));
+        connection.in.flip();
+        bigger.put(connection.in);
+        connection.in = bigger;
+    }
+
+    // Index of the "\r\n\r\n" ending the headers, relative to the array, or -1
+    private static int indexOfHeaderEnd(ByteBuffer in) {
+        byte[] data = in.array();
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer encode(Response response, boolean keepAlive) {
+        String head = "HTTP/1.1 " + response.status + " " + reason(response.status) + "\r\n"
+                + "Content-Type: " + response.contentType + "\r\n"
+                + "Content-Length: " + response.body.length + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + response.body.length);
+        buffer.put(headBytes).put(response.body);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 202:
+                return "Accepted";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return status >= 500 ? "Internal Server Error" : "Error";
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.b4g.smsgateway_app;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms for the gateway, exportable as Prometheus text or JSON.
+ *
+ * Metrics are registered once at startup and callers keep the returned object, so recording
+ * is a lookup-free update of an adder or an atomic array slot and never allocates. Gauges are
+ * read from their source only when exporting.
+ */
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    /**
+     * Reads the current value of a gauge at export time.
+     */
+    public interface Gauge {
+        long get();
+    }
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Log-linear histogram in the style of HdrHistogram: every power of two is split into
+     * {@code SUB_BUCKETS} linear buckets, so any recorded value is off by at most 1/8.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final double exportScale;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * @param exportScale multiplier from recorded units to exported units, e.g. 1e-6 for
+         *                    values recorded in microseconds and exported in seconds
+         */
+        Histogram(double exportScale) {
+            this.exportScale = exportScale;
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // lost a race with a bigger value, try again
+            }
+        }
+
+        /**
+         * Records the time since {@code startNanos} in microseconds.
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Upper bound of the bucket holding the given quantile, in recorded units.
+         */
+        public long getQuantile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long base = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return base + (1L << shift) - 1;
+        }
+    }
+
+    private static class Entry {
+        final String help;
+        final Object metric;
+        final boolean monotonic;
+
+        Entry(String help, Object metric, boolean monotonic) {
+            this.help = help;
+            this.metric = metric;
+            this.monotonic = monotonic;
+        }
+    }
+
+    private final String prefix;
+    // Sorted so exports are stable
+    private final Map<String, Entry> metrics = new ConcurrentSkipListMap<>();
+
+    public MetricsRegistry(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        metrics.put(name, new Entry(help, counter, true));
+        return counter;
+    }
+
+    /**
+     * A counter kept elsewhere, read at export time.
+     */
+    public void counter(String name, String help, Gauge source) {
+        metrics.put(name, new Entry(help, source, true));
+    }
+
+    public void gauge(String name, String help, Gauge gauge) {
+        metrics.put(name, new Entry(help, gauge, false));
+    }
+
+    /**
+     * A histogram of values recorded in microseconds and exported in seconds.
+     */
+    public Histogram timer(String name, String help) {
+        return histogram(name, help, 1e-6);
+    }
+
+    public Histogram histogram(String name, String help, double exportScale) {
+        Histogram histogram = new Histogram(exportScale);
+        metrics.put(name, new Entry(help, histogram, false));
+        return histogram;
+    }
+
+    /**
+     * Prometheus text exposition format. Histograms are exported as summaries.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder(metrics.size() * 128);
+        for (Map.Entry<String, Entry> item : metrics.entrySet()) {
+            String name = prefix + item.getKey();
+            Object metric = item.getValue().metric;
+            text.append("# HELP ").append(name).append(' ').append(item.getValue().help).append('\n');
+
+            if (metric instanceof Counter) {
+                text.append("# TYPE ").append(name).append(" counter\n");
+                text.append(name).append(' ').append(((Counter) metric).get()).append('\n');
+            } else if (metric instanceof Gauge) {
+                text.append("# TYPE ").append(name).append(item.getValue().monotonic ? " counter\n" : " gauge\n");
+                text.append(name).append(' ').append(((Gauge) metric).get()).append('\n');
+            } else {
+                Histogram histogram = (Histogram) metric;
+                text.append("# TYPE ").append(name).append(" summary\n");
+                for (double quantile : QUANTILES) {
+                    text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                            .append(format(histogram.getQuantile(quantile) * histogram.exportScale)).append('\n');
+                }
+                text.append(name).append("_sum ").append(format(histogram.getSum() * histogram.exportScale)).append('\n');
+                text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(metrics.size() * 64);
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Entry> item : metrics.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(prefix).append(item.getKey()).append("\":");
+
+            Object metric = item.getValue().metric;
+            if (metric instanceof Counter) {
+                json.append(((Counter) metric).get());
+            } else if (metric instanceof Gauge) {
+                json.append(((Gauge) metric).get());
+            } else {
+                Histogram histogram = (Histogram) metric;
+                double scale = histogram.exportScale;
+                json.append("{\"count\":").append(histogram.getCount())
+                        .append(",\"sum\":").append(format(histogram.getSum() * scale))
+                        .append(",\"max\":").append(format(histogram.getMax() * scale));
+                for (double quantile : QUANTILES) {
+                    json.append(",\"p").append((int) Math.round(quantile * 100)).append("\":")
+                            .append(format(histogram.getQuantile(quantile) * scale));
+                }
+                json.append('}');
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.US, "%.6f", value);
+    }
+}
@@ -0,0 +1,81 @@
+package com.b4g.smsgateway_app;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stage of the gateway pipeline: a fixed set of worker threads behind a bounded queue.
+ *
+ * {@link #submit(Runnable)} blocks while the queue is full, so a slow stage holds back the
+ * stage feeding it instead of letting work pile up without limit.
+ */
+public class PipelineStage {
+    private final String name;
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    public PipelineStage(final String name, int threads, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), r -> {
+                    Thread thread = new Thread(r, "Pipeline-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Workers must exist up front, blocked submits go straight into the queue
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queues a task, waiting for space if the stage is backed up.
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException(name + " stage is shut down");
+        }
+        executor.getQueue().put(task);
+    }
+
+    /**
+     * Queues a task only if there is room right now.
+     */
+    public boolean trySubmit(Runnable task) {
+        return !executor.isShutdown() && executor.getQueue().offer(task);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + getQueueDepth() + "/" + capacity + " queued, " + getActiveCount() + " active";
+    }
+}
@@ -0,0 +1,43 @@
+package com.b4g.smsgateway_app;
+
+/**
+ * Counts events and reports their rate over the most recent ones.
+ *
+ * Keeps the timestamps of the last {@code window} events in a ring, so the rate adapts to
+ * bursts without any per-event allocation.
+ */
+public class RateMeter {
+    private final long[] times;
+    private int next;
+    private int size;
+    private long count;
+
+    public RateMeter(int window) {
+        times = new long[Math.max(2, window)];
+    }
+
+    public synchronized void mark(long nowMs) {
+        times[next] = nowMs;
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+        count++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Events per second across the recorded window, up to {@code nowMs}.
+     */
+    public synchronized double getRatePerSecond(long nowMs) {
+        if (size < 2) {
+            return 0;
+        }
+        int oldest = (next - size + times.length) % times.length;
+        long elapsed = nowMs - times[oldest];
+        return elapsed <= 0 ? 0 : size * 1000.0 / elapsed;
+    }
+}
@@ -0,0 +1,192 @@
+package com.b4g.smsgateway_app;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries failed work with exponential backoff and jitter, and gives up after a fixed
+ * number of attempts.
+ *
+ * Attempts are counted per key until {@link #succeeded} is called. All pending retries sit
+ * in one {@link DelayQueue} drained by a single thread, so thousands of them cost one heap
+ * entry each instead of a scheduled task per item.
+ */
+public class RetryQueue<T> {
+    private static final String TAG = "RetryQueue";
+
+    public interface Listener<T> {
+        /** Called on the retry thread when an item is due. {@code attempt} starts at 2. */
+        void onRetry(T item, int attempt) throws InterruptedException;
+
+        /** Called once an item has used up all its attempts, or can never succeed. */
+        void onDeadLetter(T item, int attempts);
+    }
+
+    private static class Entry<T> implements Delayed {
+        final String key;
+        final T item;
+        final int attempt;
+        final long dueAtNanos;
+        final long sequence;
+
+        Entry(String key, T item, int attempt, long dueAtNanos, long sequence) {
+            this.key = key;
+            this.item = item;
+            this.attempt = attempt;
+            this.dueAtNanos = dueAtNanos;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Entry<?> that = (Entry<?>) other;
+            int byDue = Long.compare(dueAtNanos - that.dueAtNanos, 0);
+            // Same due time keeps scheduling order
+            return byDue != 0 ? byDue : Long.compare(sequence, that.sequence);
+        }
+    }
+
+    private final String name;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final Random random;
+    private final Listener<T> listener;
+    private final DelayQueue<Entry<T>> queue = new DelayQueue<>();
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final Thread worker;
+
+    public RetryQueue(String name, long baseDelayMs, long maxDelayMs, int maxAttempts, Random random,
+                      Listener<T> listener) {
+        this.name = name;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+        this.listener = listener;
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Retry-" + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Records a failed attempt for the key and schedules the next one, or dead-letters the
+     * item if it is out of attempts. Returns true if a retry was scheduled.
+     */
+    public boolean retry(String key, T item) {
+        int failed = attempts.merge(key, 1, Integer::sum);
+        if (failed >= maxAttempts) {
+            attempts.remove(key);
+            deadLetter(item, failed);
+            return false;
+        }
+
+        long delay = delayFor(failed);
+        queue.put(new Entry<>(key, item, failed + 1,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay), sequence.incrementAndGet()));
+        GatewayLog.d(TAG, () -> name + " " + key + " failed " + failed + " time(s), retrying in " + delay + " ms");
+        return true;
+    }
+
+    /**
+     * Dead-letters the item right away, for failures a retry can't fix.
+     */
+    public void giveUp(String key, T item) {
+        Integer failed = attempts.remove(key);
+        deadLetter(item, failed == null ? 1 : failed + 1);
+    }
+
+    /**
+     * Forgets the attempt count for the key.
+     */
+    public void succeeded(String key) {
+        attempts.remove(key);
+    }
+
+    /**
+     * Backoff before the attempt following {@code failedAttempts} failures: doubles from the
+     * base delay up to the cap, then a random amount of up to half is taken off so items that
+     * failed together don't all retry together.
+     */
+    long delayFor(int failedAttempts) {
+        int shift = Math.min(Math.max(0, failedAttempts - 1), 30);
+        long delay = Math.min(maxDelayMs, baseDelayMs << shift);
+        if (delay < 0) {
+            delay = maxDelayMs;
+        }
+        long half = delay / 2;
+        return delay - (long) (half * random.nextDouble());
+    }
+
+    /**
+     * Number of retries waiting for their due time.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    public void shutdownNow() {
+        worker.interrupt();
+        queue.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "retry " + name + " " + queue.size() + " scheduled, " + retried.get() + " retried, "
+                + deadLettered.get() + " dead";
+    }
+
+    private void deadLetter(T item, int failed) {
+        deadLettered.incrementAndGet();
+        try {
+            listener.onDeadLetter(item, failed);
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error dead-lettering " + name + " item: " + e.getMessage(), e);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry<T> entry = queue.take();
+                retried.incrementAndGet();
+                try {
+                    listener.onRetry(entry.item, entry.attempt);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    GatewayLog.e(TAG, "Error retrying " + name + " " + entry.key + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            GatewayLog.d(TAG, name + " retry thread stopped");
+        }
+    }
+}
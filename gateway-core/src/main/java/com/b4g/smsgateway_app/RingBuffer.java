@@ -0,0 +1,64 @@
+package com.b4g.smsgateway_app;
+
+import java.util.Collection;
+
+/**
+ * Keeps the newest {@code capacity} items, oldest first, in one preallocated array.
+ *
+ * Adding to a full buffer overwrites the oldest item, so memory stays flat however long it
+ * runs. Not thread-safe; callers confine it to one thread or lock around it.
+ */
+public class RingBuffer<T> {
+    private final Object[] items;
+    private long added;
+
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.items = new Object[capacity];
+    }
+
+    public void add(T item) {
+        items[(int) (added++ % items.length)] = item;
+    }
+
+    public void addAll(Collection<? extends T> newItems) {
+        for (T item : newItems) {
+            add(item);
+        }
+    }
+
+    /**
+     * The item at {@code index}, where 0 is the oldest one still kept.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        }
+        return (T) items[(int) ((added - size() + index) % items.length)];
+    }
+
+    public int size() {
+        return (int) Math.min(added, items.length);
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    /**
+     * Number of items ever added, including the ones overwritten since.
+     */
+    public long getAddedCount() {
+        return added;
+    }
+
+    public void clear() {
+        for (int i = 0; i < items.length; i++) {
+            items[i] = null;
+        }
+        added = 0;
+    }
+}
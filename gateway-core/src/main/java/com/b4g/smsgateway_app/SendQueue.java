@@ -0,0 +1,179 @@
+package com.b4g.smsgateway_app;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue of outgoing SMS that hands out the highest priority message first,
+ * oldest first within a priority, and holds messages with a future {@code send_at} until due.
+ *
+ * Ready messages sit in one heap ordered by (priority, arrival) and scheduled ones in another
+ * ordered by due time, so both sides are O(log n). There is no timer thread: a consumer with
+ * nothing ready just waits until the earliest scheduled message is due. Only ready messages
+ * count against the capacity, since scheduled ones may wait for hours and are in the outbox
+ * anyway.
+ */
+public class SendQueue {
+    private static final class Entry {
+        final SmsMessage sms;
+        final long sequence;
+        final long readyAtNanos;
+
+        Entry(SmsMessage sms, long sequence, long readyAtNanos) {
+            this.sms = sms;
+            this.sequence = sequence;
+            this.readyAtNanos = readyAtNanos;
+        }
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final PriorityQueue<Entry> ready = new PriorityQueue<>(16, (a, b) -> {
+        int byPriority = Integer.compare(b.sms.getPriority(), a.sms.getPriority());
+        return byPriority != 0 ? byPriority : Long.compare(a.sequence, b.sequence);
+    });
+    private final PriorityQueue<Entry> scheduled = new PriorityQueue<>(16, (a, b) -> {
+        int byDue = Long.compare(a.sms.getSendAt(), b.sms.getSendAt());
+        return byDue != 0 ? byDue : Long.compare(a.sequence, b.sequence);
+    });
+    private long sequence;
+    private volatile MetricsRegistry.Histogram[] waitByPriority;
+
+    public SendQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Records how long messages of each priority waited between becoming ready and being
+     * taken, indexed by priority.
+     */
+    public void setQueueWait(MetricsRegistry.Histogram[] waitByPriority) {
+        this.waitByPriority = waitByPriority;
+    }
+
+    /**
+     * Queues a message, waiting for room if it's due now and the queue is full.
+     */
+    public void put(SmsMessage sms) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        lock.lockInterruptibly();
+        try {
+            if (sms.getSendAt() > now) {
+                scheduled.add(new Entry(sms, sequence++, 0));
+                // A consumer may be sleeping until a later message is due
+                notEmpty.signal();
+                return;
+            }
+            while (ready.size() >= capacity) {
+                notFull.await();
+            }
+            ready.add(new Entry(sms, sequence++, System.nanoTime()));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message to send, waiting until one is ready.
+     */
+    public SmsMessage take() throws InterruptedException {
+        Entry entry;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                promoteDue(System.currentTimeMillis());
+                entry = ready.poll();
+                if (entry != null) {
+                    notFull.signal();
+                    break;
+                }
+
+                Entry next = scheduled.peek();
+                if (next == null) {
+                    notEmpty.await();
+                } else {
+                    notEmpty.await(Math.max(1, next.sms.getSendAt() - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        MetricsRegistry.Histogram[] wait = waitByPriority;
+        if (wait != null) {
+            int priority = Math.max(0, Math.min(wait.length - 1, entry.sms.getPriority()));
+            wait[priority].recordSince(entry.readyAtNanos);
+        }
+        return entry.sms;
+    }
+
+    /**
+     * Messages ready to send.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return ready.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Messages waiting for their {@code send_at}.
+     */
+    public int getScheduledCount() {
+        lock.lock();
+        try {
+            return scheduled.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Due time of the earliest scheduled message, in epoch milliseconds, or 0 if none is waiting.
+     */
+    public long getNextSendAt() {
+        lock.lock();
+        try {
+            Entry next = scheduled.peek();
+            return next != null ? next.sms.getSendAt() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes waiting consumers check the scheduled messages against the clock again. Their wait
+     * doesn't count time the device spent asleep, so an alarm has to end it.
+     */
+    public void recheckScheduled() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Due messages count as ready from their due time, not from when they were queued
+    private void promoteDue(long now) {
+        Entry next;
+        while ((next = scheduled.peek()) != null && next.sms.getSendAt() <= now) {
+            scheduled.poll();
+            long lateNanos = TimeUnit.MILLISECONDS.toNanos(now - next.sms.getSendAt());
+            ready.add(new Entry(next.sms, next.sequence, System.nanoTime() - lateNanos));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.b4g.smsgateway_app;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token buckets that pace SMS sends under the platform and carrier limits.
+ *
+ * Each bucket holds up to {@code limit} tokens and refills continuously over its period,
+ * so a full bucket allows a burst of {@code limit} sends. Taking tokens is a CAS on one
+ * long per bucket when nobody is waiting. Callers that have to wait queue up on a fair
+ * lock and sleep while holding it, so they are served strictly in arrival order.
+ */
+public class SendRateLimiter {
+
+    /**
+     * One bucket, stored as the time at which it will be completely full again.
+     */
+    static class Bucket {
+        final String name;
+        final int limit;
+        final long intervalNanos; // time to earn one token
+        final long periodNanos;
+        final AtomicLong fullAt;
+
+        Bucket(String name, int limit, long period, TimeUnit unit, long nowNanos) {
+            this.name = name;
+            this.limit = limit;
+            this.periodNanos = unit.toNanos(period);
+            this.intervalNanos = Math.max(1, periodNanos / limit);
+            this.fullAt = new AtomicLong(nowNanos);
+        }
+
+        // Returns 0 if the tokens were taken, otherwise how long until they would be available
+        long tryTake(int permits, long nowNanos) {
+            // A message with more parts than the whole bucket still has to get through eventually
+            long cost = intervalNanos * Math.min(permits, limit);
+            while (true) {
+                long current = fullAt.get();
+                long base = Math.max(current, nowNanos);
+                long next = base + cost;
+                long shortfall = next - nowNanos - periodNanos;
+                if (shortfall > 0) {
+                    return shortfall;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        void giveBack(int permits) {
+            fullAt.addAndGet(-intervalNanos * Math.min(permits, limit));
+        }
+
+        int available(long nowNanos) {
+            long debt = Math.max(0, fullAt.get() - nowNanos);
+            return (int) Math.max(0, limit - (debt + intervalNanos - 1) / intervalNanos);
+        }
+
+        // What is here now plus what is earned while sending it
+        long availableWithin(long windowNanos, long nowNanos) {
+            return available(nowNanos) + windowNanos / intervalNanos;
+        }
+    }
+
+    private final Bucket[] buckets;
+    private final ReentrantLock waitLock = new ReentrantLock(true);
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    public SendRateLimiter(int perMinute, int perHour) {
+        long now = System.nanoTime();
+        buckets = new Bucket[]{
+                new Bucket("minute", perMinute, 1, TimeUnit.MINUTES, now),
+                new Bucket("hour", perHour, 1, TimeUnit.HOURS, now)
+        };
+    }
+
+    /**
+     * Takes the tokens if they are available right now, without waiting.
+     */
+    public boolean tryAcquire(int permits) {
+        return tryTakeAll(permits, System.nanoTime()) == 0;
+    }
+
+    /**
+     * Takes the tokens, waiting in line behind earlier callers until they are available.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        // Fast path, only when no one is already waiting so the line stays fair
+        if (!waitLock.hasQueuedThreads() && !waitLock.isLocked() && tryAcquire(permits)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        waitLock.lockInterruptibly();
+        try {
+            long wait;
+            while ((wait = tryTakeAll(permits, System.nanoTime())) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } finally {
+            waitLock.unlock();
+            waitedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Tokens left in the given bucket ("minute" or "hour").
+     */
+    public int getAvailable(String bucketName) {
+        long now = System.nanoTime();
+        for (Bucket bucket : buckets) {
+            if (bucket.name.equals(bucketName)) {
+                return bucket.available(now);
+            }
+        }
+        throw new IllegalArgumentException("Unknown bucket " + bucketName);
+    }
+
+    /**
+     * How many tokens can be taken over the next {@code windowMs}, counting the ones that
+     * refill along the way. The tightest bucket decides.
+     */
+    public int getAvailableWithin(long windowMs) {
+        long now = System.nanoTime();
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        long permits = Long.MAX_VALUE;
+        for (Bucket bucket : buckets) {
+            permits = Math.min(permits, bucket.availableWithin(windowNanos, now));
+        }
+        return (int) Math.min(Integer.MAX_VALUE, permits);
+    }
+
+    /**
+     * Total time callers have spent waiting for tokens.
+     */
+    public long getWaitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos.get());
+    }
+
+    public boolean hasWaiters() {
+        return waitLock.isLocked();
+    }
+
+    @Override
+    public String toString() {
+        long now = System.nanoTime();
+        StringBuilder text = new StringBuilder("tokens");
+        for (Bucket bucket : buckets) {
+            text.append(' ').append(bucket.name).append('=')
+                    .append(bucket.available(now)).append('/').append(bucket.limit);
+        }
+        return text.toString();
+    }
+
+    private long tryTakeAll(int permits, long nowNanos) {
+        for (int i = 0; i < buckets.length; i++) {
+            long wait = buckets[i].tryTake(permits, nowNanos);
+            if (wait > 0) {
+                // Undo the buckets that already gave up their tokens
+                for (int j = 0; j < i; j++) {
+                    buckets[j].giveBack(permits);
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+}
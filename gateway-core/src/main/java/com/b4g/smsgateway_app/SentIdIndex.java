@@ -0,0 +1,268 @@
+package com.b4g.smsgateway_app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded index of recently sent SMS IDs, used to avoid sending the same server message twice.
+ *
+ * Numeric IDs live in an open-addressing table of primitive longs plus a FIFO ring that
+ * drives eviction, so lookups and inserts are O(1) and don't allocate. Entries expire after
+ * {@code ttlMs}, and the oldest entry is dropped early once {@code maxEntries} is reached.
+ * Non-numeric IDs fall back to a small insertion-ordered map with the same rules.
+ */
+public class SentIdIndex {
+    private static final int SNAPSHOT_MAGIC = 0x53494458; // "SIDX"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Hash table, linear probing with backward-shift deletion
+    private final long[] keys;
+    private final long[] times;
+    private final int mask;
+
+    // Insertion order, oldest at head
+    private final long[] ringKeys;
+    private final long[] ringTimes;
+    private int ringHead;
+    private int ringSize;
+
+    private final LinkedHashMap<String, Long> textIds = new LinkedHashMap<>();
+    private boolean dirty;
+
+    public SentIdIndex(int maxEntries, long ttlMs) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+
+        int capacity = Integer.highestOneBit(this.maxEntries * 2 - 1) << 1;
+        keys = new long[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+
+        ringKeys = new long[this.maxEntries];
+        ringTimes = new long[this.maxEntries];
+    }
+
+    /**
+     * Returns true if the ID was recorded as sent within the TTL.
+     */
+    public synchronized boolean contains(String smsId, long now) {
+        evictExpired(now);
+
+        long numericId = parseId(smsId);
+        if (numericId == EMPTY) {
+            return textIds.containsKey(smsId);
+        }
+        return indexOf(numericId) >= 0;
+    }
+
+    /**
+     * Records the ID as sent at {@code now}.
+     */
+    public synchronized void add(String smsId, long now) {
+        evictExpired(now);
+        dirty = true;
+
+        long numericId = parseId(smsId);
+        if (numericId == EMPTY) {
+            textIds.remove(smsId);
+            if (textIds.size() >= maxEntries) {
+                Iterator<String> oldest = textIds.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            textIds.put(smsId, now);
+            return;
+        }
+
+        if (ringSize == maxEntries) {
+            evictRingHead();
+        }
+        put(numericId, now);
+        int tail = (ringHead + ringSize) % maxEntries;
+        ringKeys[tail] = numericId;
+        ringTimes[tail] = now;
+        ringSize++;
+    }
+
+    public synchronized int size() {
+        return countNumeric() + textIds.size();
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes a compact snapshot of the live entries, replacing {@code file} atomically.
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+
+            // Ring order is oldest first, so a reload rebuilds the same eviction order
+            out.writeInt(ringSize);
+            for (int i = 0; i < ringSize; i++) {
+                int slot = (ringHead + i) % maxEntries;
+                out.writeLong(ringKeys[slot]);
+                out.writeLong(ringTimes[slot]);
+            }
+
+            out.writeInt(textIds.size());
+            for (Map.Entry<String, Long> entry : textIds.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Loads a snapshot written by {@link #save(File)}, skipping entries that have already expired.
+     */
+    public synchronized void load(File file, long now) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format in " + file);
+            }
+
+            int numericCount = in.readInt();
+            for (int i = 0; i < numericCount; i++) {
+                long id = in.readLong();
+                long time = in.readLong();
+                if (now - time < ttlMs) {
+                    add(String.valueOf(id), time);
+                }
+            }
+
+            int textCount = in.readInt();
+            for (int i = 0; i < textCount; i++) {
+                String id = in.readUTF();
+                long time = in.readLong();
+                if (now - time < ttlMs) {
+                    add(id, time);
+                }
+            }
+        }
+        dirty = false;
+    }
+
+    private void evictExpired(long now) {
+        while (ringSize > 0 && now - ringTimes[ringHead] >= ttlMs) {
+            evictRingHead();
+        }
+
+        Iterator<Long> textTimes = textIds.values().iterator();
+        while (textTimes.hasNext() && now - textTimes.next() >= ttlMs) {
+            textTimes.remove();
+        }
+    }
+
+    private void evictRingHead() {
+        long key = ringKeys[ringHead];
+        long time = ringTimes[ringHead];
+        ringHead = (ringHead + 1) % maxEntries;
+        ringSize--;
+
+        // The same ID may have been re-added later, only drop it if this was the latest entry
+        int index = indexOf(key);
+        if (index >= 0 && times[index] == time) {
+            removeAt(index);
+        }
+    }
+
+    private int indexOf(long key) {
+        int index = slot(key);
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void put(long key, long time) {
+        int index = slot(key);
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        times[index] = time;
+    }
+
+    private void removeAt(int index) {
+        // Shift later entries of the probe chain back so lookups never hit a gap
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                times[gap] = times[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+    }
+
+    private int countNumeric() {
+        int count = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Returns EMPTY for IDs that aren't plain non-negative decimal numbers
+    private static long parseId(String smsId) {
+        int length = smsId.length();
+        if (length == 0 || length > 18) {
+            return EMPTY;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = smsId.charAt(i);
+            if (c < '0' || c > '9') {
+                return EMPTY;
+            }
+            value = value * 10 + (c - '0');
+        }
+        // "007" and "7" must not collapse onto the same entry
+        if (length > 1 && smsId.charAt(0) == '0') {
+            return EMPTY;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,354 @@
+package com.b4g.smsgateway_app;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads outgoing SMS across every active SIM.
+ *
+ * Each SIM gets its own {@link SmsTransport}, rate limiter and {@link SendQueue} with one
+ * sending thread, so a dual-SIM phone sends on both radios at once. Messages go to the SIM named by their {@code sim} hint
+ * if there is one, otherwise round-robin or to the least loaded SIM. A SIM that keeps failing
+ * is taken out of rotation for a while.
+ */
+public class SimDispatcher {
+    private static final String TAG = "SimDispatcher";
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    /**
+     * Does the actual send on the SIM's dispatch thread.
+     */
+    public interface Sender {
+        void send(SmsMessage sms, SimChannel channel) throws InterruptedException;
+    }
+
+    /**
+     * One SIM with its own queue, limiter and counters.
+     */
+    public static class SimChannel {
+        private final int subscriptionId;
+        private final int slot; // 1-based, as shown to users
+        private final String name;
+        private final SmsTransport transport;
+        private final SendRateLimiter rateLimiter;
+        private final SendQueue queue;
+        private Thread worker;
+        private volatile boolean busy;
+        private final RateMeter sentMeter = new RateMeter(128);
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long disabledUntil;
+
+        SimChannel(int subscriptionId, int slot, String name, SmsTransport transport,
+                   SendRateLimiter rateLimiter, int queueCapacity) {
+            this.subscriptionId = subscriptionId;
+            this.slot = slot;
+            this.name = name;
+            this.transport = transport;
+            this.rateLimiter = rateLimiter;
+            this.queue = new SendQueue(queueCapacity);
+        }
+
+        void start(final Sender sender) {
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            SmsMessage sms = queue.take();
+                            busy = true;
+                            try {
+                                sender.send(sms, SimChannel.this);
+                            } catch (RuntimeException e) {
+                                GatewayLog.e(TAG, "Error sending SMS ID " + sms.getId() + " on SIM" + slot
+                                        + ": " + e.getMessage(), e);
+                            } finally {
+                                busy = false;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Shutting down
+                    }
+                }
+            }, "Pipeline-sim" + slot);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        public int getSubscriptionId() {
+            return subscriptionId;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SmsTransport getTransport() {
+            return transport;
+        }
+
+        public SendRateLimiter getRateLimiter() {
+            return rateLimiter;
+        }
+
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        /**
+         * Messages held on this SIM until their send time.
+         */
+        public int getScheduledCount() {
+            return queue.getScheduledCount();
+        }
+
+        public long getSentCount() {
+            return sentMeter.getCount();
+        }
+
+        public long getFailedCount() {
+            return failed.get();
+        }
+
+        public double getSentPerSecond() {
+            return sentMeter.getRatePerSecond(System.currentTimeMillis());
+        }
+
+        public boolean isEnabled(long now) {
+            return now >= disabledUntil;
+        }
+
+        int getLoad() {
+            return queue.size() + (busy ? 1 : 0) + inFlight.get();
+        }
+
+        /**
+         * How many more messages this SIM has room for and could send within {@code windowMs},
+         * after what it already holds. Counts one part per message.
+         */
+        public int getSendableWithin(long windowMs) {
+            int load = getLoad();
+            int room = queue.getCapacity() - load;
+            int tokens = rateLimiter.getAvailableWithin(windowMs) - load;
+            return Math.max(0, Math.min(room, tokens));
+        }
+
+        @Override
+        public String toString() {
+            return "SIM" + slot + " (" + name + ") " + queue.size() + "/" + queue.getCapacity() + " queued"
+                    + ", " + queue.getScheduledCount() + " scheduled"
+                    + ", " + inFlight.get() + " in flight"
+                    + ", sent " + sentMeter.getCount()
+                    + String.format(Locale.US, " at %.2f/s", getSentPerSecond())
+                    + ", failed " + failed.get()
+                    + ", " + rateLimiter
+                    + (isEnabled(System.currentTimeMillis()) ? "" : ", out of rotation");
+        }
+    }
+
+    private final List<SimChannel> channels;
+    private final Strategy strategy;
+    private final int maxConsecutiveFailures;
+    private final long cooldownMs;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final Map<String, SimChannel> assignments = new ConcurrentHashMap<>();
+
+    public SimDispatcher(List<SimChannel> channels, Strategy strategy, Sender sender,
+                         int maxConsecutiveFailures, long cooldownMs) {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("At least one SIM channel is required");
+        }
+        this.channels = channels;
+        this.strategy = strategy;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.cooldownMs = cooldownMs;
+        for (SimChannel channel : channels) {
+            channel.start(sender);
+        }
+    }
+
+    /**
+     * Queues the message on a SIM by priority, waiting if that SIM's queue is full. Messages
+     * with a future send time are held on the SIM until due.
+     */
+    public void dispatch(SmsMessage sms) throws InterruptedException {
+        choose(sms).queue.put(sms);
+    }
+
+    /**
+     * Records queue wait per priority on every SIM, indexed by priority.
+     */
+    public void setQueueWait(MetricsRegistry.Histogram[] waitByPriority) {
+        for (SimChannel channel : channels) {
+            channel.queue.setQueueWait(waitByPriority);
+        }
+    }
+
+    /**
+     * Called by the sender right before the message goes to the radio on this channel.
+     */
+    public void onHandedOff(SmsMessage sms, SimChannel channel) {
+        assignments.put(sms.getKey(), channel);
+        channel.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records the final outcome of a message. Messages that never reached {@link #onHandedOff}
+     * (invalid number, empty text) don't count against any SIM.
+     */
+    public void onResult(SmsMessage sms, boolean success) {
+        SimChannel channel = assignments.remove(sms.getKey());
+        if (channel == null) {
+            return;
+        }
+        channel.inFlight.decrementAndGet();
+
+        if (success) {
+            channel.sentMeter.mark(System.currentTimeMillis());
+            channel.consecutiveFailures.set(0);
+            return;
+        }
+
+        channel.failed.incrementAndGet();
+        if (channel.consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures && channels.size() > 1) {
+            channel.consecutiveFailures.set(0);
+            channel.disabledUntil = System.currentTimeMillis() + cooldownMs;
+            GatewayLog.e(TAG, "SIM" + channel.slot + " failed " + maxConsecutiveFailures
+                    + " times in a row, out of rotation for " + TimeUnit.MILLISECONDS.toSeconds(cooldownMs) + " s");
+        }
+    }
+
+    public List<SimChannel> getChannels() {
+        return channels;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (SimChannel channel : channels) {
+            depth += channel.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * How many more messages the SIMs in rotation could take and send within {@code windowMs}.
+     */
+    public int getSendableWithin(long windowMs) {
+        long now = System.currentTimeMillis();
+        int sendable = 0;
+        for (SimChannel channel : channels) {
+            if (channel.isEnabled(now)) {
+                sendable += channel.getSendableWithin(windowMs);
+            }
+        }
+        return sendable;
+    }
+
+    public int getScheduledCount() {
+        int scheduled = 0;
+        for (SimChannel channel : channels) {
+            scheduled += channel.getScheduledCount();
+        }
+        return scheduled;
+    }
+
+    /**
+     * Due time of the earliest scheduled message on any SIM, in epoch milliseconds, or 0 if
+     * none is waiting.
+     */
+    public long getNextSendAt() {
+        long next = 0;
+        for (SimChannel channel : channels) {
+            long sendAt = channel.queue.getNextSendAt();
+            if (sendAt > 0 && (next == 0 || sendAt < next)) {
+                next = sendAt;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Has every SIM release scheduled messages that came due while the device slept.
+     */
+    public void recheckScheduled() {
+        for (SimChannel channel : channels) {
+            channel.queue.recheckScheduled();
+        }
+    }
+
+    public void shutdownNow() {
+        for (SimChannel channel : channels) {
+            channel.worker.interrupt();
+            if (channel.transport != null) {
+                channel.transport.close();
+            }
+        }
+    }
+
+    public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        for (SimChannel channel : channels) {
+            channel.worker.join(unit.toMillis(timeout));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (SimChannel channel : channels) {
+            if (text.length() > 0) {
+                text.append("; ");
+            }
+            text.append(channel);
+        }
+        return text.toString();
+    }
+
+    private SimChannel choose(SmsMessage sms) {
+        long now = System.currentTimeMillis();
+
+        if (sms.getSimSlot() > 0) {
+            for (SimChannel channel : channels) {
+                if (channel.slot == sms.getSimSlot() && channel.isEnabled(now)) {
+                    return channel;
+                }
+            }
+            GatewayLog.w(TAG, "SIM" + sms.getSimSlot() + " requested for SMS ID " + sms.getId() + " is not available");
+        }
+
+        if (strategy == Strategy.LEAST_LOADED) {
+            SimChannel best = null;
+            for (SimChannel channel : channels) {
+                if (channel.isEnabled(now) && (best == null || channel.getLoad() < best.getLoad())) {
+                    best = channel;
+                }
+            }
+            if (best != null) {
+                return best;
+            }
+        } else {
+            for (int i = 0; i < channels.size(); i++) {
+                SimChannel channel = channels.get(Math.floorMod(nextChannel.getAndIncrement(), channels.size()));
+                if (channel.isEnabled(now)) {
+                    return channel;
+                }
+            }
+        }
+
+        // Every SIM is cooling down, keep sending rather than stalling
+        return channels.get(Math.floorMod(nextChannel.getAndIncrement(), channels.size()));
+    }
+}
@@ -0,0 +1,192 @@
+package com.b4g.smsgateway_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for the radio where there is none, such as in the emulator or a soak test on a
+ * plain JVM.
+ *
+ * Messages are split like a real SIM would (160/153 GSM characters per part, 70/67 for
+ * anything else). Each part's sent result arrives after a log-normal latency and fails at a
+ * fixed rate. Parts beyond the carrier's per-second allowance fail with
+ * {@link #RESULT_ERROR_LIMIT_EXCEEDED}, as a throttling carrier does. Delivery reports follow
+ * after their own delay, and only for some parts. With {@link Profile#instant()} everything
+ * is reported right away on the calling thread.
+ */
+public class SimulatedTransport implements SmsTransport {
+    private static final String TAG = "SimulatedTransport";
+
+    /** SmsManager.RESULT_ERROR_GENERIC_FAILURE */
+    public static final int RESULT_ERROR_GENERIC_FAILURE = 1;
+    /** SmsManager.RESULT_ERROR_LIMIT_EXCEEDED */
+    public static final int RESULT_ERROR_LIMIT_EXCEEDED = 5;
+
+    // z-score of the 99th percentile, to turn a p99 into a log-normal sigma
+    private static final double Z_99 = 2.326;
+
+    /**
+     * How one simulated carrier behaves.
+     */
+    public static final class Profile {
+        final long medianLatencyMs;
+        final long p99LatencyMs;
+        final double failureRate;
+        final int maxPartsPerSecond;
+        final double deliveryReportRate;
+        final long medianDeliveryMs;
+
+        /**
+         * @param maxPartsPerSecond carrier allowance, 0 for none
+         * @param deliveryReportRate share of parts that get a delivery report
+         */
+        public Profile(long medianLatencyMs, long p99LatencyMs, double failureRate, int maxPartsPerSecond,
+                       double deliveryReportRate, long medianDeliveryMs) {
+            if (p99LatencyMs < medianLatencyMs) {
+                throw new IllegalArgumentException("p99 latency below the median");
+            }
+            this.medianLatencyMs = medianLatencyMs;
+            this.p99LatencyMs = p99LatencyMs;
+            this.failureRate = failureRate;
+            this.maxPartsPerSecond = maxPartsPerSecond;
+            this.deliveryReportRate = deliveryReportRate;
+            this.medianDeliveryMs = medianDeliveryMs;
+        }
+
+        /**
+         * Every part sent and delivered at once, on the calling thread.
+         */
+        public static Profile instant() {
+            return new Profile(0, 0, 0, 0, 1, 0);
+        }
+
+        /**
+         * Roughly a consumer SIM on a busy network: about a second to send with a long tail,
+         * 1% failures, throttled at 10 parts a second, delivery reports for 90% of parts.
+         */
+        public static Profile typical() {
+            return new Profile(800, 6000, 0.01, 10, 0.9, 4000);
+        }
+
+        boolean isInstant() {
+            return p99LatencyMs == 0 && medianDeliveryMs == 0 && failureRate == 0 && maxPartsPerSecond == 0;
+        }
+    }
+
+    private final Listener listener;
+    private final Profile profile;
+    private final Random random;
+    private final ScheduledExecutorService results;
+
+    // Carrier allowance, counted per wall-clock second
+    private long throttleSecond;
+    private int throttleParts;
+
+    public SimulatedTransport(Listener listener) {
+        this(listener, Profile.instant(), new Random());
+    }
+
+    public SimulatedTransport(Listener listener, Profile profile, Random random) {
+        this.listener = listener;
+        this.profile = profile;
+        this.random = random;
+        this.results = profile.isInstant() ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public List<String> divide(String text) {
+        boolean gsm = isGsm(text);
+        int single = gsm ? 160 : 70;
+        if (text.length() <= single) {
+            return Collections.singletonList(text);
+        }
+        int perPart = gsm ? 153 : 67;
+        List<String> parts = new ArrayList<>((text.length() + perPart - 1) / perPart);
+        for (int start = 0; start < text.length(); start += perPart) {
+            parts.add(text.substring(start, Math.min(text.length(), start + perPart)));
+        }
+        return parts;
+    }
+
+    @Override
+    public void send(final SmsMessage sms, List<String> parts) {
+        GatewayLog.d(TAG, () -> "Simulated SMS to " + GatewayLog.phone(sms.getPhoneNumber())
+                + ": " + GatewayLog.body(sms.getMessage()));
+        int partCount = parts == null || parts.isEmpty() ? 1 : parts.size();
+        if (results == null) {
+            for (int i = 0; i < partCount; i++) {
+                listener.onPartSent(sms.getKey(), i, RESULT_OK);
+            }
+            for (int i = 0; i < partCount; i++) {
+                listener.onPartDelivered(sms.getKey(), i, DELIVERY_DELIVERED);
+            }
+            return;
+        }
+
+        for (int i = 0; i < partCount; i++) {
+            final int part = i;
+            final int result;
+            final long latency;
+            final long deliveryDelay;
+            synchronized (this) {
+                result = throttled(System.currentTimeMillis()) ? RESULT_ERROR_LIMIT_EXCEEDED
+                        : random.nextDouble() < profile.failureRate ? RESULT_ERROR_GENERIC_FAILURE : RESULT_OK;
+                latency = sample(profile.medianLatencyMs, profile.p99LatencyMs);
+                deliveryDelay = result == RESULT_OK && random.nextDouble() < profile.deliveryReportRate
+                        ? latency + sample(profile.medianDeliveryMs, profile.medianDeliveryMs * 5) : -1;
+            }
+            results.schedule(() -> listener.onPartSent(sms.getKey(), part, result), latency, TimeUnit.MILLISECONDS);
+            if (deliveryDelay >= 0) {
+                results.schedule(() -> listener.onPartDelivered(sms.getKey(), part, DELIVERY_DELIVERED),
+                        deliveryDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (results != null) {
+            results.shutdownNow();
+        }
+    }
+
+    // Log-normal with the given median and 99th percentile
+    private long sample(long median, long p99) {
+        if (median <= 0) {
+            return 0;
+        }
+        double sigma = Math.log((double) p99 / median) / Z_99;
+        return (long) (median * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    private boolean throttled(long now) {
+        if (profile.maxPartsPerSecond <= 0) {
+            return false;
+        }
+        long second = now / 1000;
+        if (second != throttleSecond) {
+            throttleSecond = second;
+            throttleParts = 0;
+        }
+        return ++throttleParts > profile.maxPartsPerSecond;
+    }
+
+    // Close enough to the GSM 7-bit alphabet for splitting: anything beyond Latin-1 needs UCS-2
+    private static boolean isGsm(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
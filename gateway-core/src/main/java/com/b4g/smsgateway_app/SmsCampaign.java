@@ -0,0 +1,88 @@
+package com.b4g.smsgateway_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One text sent to many recipients, as the server hands it out: a template, the settings every
+ * message shares, and each recipient's ID, number and variables.
+ *
+ * The gateway never holds a whole campaign; the parsers render recipients into
+ * {@link SmsMessage}s as they read them. This is the server side, for writing fetch responses
+ * in the load generator and tests.
+ */
+public class SmsCampaign {
+    /**
+     * One message of the campaign. The ID is what its status is reported under.
+     */
+    public static final class Recipient {
+        private final String id;
+        private final String phoneNumber;
+        private final Map<String, String> variables;
+
+        public Recipient(String id, String phoneNumber, Map<String, String> variables) {
+            this.id = id;
+            this.phoneNumber = phoneNumber;
+            this.variables = variables;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPhoneNumber() {
+            return phoneNumber;
+        }
+
+        public Map<String, String> getVariables() {
+            return variables;
+        }
+    }
+
+    private final String name;
+    private final String template;
+    private final int simSlot;
+    private final int priority;
+    private final long sendAt;
+    private final List<Recipient> recipients = new ArrayList<>();
+
+    public SmsCampaign(String name, String template, int simSlot, int priority, long sendAt) {
+        this.name = name;
+        this.template = template;
+        this.simSlot = simSlot;
+        this.priority = priority;
+        this.sendAt = sendAt;
+    }
+
+    public SmsCampaign addRecipient(String id, String phoneNumber, Map<String, String> variables) {
+        recipients.add(new Recipient(id, phoneNumber, variables));
+        return this;
+    }
+
+    /** Shown in logs only; may be null. */
+    public String getName() {
+        return name;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public int getSimSlot() {
+        return simSlot;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getSendAt() {
+        return sendAt;
+    }
+
+    public List<Recipient> getRecipients() {
+        return Collections.unmodifiableList(recipients);
+    }
+}
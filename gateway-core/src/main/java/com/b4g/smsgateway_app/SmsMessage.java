@@ -0,0 +1,114 @@
+package com.b4g.smsgateway_app;
+
+/**
+ * A single outgoing SMS as handed out by the server.
+ */
+public class SmsMessage {
+    /** Bulk and marketing messages, sent when nothing else is waiting. */
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    /** OTP and other transactional messages, sent ahead of everything else. */
+    public static final int PRIORITY_HIGH = 2;
+    /** Source of messages from the single queue of older setups. */
+    public static final String DEFAULT_SOURCE = "default";
+
+    private final String id;
+    private final String phoneNumber;
+    private final String message;
+    private final int simSlot;
+    private final String source;
+    private final int priority;
+    private final long sendAt;
+
+    public SmsMessage(String id, String phoneNumber, String message) {
+        this(id, phoneNumber, message, 0);
+    }
+
+    public SmsMessage(String id, String phoneNumber, String message, int simSlot) {
+        this(id, phoneNumber, message, simSlot, DEFAULT_SOURCE);
+    }
+
+    public SmsMessage(String id, String phoneNumber, String message, int simSlot, String source) {
+        this(id, phoneNumber, message, simSlot, source, PRIORITY_NORMAL, 0);
+    }
+
+    public SmsMessage(String id, String phoneNumber, String message, int simSlot, String source,
+                      int priority, long sendAt) {
+        this.id = id;
+        this.phoneNumber = phoneNumber;
+        this.message = message;
+        this.simSlot = simSlot;
+        this.source = source;
+        this.priority = priority;
+        this.sendAt = sendAt;
+    }
+
+    /**
+     * ID the source gave the message; only unique within that source.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Source and ID together, what the gateway tracks the message under.
+     */
+    public String getKey() {
+        return keyOf(source, id);
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 1-based SIM slot the server asked for, or 0 to let the gateway pick.
+     */
+    public int getSimSlot() {
+        return simSlot;
+    }
+
+    /**
+     * Name of the configured source the message was fetched from.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * One of the {@code PRIORITY_} constants.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Earliest time to send, in epoch milliseconds, or 0 to send right away.
+     */
+    public long getSendAt() {
+        return sendAt;
+    }
+
+    public static String keyOf(String source, String id) {
+        return source + ':' + id;
+    }
+
+    /**
+     * The source's ID back from a {@link #getKey key}. Source names can't contain a colon.
+     */
+    public static String idOf(String key) {
+        return key.substring(key.indexOf(':') + 1);
+    }
+
+    /**
+     * The source back from a {@link #getKey key}, or the default source for a bare ID.
+     */
+    public static String sourceOf(String key) {
+        int colon = key.indexOf(':');
+        return colon >= 0 ? key.substring(0, colon) : DEFAULT_SOURCE;
+    }
+}
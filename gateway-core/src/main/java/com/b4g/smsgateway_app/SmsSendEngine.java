@@ -0,0 +1,220 @@
+package com.b4g.smsgateway_app;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends SMS as one or more parts and reports the outcome once every part has a result.
+ *
+ * Messages go out through the {@link SmsTransport} of the SIM they were queued on, and each
+ * part reports back through this engine, which is the transports' {@link SmsTransport.Listener}.
+ * The callback only fires after all parts reported back, or after {@code sentTimeoutMs} if the
+ * radio never answers. Part results are handled on one thread, so per-message state needs no
+ * locking.
+ */
+public class SmsSendEngine implements SmsTransport.Listener {
+    private static final String TAG = "SmsSendEngine";
+
+    public static final int ERROR_TIMEOUT = -100;
+    /** Delivery status when no final report came within {@code deliveryTimeoutMs}. */
+    public static final String DELIVERY_TIMEOUT = "timeout";
+
+    public interface Callback {
+        /** Called once all parts were handed to the network, or one of them failed. */
+        void onSent(SmsMessage sms, boolean success, int errorCode);
+
+        /**
+         * Called with {@link SmsTransport#DELIVERY_DELIVERED} once every part was delivered,
+         * {@link SmsTransport#DELIVERY_FAILED} as soon as one part failed, or
+         * {@link #DELIVERY_TIMEOUT} if the reports stopped coming. A
+         * {@link SmsTransport#DELIVERY_PENDING} report is passed on once and the wait goes on.
+         * Not all carriers send delivery reports.
+         */
+        void onDelivered(SmsMessage sms, String status);
+    }
+
+    private final Callback callback;
+    private final long sentTimeoutMs;
+    private final long deliveryTimeoutMs;
+    private final ScheduledExecutorService resultThread;
+    private final Map<String, PendingSend> inFlight = new ConcurrentHashMap<>();
+    private final RateMeter partsMeter = new RateMeter(256);
+    private volatile MetricsRegistry.Histogram sendLatency;
+    private volatile MetricsRegistry.Histogram deliveryLatency;
+
+    public SmsSendEngine(Callback callback, long sentTimeoutMs, long deliveryTimeoutMs) {
+        this.callback = callback;
+        this.sentTimeoutMs = sentTimeoutMs;
+        this.deliveryTimeoutMs = deliveryTimeoutMs;
+        this.resultThread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends the parts from {@link SmsTransport#divide}. Throws if the transport refuses the
+     * message outright, otherwise the outcome comes through the callback.
+     */
+    public void send(final SmsMessage sms, SmsTransport transport, List<String> parts) {
+        int partCount = parts == null || parts.isEmpty() ? 1 : parts.size();
+
+        final PendingSend pending = new PendingSend(sms, partCount);
+        inFlight.put(sms.getKey(), pending);
+
+        try {
+            transport.send(sms, parts);
+        } catch (RuntimeException e) {
+            inFlight.remove(sms.getKey());
+            throw e;
+        }
+
+        GatewayLog.d(TAG, () -> "SMS ID " + sms.getId() + " handed to radio in " + partCount + " part(s)");
+        resultThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (inFlight.get(sms.getKey()) == pending && !pending.sentReported) {
+                    GatewayLog.e(TAG, "No sent result for SMS ID " + sms.getId() + " after " + sentTimeoutMs + " ms");
+                    finishSent(pending, false, ERROR_TIMEOUT);
+                }
+            }
+        }, sentTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records the time from {@link #send} until every part of a message was sent.
+     */
+    public void setSendLatency(MetricsRegistry.Histogram sendLatency) {
+        this.sendLatency = sendLatency;
+    }
+
+    /**
+     * Records the time from {@link #send} until every part of a message was delivered.
+     */
+    public void setDeliveryLatency(MetricsRegistry.Histogram deliveryLatency) {
+        this.deliveryLatency = deliveryLatency;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getTotalParts() {
+        return partsMeter.getCount();
+    }
+
+    public double getPartsPerSecond() {
+        return partsMeter.getRatePerSecond(System.currentTimeMillis());
+    }
+
+    public void shutdown() {
+        resultThread.shutdownNow();
+    }
+
+    @Override
+    public void onPartSent(final String key, int part, final int resultCode) {
+        resultThread.execute(() -> partSent(key, resultCode));
+    }
+
+    @Override
+    public void onPartDelivered(final String key, int part, final String status) {
+        resultThread.execute(() -> partDelivered(key, status));
+    }
+
+    // Runs on the result thread
+    private void partSent(String key, int resultCode) {
+        PendingSend pending = inFlight.get(key);
+        if (pending == null || pending.sentReported) {
+            return;
+        }
+
+        if (resultCode != SmsTransport.RESULT_OK) {
+            GatewayLog.e(TAG, "Part of SMS " + key + " failed with result " + resultCode);
+            finishSent(pending, false, resultCode);
+            return;
+        }
+
+        partsMeter.mark(System.currentTimeMillis());
+        if (++pending.partsSent == pending.partCount) {
+            finishSent(pending, true, resultCode);
+        }
+    }
+
+    // Runs on the result thread
+    private void partDelivered(String key, String status) {
+        PendingSend pending = inFlight.get(key);
+        if (pending == null) {
+            return;
+        }
+
+        if (SmsTransport.DELIVERY_FAILED.equals(status)) {
+            GatewayLog.e(TAG, "Part of SMS " + key + " was not delivered");
+            inFlight.remove(key, pending);
+            callback.onDelivered(pending.sms, SmsTransport.DELIVERY_FAILED);
+            return;
+        }
+        if (SmsTransport.DELIVERY_PENDING.equals(status)) {
+            // The carrier keeps trying; a final report or the timeout follows
+            if (!pending.pendingReported) {
+                pending.pendingReported = true;
+                callback.onDelivered(pending.sms, SmsTransport.DELIVERY_PENDING);
+            }
+            return;
+        }
+
+        if (++pending.partsDelivered == pending.partCount) {
+            inFlight.remove(key, pending);
+            MetricsRegistry.Histogram latency = deliveryLatency;
+            if (latency != null) {
+                latency.recordSince(pending.startedAtNanos);
+            }
+            callback.onDelivered(pending.sms, SmsTransport.DELIVERY_DELIVERED);
+        }
+    }
+
+    private void finishSent(final PendingSend pending, boolean success, int errorCode) {
+        pending.sentReported = true;
+        if (success) {
+            MetricsRegistry.Histogram latency = sendLatency;
+            if (latency != null) {
+                latency.recordSince(pending.startedAtNanos);
+            }
+            // Stop waiting for delivery reports the carrier may never send
+            resultThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (inFlight.remove(pending.sms.getKey(), pending)) {
+                        GatewayLog.d(TAG, () -> "No delivery report for SMS ID " + pending.sms.getId()
+                                + " after " + deliveryTimeoutMs + " ms");
+                        callback.onDelivered(pending.sms, DELIVERY_TIMEOUT);
+                    }
+                }
+            }, deliveryTimeoutMs, TimeUnit.MILLISECONDS);
+        } else {
+            // Delivery reports for a failed send are meaningless
+            inFlight.remove(pending.sms.getKey());
+        }
+        callback.onSent(pending.sms, success, errorCode);
+    }
+
+    // Only touched on the result thread once it's in the map
+    private static class PendingSend {
+        final SmsMessage sms;
+        final int partCount;
+        final long startedAtNanos = System.nanoTime();
+        int partsSent;
+        int partsDelivered;
+        boolean sentReported;
+        boolean pendingReported;
+
+        PendingSend(SmsMessage sms, int partCount) {
+            this.sms = sms;
+            this.partCount = partCount;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.b4g.smsgateway_app;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Streaming parser for the get_sms.php response.
+ *
+ * Reads the body a buffer at a time and hands each pending message to the listener as soon
+ * as its object closes, so memory use doesn't grow with the size of the batch. Accepts the
+ * same shapes as the old JSONArray path: an array of message objects or a single object.
+ * Unknown fields are skipped.
+ *
+ * An object with {@code recipients} is a campaign: one {@code template} (see
+ * {@link SmsTemplate}) plus {@code sim}, {@code priority} and {@code send_at} shared by every
+ * recipient, each of which has its own {@code id}, {@code phone_number} and {@code vars}. The
+ * template is compiled once and each recipient is handed out as its own message as soon as it
+ * is read, so a campaign costs no more memory than a message. The shared fields have to come
+ * before {@code recipients}.
+ */
+public class SmsStreamParser {
+
+    private static final int FIELD_TEMPLATE = 7;
+    private static final int FIELD_RECIPIENTS = 8;
+    private static final int FIELD_VARS = 9;
+
+    public interface Listener {
+        void onMessage(SmsMessage sms) throws InterruptedException;
+    }
+
+    private final Reader reader;
+    private final boolean statusRequired;
+    private String source = SmsMessage.DEFAULT_SOURCE;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long offset;
+
+    // Reused for every key and value to keep per-field garbage down
+    private final StringBuilder text = new StringBuilder(256);
+
+    private int objectCount;
+    private int messageCount;
+    private int invalidCount;
+    private int campaignCount;
+
+    public SmsStreamParser(Reader reader) {
+        this(reader, true);
+    }
+
+    /**
+     * @param statusRequired false to treat messages without a status as pending, for clients
+     *                       pushing new messages rather than the server listing its queue
+     */
+    public SmsStreamParser(Reader reader, boolean statusRequired) {
+        this.reader = reader;
+        this.statusRequired = statusRequired;
+    }
+
+    /**
+     * Tags every parsed message with the source it was fetched from.
+     */
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parses the whole response, calling the listener for every message with status "pending".
+     * An empty body is treated as no messages.
+     */
+    public void parse(Listener listener) throws IOException, InterruptedException {
+        int c = nextNonWhitespace();
+        if (c == -1) {
+            return;
+        }
+        if (c == '[') {
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return;
+            }
+            while (true) {
+                if (c != '{') {
+                    throw syntaxError("Expected message object");
+                }
+                parseMessage(listener);
+
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    break;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                c = nextNonWhitespace();
+            }
+        } else if (c == '{') {
+            parseMessage(listener);
+        } else {
+            throw syntaxError("Expected JSON array or object");
+        }
+
+        if (nextNonWhitespace() != -1) {
+            throw syntaxError("Unexpected data after JSON value");
+        }
+    }
+
+    /** Number of message objects and campaign recipients seen. */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /** Number of pending messages handed to the listener. */
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /** Number of message objects and recipients missing a required field or variable. */
+    public int getInvalidCount() {
+        return invalidCount;
+    }
+
+    /** Number of campaign objects seen. */
+    public int getCampaignCount() {
+        return campaignCount;
+    }
+
+    // Called with the opening '{' already consumed
+    private void parseMessage(Listener listener) throws IOException, InterruptedException {
+        String id = null;
+        String phoneNumber = null;
+        String message = null;
+        String status = null;
+        int simSlot = 0;
+        int priority = SmsMessage.PRIORITY_NORMAL;
+        long sendAt = 0;
+        SmsTemplate template = null;
+        boolean campaign = false;
+
+        int c = nextNonWhitespace();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw syntaxError("Expected field name");
+                }
+                readString();
+                int field = fieldOf(text);
+
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+
+                if (field < 0 || field == FIELD_VARS) {
+                    skipValue(nextNonWhitespace());
+                } else if (field == FIELD_RECIPIENTS) {
+                    if (template == null) {
+                        throw syntaxError("Campaign template must come before its recipients");
+                    }
+                    campaign = true;
+                    // A campaign is only listed while something in it is pending
+                    boolean pending = status == null || "pending".equalsIgnoreCase(status);
+                    parseRecipients(listener, template, pending, simSlot, priority, sendAt);
+                } else {
+                    String value = readScalar(nextNonWhitespace());
+                    switch (field) {
+                        case 0:
+                            id = value;
+                            break;
+                        case 1:
+                            phoneNumber = value;
+                            break;
+                        case 2:
+                            message = value;
+                            break;
+                        case 3:
+                            status = value;
+                            break;
+                        case 4:
+                            simSlot = parseSlot(value);
+                            break;
+                        case 5:
+                            priority = parsePriority(value);
+                            break;
+                        case 6:
+                            sendAt = parseSendAt(value);
+                            break;
+                        default:
+                            if (value == null) {
+                                throw syntaxError("Campaign template is null");
+                            }
+                            template = SmsTemplate.compile(value);
+                    }
+                }
+
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+        }
+
+        if (campaign) {
+            campaignCount++;
+            return;
+        }
+        objectCount++;
+        if (status == null && !statusRequired) {
+            status = "pending";
+        }
+        if (id == null || phoneNumber == null || message == null || status == null) {
+            invalidCount++;
+            return;
+        }
+        if ("pending".equalsIgnoreCase(status)) {
+            messageCount++;
+            listener.onMessage(new SmsMessage(id, phoneNumber, message, simSlot, source, priority, sendAt));
+        }
+    }
+
+    // Called with the field name read; hands out every pending recipient as a message
+    private void parseRecipients(Listener listener, SmsTemplate template, boolean pending, int simSlot,
+                                 int priority, long sendAt) throws IOException, InterruptedException {
+        if (nextNonWhitespace() != '[') {
+            throw syntaxError("Expected recipient array");
+        }
+        // Reused for every recipient, indexed like the template's variables
+        String[] values = new String[template.getVariableCount()];
+        int c = nextNonWhitespace();
+        if (c == ']') {
+            return;
+        }
+        while (true) {
+            if (c != '{') {
+                throw syntaxError("Expected recipient object");
+            }
+            objectCount++;
+            Arrays.fill(values, null);
+            String id = null;
+            String phoneNumber = null;
+            String status = null;
+
+            c = nextNonWhitespace();
+            while (c != '}') {
+                if (c != '"') {
+                    throw syntaxError("Expected field name");
+                }
+                readString();
+                int field = fieldOf(text);
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                if (field == FIELD_VARS) {
+                    parseVars(template, values);
+                } else if (field == 0 || field == 1 || field == 3) {
+                    String value = readScalar(nextNonWhitespace());
+                    if (field == 0) {
+                        id = value;
+                    } else if (field == 1) {
+                        phoneNumber = value;
+                    } else {
+                        status = value;
+                    }
+                } else {
+                    skipValue(nextNonWhitespace());
+                }
+                c = nextNonWhitespace();
+                if (c == ',') {
+                    c = nextNonWhitespace();
+                } else if (c != '}') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+            }
+
+            String message = id != null && phoneNumber != null ? template.render(values) : null;
+            if (message == null) {
+                invalidCount++;
+            } else if (pending && (status == null || "pending".equalsIgnoreCase(status))) {
+                messageCount++;
+                listener.onMessage(new SmsMessage(id, phoneNumber, message, simSlot, source, priority, sendAt));
+            }
+
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+            c = nextNonWhitespace();
+        }
+    }
+
+    // Variables the template doesn't use are skipped without being turned into strings
+    private void parseVars(SmsTemplate template, String[] values) throws IOException {
+        int c = nextNonWhitespace();
+        if (c != '{') {
+            skipValue(c);
+            return;
+        }
+        c = nextNonWhitespace();
+        while (c != '}') {
+            if (c != '"') {
+                throw syntaxError("Expected variable name");
+            }
+            readString();
+            int index = template.indexOf(text);
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+            if (index < 0) {
+                skipValue(nextNonWhitespace());
+            } else {
+                values[index] = readScalar(nextNonWhitespace());
+            }
+            c = nextNonWhitespace();
+            if (c == ',') {
+                c = nextNonWhitespace();
+            } else if (c != '}') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private static int fieldOf(CharSequence name) {
+        if ("id".contentEquals(name)) {
+            return 0;
+        }
+        if ("phone_number".contentEquals(name)) {
+            return 1;
+        }
+        if ("message".contentEquals(name)) {
+            return 2;
+        }
+        if ("status".contentEquals(name)) {
+            return 3;
+        }
+        if ("sim".contentEquals(name)) {
+            return 4;
+        }
+        if ("priority".contentEquals(name)) {
+            return 5;
+        }
+        if ("send_at".contentEquals(name)) {
+            return 6;
+        }
+        if ("template".contentEquals(name)) {
+            return FIELD_TEMPLATE;
+        }
+        if ("recipients".contentEquals(name)) {
+            return FIELD_RECIPIENTS;
+        }
+        if ("vars".contentEquals(name)) {
+            return FIELD_VARS;
+        }
+        return -1;
+    }
+
+    /**
+     * Accepts a class name ("otp", "transactional", "high", "normal", "low", "bulk",
+     * "marketing") or a number from 0 (low) to 2 (high). Anything else is normal.
+     */
+    static int parsePriority(String value) {
+        if (value == null) {
+            return SmsMessage.PRIORITY_NORMAL;
+        }
+        switch (value.trim().toLowerCase(Locale.US)) {
+            case "otp":
+            case "transactional":
+            case "high":
+                return SmsMessage.PRIORITY_HIGH;
+            case "low":
+            case "bulk":
+            case "marketing":
+                return SmsMessage.PRIORITY_LOW;
+            default:
+                try {
+                    return Math.max(SmsMessage.PRIORITY_LOW,
+                            Math.min(SmsMessage.PRIORITY_HIGH, Integer.parseInt(value.trim())));
+                } catch (NumberFormatException e) {
+                    return SmsMessage.PRIORITY_NORMAL;
+                }
+        }
+    }
+
+    /**
+     * Unix time in seconds, as a number or a numeric string; 0 if missing or unreadable.
+     */
+    static long parseSendAt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int parseSlot(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Strings come back as-is, numbers and booleans as their literal text, null as null
+    private String readScalar(int c) throws IOException {
+        if (c == '"') {
+            readString();
+            return text.toString();
+        }
+        if (c == '{' || c == '[') {
+            throw syntaxError("Expected a plain value");
+        }
+        readLiteral(c);
+        return "null".contentEquals(text) ? null : text.toString();
+    }
+
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == -1) {
+                    throw syntaxError("Unterminated value");
+                } else if (c == '"') {
+                    readString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            readLiteral(c);
+        }
+    }
+
+    private void readLiteral(int c) throws IOException {
+        text.setLength(0);
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+            text.append((char) c);
+            c = read();
+        }
+        if (text.length() == 0) {
+            throw syntaxError("Expected a value");
+        }
+        if (c != -1) {
+            pos--; // leave the delimiter for the caller
+        }
+    }
+
+    // Called with the opening quote already consumed, leaves the contents in `text`
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+            if (c != '\\') {
+                text.append((char) c);
+                continue;
+            }
+
+            c = read();
+            switch (c) {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid \\u escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    text.append((char) value);
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    // \" \\ \/ and anything lenient
+                    text.append((char) c);
+            }
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\uFEFF';
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            offset += limit;
+            limit = reader.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at offset " + (offset + pos));
+    }
+}
@@ -0,0 +1,149 @@
+package com.b4g.smsgateway_app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A campaign's message text, compiled once and rendered for every recipient.
+ *
+ * Placeholders are {@code {{name}}}, or {@code {{name|fallback}}} to use the fallback when a
+ * recipient has no value for the variable. Braces that don't form a placeholder are copied
+ * as-is. Values are looked up by index, in the order {@link #getVariable} lists them,
+ * so rendering needs no map per recipient. A render allocates nothing but the returned string.
+ *
+ * Not thread-safe: render from one thread at a time.
+ */
+public final class SmsTemplate {
+    private final String source;
+    // literals.length == slots.length + 1; literal i comes before slot i
+    private final String[] literals;
+    private final int[] slots;
+    private final String[] fallbacks;
+    private final String[] variables;
+    private final int literalLength;
+    private char[] scratch;
+
+    private SmsTemplate(String source, String[] literals, int[] slots, String[] fallbacks, String[] variables) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+        this.fallbacks = fallbacks;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.scratch = new char[Math.max(length + slots.length * 16, 16)];
+    }
+
+    public static SmsTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<String> fallbacks = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        int literalStart = 0;
+        int from = 0;
+        while (true) {
+            int open = template.indexOf("{{", from);
+            int close = open < 0 ? -1 : template.indexOf("}}", open + 2);
+            if (close < 0) {
+                break;
+            }
+            String body = template.substring(open + 2, close);
+            int bar = body.indexOf('|');
+            String name = (bar < 0 ? body : body.substring(0, bar)).trim();
+            if (name.isEmpty() || name.indexOf('{') >= 0) {
+                // Not a placeholder; keep the braces as text
+                from = open + 1;
+                continue;
+            }
+            int index = variables.indexOf(name);
+            if (index < 0) {
+                index = variables.size();
+                variables.add(name);
+            }
+            literals.add(template.substring(literalStart, open));
+            slots.add(index);
+            fallbacks.add(bar < 0 ? null : body.substring(bar + 1));
+            literalStart = from = close + 2;
+        }
+        literals.add(template.substring(literalStart));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new SmsTemplate(template, literals.toArray(new String[0]), slotArray,
+                fallbacks.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /** The text this was compiled from. */
+    public String getSource() {
+        return source;
+    }
+
+    /** Number of distinct variables. */
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    public String getVariable(int index) {
+        return variables[index];
+    }
+
+    /**
+     * Index of a variable by name, or -1 if the template doesn't use it.
+     */
+    public int indexOf(CharSequence name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].contentEquals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Renders the message for one recipient, or returns null if a variable without a fallback
+     * has no value.
+     *
+     * @param values indexed like {@link #getVariable}; null or empty means no value
+     */
+    public String render(String[] values) {
+        int length = literalLength;
+        for (int i = 0; i < slots.length; i++) {
+            String value = valueAt(values, i);
+            if (value == null) {
+                return null;
+            }
+            length += value.length();
+        }
+        if (slots.length == 0) {
+            return literals[0];
+        }
+
+        if (scratch.length < length) {
+            scratch = new char[Math.max(length, scratch.length * 2)];
+        }
+        int pos = 0;
+        for (int i = 0; i < slots.length; i++) {
+            pos = copy(literals[i], pos);
+            pos = copy(valueAt(values, i), pos);
+        }
+        pos = copy(literals[slots.length], pos);
+        return new String(scratch, 0, pos);
+    }
+
+    private String valueAt(String[] values, int slot) {
+        int index = slots[slot];
+        String value = index < values.length ? values[index] : null;
+        return value == null || value.isEmpty() ? fallbacks[slot] : value;
+    }
+
+    private int copy(String text, int pos) {
+        text.getChars(0, text.length(), scratch, pos);
+        return pos + text.length();
+    }
+}
@@ -0,0 +1,45 @@
+package com.b4g.smsgateway_app;
+
+import java.util.List;
+
+/**
+ * The radio side of one SIM: splits messages into parts and sends them.
+ *
+ * Results come back asynchronously through the {@link Listener} the transport was created
+ * with, one call per part, from any thread. {@link SmsSendEngine} turns those into one outcome
+ * per message.
+ */
+public interface SmsTransport {
+    /** Result code of a part that was sent, the same as Android's Activity.RESULT_OK. */
+    int RESULT_OK = -1;
+
+    /** Delivery report statuses: the part reached the phone, is still being retried, or never will. */
+    String DELIVERY_DELIVERED = "delivered";
+    String DELIVERY_PENDING = "pending";
+    String DELIVERY_FAILED = "failed";
+
+    /**
+     * Messages are identified by their {@link SmsMessage#getKey key}.
+     */
+    interface Listener {
+        void onPartSent(String key, int part, int resultCode);
+
+        void onPartDelivered(String key, int part, String status);
+    }
+
+    /**
+     * Splits the text the way the radio will send it.
+     */
+    List<String> divide(String text);
+
+    /**
+     * Hands the parts from {@link #divide} to the radio. Throws if the platform refuses the
+     * message outright, otherwise every part gets a sent result and possibly a delivery report.
+     */
+    void send(SmsMessage sms, List<String> parts);
+
+    /**
+     * Stops reporting results; parts still in flight are dropped.
+     */
+    void close();
+}
@@ -0,0 +1,436 @@
+package com.b4g.smsgateway_app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compact binary form of the get_sms.php response and the batch status update.
+ *
+ * Only used when both ends agree: the gateway lists {@link #MEDIA_TYPE} in {@code Accept}, and a
+ * server that speaks it answers with that {@code Content-Type}. JSON stays the default.
+ *
+ * Both kinds start with "SG", a version byte and a kind byte ('M' or 'S'). Numbers are unsigned
+ * LEB128 varints; strings are a varint byte length followed by UTF-8. A message list is records
+ * of a flags byte (bit 0 always set, bits 1-3 for a SIM slot, priority and send time), the ID,
+ * phone number and text, then whichever of slot, priority and send time (epoch milliseconds)
+ * are flagged. Status is always pending there, so it isn't sent. A campaign record (bit 4) has
+ * the template in place of those three strings, the flagged fields, a recipient count, and per
+ * recipient the ID, phone number and one value for each template variable in the order they
+ * first appear (empty for none). A status list is the device
+ * ID (empty for none), then records of a status byte, the ID and the source; version 1 status
+ * lists had no source, and are read as the default one. Both end with a 0 byte, so a cut-off
+ * body is an error rather than a short batch.
+ */
+public final class SmsWireCodec {
+    public static final String MEDIA_TYPE = "application/x-smsgateway";
+
+    static final int VERSION = 1;
+    // Status records carry their source since version 2
+    static final int STATUS_VERSION = 2;
+    private static final byte KIND_MESSAGES = 'M';
+    private static final byte KIND_STATUSES = 'S';
+
+    private static final int FLAG_RECORD = 1;
+    private static final int FLAG_SIM = 2;
+    private static final int FLAG_PRIORITY = 4;
+    private static final int FLAG_SEND_AT = 8;
+    private static final int FLAG_CAMPAIGN = 16;
+
+    private static final int STATUS_SUCCESS = 1;
+    private static final int STATUS_FAILED = 2;
+    private static final int STATUS_PENDING = 3;
+    // Followed by the status as a string
+    private static final int STATUS_OTHER = 4;
+
+    // No field of a real message comes close; stops a corrupt length from allocating gigabytes
+    private static final int MAX_STRING_BYTES = 64 * 1024;
+
+    private SmsWireCodec() {
+    }
+
+    /**
+     * Whether a Content-Type header names this format; parameters are ignored.
+     */
+    public static boolean isWireType(String contentType) {
+        return contentType != null
+                && contentType.trim().toLowerCase(Locale.US).startsWith(MEDIA_TYPE);
+    }
+
+    /**
+     * Called for every record of a status list.
+     */
+    public interface StatusListener {
+        void onStatus(String source, String smsId, String status);
+    }
+
+    /**
+     * Reads a message list a buffer at a time, like {@link SmsStreamParser} does for JSON.
+     */
+    public static final class MessageReader {
+        private final Input in;
+        private String source = SmsMessage.DEFAULT_SOURCE;
+        private int objectCount;
+        private int messageCount;
+        private int invalidCount;
+        private int campaignCount;
+
+        public MessageReader(InputStream in) {
+            this.in = new Input(in);
+        }
+
+        /**
+         * Tags every message with the source it was fetched from.
+         */
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public void parse(SmsStreamParser.Listener listener) throws IOException, InterruptedException {
+            in.readHeader(KIND_MESSAGES, VERSION);
+            int flags;
+            while ((flags = in.readByte()) != 0) {
+                if ((flags & FLAG_RECORD) == 0) {
+                    throw new IOException("Bad record flags " + flags);
+                }
+                if ((flags & FLAG_CAMPAIGN) != 0) {
+                    readCampaign(flags, listener);
+                    continue;
+                }
+                objectCount++;
+                String id = in.readString();
+                String phoneNumber = in.readString();
+                String message = in.readString();
+                int simSlot = (flags & FLAG_SIM) != 0 ? (int) in.readVarint() : 0;
+                int priority = (flags & FLAG_PRIORITY) != 0
+                        ? Math.min(SmsMessage.PRIORITY_HIGH, in.readByte()) : SmsMessage.PRIORITY_NORMAL;
+                long sendAt = (flags & FLAG_SEND_AT) != 0 ? in.readVarint() : 0;
+
+                if (id.isEmpty() || phoneNumber.isEmpty() || message.isEmpty()) {
+                    invalidCount++;
+                    continue;
+                }
+                messageCount++;
+                listener.onMessage(new SmsMessage(id, phoneNumber, message, simSlot, source, priority, sendAt));
+            }
+        }
+
+        private void readCampaign(int flags, SmsStreamParser.Listener listener)
+                throws IOException, InterruptedException {
+            campaignCount++;
+            SmsTemplate template = SmsTemplate.compile(in.readString());
+            int simSlot = (flags & FLAG_SIM) != 0 ? (int) in.readVarint() : 0;
+            int priority = (flags & FLAG_PRIORITY) != 0
+                    ? Math.min(SmsMessage.PRIORITY_HIGH, in.readByte()) : SmsMessage.PRIORITY_NORMAL;
+            long sendAt = (flags & FLAG_SEND_AT) != 0 ? in.readVarint() : 0;
+
+            String[] values = new String[template.getVariableCount()];
+            long recipients = in.readVarint();
+            for (long r = 0; r < recipients; r++) {
+                objectCount++;
+                String id = in.readString();
+                String phoneNumber = in.readString();
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = in.readString();
+                }
+                String message = template.render(values);
+                if (id.isEmpty() || phoneNumber.isEmpty() || message == null || message.isEmpty()) {
+                    invalidCount++;
+                    continue;
+                }
+                messageCount++;
+                listener.onMessage(new SmsMessage(id, phoneNumber, message, simSlot, source, priority, sendAt));
+            }
+        }
+
+        /** Number of records and campaign recipients seen. */
+        public int getObjectCount() {
+            return objectCount;
+        }
+
+        /** Number of messages handed to the listener. */
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        /** Number of records and recipients with an empty ID, number or text. */
+        public int getInvalidCount() {
+            return invalidCount;
+        }
+
+        /** Number of campaign records seen. */
+        public int getCampaignCount() {
+            return campaignCount;
+        }
+    }
+
+    public static byte[] encodeMessages(List<SmsMessage> messages) {
+        return encodeMessages(messages, Collections.<SmsCampaign>emptyList());
+    }
+
+    public static byte[] encodeMessages(List<SmsMessage> messages, List<SmsCampaign> campaigns) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(messages.size() * 64 + 8);
+        try {
+            writeMessages(messages, campaigns, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The server side of a fetch, for the load generator and tests.
+     */
+    public static void writeMessages(List<SmsMessage> messages, OutputStream out) throws IOException {
+        writeMessages(messages, Collections.<SmsCampaign>emptyList(), out);
+    }
+
+    public static void writeMessages(List<SmsMessage> messages, List<SmsCampaign> campaigns, OutputStream out)
+            throws IOException {
+        writeHeader(out, KIND_MESSAGES, VERSION);
+        for (SmsMessage sms : messages) {
+            int flags = FLAG_RECORD;
+            if (sms.getSimSlot() > 0) {
+                flags |= FLAG_SIM;
+            }
+            if (sms.getPriority() != SmsMessage.PRIORITY_NORMAL) {
+                flags |= FLAG_PRIORITY;
+            }
+            if (sms.getSendAt() > 0) {
+                flags |= FLAG_SEND_AT;
+            }
+            out.write(flags);
+            writeString(out, sms.getId());
+            writeString(out, sms.getPhoneNumber());
+            writeString(out, sms.getMessage());
+            if ((flags & FLAG_SIM) != 0) {
+                writeVarint(out, sms.getSimSlot());
+            }
+            if ((flags & FLAG_PRIORITY) != 0) {
+                out.write(sms.getPriority());
+            }
+            if ((flags & FLAG_SEND_AT) != 0) {
+                writeVarint(out, sms.getSendAt());
+            }
+        }
+        for (SmsCampaign campaign : campaigns) {
+            writeCampaign(campaign, out);
+        }
+        out.write(0);
+    }
+
+    private static void writeCampaign(SmsCampaign campaign, OutputStream out) throws IOException {
+        SmsTemplate template = SmsTemplate.compile(campaign.getTemplate());
+        int flags = FLAG_RECORD | FLAG_CAMPAIGN;
+        if (campaign.getSimSlot() > 0) {
+            flags |= FLAG_SIM;
+        }
+        if (campaign.getPriority() != SmsMessage.PRIORITY_NORMAL) {
+            flags |= FLAG_PRIORITY;
+        }
+        if (campaign.getSendAt() > 0) {
+            flags |= FLAG_SEND_AT;
+        }
+        out.write(flags);
+        writeString(out, campaign.getTemplate());
+        if ((flags & FLAG_SIM) != 0) {
+            writeVarint(out, campaign.getSimSlot());
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            out.write(campaign.getPriority());
+        }
+        if ((flags & FLAG_SEND_AT) != 0) {
+            writeVarint(out, campaign.getSendAt());
+        }
+        writeVarint(out, campaign.getRecipients().size());
+        for (SmsCampaign.Recipient recipient : campaign.getRecipients()) {
+            writeString(out, recipient.getId());
+            writeString(out, recipient.getPhoneNumber());
+            for (int i = 0; i < template.getVariableCount(); i++) {
+                String value = recipient.getVariables().get(template.getVariable(i));
+                writeString(out, value != null ? value : "");
+            }
+        }
+    }
+
+    static byte[] encodeStatuses(List<StatusReporter.Update> updates, String deviceId) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(updates.size() * 20 + 16);
+        try {
+            writeHeader(out, KIND_STATUSES, STATUS_VERSION);
+            writeString(out, deviceId != null ? deviceId : "");
+            for (StatusReporter.Update update : updates) {
+                int code = statusCode(update.status);
+                out.write(code);
+                if (code == STATUS_OTHER) {
+                    writeString(out, update.status);
+                }
+                writeString(out, update.smsId);
+                writeString(out, update.source);
+            }
+            out.write(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The server side of a batch status update. Returns the device ID, or null if there was none.
+     */
+    public static String readStatuses(InputStream stream, StatusListener listener) throws IOException {
+        Input in = new Input(stream);
+        int version = in.readHeader(KIND_STATUSES, STATUS_VERSION);
+        String deviceId = in.readString();
+        int code;
+        while ((code = in.readByte()) != 0) {
+            String status;
+            switch (code) {
+                case STATUS_SUCCESS:
+                    status = "success";
+                    break;
+                case STATUS_FAILED:
+                    status = "failed";
+                    break;
+                case STATUS_PENDING:
+                    status = "pending";
+                    break;
+                case STATUS_OTHER:
+                    status = in.readString();
+                    break;
+                default:
+                    throw new IOException("Bad status code " + code);
+            }
+            String smsId = in.readString();
+            String source = version >= STATUS_VERSION ? in.readString() : SmsMessage.DEFAULT_SOURCE;
+            listener.onStatus(source, smsId, status);
+        }
+        return deviceId.isEmpty() ? null : deviceId;
+    }
+
+    private static int statusCode(String status) {
+        switch (status) {
+            case "success":
+                return STATUS_SUCCESS;
+            case "failed":
+                return STATUS_FAILED;
+            case "pending":
+                return STATUS_PENDING;
+            default:
+                return STATUS_OTHER;
+        }
+    }
+
+    private static void writeHeader(OutputStream out, byte kind, int version) throws IOException {
+        out.write('S');
+        out.write('G');
+        out.write(version);
+        out.write(kind);
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    // Buffered reads without the per-byte locking of BufferedInputStream
+    private static final class Input {
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int pos;
+        private int limit;
+        // Reused for every string
+        private byte[] text = new byte[256];
+
+        Input(InputStream in) {
+            this.in = in;
+        }
+
+        // Returns the version, which may be anything from 1 to maxVersion
+        int readHeader(byte kind, int maxVersion) throws IOException {
+            if (readByte() != 'S' || readByte() != 'G') {
+                throw new IOException("Not an SMS gateway wire message");
+            }
+            int version = readByte();
+            if (version < 1 || version > maxVersion) {
+                throw new IOException("Unsupported wire format version " + version);
+            }
+            int actual = readByte();
+            if (actual != kind) {
+                throw new IOException("Expected kind " + (char) kind + " but got " + (char) actual);
+            }
+            return version;
+        }
+
+        int readByte() throws IOException {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Wire message cut off");
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Varint too long");
+        }
+
+        String readString() throws IOException {
+            long length = readVarint();
+            if (length > MAX_STRING_BYTES) {
+                throw new IOException("String of " + length + " bytes is too long");
+            }
+            int n = (int) length;
+            if (limit - pos >= n) {
+                // Straight from the buffer, the usual case
+                String value = new String(buffer, pos, n, StandardCharsets.UTF_8);
+                pos += n;
+                return value;
+            }
+            if (text.length < n) {
+                text = new byte[Math.max(n, text.length * 2)];
+            }
+            int read = 0;
+            while (read < n) {
+                if (pos == limit && !fill()) {
+                    throw new EOFException("Wire message cut off");
+                }
+                int chunk = Math.min(n - read, limit - pos);
+                System.arraycopy(buffer, pos, text, read, chunk);
+                pos += chunk;
+                read += chunk;
+            }
+            return new String(text, 0, n, StandardCharsets.UTF_8);
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.b4g.smsgateway_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the gateway's state to a UI at a bounded rate.
+ *
+ * Once per {@code intervalMs}, and only while someone is listening, the feed takes a
+ * {@link Snapshot} from its source and picks up new {@link GatewayLog} lines into a fixed-size
+ * ring of events. Every listener then gets one {@link Update} with the snapshot, the current
+ * status line, the last error and the events it hasn't seen yet. A new listener first gets
+ * everything still in the ring. All bookkeeping happens on the feed's own thread, so neither
+ * the gateway threads nor the UI thread wait on it.
+ */
+public class StatusFeed {
+    private static final String TAG = "StatusFeed";
+
+    /**
+     * One log line shown to the user.
+     */
+    public static final class Event {
+        public final long time;
+        public final int level;
+        public final String tag;
+        public final String message;
+
+        public Event(long time, int level, String tag, String message) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+
+    public static final class SimState {
+        public final int slot;
+        public final String name;
+        public final int queueDepth;
+        public final double sentPerSecond;
+        public final long failed;
+        public final boolean enabled;
+
+        public SimState(int slot, String name, int queueDepth, double sentPerSecond, long failed, boolean enabled) {
+            this.slot = slot;
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.sentPerSecond = sentPerSecond;
+            this.failed = failed;
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * The gateway's numbers at one moment.
+     */
+    public static final class Snapshot {
+        public final int queueDepth;
+        public final int scheduled;
+        public final int inFlight;
+        public final long sent;
+        public final long failed;
+        public final double partsPerSecond;
+        public final int retryDepth;
+        public final int statusDepth;
+        public final List<SimState> sims;
+
+        public Snapshot(int queueDepth, int scheduled, int inFlight, long sent, long failed, double partsPerSecond,
+                        int retryDepth, int statusDepth, List<SimState> sims) {
+            this.queueDepth = queueDepth;
+            this.scheduled = scheduled;
+            this.inFlight = inFlight;
+            this.sent = sent;
+            this.failed = failed;
+            this.partsPerSecond = partsPerSecond;
+            this.retryDepth = retryDepth;
+            this.statusDepth = statusDepth;
+            this.sims = sims;
+        }
+    }
+
+    public static final class Update {
+        public final long time;
+        public final boolean running;
+        public final String status;
+        /** Null until the source produced one. */
+        public final Snapshot snapshot;
+        /** Null if there was no error since the feed started. */
+        public final Event lastError;
+        /** Events this listener hasn't been given yet, oldest first. */
+        public final List<Event> events;
+
+        Update(long time, boolean running, String status, Snapshot snapshot, Event lastError, List<Event> events) {
+            this.time = time;
+            this.running = running;
+            this.status = status;
+            this.snapshot = snapshot;
+            this.lastError = lastError;
+            this.events = events;
+        }
+    }
+
+    public interface Source {
+        /** Called on the feed thread. */
+        Snapshot snapshot();
+    }
+
+    public interface Listener {
+        /** Called on the feed thread; hand off to the UI thread from here. */
+        void onUpdate(Update update);
+    }
+
+    private final Source source;
+    private final long intervalMs;
+    private final int minLevel;
+    private final ScheduledExecutorService executor;
+    private volatile String status = "";
+
+    // Feed thread only
+    private final RingBuffer<Event> events;
+    private final Map<Listener, Long> delivered = new LinkedHashMap<>();
+    private final GatewayLog.LineReader collector = new GatewayLog.LineReader() {
+        @Override
+        public void line(long time, int level, String tag, String message) {
+            Event event = new Event(time, level, tag, message);
+            events.add(event);
+            if (level >= GatewayLog.ERROR) {
+                lastError = event;
+            }
+        }
+    };
+    private ScheduledFuture<?> ticker;
+    private long logPosition;
+    private Snapshot snapshot;
+    private Event lastError;
+    private boolean closed;
+
+    /**
+     * @param minLevel lowest {@link GatewayLog} level that becomes an event
+     * @param capacity events kept for listeners that join later
+     */
+    public StatusFeed(Source source, long intervalMs, int minLevel, int capacity) {
+        this.source = source;
+        this.intervalMs = intervalMs;
+        this.minLevel = minLevel;
+        this.events = new RingBuffer<>(capacity);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the one-line status shown next to the numbers. Cheap, call it as often as needed.
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public void addListener(final Listener listener) {
+        executor.execute(() -> {
+            if (closed) {
+                listener.onUpdate(new Update(System.currentTimeMillis(), false, status, null, lastError,
+                        Collections.<Event>emptyList()));
+                return;
+            }
+            collect();
+            delivered.put(listener, events.getAddedCount() - events.size());
+            deliver(listener, true);
+            if (ticker == null) {
+                ticker = executor.scheduleAtFixedRate(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    public void removeListener(final Listener listener) {
+        executor.execute(() -> {
+            delivered.remove(listener);
+            if (delivered.isEmpty() && ticker != null) {
+                // Nobody is looking, so stop taking snapshots
+                ticker.cancel(false);
+                ticker = null;
+            }
+        });
+    }
+
+    /**
+     * Tells every listener the gateway stopped, then stops the feed thread.
+     */
+    public synchronized void close() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                closed = true;
+                if (ticker != null) {
+                    ticker.cancel(false);
+                    ticker = null;
+                }
+                collect();
+                for (Listener listener : new ArrayList<>(delivered.keySet())) {
+                    deliver(listener, false);
+                }
+                delivered.clear();
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void tick() {
+        collect();
+        for (Listener listener : new ArrayList<>(delivered.keySet())) {
+            deliver(listener, true);
+        }
+    }
+
+    private void collect() {
+        logPosition = GatewayLog.read(logPosition, minLevel, collector);
+        try {
+            snapshot = source.snapshot();
+        } catch (RuntimeException e) {
+            // Keep showing the last good numbers
+            GatewayLog.e(TAG, "Could not take a status snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    private void deliver(Listener listener, boolean running) {
+        long added = events.getAddedCount();
+        long from = Math.max(delivered.get(listener), added - events.size());
+        List<Event> fresh = new ArrayList<>((int) (added - from));
+        for (int i = events.size() - (int) (added - from); i < events.size(); i++) {
+            fresh.add(events.get(i));
+        }
+        delivered.put(listener, added);
+
+        try {
+            listener.onUpdate(new Update(System.currentTimeMillis(), running, status, snapshot, lastError, fresh));
+        } catch (RuntimeException e) {
+            GatewayLog.e(TAG, "Error in status listener: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.b4g.smsgateway_app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Collects SMS status updates and sends them to the server in batches.
+ *
+ * A batch is flushed as a single JSON array POST once it holds {@code maxBatchSize}
+ * entries or {@code maxDelayMs} has passed since its first entry. Servers that only
+ * understand the old form endpoint get one form POST per ID instead; that switch is only made
+ * when the batch endpoint answers that it doesn't exist. Any other failure keeps the batch and
+ * tries it again with backoff, and updates that still fail after {@code maxBatchAttempts} go
+ * to {@link Listener#onFailed}. Every update names the {@code source} its message came from,
+ * since sources may hand out the same IDs. With a device ID set,
+ * every update carries it so the server can complete or release that device's lease.
+ * Once the server is known to speak {@link SmsWireCodec}, batches are sent in that instead,
+ * going back to JSON if the batch endpoint turns it down.
+ */
+public class StatusReporter {
+    private static final String TAG = "StatusReporter";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final MediaType WIRE = MediaType.get(SmsWireCodec.MEDIA_TYPE);
+
+    // Outcomes of one batch POST
+    private static final int BATCH_SENT = 0;
+    // The endpoint doesn't exist; the chunk goes to the form endpoint instead
+    private static final int BATCH_UNSUPPORTED = 1;
+    private static final int BATCH_FAILED = 2;
+
+    /**
+     * Called from the flush thread with the outcome of each flush.
+     */
+    public interface Listener {
+        /** Gets the keys the updates were reported under. */
+        void onReported(List<String> keys);
+
+        /** Called for every update the server didn't accept, after the batch retries ran out. */
+        void onFailed(String key, String status);
+    }
+
+    static final class Update {
+        final String key;
+        final String source;
+        final String smsId;
+        final String status;
+        final long queuedAtNanos;
+        // Only touched by the flush thread
+        int attempts;
+
+        Update(String smsId, String status, long queuedAtNanos) {
+            this(smsId, smsId, status, queuedAtNanos);
+        }
+
+        Update(String key, String smsId, String status, long queuedAtNanos) {
+            this.key = key;
+            this.source = SmsMessage.sourceOf(key);
+            this.smsId = smsId;
+            this.status = status;
+            this.queuedAtNanos = queuedAtNanos;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final String batchUrl;
+    private final String legacyUrl;
+    private final int maxBatchSize;
+    private final long maxDelayMs;
+    private final int maxBatchAttempts;
+    private final long maxBackoffMs;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    private List<Update> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    // Set after a failed batch; nothing goes out before it except an explicit flush
+    private long retryAt;
+    private int failures;
+    private volatile boolean batchSupported;
+    private volatile boolean wireSupported;
+    private volatile String deviceId;
+    private volatile Listener listener;
+    private volatile MetricsRegistry.Histogram ackLatency;
+
+    public StatusReporter(OkHttpClient client, String batchUrl, String legacyUrl,
+                          int maxBatchSize, long maxDelayMs) {
+        this(client, batchUrl, legacyUrl, maxBatchSize, maxDelayMs, 3, 60_000);
+    }
+
+    /**
+     * @param maxBatchAttempts times an update is sent in a failing batch before it's handed to
+     *                         {@link Listener#onFailed}
+     * @param maxBackoffMs     longest wait before trying a failed batch again
+     */
+    public StatusReporter(OkHttpClient client, String batchUrl, String legacyUrl,
+                          int maxBatchSize, long maxDelayMs, int maxBatchAttempts, long maxBackoffMs) {
+        this.client = client;
+        this.batchUrl = batchUrl;
+        this.legacyUrl = legacyUrl;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayMs = maxDelayMs;
+        this.maxBatchAttempts = Math.max(1, maxBatchAttempts);
+        this.maxBackoffMs = Math.max(maxDelayMs, maxBackoffMs);
+        this.batchSupported = batchUrl != null;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sent as {@code device_id} with every update, or null to leave it out.
+     */
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Sends batches in the compact binary format, for when a fetch response came back in it.
+     */
+    public void setWireSupported(boolean wireSupported) {
+        this.wireSupported = wireSupported;
+    }
+
+    public boolean isWireSupported() {
+        return wireSupported;
+    }
+
+    /**
+     * Records the time from {@link #report} to the server accepting each update.
+     */
+    public void setAckLatency(MetricsRegistry.Histogram ackLatency) {
+        this.ackLatency = ackLatency;
+    }
+
+    /**
+     * Queues a status update for the given SMS ID.
+     */
+    public void report(String smsId, String status) {
+        report(smsId, smsId, status);
+    }
+
+    /**
+     * Queues a status update for the given SMS ID, sent with the source from {@code key}. The
+     * listener gets {@code key} back, so messages from different sources can share an ID.
+     */
+    public void report(String key, String smsId, String status) {
+        if (smsId == null || smsId.isEmpty()) {
+            GatewayLog.e(TAG, "Invalid SMS ID for status update");
+            return;
+        }
+
+        synchronized (lock) {
+            pending.add(new Update(key, smsId, status, System.nanoTime()));
+
+            long backoff = retryAt - System.currentTimeMillis();
+            if (pending.size() >= maxBatchSize && backoff <= 0) {
+                cancelScheduledFlush();
+                executor.execute(() -> flushNow(false));
+            } else if (scheduledFlush == null) {
+                scheduledFlush = executor.schedule(() -> flushNow(false), Math.max(maxDelayMs, backoff),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sends whatever is queued without waiting for the batch to fill up or a backoff to end.
+     */
+    public void flush() {
+        synchronized (lock) {
+            cancelScheduledFlush();
+        }
+        executor.execute(() -> flushNow(true));
+    }
+
+    /**
+     * Flushes the remaining updates and stops the flush thread.
+     */
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Number of updates waiting for the next flush.
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    // Runs on the executor thread only, so batches go out one at a time
+    private void flushNow(boolean force) {
+        List<Update> batch;
+        synchronized (lock) {
+            cancelScheduledFlush();
+            if (pending.isEmpty()) {
+                return;
+            }
+            long backoff = retryAt - System.currentTimeMillis();
+            if (!force && backoff > 0) {
+                scheduledFlush = executor.schedule(() -> flushNow(false), backoff, TimeUnit.MILLISECONDS);
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>(Math.min(batch.size(), maxBatchSize));
+        }
+
+        boolean batchFailed = false;
+        List<Update> retry = new ArrayList<>();
+        List<Update> failed = new ArrayList<>();
+        for (int start = 0; start < batch.size(); start += maxBatchSize) {
+            List<Update> chunk = batch.subList(start, Math.min(batch.size(), start + maxBatchSize));
+            if (batchFailed) {
+                // Don't load a failing server with the rest; they wait for the retry
+                retry.addAll(chunk);
+                continue;
+            }
+            if (batchSupported) {
+                int result = sendBatch(chunk);
+                if (result == BATCH_SENT) {
+                    continue;
+                }
+                if (result == BATCH_FAILED) {
+                    batchFailed = true;
+                    for (Update update : chunk) {
+                        if (++update.attempts >= maxBatchAttempts) {
+                            failed.add(update);
+                        } else {
+                            retry.add(update);
+                        }
+                    }
+                    continue;
+                }
+            }
+            sendLegacy(chunk);
+        }
+        notifyFailed(failed);
+
+        synchronized (lock) {
+            if (batchFailed) {
+                failures = Math.min(failures + 1, 20);
+                long backoff = Math.min(maxBackoffMs, maxDelayMs << failures);
+                retryAt = System.currentTimeMillis() + backoff;
+                if (!retry.isEmpty()) {
+                    GatewayLog.w(TAG, "Retrying " + retry.size() + " status updates in " + backoff + " ms");
+                    pending.addAll(0, retry);
+                }
+            } else {
+                failures = 0;
+                retryAt = 0;
+            }
+            if (!pending.isEmpty() && scheduledFlush == null && !executor.isShutdown()) {
+                scheduledFlush = executor.schedule(() -> flushNow(false),
+                        Math.max(maxDelayMs, retryAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private int sendBatch(List<Update> chunk) {
+        boolean wire = wireSupported;
+        RequestBody body = wire
+                ? RequestBody.create(SmsWireCodec.encodeStatuses(chunk, deviceId), WIRE)
+                : RequestBody.create(toJson(chunk, deviceId), JSON);
+        Request request = new Request.Builder()
+                .url(batchUrl)
+                .post(body)
+                .build();
+
+        boolean retryAsJson = false;
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                GatewayLog.d(TAG, "Batch status update sent for " + chunk.size() + " messages");
+                notifyReported(chunk);
+                return BATCH_SENT;
+            }
+
+            int code = response.code();
+            if (wire && code == 415) {
+                // The fetch endpoint speaks it but this one doesn't; JSON from now on
+                GatewayLog.w(TAG, "Batch status endpoint doesn't take the binary format, using JSON");
+                wireSupported = false;
+                retryAsJson = true;
+            } else if (code == 404 || code == 405 || code == 415 || code == 501) {
+                // Server doesn't know the batch endpoint, stick to per-ID updates from now on
+                GatewayLog.w(TAG, "Batch status endpoint not supported (" + code + "), using form endpoint");
+                batchSupported = false;
+                return BATCH_UNSUPPORTED;
+            } else {
+                GatewayLog.e(TAG, "Server error when sending batch status update: " + code);
+            }
+        } catch (IOException e) {
+            GatewayLog.e(TAG, "Failed to send batch status update: " + e.getMessage(), e);
+        }
+        return retryAsJson ? sendBatch(chunk) : BATCH_FAILED;
+    }
+
+    private void sendLegacy(List<Update> chunk) {
+        List<Update> reported = new ArrayList<>(chunk.size());
+        List<Update> failed = new ArrayList<>();
+        String device = deviceId;
+        for (Update entry : chunk) {
+            FormBody.Builder form = new FormBody.Builder()
+                    .add("id", entry.smsId)
+                    .add("status", entry.status)
+                    .add("source", entry.source);
+            if (device != null) {
+                form.add("device_id", device);
+            }
+            RequestBody formBody = form.build();
+
+            Request request = new Request.Builder()
+                    .url(legacyUrl)
+                    .post(formBody)
+                    .build();
+
+            try (Response response = client.newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    reported.add(entry);
+                } else {
+                    GatewayLog.e(TAG, "Server error when updating SMS status: " + response.code());
+                    failed.add(entry);
+                }
+            } catch (IOException e) {
+                GatewayLog.e(TAG, "Failed to update SMS status: " + e.getMessage(), e);
+                failed.add(entry);
+            }
+        }
+        notifyReported(reported);
+        notifyFailed(failed);
+    }
+
+    private void notifyFailed(List<Update> entries) {
+        Listener current = listener;
+        if (current == null) {
+            return;
+        }
+
+        for (Update entry : entries) {
+            try {
+                current.onFailed(entry.key, entry.status);
+            } catch (Exception e) {
+                GatewayLog.e(TAG, "Error in status listener: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void notifyReported(List<Update> entries) {
+        MetricsRegistry.Histogram latency = ackLatency;
+        if (latency != null) {
+            for (Update entry : entries) {
+                latency.recordSince(entry.queuedAtNanos);
+            }
+        }
+
+        Listener current = listener;
+        if (current == null || entries.isEmpty()) {
+            return;
+        }
+
+        List<String> keys = new ArrayList<>(entries.size());
+        for (Update entry : entries) {
+            keys.add(entry.key);
+        }
+        try {
+            current.onReported(keys);
+        } catch (Exception e) {
+            GatewayLog.e(TAG, "Error in status listener: " + e.getMessage(), e);
+        }
+    }
+
+    static String toJson(List<Update> entries) {
+        return toJson(entries, null);
+    }
+
+    static String toJson(List<Update> entries, String deviceId) {
+        StringBuilder json = new StringBuilder(entries.size() * 52 + 2);
+        json.append('[');
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            Update entry = entries.get(i);
+            json.append("{\"id\":");
+            appendQuoted(json, entry.smsId);
+            json.append(",\"status\":");
+            appendQuoted(json, entry.status);
+            json.append(",\"source\":");
+            appendQuoted(json, entry.source);
+            if (deviceId != null) {
+                json.append(",\"device_id\":");
+                appendQuoted(json, deviceId);
+            }
+            json.append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    static void appendQuoted(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,156 @@
+package com.b4g.smsgateway_app;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the CPU awake only while there is work in flight, and counts what that costs.
+ *
+ * Work is tracked by key (a message ID, a poll), so ending the same key twice or ending one
+ * that never began is harmless. The platform lock is taken when the first key begins and
+ * released when the last one ends; every begin refreshes it, so a lock with a timeout only
+ * runs out if nothing has started for that long. Hold time and wakeups per reason are kept
+ * for working out the battery cost per message.
+ */
+public class WakeTracker {
+    private static final String TAG = "WakeTracker";
+
+    /**
+     * The platform's wake lock.
+     */
+    public interface Lock {
+        /** Takes or refreshes the lock; called again while already held. */
+        void acquire();
+
+        void release();
+    }
+
+    private final Lock lock;
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, AtomicLong> wakeups = new ConcurrentHashMap<>();
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    // Guarded by inFlight
+    private long heldSinceNanos;
+    private long heldNanos;
+
+    public WakeTracker(Lock lock) {
+        this.lock = lock;
+    }
+
+    public void begin(String key) {
+        begin(key, System.nanoTime());
+    }
+
+    public void end(String key) {
+        end(key, System.nanoTime());
+    }
+
+    void begin(String key, long nowNanos) {
+        synchronized (inFlight) {
+            boolean wasIdle = inFlight.isEmpty();
+            if (!inFlight.add(key) && !wasIdle) {
+                return;
+            }
+            if (wasIdle) {
+                heldSinceNanos = nowNanos;
+                acquisitions.incrementAndGet();
+            }
+            try {
+                lock.acquire();
+            } catch (RuntimeException e) {
+                GatewayLog.e(TAG, "Could not take the wake lock: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    void end(String key, long nowNanos) {
+        synchronized (inFlight) {
+            if (!inFlight.remove(key) || !inFlight.isEmpty()) {
+                return;
+            }
+            heldNanos += nowNanos - heldSinceNanos;
+            try {
+                lock.release();
+            } catch (RuntimeException e) {
+                // Already released by its timeout
+                GatewayLog.w(TAG, "Wake lock was not held: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Records that something woke the gateway, such as an alarm or the network coming back.
+     */
+    public void onWakeup(String reason) {
+        AtomicLong count = wakeups.get(reason);
+        if (count == null) {
+            wakeups.putIfAbsent(reason, new AtomicLong());
+            count = wakeups.get(reason);
+        }
+        count.incrementAndGet();
+    }
+
+    public long getWakeupCount(String reason) {
+        AtomicLong count = wakeups.get(reason);
+        return count != null ? count.get() : 0;
+    }
+
+    public boolean isHeld() {
+        synchronized (inFlight) {
+            return !inFlight.isEmpty();
+        }
+    }
+
+    public int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    public long getAcquisitionCount() {
+        return acquisitions.get();
+    }
+
+    /**
+     * Total time the lock was held, including the current hold.
+     */
+    public long getHeldMillis() {
+        return getHeldMillis(System.nanoTime());
+    }
+
+    long getHeldMillis(long nowNanos) {
+        synchronized (inFlight) {
+            long held = heldNanos + (inFlight.isEmpty() ? 0 : nowNanos - heldSinceNanos);
+            return held / 1_000_000;
+        }
+    }
+
+    /**
+     * Wake lock time per 1,000 messages sent, in milliseconds, or 0 before the first one.
+     */
+    public long getHeldMillisPerThousand(long messagesSent) {
+        return messagesSent > 0 ? getHeldMillis() * 1000 / messagesSent : 0;
+    }
+
+    /**
+     * Drops every key and releases the lock, for shutdown.
+     */
+    public void releaseAll() {
+        synchronized (inFlight) {
+            if (inFlight.isEmpty()) {
+                return;
+            }
+            inFlight.clear();
+            heldNanos += System.nanoTime() - heldSinceNanos;
+            try {
+                lock.release();
+            } catch (RuntimeException e) {
+                GatewayLog.w(TAG, "Wake lock was not held: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AdaptiveFetchScheduler}.
+ */
+public class AdaptiveFetchSchedulerTest {
+
+    @Test
+    public void busyQueue_pollsAgainAfterTheShortestInterval() {
+        AdaptiveFetchScheduler scheduler = new AdaptiveFetchScheduler(1000, 60_000, 300_000, 0, false, new Random(1));
+
+        assertEquals(1000, scheduler.onPollResult(20));
+        assertEquals(FetchScheduler.Decision.IMMEDIATE, scheduler.getLastDecision());
+    }
+
+    @Test
+    public void emptyPolls_backOffExponentiallyUpToTheCap() {
+        AdaptiveFetchScheduler scheduler = new AdaptiveFetchScheduler(1000, 10_000, 300_000, 0, false, new Random(1));
+
+        assertEquals(1000, scheduler.onPollResult(0));
+        assertEquals(2000, scheduler.onPollResult(0));
+        assertEquals(4000, scheduler.onPollResult(0));
+        assertEquals(8000, scheduler.onPollResult(0));
+        assertEquals(10_000, scheduler.onPollResult(0));
+        assertEquals(10_000, scheduler.onPollResult(0));
+        assertEquals(FetchScheduler.Decision.IDLE_BACKOFF, scheduler.getLastDecision());
+
+        // A message resets the backoff
+        assertEquals(1000, scheduler.onPollResult(1));
+        assertEquals(1000, scheduler.onPollResult(0));
+    }
+
+    @Test
+    public void errors_backOffSeparatelyAndJitterStaysInRange() {
+        AdaptiveFetchScheduler scheduler = new AdaptiveFetchScheduler(1000, 10_000, 300_000, 0.2, false, new Random(7));
+
+        for (int i = 1; i <= 12; i++) {
+            long expected = Math.min(300_000, 1000L << (i - 1));
+            long delay = scheduler.onPollError();
+            assertTrue(delay <= expected);
+            assertTrue(delay >= (long) (expected * 0.8));
+        }
+        assertEquals(FetchScheduler.Decision.ERROR_BACKOFF, scheduler.getLastDecision());
+        assertEquals(12, scheduler.getConsecutiveErrors());
+    }
+
+    @Test
+    public void longPoll_repollsImmediatelyWhenEmpty() {
+        AdaptiveFetchScheduler scheduler = new AdaptiveFetchScheduler(1000, 10_000, 300_000, 0, true, new Random(1));
+
+        assertEquals(0, scheduler.onPollResult(0));
+        assertEquals(FetchScheduler.Decision.LONG_POLL, scheduler.getLastDecision());
+        assertTrue(scheduler.onPollError() > 0);
+    }
+}
@@ -0,0 +1,73 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GatewayLog}.
+ */
+public class GatewayLogTest {
+
+    @After
+    public void tearDown() {
+        GatewayLog.setMinLevel(GatewayLog.DEBUG);
+        GatewayLog.setRedact(false);
+    }
+
+    @Test
+    public void suppressedLevel_neverBuildsTheMessage() {
+        GatewayLog.setMinLevel(GatewayLog.INFO);
+        final boolean[] built = {false};
+
+        GatewayLog.d("test", () -> {
+            built[0] = true;
+            return "expensive";
+        });
+
+        assertFalse(built[0]);
+        assertFalse(GatewayLog.isLoggable(GatewayLog.DEBUG));
+        assertTrue(GatewayLog.isLoggable(GatewayLog.WARN));
+    }
+
+    @Test
+    public void ringBuffer_keepsTheNewestLines() {
+        for (int i = 0; i < 1000; i++) {
+            GatewayLog.i("test", "line " + i);
+        }
+
+        List<String> lines = GatewayLog.dump();
+        assertEquals(512, lines.size());
+        assertTrue(lines.get(0).endsWith("I/test: line 488"));
+        assertTrue(lines.get(511).endsWith("I/test: line 999"));
+    }
+
+    @Test
+    public void read_returnsOnlyNewLinesAtTheLevel() {
+        GatewayLog.setMinLevel(GatewayLog.DEBUG);
+        long position = GatewayLog.read(0, GatewayLog.ERROR, (time, level, tag, message) -> {
+        });
+        GatewayLog.d("test", "debug");
+        GatewayLog.e("test", "error");
+
+        final StringBuilder seen = new StringBuilder();
+        long next = GatewayLog.read(position, GatewayLog.INFO,
+                (time, level, tag, message) -> seen.append(level).append(' ').append(message));
+
+        assertEquals("6 error", seen.toString());
+        assertEquals(position + 2, next);
+    }
+
+    @Test
+    public void redaction_masksNumbersAndBodies() {
+        assertEquals("+15551234567", GatewayLog.phone("+15551234567"));
+
+        GatewayLog.setRedact(true);
+        assertEquals("**********67", GatewayLog.phone("+15551234567"));
+        assertEquals("<5 chars>", GatewayLog.body("hello"));
+        assertNull(GatewayLog.phone(null));
+    }
+}
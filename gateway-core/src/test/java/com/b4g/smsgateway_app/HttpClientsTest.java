@@ -0,0 +1,126 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the tuned client against a local server.
+ */
+public class HttpClientsTest {
+    private MockWebServer server;
+    private MetricsRegistry metrics;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        metrics = new MetricsRegistry("t_");
+        client = HttpClients.create(10, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void pollsAndStatusPosts_reuseOneSocket() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setBody("[]"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            get("/get_sms.php");
+        }
+        try (Response response = client.newCall(new Request.Builder()
+                .url(server.url("/update_sms_status_batch.php"))
+                .post(RequestBody.create("[]", MediaType.get("application/json")))
+                .build()).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        // The sequence number counts requests on the same connection
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+        assertTrue(metrics.toJson().contains("\"t_http_connections_opened_total\":1"));
+        assertTrue(metrics.toJson().contains("\"t_http_connections_reused_total\":3"));
+        assertTrue(metrics.toJson().contains("\"t_http_ttfb_seconds\":{\"count\":4"));
+    }
+
+    @Test
+    public void etag_turnsAnUnchangedPollInto304() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("[{\"id\":\"1\"}]"));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("[]"));
+        server.enqueue(new MockResponse().setBody("[]"));
+        client = client.newBuilder().addInterceptor(new HttpClients.EtagInterceptor()).build();
+
+        assertEquals(200, get("/get_sms.php"));
+        assertEquals(304, get("/get_sms.php"));
+        assertEquals(200, get("/get_sms.php"));
+        assertEquals(200, get("/get_sms.php"));
+
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v2\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void gzipInterceptor_compressesRequestBodies() throws Exception {
+        server.enqueue(new MockResponse());
+        client = client.newBuilder().addInterceptor(new HttpClients.GzipRequestInterceptor()).build();
+        String json = "[{\"id\":\"1\",\"status\":\"success\"},{\"id\":\"2\",\"status\":\"success\"}]";
+
+        try (Response response = client.newCall(new Request.Builder()
+                .url(server.url("/update_sms_status_batch.php"))
+                .post(RequestBody.create(json, MediaType.get("application/json")))
+                .build()).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals(json, gunzip(request.getBody().inputStream()));
+    }
+
+    private int get(String path) throws Exception {
+        try (Response response = client.newCall(new Request.Builder().url(server.url(path)).build()).execute()) {
+            if (response.body() != null) {
+                response.body().string();
+            }
+            return response.code();
+        }
+    }
+
+    private static String gunzip(InputStream compressed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(compressed)) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
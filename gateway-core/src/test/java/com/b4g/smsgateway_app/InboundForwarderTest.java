@@ -0,0 +1,104 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link InboundForwarder} batches, prioritises and bounds inbound events.
+ */
+public class InboundForwarderTest {
+    private MockWebServer server;
+    private InboundForwarder forwarder;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (forwarder != null) {
+            forwarder.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void eventsQueuedDuringABatch_goNextWithReportsFirst() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        forwarder = new InboundForwarder(new OkHttpClient(), server.url("/report_inbound.php").toString(),
+                "dev-1", 10, 10, 100, 200, 5000);
+
+        forwarder.onSent("+1 555-010-0123", "shop:42");
+        forwarder.onDeliveryReport("default:41", "delivered", 1000);
+        RecordedRequest first = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("gzip", first.getHeader("Content-Encoding"));
+        assertEquals("{\"device_id\":\"dev-1\",\"events\":[{\"type\":\"delivery\",\"id\":\"41\","
+                + "\"source\":\"default\",\"status\":\"delivered\",\"at\":1000}]}", gunzip(first.getBody()));
+
+        forwarder.onReceived("15550100123", "Yes please", 2000, 1);
+        forwarder.onDeliveryReport("shop:42", "delivered", 3000);
+        RecordedRequest second = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("{\"device_id\":\"dev-1\",\"events\":["
+                + "{\"type\":\"delivery\",\"id\":\"42\",\"source\":\"shop\",\"status\":\"delivered\",\"at\":3000},"
+                + "{\"type\":\"sms\",\"from\":\"15550100123\",\"body\":\"Yes please\",\"at\":2000,\"sim\":1,"
+                + "\"reply_to\":\"42\",\"reply_source\":\"shop\"}]}", gunzip(second.getBody()));
+        assertEquals(3, forwarder.getForwardedCount());
+    }
+
+    @Test
+    public void inboundStorm_isBoundedAndLeavesRoomForReports() throws Exception {
+        // Every batch fails, so nothing leaves the queues
+        forwarder = new InboundForwarder(new OkHttpClient(), server.url("/report_inbound.php").toString(),
+                null, 2, 5, 100, 60_000, 60_000);
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        for (int i = 0; i < 50; i++) {
+            forwarder.onReceived("+1555000" + i, "STOP", i, 0);
+        }
+        assertTrue(forwarder.onDeliveryReport("1", "delivered", 0));
+        assertTrue(forwarder.onDeliveryReport("2", "delivered", 0));
+        assertFalse(forwarder.onDeliveryReport("3", "delivered", 0));
+
+        assertEquals(45, forwarder.getDroppedInboundCount());
+        assertEquals(1, forwarder.getDroppedReportCount());
+        assertEquals(7, forwarder.getQueueDepth());
+    }
+
+    @Test
+    public void phoneKey_ignoresFormattingAndPrefixes() {
+        assertEquals(InboundForwarder.phoneKey("+1 (555) 010-0123"), InboundForwarder.phoneKey("5550100123"));
+        assertEquals("", InboundForwarder.phoneKey("SHORTCODE"));
+        assertEquals("", InboundForwarder.phoneKey(null));
+    }
+
+    private static String gunzip(Buffer body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(body.inputStream())) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,229 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link LeaseClient} bookkeeping, and two devices sharing one queue on a
+ * {@link LeaseQueueServer}.
+ */
+public class LeaseClientTest {
+    private static final long TTL = 120_000;
+
+    private MockWebServer server;
+    private LeaseQueueServer queue;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        queue = new LeaseQueueServer();
+        server.setDispatcher(queue);
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void leaseIsLost_shortlyBeforeItRunsOut() {
+        LeaseClient leases = new LeaseClient(client, "http://unused/", "a", TTL);
+        leases.onLeased("1", 0);
+
+        assertFalse(leases.isLost("1", 0));
+        assertFalse(leases.isLost("1", TTL / 2));
+        // A quarter of the TTL is kept back for the send itself
+        assertTrue(leases.isLost("1", TTL - TTL / 4));
+        // Never leased, e.g. pushed to the local API
+        assertFalse(leases.isLost("2", TTL * 10));
+    }
+
+    @Test
+    public void finishedLeases_areHeldUntilReportedButNotReleased() {
+        LeaseClient leases = new LeaseClient(client, "http://unused/", "a", TTL);
+        leases.onLeased("1", 0);
+        leases.onLeased("2", 0);
+        leases.onFinished("1");
+
+        assertEquals(2, leases.size());
+        assertEquals(Collections.singletonList("2"), leases.unfinished());
+
+        leases.onReported(Arrays.asList("1", "2"));
+        assertEquals(0, leases.size());
+    }
+
+    @Test
+    public void sameIdFromTwoSources_isRenewedApart() throws Exception {
+        MockWebServer renewals = new MockWebServer();
+        renewals.enqueue(new MockResponse().setBody("[\"1\"]"));
+        renewals.enqueue(new MockResponse().setBody("[]"));
+        renewals.start();
+        try {
+            LeaseClient leases = new LeaseClient(client, renewals.url("/lease_renew.php").toString(), "a", TTL);
+            leases.onLeased("shop:1", "1", 0);
+            leases.onLeased("bank:1", "1", 0);
+            assertTrue(leases.renewNow(TTL / 2));
+
+            assertEquals("{\"device_id\":\"a\",\"source\":\"shop\",\"lease_ttl\":120,\"ids\":[\"1\"]}",
+                    renewals.takeRequest().getBody().readUtf8());
+            assertEquals("{\"device_id\":\"a\",\"source\":\"bank\",\"lease_ttl\":120,\"ids\":[\"1\"]}",
+                    renewals.takeRequest().getBody().readUtf8());
+            assertFalse(leases.isLost("shop:1", TTL / 2));
+            assertTrue(leases.isLost("bank:1", TTL / 2));
+        } finally {
+            renewals.shutdown();
+        }
+    }
+
+    @Test
+    public void renewJson_andIdParsing() {
+        assertEquals("{\"device_id\":\"a\\\"b\",\"source\":\"shop\",\"lease_ttl\":120,\"ids\":[\"1\",\"x\"]}",
+                LeaseClient.toJson("a\"b", "shop", 120, Arrays.asList("1", "x")));
+        assertEquals(Arrays.asList("1", "22", "a\"b"), LeaseClient.parseIds(" [\"1\", 22, \"a\\\"b\"] "));
+        assertEquals(Collections.emptyList(), LeaseClient.parseIds("[]"));
+    }
+
+    @Test
+    public void twoDevices_neverFetchTheSameMessage() throws Exception {
+        queue.add(500);
+        Device a = new Device("device-a");
+        Device b = new Device("device-b");
+
+        // Interleaved polls, each finishing what it fetched before the next round
+        while (queue.pendingCount() > 0) {
+            a.pollAndSend(40);
+            b.pollAndSend(40);
+        }
+        a.reporter.shutdown();
+        b.reporter.shutdown();
+        assertTrue(a.reporter.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(b.reporter.awaitTermination(5, TimeUnit.SECONDS));
+
+        Set<String> overlap = new HashSet<>(a.fetched);
+        overlap.retainAll(b.fetched);
+        assertTrue("Fetched by both: " + overlap, overlap.isEmpty());
+        assertEquals(500, a.fetched.size() + b.fetched.size());
+        assertTrue(a.fetched.size() > 0 && b.fetched.size() > 0);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(1, queue.sentBy(String.valueOf(i)).size());
+        }
+    }
+
+    @Test
+    public void expiredLease_goesToTheOtherDeviceAndIsLostOnRenew() throws Exception {
+        queue.add(10);
+        Device a = new Device("device-a");
+        Device b = new Device("device-b");
+
+        assertEquals(10, a.fetch(10).size());
+        assertTrue(b.fetch(10).isEmpty());
+        assertTrue(a.leases.renewNow(System.currentTimeMillis()));
+        assertEquals(10, a.leases.getRenewedCount());
+
+        // Device a goes quiet for longer than the TTL
+        queue.advance(TTL + 1000);
+        assertEquals(10, b.fetch(10).size());
+        assertEquals("device-b", queue.ownerOf("3"));
+
+        assertTrue(a.leases.renewNow(System.currentTimeMillis()));
+        assertEquals(10, a.leases.getLostCount());
+        String key = SmsMessage.keyOf(SmsMessage.DEFAULT_SOURCE, "3");
+        assertTrue(a.leases.isLost(key, System.currentTimeMillis()));
+        assertFalse(b.leases.isLost(key, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void releasedLease_isHandedOutAgainRightAway() throws Exception {
+        queue.add(5);
+        Device a = new Device("device-a");
+        Device b = new Device("device-b");
+
+        assertEquals(5, a.fetch(5).size());
+        for (String key : a.leases.unfinished()) {
+            a.reporter.report(key, SmsMessage.idOf(key), SmsOutbox.STATE_PENDING);
+        }
+        a.reporter.shutdown();
+        assertTrue(a.reporter.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(5, b.fetch(5).size());
+    }
+
+    /**
+     * One gateway: fetches with its device ID, "sends" by reporting success.
+     */
+    private class Device {
+        final LeaseClient leases;
+        final StatusReporter reporter;
+        final List<String> fetched = new ArrayList<>();
+
+        Device(String deviceId) {
+            leases = new LeaseClient(client, server.url("/lease_renew.php").toString(), deviceId, TTL);
+            reporter = new StatusReporter(client, server.url("/update_sms_status_batch.php").toString(),
+                    server.url("/update_sms_status.php").toString(), 100, 10);
+            reporter.setDeviceId(deviceId);
+            reporter.setListener(new StatusReporter.Listener() {
+                @Override
+                public void onReported(List<String> keys) {
+                    leases.onReported(keys);
+                }
+
+                @Override
+                public void onFailed(String key, String status) {
+                    fail("Status update failed for " + key);
+                }
+            });
+        }
+
+        List<SmsMessage> fetch(int limit) throws Exception {
+            Request request = new Request.Builder()
+                    .url(leases.leaseUrl(server.url("/get_sms.php"), limit))
+                    .build();
+            List<SmsMessage> messages = new ArrayList<>();
+            try (Response response = client.newCall(request).execute()) {
+                new SmsStreamParser(new StringReader(response.body().string())).parse(messages::add);
+            }
+            long now = System.currentTimeMillis();
+            // Tracked under keys like the service does, renewed under the server's IDs
+            for (SmsMessage sms : messages) {
+                leases.onLeased(sms.getKey(), sms.getId(), now);
+                fetched.add(sms.getId());
+            }
+            return messages;
+        }
+
+        void pollAndSend(int limit) throws Exception {
+            for (SmsMessage sms : fetch(limit)) {
+                assertFalse(leases.isLost(sms.getKey(), System.currentTimeMillis()));
+                leases.onFinished(sms.getKey());
+                reporter.report(sms.getKey(), sms.getId(), "success");
+            }
+            reporter.flush();
+            // Wait for the flush so the next poll doesn't see these as pending
+            long deadline = System.currentTimeMillis() + 5000;
+            while (leases.size() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.b4g.smsgateway_app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * In-memory stand-in for a server that speaks the lease protocol, for use with a
+ * MockWebServer. It serves {@code get_sms.php}, {@code lease_renew.php} and
+ * {@code update_sms_status_batch.php} off one shared queue and remembers which device reported
+ * each message as sent, so tests can check that nothing went out twice.
+ */
+class LeaseQueueServer extends Dispatcher {
+    private static final Pattern STATUS = Pattern.compile(
+            "\\{\"id\":\"([^\"]*)\",\"status\":\"([^\"]*)\",\"source\":\"[^\"]*\",\"device_id\":\"([^\"]*)\"}");
+    private static final Pattern DEVICE = Pattern.compile("\"device_id\":\"([^\"]*)\"");
+    private static final Pattern TTL = Pattern.compile("\"lease_ttl\":(\\d+)");
+    private static final Pattern IDS = Pattern.compile("\"ids\":\\[([^\\]]*)\\]");
+
+    private static final class Row {
+        final String id;
+        String status = "pending";
+        String owner;
+        long leaseUntil;
+        final List<String> sentBy = new ArrayList<>();
+
+        Row(String id) {
+            this.id = id;
+        }
+    }
+
+    private final Map<String, Row> rows = new LinkedHashMap<>();
+    private long clockOffset;
+
+    synchronized void add(int count) {
+        int first = rows.size();
+        for (int i = first; i < first + count; i++) {
+            rows.put(String.valueOf(i), new Row(String.valueOf(i)));
+        }
+    }
+
+    /**
+     * Moves the server clock forward, so leases run out without the test waiting.
+     */
+    synchronized void advance(long ms) {
+        clockOffset += ms;
+    }
+
+    synchronized int pendingCount() {
+        int pending = 0;
+        for (Row row : rows.values()) {
+            if ("pending".equals(row.status)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Devices that reported the message as sent, in order.
+     */
+    synchronized List<String> sentBy(String id) {
+        return new ArrayList<>(rows.get(id).sentBy);
+    }
+
+    synchronized String ownerOf(String id) {
+        Row row = rows.get(id);
+        return row.leaseUntil > now() ? row.owner : null;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String path = url.encodedPath();
+        if (path.endsWith("/get_sms.php")) {
+            return lease(url.queryParameter("device_id"), Integer.parseInt(url.queryParameter("limit")),
+                    Long.parseLong(url.queryParameter("lease_ttl")));
+        }
+        String body = request.getBody().readUtf8();
+        if (path.endsWith("/lease_renew.php")) {
+            return renew(body);
+        }
+        if (path.endsWith("/update_sms_status_batch.php")) {
+            return updateStatus(body);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private MockResponse lease(String device, int limit, long ttlSeconds) {
+        long now = now();
+        StringBuilder json = new StringBuilder("[");
+        int leased = 0;
+        for (Row row : rows.values()) {
+            if (leased == limit) {
+                break;
+            }
+            if (!"pending".equals(row.status) || (row.leaseUntil > now && !device.equals(row.owner))) {
+                continue;
+            }
+            row.owner = device;
+            row.leaseUntil = now + ttlSeconds * 1000;
+            if (leased++ > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"").append(row.id).append("\",\"phone_number\":\"+1555").append(row.id)
+                    .append("\",\"message\":\"m").append(row.id).append("\",\"status\":\"pending\"}");
+        }
+        return new MockResponse().setBody(json.append(']').toString());
+    }
+
+    private MockResponse renew(String body) {
+        Matcher device = DEVICE.matcher(body);
+        Matcher ttl = TTL.matcher(body);
+        Matcher ids = IDS.matcher(body);
+        if (!device.find() || !ttl.find() || !ids.find()) {
+            return new MockResponse().setResponseCode(400);
+        }
+
+        long now = now();
+        StringBuilder json = new StringBuilder("[");
+        for (String id : LeaseClient.parseIds("[" + ids.group(1) + "]")) {
+            Row row = rows.get(id);
+            if (row == null || !device.group(1).equals(row.owner) || row.leaseUntil <= now) {
+                continue;
+            }
+            row.leaseUntil = now + Long.parseLong(ttl.group(1)) * 1000;
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(id).append('"');
+        }
+        return new MockResponse().setBody(json.append(']').toString());
+    }
+
+    private MockResponse updateStatus(String body) {
+        Matcher entry = STATUS.matcher(body);
+        while (entry.find()) {
+            Row row = rows.get(entry.group(1));
+            String status = entry.group(2);
+            String device = entry.group(3);
+            if (row == null) {
+                continue;
+            }
+            if ("pending".equals(status)) {
+                // A release only counts from the device holding the lease
+                if (device.equals(row.owner)) {
+                    row.owner = null;
+                    row.leaseUntil = 0;
+                }
+                continue;
+            }
+            if ("success".equals(status)) {
+                row.sentBy.add(device);
+            }
+            row.status = status;
+            row.owner = null;
+            row.leaseUntil = 0;
+        }
+        return new MockResponse().setResponseCode(200);
+    }
+
+    private long now() {
+        return System.currentTimeMillis() + clockOffset;
+    }
+}
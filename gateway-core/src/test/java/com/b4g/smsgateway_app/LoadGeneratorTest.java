@@ -0,0 +1,130 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the {@link LoadGenerator} queue, without starting its server.
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    public void offer_handsOutEachMessageOnceUntilItTimesOut() {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(3);
+
+        String first = generator.offer(2);
+        assertTrue(first.contains("\"id\":\"1\"") && first.contains("\"id\":\"2\""));
+        assertFalse(first.contains("\"id\":\"3\""));
+        assertEquals("[{\"id\":\"3\"", generator.offer(10).substring(0, 10));
+        assertEquals("[]", generator.offer(10));
+
+        LoadGenerator impatient = new LoadGenerator(0, 100, 0);
+        impatient.generate(1);
+        impatient.offer(10);
+        assertTrue(impatient.offer(10).contains("\"id\":\"1\""));
+        assertEquals(1, impatient.getReofferedCount());
+    }
+
+    @Test
+    public void offer_isParsedByTheGateway() throws Exception {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(20);
+
+        SmsStreamParser parser = new SmsStreamParser(new StringReader(generator.offer(100)));
+        parser.parse(sms -> {
+        });
+        assertEquals(20, parser.getMessageCount());
+        assertEquals(0, parser.getInvalidCount());
+    }
+
+    @Test
+    public void finalStatus_finishesOnceAndCountsDuplicates() {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(2);
+        generator.offer(10);
+
+        generator.onStatus("1", "success");
+        generator.onStatus("1", "delivered");
+        generator.onStatus("1", "success");
+        generator.onStatus("2", "failed");
+
+        assertEquals(1, generator.getSentCount());
+        assertEquals(1, generator.getFailedCount());
+        assertEquals(1, generator.getDeliveredCount());
+        assertEquals(1, generator.getDuplicateCount());
+        assertEquals(0, generator.getOutstandingCount());
+        assertEquals(2, generator.getEndToEndLatency().getCount());
+    }
+
+    @Test
+    public void pendingStatus_releasesTheMessageRightAway() {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(1);
+        generator.offer(10);
+
+        generator.onStatus("1", "pending");
+        assertTrue(generator.offer(10).contains("\"id\":\"1\""));
+    }
+
+    @Test
+    public void generation_pausesWhileTooManyAreOutstanding() {
+        LoadGenerator generator = new LoadGenerator(0, 5, 60_000);
+        generator.generate(8);
+
+        assertEquals(5, generator.getGeneratedCount());
+        assertEquals(5, generator.getOutstandingCount());
+    }
+
+    @Test
+    public void statusEndpoints_acceptBatchAndForm() {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(2);
+
+        LocalApiServer.Response batch = generator.handle(new LocalApiServer.Request("POST",
+                "/v1/update_sms_status_batch.php", null, null,
+                "[{\"id\":\"1\",\"status\":\"success\",\"device_id\":\"d\"}]".getBytes(StandardCharsets.UTF_8)));
+        LocalApiServer.Response form = generator.handle(new LocalApiServer.Request("POST",
+                "/v1/update_sms_status.php", null, null, "id=2&status=failed".getBytes(StandardCharsets.UTF_8)));
+        LocalApiServer.Response fetch = generator.handle(new LocalApiServer.Request("GET",
+                "/v1/get_sms.php", "limit=1", null, new byte[0]));
+
+        assertEquals(200, batch.status);
+        assertEquals(200, form.status);
+        assertEquals(1, generator.getSentCount());
+        assertEquals(1, generator.getFailedCount());
+        assertEquals("[]", new String(fetch.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void wireFormat_isServedWhenAskedFor() throws Exception {
+        LoadGenerator generator = new LoadGenerator(0, 100, 60_000);
+        generator.generate(3);
+
+        LocalApiServer.Response fetch = generator.handle(new LocalApiServer.Request("GET",
+                "/v1/get_sms.php", "limit=10",
+                Collections.singletonMap("accept", SmsWireCodec.MEDIA_TYPE + ", application/json;q=0.9"),
+                new byte[0]));
+        assertEquals(SmsWireCodec.MEDIA_TYPE, fetch.contentType);
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(fetch.body));
+        final List<StatusReporter.Update> updates = new ArrayList<>();
+        reader.parse(sms -> updates.add(new StatusReporter.Update(sms.getId(), "success", 0)));
+        assertEquals(3, updates.size());
+
+        LocalApiServer.Response batch = generator.handle(new LocalApiServer.Request("POST",
+                "/v1/update_sms_status_batch.php", null,
+                Collections.singletonMap("content-type", SmsWireCodec.MEDIA_TYPE),
+                SmsWireCodec.encodeStatuses(updates, "d")));
+        assertEquals(200, batch.status);
+        assertEquals(3, generator.getSentCount());
+        assertEquals(0, generator.getOutstandingCount());
+    }
+}
@@ -0,0 +1,282 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Talks raw HTTP to {@link LocalApiServer} over localhost.
+ */
+public class LocalApiServerTest {
+    private LocalApiServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void keepAlive_servesSeveralRequestsOnOneConnection() throws Exception {
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                if ("/messages".equals(request.getPath())) {
+                    return LocalApiServer.Response.json(202,
+                            "{\"echo\":" + new String(request.getBody(), StandardCharsets.UTF_8) + "}");
+                }
+                return LocalApiServer.Response.text(404, "Not found");
+            }
+        }, 2, 4);
+
+        try (Socket socket = connect()) {
+            String batch = "[{\"id\":\"1\"},{\"id\":\"2\"}]";
+            send(socket, "POST", "/messages", batch, false);
+            assertEquals("HTTP/1.1 202 Accepted", readStatusLine(socket));
+            assertEquals("{\"echo\":" + batch + "}", readBody(socket));
+
+            send(socket, "GET", "/messages/1?x=y", null, false);
+            assertEquals("HTTP/1.1 404 Not Found", readStatusLine(socket));
+            assertEquals("Not found", readBody(socket));
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void pipelinedRequests_areAnsweredInOrder() throws Exception {
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LocalApiServer.Response.text(200, request.getPath());
+            }
+        }, 2, 4);
+
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /a HTTP/1.1\r\nHost: x\r\n\r\nGET /b HTTP/1.1\r\nHost: x\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            assertEquals("/a", readBody(socket));
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            assertEquals("/b", readBody(socket));
+        }
+    }
+
+    @Test
+    public void queryString_isSplitOffAndDecoded() throws Exception {
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LocalApiServer.Response.text(200, request.getPath() + " " + request.getQueryParameter("limit")
+                        + " " + request.getQueryParameter("device_id") + " " + request.getQueryParameter("missing"));
+            }
+        }, 1, 1);
+
+        try (Socket socket = connect()) {
+            send(socket, "GET", "/get_sms.php?limit=50&device_id=a%20b%2Bc", null, false);
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            assertEquals("/get_sms.php 50 a b+c null", readBody(socket));
+        }
+    }
+
+    @Test
+    public void fullQueue_answers503() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) throws InterruptedException {
+                release.await(5, TimeUnit.SECONDS);
+                return LocalApiServer.Response.text(200, "done");
+            }
+        }, 1, 1);
+
+        // One request running, one queued, the third has nowhere to go
+        Socket running = connect();
+        Socket queued = connect();
+        Socket rejected = connect();
+        try {
+            send(running, "GET", "/messages/1", null, false);
+            Thread.sleep(100);
+            send(queued, "GET", "/messages/2", null, false);
+            Thread.sleep(100);
+            send(rejected, "GET", "/messages/3", null, false);
+
+            assertEquals("HTTP/1.1 503 Service Unavailable", readStatusLine(rejected));
+            readBody(rejected);
+            release.countDown();
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(running));
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(queued));
+        } finally {
+            running.close();
+            queued.close();
+            rejected.close();
+        }
+        assertEquals(1, server.getRejectedCount());
+    }
+
+    @Test
+    public void oversizedBody_isRefusedAndClosed() throws Exception {
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LocalApiServer.Response.text(200, "ok");
+            }
+        }, 1, 1);
+
+        try (Socket socket = connect()) {
+            send(socket, "POST", "/messages", new String(new char[2048]).replace('\0', 'x'), false);
+            assertEquals("HTTP/1.1 413 Payload Too Large", readStatusLine(socket));
+            readBody(socket);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void connectionClose_isHonoured() throws Exception {
+        start(new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LocalApiServer.Response.text(200, "bye");
+            }
+        }, 1, 1);
+
+        try (Socket socket = connect()) {
+            send(socket, "GET", "/", null, true);
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            assertEquals("bye", readBody(socket));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void authenticated_rejectsMissingAndWrongTokens() throws Exception {
+        start(LocalApiServer.authenticated("Authorization", "Bearer s3cret", new LocalApiServer.Handler() {
+            @Override
+            public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                return LocalApiServer.Response.text(200, "sent");
+            }
+        }), 1, 1);
+
+        try (Socket socket = connect()) {
+            send(socket, "GET", "/metrics", null, false);
+            assertEquals("HTTP/1.1 401 Unauthorized", readStatusLine(socket));
+            assertEquals("Unauthorized", readBody(socket));
+
+            send(socket, "GET", "/metrics", "Authorization: Bearer s3cre", null, false);
+            assertEquals("HTTP/1.1 401 Unauthorized", readStatusLine(socket));
+            readBody(socket);
+
+            send(socket, "GET", "/metrics", "Authorization: Bearer s3cret!", null, false);
+            assertEquals("HTTP/1.1 401 Unauthorized", readStatusLine(socket));
+            readBody(socket);
+
+            send(socket, "GET", "/metrics", "authorization: Bearer s3cret", null, false);
+            assertEquals("HTTP/1.1 200 OK", readStatusLine(socket));
+            assertEquals("sent", readBody(socket));
+        }
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void authenticated_needsAToken() {
+        try {
+            LocalApiServer.authenticated("Authorization", "", new LocalApiServer.Handler() {
+                @Override
+                public LocalApiServer.Response handle(LocalApiServer.Request request) {
+                    return LocalApiServer.Response.text(200, "sent");
+                }
+            });
+            fail("Expected an empty token to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    private void start(LocalApiServer.Handler handler, int threads, int queueCapacity) throws IOException {
+        server = new LocalApiServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), handler,
+                threads, queueCapacity, 8, 1024, 30_000);
+        server.start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String method, String path, String body, boolean close)
+            throws IOException {
+        send(socket, method, path, null, body, close);
+    }
+
+    // header is one extra "Name: value" line, or null
+    private static void send(Socket socket, String method, String path, String header, String body,
+                             boolean close) throws IOException {
+        byte[] bytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        String head = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (header != null ? header + "\r\n" : "")
+                + (close ? "Connection: close\r\n" : "")
+                + (body != null ? "Content-Type: application/json\r\nContent-Length: " + bytes.length + "\r\n" : "")
+                + "\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String readStatusLine(Socket socket) throws IOException {
+        return readLine(socket.getInputStream());
+    }
+
+    // Reads the headers after the status line, then exactly Content-Length bytes
+    private static String readBody(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        int length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(body, read, length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed mid-body");
+            }
+            read += n;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+}
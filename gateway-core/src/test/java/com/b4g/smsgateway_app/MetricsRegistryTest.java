@@ -0,0 +1,92 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link MetricsRegistry}.
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogram_quantilesStayWithinOneBucket() {
+        MetricsRegistry registry = new MetricsRegistry("t_");
+        MetricsRegistry.Histogram histogram = registry.histogram("latency", "test", 1);
+
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertWithinEighth(5_000, histogram.getQuantile(0.5));
+        assertWithinEighth(9_900, histogram.getQuantile(0.99));
+        assertEquals(1, histogram.getQuantile(0.0));
+    }
+
+    @Test
+    public void buckets_coverTheWholeLongRange() {
+        for (long value : new long[]{0, 7, 8, 15, 16, 1000, 123_456_789L, Long.MAX_VALUE}) {
+            int bucket = MetricsRegistry.Histogram.bucketOf(value);
+            assertTrue(MetricsRegistry.Histogram.upperBoundOf(bucket) >= value);
+        }
+    }
+
+    @Test
+    public void concurrentRecording_losesNothing() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry("t_");
+        final MetricsRegistry.Counter counter = registry.counter("events_total", "test");
+        final MetricsRegistry.Histogram histogram = registry.timer("op_seconds", "test");
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 25_000; i++) {
+                    counter.inc();
+                    histogram.record(i);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100_000, counter.get());
+        assertEquals(100_000, histogram.getCount());
+    }
+
+    @Test
+    public void prometheus_exportsEveryType() {
+        MetricsRegistry registry = new MetricsRegistry("gw_");
+        registry.counter("sent_total", "Sent messages").add(3);
+        registry.gauge("queue_depth", "Queued messages", () -> 7);
+        registry.timer("fetch_seconds", "Fetch time").record(250_000);
+
+        String text = registry.toPrometheus();
+        assertTrue(text.contains("# TYPE gw_sent_total counter\ngw_sent_total 3\n"));
+        assertTrue(text.contains("# TYPE gw_queue_depth gauge\ngw_queue_depth 7\n"));
+        assertTrue(text.contains("# TYPE gw_fetch_seconds summary\n"));
+        assertTrue(text.contains("gw_fetch_seconds{quantile=\"0.5\"} 0.250000\n"));
+        assertTrue(text.contains("gw_fetch_seconds_count 1\n"));
+    }
+
+    @Test
+    public void json_exportsEveryType() {
+        MetricsRegistry registry = new MetricsRegistry("gw_");
+        registry.counter("sent_total", "Sent messages").inc();
+        registry.counter("retries_total", "Retries", () -> 2);
+        registry.histogram("per_poll", "Per poll", 1).record(4);
+
+        assertEquals("{\"gw_per_poll\":{\"count\":1,\"sum\":4,\"max\":4,\"p50\":4,\"p90\":4,\"p99\":4},"
+                + "\"gw_retries_total\":2,\"gw_sent_total\":1}", registry.toJson());
+    }
+
+    private static void assertWithinEighth(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,104 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RetryQueue}.
+ */
+public class RetryQueueTest {
+
+    private static class RecordingListener implements RetryQueue.Listener<String> {
+        final List<String> retries = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> dead = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch retried;
+
+        RecordingListener(int expectedRetries) {
+            retried = new CountDownLatch(expectedRetries);
+        }
+
+        @Override
+        public void onRetry(String item, int attempt) {
+            retries.add(item + "#" + attempt);
+            retried.countDown();
+        }
+
+        @Override
+        public void onDeadLetter(String item, int attempts) {
+            dead.add(item + "#" + attempts);
+        }
+    }
+
+    @Test
+    public void delay_doublesUpToTheCapWithJitter() {
+        RetryQueue<String> queue = new RetryQueue<>("test", 1000, 8000, 10, new Random(1),
+                new RecordingListener(0));
+
+        for (int i = 0; i < 100; i++) {
+            long first = queue.delayFor(1);
+            assertTrue(first >= 500 && first <= 1000);
+            long third = queue.delayFor(3);
+            assertTrue(third >= 2000 && third <= 4000);
+            long capped = queue.delayFor(20);
+            assertTrue(capped >= 4000 && capped <= 8000);
+        }
+        assertTrue(queue.delayFor(1000) <= 8000);
+        queue.shutdownNow();
+    }
+
+    @Test
+    public void failedItem_isRetriedThenDeadLettered() throws Exception {
+        RecordingListener listener = new RecordingListener(2);
+        RetryQueue<String> queue = new RetryQueue<>("test", 10, 20, 3, new Random(1), listener);
+
+        assertTrue(queue.retry("a", "a"));
+        assertTrue(queue.retry("a", "a"));
+        assertTrue(listener.retried.await(5, TimeUnit.SECONDS));
+        assertFalse(queue.retry("a", "a"));
+
+        assertEquals(2, listener.retries.size());
+        assertTrue(listener.retries.contains("a#2"));
+        assertTrue(listener.retries.contains("a#3"));
+        assertEquals(Collections.singletonList("a#3"), listener.dead);
+        assertEquals(1, queue.getDeadLetterCount());
+        queue.shutdownNow();
+    }
+
+    @Test
+    public void success_resetsTheAttemptCount() {
+        RecordingListener listener = new RecordingListener(0);
+        RetryQueue<String> queue = new RetryQueue<>("test", 60_000, 60_000, 2, new Random(1), listener);
+
+        assertTrue(queue.retry("a", "a"));
+        queue.succeeded("a");
+        assertTrue(queue.retry("a", "a"));
+        assertTrue(listener.dead.isEmpty());
+
+        queue.giveUp("b", "b");
+        assertEquals(Collections.singletonList("b#1"), listener.dead);
+        queue.shutdownNow();
+    }
+
+    @Test
+    public void thousandsOfRetries_allFireFromOneThread() throws Exception {
+        final int count = 5000;
+        RecordingListener listener = new RecordingListener(count);
+        RetryQueue<String> queue = new RetryQueue<>("test", 1, 1, 5, new Random(1), listener);
+
+        for (int i = 0; i < count; i++) {
+            queue.retry(String.valueOf(i), String.valueOf(i));
+        }
+        assertTrue(listener.retried.await(10, TimeUnit.SECONDS));
+        assertEquals(count, queue.getRetriedCount());
+        assertEquals(0, queue.size());
+        queue.shutdownNow();
+    }
+}
@@ -0,0 +1,59 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RingBuffer}.
+ */
+public class RingBufferTest {
+
+    @Test
+    public void underCapacity_keepsEverythingInOrder() {
+        RingBuffer<String> ring = new RingBuffer<>(4);
+        ring.addAll(Arrays.asList("a", "b"));
+
+        assertEquals(2, ring.size());
+        assertEquals("a", ring.get(0));
+        assertEquals("b", ring.get(1));
+    }
+
+    @Test
+    public void overCapacity_dropsTheOldest() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i);
+        }
+
+        assertEquals(3, ring.size());
+        assertEquals(Integer.valueOf(7), ring.get(0));
+        assertEquals(Integer.valueOf(9), ring.get(2));
+        assertEquals(10, ring.getAddedCount());
+    }
+
+    @Test
+    public void get_pastTheNewest_throws() {
+        RingBuffer<String> ring = new RingBuffer<>(3);
+        ring.add("a");
+        try {
+            ring.get(1);
+            fail("Expected an out of bounds index to throw");
+        } catch (IndexOutOfBoundsException expected) {
+            assertEquals(1, ring.size());
+        }
+    }
+
+    @Test
+    public void clear_empties() {
+        RingBuffer<String> ring = new RingBuffer<>(2);
+        ring.addAll(Arrays.asList("a", "b", "c"));
+        ring.clear();
+
+        assertEquals(0, ring.size());
+        ring.add("d");
+        assertEquals("d", ring.get(0));
+    }
+}
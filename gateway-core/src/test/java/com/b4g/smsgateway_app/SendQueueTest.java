@@ -0,0 +1,139 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SendQueue}.
+ */
+public class SendQueueTest {
+
+    private static SmsMessage sms(String id, int priority, long sendAt) {
+        return new SmsMessage(id, "+1", "x", 0, SmsMessage.DEFAULT_SOURCE, priority, sendAt);
+    }
+
+    @Test
+    public void higherPriorityJumpsAhead_fifoWithinPriority() throws Exception {
+        SendQueue queue = new SendQueue(1000);
+        for (int i = 0; i < 400; i++) {
+            queue.put(sms("bulk" + i, SmsMessage.PRIORITY_LOW, 0));
+        }
+        queue.put(sms("n1", SmsMessage.PRIORITY_NORMAL, 0));
+        queue.put(sms("otp1", SmsMessage.PRIORITY_HIGH, 0));
+        queue.put(sms("n2", SmsMessage.PRIORITY_NORMAL, 0));
+        queue.put(sms("otp2", SmsMessage.PRIORITY_HIGH, 0));
+
+        assertEquals("otp1", queue.take().getId());
+        assertEquals("otp2", queue.take().getId());
+        assertEquals("n1", queue.take().getId());
+        assertEquals("n2", queue.take().getId());
+        for (int i = 0; i < 400; i++) {
+            assertEquals("bulk" + i, queue.take().getId());
+        }
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void futureMessages_areHeldUntilDue() throws Exception {
+        SendQueue queue = new SendQueue(10);
+        long due = System.currentTimeMillis() + 200;
+        queue.put(sms("later", SmsMessage.PRIORITY_HIGH, due));
+        queue.put(sms("now", SmsMessage.PRIORITY_LOW, 0));
+
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getScheduledCount());
+        assertEquals("now", queue.take().getId());
+
+        SmsMessage later = queue.take();
+        assertEquals("later", later.getId());
+        assertTrue(System.currentTimeMillis() >= due);
+        assertEquals(0, queue.getScheduledCount());
+    }
+
+    @Test
+    public void earlierScheduledMessage_wakesASleepingConsumer() throws Exception {
+        final SendQueue queue = new SendQueue(10);
+        queue.put(sms("far", SmsMessage.PRIORITY_NORMAL, System.currentTimeMillis() + 60_000));
+
+        final SmsMessage[] taken = new SmsMessage[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                taken[0] = queue.take();
+                done.countDown();
+            } catch (InterruptedException e) {
+                // test over
+            }
+        });
+        consumer.start();
+
+        Thread.sleep(50);
+        queue.put(sms("soon", SmsMessage.PRIORITY_NORMAL, System.currentTimeMillis() + 50));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("soon", taken[0].getId());
+        consumer.interrupt();
+    }
+
+    @Test
+    public void nextSendAt_isTheEarliestScheduledMessage() throws Exception {
+        SendQueue queue = new SendQueue(10);
+        assertEquals(0, queue.getNextSendAt());
+
+        long now = System.currentTimeMillis();
+        queue.put(sms("later", SmsMessage.PRIORITY_NORMAL, now + 120_000));
+        queue.put(sms("sooner", SmsMessage.PRIORITY_LOW, now + 60_000));
+        queue.put(sms("now", SmsMessage.PRIORITY_HIGH, 0));
+        assertEquals(now + 60_000, queue.getNextSendAt());
+    }
+
+    @Test
+    public void fullQueue_blocksUntilTaken_butScheduledDoesNotCount() throws Exception {
+        final SendQueue queue = new SendQueue(2);
+        queue.put(sms("a", SmsMessage.PRIORITY_NORMAL, 0));
+        queue.put(sms("b", SmsMessage.PRIORITY_NORMAL, 0));
+        queue.put(sms("tomorrow", SmsMessage.PRIORITY_NORMAL, System.currentTimeMillis() + 86_400_000L));
+
+        final AtomicBoolean added = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(sms("c", SmsMessage.PRIORITY_NORMAL, 0));
+                added.set(true);
+            } catch (InterruptedException e) {
+                // test over
+            }
+        });
+        producer.start();
+
+        Thread.sleep(100);
+        assertFalse(added.get());
+        assertEquals("a", queue.take().getId());
+        producer.join(5000);
+        assertTrue(added.get());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void queueWait_isRecordedPerPriority() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry("t_");
+        MetricsRegistry.Histogram[] wait = {
+                registry.timer("low", "low"), registry.timer("normal", "normal"), registry.timer("high", "high")};
+        SendQueue queue = new SendQueue(10);
+        queue.setQueueWait(wait);
+
+        queue.put(sms("1", SmsMessage.PRIORITY_HIGH, 0));
+        queue.put(sms("2", SmsMessage.PRIORITY_LOW, 0));
+        queue.put(sms("3", SmsMessage.PRIORITY_LOW, 0));
+        queue.take();
+        queue.take();
+        queue.take();
+
+        assertEquals(2, wait[SmsMessage.PRIORITY_LOW].getCount());
+        assertEquals(0, wait[SmsMessage.PRIORITY_NORMAL].getCount());
+        assertEquals(1, wait[SmsMessage.PRIORITY_HIGH].getCount());
+    }
+}
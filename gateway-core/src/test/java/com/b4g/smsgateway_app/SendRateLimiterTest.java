@@ -0,0 +1,70 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SendRateLimiter}.
+ */
+public class SendRateLimiterTest {
+
+    @Test
+    public void fullBucket_allowsABurstUpToTheLimit() {
+        SendRateLimiter limiter = new SendRateLimiter(5, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(1));
+        }
+        assertFalse(limiter.tryAcquire(1));
+        assertEquals(0, limiter.getAvailable("minute"));
+        assertEquals(95, limiter.getAvailable("hour"));
+    }
+
+    @Test
+    public void hourBucket_capsTheMinuteBucket() {
+        SendRateLimiter limiter = new SendRateLimiter(100, 3);
+
+        assertTrue(limiter.tryAcquire(2));
+        assertFalse(limiter.tryAcquire(2));
+        // The failed attempt must not have used up minute tokens
+        assertEquals(98, limiter.getAvailable("minute"));
+        assertTrue(limiter.tryAcquire(1));
+    }
+
+    @Test
+    public void availableWithin_countsTheTokensThatRefill() {
+        SendRateLimiter limiter = new SendRateLimiter(30, 600);
+        while (limiter.tryAcquire(1)) {
+            // drain the burst
+        }
+
+        // Two minutes earn 60 minute tokens; the hour bucket has plenty left
+        int available = limiter.getAvailableWithin(120000);
+        assertTrue("Got " + available, available >= 59 && available <= 60);
+    }
+
+    @Test
+    public void availableWithin_isCappedByTheTightestBucket() {
+        SendRateLimiter limiter = new SendRateLimiter(100, 3);
+
+        assertEquals(3, limiter.getAvailableWithin(60000));
+    }
+
+    @Test
+    public void acquire_waitsForTheNextToken() throws Exception {
+        // One token every 100 ms
+        SendRateLimiter limiter = new SendRateLimiter(600, 100_000);
+        while (limiter.tryAcquire(1)) {
+            // drain the burst
+        }
+
+        long start = System.nanoTime();
+        limiter.acquire(1);
+        limiter.acquire(1);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue("Waited only " + elapsedMs + " ms", elapsedMs >= 150);
+        assertTrue(limiter.getWaitedMillis() >= 150);
+    }
+}
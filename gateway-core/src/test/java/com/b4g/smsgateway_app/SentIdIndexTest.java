@@ -0,0 +1,76 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SentIdIndex}.
+ */
+public class SentIdIndexTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    @Test
+    public void addedIds_areFoundUntilTheyExpire() {
+        SentIdIndex index = new SentIdIndex(100, HOUR);
+        index.add("42", 0);
+        index.add("abc-1", 0);
+
+        assertTrue(index.contains("42", HOUR - 1));
+        assertTrue(index.contains("abc-1", HOUR - 1));
+        assertFalse(index.contains("43", 0));
+        assertFalse(index.contains("042", 0));
+
+        assertFalse(index.contains("42", HOUR));
+        assertFalse(index.contains("abc-1", HOUR));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void oldestIdsAreEvicted_whenFull() {
+        SentIdIndex index = new SentIdIndex(1000, HOUR);
+        for (int i = 0; i < 50_000; i++) {
+            index.add(String.valueOf(i), i);
+        }
+
+        assertEquals(1000, index.size());
+        assertFalse(index.contains("48999", 50_000));
+        for (int i = 49_000; i < 50_000; i++) {
+            assertTrue(index.contains(String.valueOf(i), 50_000));
+        }
+    }
+
+    @Test
+    public void readdedId_survivesEvictionOfItsOlderEntry() {
+        SentIdIndex index = new SentIdIndex(10, HOUR);
+        index.add("1", 0);
+        index.add("1", HOUR / 2);
+
+        assertTrue(index.contains("1", HOUR + 1));
+        assertFalse(index.contains("1", HOUR / 2 + HOUR));
+    }
+
+    @Test
+    public void snapshot_roundTripsLiveEntries() throws Exception {
+        File file = File.createTempFile("sent_ids", ".bin");
+        try {
+            SentIdIndex index = new SentIdIndex(100, HOUR);
+            index.add("1", 0);
+            index.add("2", HOUR / 2);
+            index.add("x", HOUR / 2);
+            index.save(file);
+            assertFalse(index.isDirty());
+
+            SentIdIndex restored = new SentIdIndex(100, HOUR);
+            restored.load(file, HOUR);
+
+            assertFalse(restored.contains("1", HOUR));
+            assertTrue(restored.contains("2", HOUR));
+            assertTrue(restored.contains("x", HOUR));
+        } finally {
+            file.delete();
+        }
+    }
+}
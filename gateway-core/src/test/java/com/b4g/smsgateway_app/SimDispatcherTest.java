@@ -0,0 +1,122 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SimDispatcher}.
+ */
+public class SimDispatcherTest {
+
+    private static SimDispatcher.SimChannel channel(int slot) {
+        return new SimDispatcher.SimChannel(slot, slot, "sim" + slot, null,
+                new SendRateLimiter(1000, 10000), 100);
+    }
+
+    private static class RecordingSender implements SimDispatcher.Sender {
+        final List<Integer> slots = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done;
+
+        RecordingSender(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void send(SmsMessage sms, SimDispatcher.SimChannel channel) {
+            slots.add(channel.getSlot());
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void roundRobin_alternatesBetweenSims() throws Exception {
+        RecordingSender sender = new RecordingSender(4);
+        SimDispatcher dispatcher = new SimDispatcher(Arrays.asList(channel(1), channel(2)),
+                SimDispatcher.Strategy.ROUND_ROBIN, sender, 3, 60000);
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(new SmsMessage(String.valueOf(i), "+1", "x"));
+        }
+        assertTrue(sender.done.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdownNow();
+
+        assertEquals(2, Collections.frequency(sender.slots, 1));
+        assertEquals(2, Collections.frequency(sender.slots, 2));
+    }
+
+    @Test
+    public void sendableWithin_isBoundByQueueRoomAndSendRate() {
+        // Room for 100 but tokens for far more, and room for 500 but only 30 + 60 tokens
+        SimDispatcher.SimChannel roomy = channel(1);
+        SimDispatcher.SimChannel slow = new SimDispatcher.SimChannel(2, 2, "sim2", null,
+                new SendRateLimiter(30, 600), 500);
+        SimDispatcher dispatcher = new SimDispatcher(Arrays.asList(roomy, slow),
+                SimDispatcher.Strategy.ROUND_ROBIN, new RecordingSender(0), 3, 60000);
+
+        assertEquals(100, roomy.getSendableWithin(120000));
+        assertEquals(90, slow.getSendableWithin(120000));
+        assertEquals(190, dispatcher.getSendableWithin(120000));
+        dispatcher.shutdownNow();
+    }
+
+    @Test
+    public void simHint_pinsTheMessageToThatSlot() throws Exception {
+        RecordingSender sender = new RecordingSender(3);
+        SimDispatcher dispatcher = new SimDispatcher(Arrays.asList(channel(1), channel(2)),
+                SimDispatcher.Strategy.ROUND_ROBIN, sender, 3, 60000);
+
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch(new SmsMessage(String.valueOf(i), "+1", "x", 2));
+        }
+        assertTrue(sender.done.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdownNow();
+
+        assertEquals(Arrays.asList(2, 2, 2), sender.slots);
+    }
+
+    @Test
+    public void failingSim_isTakenOutOfRotation() throws Exception {
+        SimDispatcher.SimChannel sim1 = channel(1);
+        SimDispatcher.SimChannel sim2 = channel(2);
+        RecordingSender sender = new RecordingSender(2);
+        SimDispatcher dispatcher = new SimDispatcher(Arrays.asList(sim1, sim2),
+                SimDispatcher.Strategy.ROUND_ROBIN, sender, 2, 60000);
+
+        for (int i = 0; i < 2; i++) {
+            SmsMessage sms = new SmsMessage("f" + i, "+1", "x");
+            dispatcher.onHandedOff(sms, sim1);
+            dispatcher.onResult(sms, false);
+        }
+        assertFalse(sim1.isEnabled(System.currentTimeMillis()));
+        assertEquals(2, sim1.getFailedCount());
+
+        dispatcher.dispatch(new SmsMessage("a", "+1", "x"));
+        dispatcher.dispatch(new SmsMessage("b", "+1", "x", 1));
+        assertTrue(sender.done.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdownNow();
+
+        assertEquals(Arrays.asList(2, 2), sender.slots);
+    }
+
+    @Test
+    public void singleSim_isNeverDisabled() {
+        SimDispatcher.SimChannel sim = channel(1);
+        SimDispatcher dispatcher = new SimDispatcher(Collections.singletonList(sim),
+                SimDispatcher.Strategy.LEAST_LOADED, new RecordingSender(0), 1, 60000);
+
+        SmsMessage sms = new SmsMessage("1", "+1", "x");
+        dispatcher.onHandedOff(sms, sim);
+        dispatcher.onResult(sms, false);
+
+        assertTrue(sim.isEnabled(System.currentTimeMillis()));
+        dispatcher.shutdownNow();
+    }
+}
@@ -0,0 +1,107 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SimulatedTransport} and its carrier profiles.
+ */
+public class SimulatedTransportTest {
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final SmsTransport.Listener listener = new SmsTransport.Listener() {
+        @Override
+        public void onPartSent(String key, int part, int resultCode) {
+            events.add(key + "/" + part + " sent " + resultCode);
+        }
+
+        @Override
+        public void onPartDelivered(String key, int part, String status) {
+            events.add(key + "/" + part + " " + status);
+        }
+    };
+    private SimulatedTransport transport;
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void divide_splitsLikeTheRadio() {
+        transport = new SimulatedTransport(listener);
+        assertEquals(1, transport.divide(repeat('a', 160)).size());
+        assertEquals(Arrays.asList(repeat('a', 153), repeat('a', 8)), transport.divide(repeat('a', 161)));
+        assertEquals(1, transport.divide(repeat('ж', 70)).size());
+        assertEquals(Arrays.asList(repeat('ж', 67), repeat('ж', 4)), transport.divide(repeat('ж', 71)));
+    }
+
+    @Test
+    public void instant_reportsEveryPartBeforeReturning() {
+        transport = new SimulatedTransport(listener);
+        List<String> parts = transport.divide(repeat('a', 200));
+        transport.send(new SmsMessage("1", "+1", repeat('a', 200)), parts);
+
+        assertEquals(Arrays.asList("default:1/0 sent -1", "default:1/1 sent -1", "default:1/0 delivered", "default:1/1 delivered"),
+                Arrays.asList(events.toArray()));
+    }
+
+    @Test
+    public void latency_delaysTheSentResult() throws Exception {
+        transport = new SimulatedTransport(listener, new SimulatedTransport.Profile(100, 100, 0, 0, 0, 0),
+                new Random(1));
+        long start = System.nanoTime();
+        transport.send(new SmsMessage("1", "+1", "a"), Arrays.asList("a"));
+
+        assertNull(events.poll(20, TimeUnit.MILLISECONDS));
+        assertEquals("default:1/0 sent -1", events.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertNull("No delivery reports at a 0 report rate", events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failureRate_failsParts() throws Exception {
+        transport = new SimulatedTransport(listener, new SimulatedTransport.Profile(0, 0, 1, 0, 1, 0),
+                new Random(1));
+        transport.send(new SmsMessage("1", "+1", "a"), Arrays.asList("a"));
+
+        assertEquals("default:1/0 sent " + SimulatedTransport.RESULT_ERROR_GENERIC_FAILURE, events.poll(5, TimeUnit.SECONDS));
+        assertNull("Failed parts are never delivered", events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void carrierThrottle_refusesPartsOverTheAllowance() throws Exception {
+        transport = new SimulatedTransport(listener, new SimulatedTransport.Profile(0, 0, 0, 2, 0, 0),
+                new Random(1));
+        for (int i = 0; i < 5; i++) {
+            transport.send(new SmsMessage(String.valueOf(i), "+1", "a"), Arrays.asList("a"));
+        }
+
+        // Five sends within a millisecond or two span at most two carrier seconds
+        int limited = 0;
+        for (int i = 0; i < 5; i++) {
+            String event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event);
+            if (event.endsWith(" sent " + SimulatedTransport.RESULT_ERROR_LIMIT_EXCEEDED)) {
+                limited++;
+            }
+        }
+        assertTrue(limited >= 1);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
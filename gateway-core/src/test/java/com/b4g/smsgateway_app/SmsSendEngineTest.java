@@ -0,0 +1,177 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmsSendEngine} against transports that report parts by hand.
+ */
+public class SmsSendEngineTest {
+    private final BlockingQueue<String> outcomes = new LinkedBlockingQueue<>();
+    private SmsSendEngine engine;
+
+    private SmsSendEngine engine(long sentTimeoutMs) {
+        return engine(sentTimeoutMs, 60_000);
+    }
+
+    private SmsSendEngine engine(long sentTimeoutMs, long deliveryTimeoutMs) {
+        engine = new SmsSendEngine(new SmsSendEngine.Callback() {
+            @Override
+            public void onSent(SmsMessage sms, boolean success, int errorCode) {
+                outcomes.add(sms.getId() + (success ? " sent" : " failed " + errorCode));
+            }
+
+            @Override
+            public void onDelivered(SmsMessage sms, String status) {
+                outcomes.add(sms.getId() + " " + status);
+            }
+        }, sentTimeoutMs, deliveryTimeoutMs);
+        return engine;
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void simulatedTransport_sendsAndDeliversRightAway() throws Exception {
+        SmsSendEngine engine = engine(60_000);
+        SmsTransport transport = new SimulatedTransport(engine);
+        SmsMessage sms = new SmsMessage("1", "+1", "hello");
+
+        engine.send(sms, transport, transport.divide(sms.getMessage()));
+
+        assertEquals("1 sent", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals("1 delivered", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, engine.getTotalParts());
+    }
+
+    @Test
+    public void multipart_isSentOnceEveryPartIs() throws Exception {
+        SmsSendEngine engine = engine(60_000);
+        ManualTransport transport = new ManualTransport();
+        List<String> parts = Arrays.asList("a", "b", "c");
+        engine.send(new SmsMessage("1", "+1", "abc"), transport, parts);
+
+        engine.onPartSent("default:1", 0, SmsTransport.RESULT_OK);
+        engine.onPartSent("default:1", 2, SmsTransport.RESULT_OK);
+        assertNull(outcomes.poll(100, TimeUnit.MILLISECONDS));
+
+        engine.onPartSent("default:1", 1, SmsTransport.RESULT_OK);
+        assertEquals("1 sent", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, engine.getInFlightCount());
+    }
+
+    @Test
+    public void failedPart_failsTheMessageOnce() throws Exception {
+        SmsSendEngine engine = engine(60_000);
+        engine.send(new SmsMessage("1", "+1", "ab"), new ManualTransport(), Arrays.asList("a", "b"));
+
+        engine.onPartSent("default:1", 0, 4);
+        engine.onPartSent("default:1", 1, SmsTransport.RESULT_OK);
+
+        assertEquals("1 failed 4", outcomes.poll(5, TimeUnit.SECONDS));
+        assertNull(outcomes.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void sameIdFromTwoSources_isTrackedApart() throws Exception {
+        SmsSendEngine engine = engine(60_000);
+        SmsMessage a = new SmsMessage("1", "+1", "a", 0, "shop");
+        SmsMessage b = new SmsMessage("1", "+2", "b", 0, "bank");
+        engine.send(a, new ManualTransport(), Arrays.asList("a"));
+        engine.send(b, new ManualTransport(), Arrays.asList("b"));
+        assertEquals(2, engine.getInFlightCount());
+
+        engine.onPartSent(b.getKey(), 0, 4);
+        assertEquals("1 failed 4", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(1, engine.getInFlightCount());
+
+        engine.onPartSent(a.getKey(), 0, SmsTransport.RESULT_OK);
+        assertEquals("1 sent", outcomes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deliveryReports_passOnPendingOnceAndStopAtFailed() throws Exception {
+        SmsSendEngine engine = engine(60_000);
+        engine.send(new SmsMessage("1", "+1", "ab"), new ManualTransport(), Arrays.asList("a", "b"));
+        engine.onPartSent("default:1", 0, SmsTransport.RESULT_OK);
+        engine.onPartSent("default:1", 1, SmsTransport.RESULT_OK);
+        assertEquals("1 sent", outcomes.poll(5, TimeUnit.SECONDS));
+
+        engine.onPartDelivered("default:1", 0, SmsTransport.DELIVERY_PENDING);
+        engine.onPartDelivered("default:1", 1, SmsTransport.DELIVERY_PENDING);
+        assertEquals("1 pending", outcomes.poll(5, TimeUnit.SECONDS));
+        assertNull(outcomes.poll(100, TimeUnit.MILLISECONDS));
+
+        engine.onPartDelivered("default:1", 0, SmsTransport.DELIVERY_DELIVERED);
+        engine.onPartDelivered("default:1", 1, SmsTransport.DELIVERY_FAILED);
+        assertEquals("1 failed", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void missingDeliveryReport_timesOut() throws Exception {
+        SmsSendEngine engine = engine(60_000, 50);
+        engine.send(new SmsMessage("1", "+1", "a"), new ManualTransport(), Arrays.asList("a"));
+        engine.onPartSent("default:1", 0, SmsTransport.RESULT_OK);
+
+        assertEquals("1 sent", outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals("1 " + SmsSendEngine.DELIVERY_TIMEOUT, outcomes.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void silentRadio_timesOut() throws Exception {
+        SmsSendEngine engine = engine(50);
+        engine.send(new SmsMessage("1", "+1", "a"), new ManualTransport(), Arrays.asList("a"));
+
+        assertEquals("1 failed " + SmsSendEngine.ERROR_TIMEOUT, outcomes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void refusedMessage_throwsAndIsNotTracked() {
+        SmsSendEngine engine = engine(60_000);
+        ManualTransport transport = new ManualTransport();
+        transport.refuse = true;
+        try {
+            engine.send(new SmsMessage("1", "+1", "a"), transport, Arrays.asList("a"));
+            fail("Expected the refusal to be thrown");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, engine.getInFlightCount());
+        }
+    }
+
+    /**
+     * Accepts everything and leaves reporting to the test.
+     */
+    private static class ManualTransport implements SmsTransport {
+        boolean refuse;
+
+        @Override
+        public List<String> divide(String text) {
+            return Arrays.asList(text);
+        }
+
+        @Override
+        public void send(SmsMessage sms, List<String> parts) {
+            if (refuse) {
+                throw new IllegalArgumentException("Invalid destination");
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
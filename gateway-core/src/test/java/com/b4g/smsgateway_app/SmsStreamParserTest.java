@@ -0,0 +1,208 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmsStreamParser}.
+ */
+public class SmsStreamParserTest {
+
+    @Test
+    public void parsesArrayAndSkipsNonPendingAndUnknownFields() throws Exception {
+        String json = "[{\"id\":\"1\",\"phone_number\":\"+100\",\"message\":\"Hi \\\"there\\\"\\n\\u00e9\",\"status\":\"pending\"},"
+                + " {\"id\":2,\"sim\":2,\"extra\":{\"a\":[1,{\"b\":\"}\"}]},\"phone_number\":\"+200\",\"message\":\"x\",\"status\":\"PENDING\"},"
+                + " {\"id\":\"3\",\"phone_number\":\"+300\",\"message\":\"y\",\"status\":\"success\"},"
+                + " {\"id\":\"4\",\"message\":\"no number\",\"status\":\"pending\"}]";
+        List<SmsMessage> messages = new ArrayList<>();
+        SmsStreamParser parser = new SmsStreamParser(new StringReader(json));
+        parser.parse(messages::add);
+
+        assertEquals(2, messages.size());
+        assertEquals("1", messages.get(0).getId());
+        assertEquals("Hi \"there\"\n\u00e9", messages.get(0).getMessage());
+        assertEquals("2", messages.get(1).getId());
+        assertEquals("+200", messages.get(1).getPhoneNumber());
+        assertEquals(0, messages.get(0).getSimSlot());
+        assertEquals(2, messages.get(1).getSimSlot());
+        assertEquals(4, parser.getObjectCount());
+        assertEquals(1, parser.getInvalidCount());
+    }
+
+    @Test
+    public void parsesSingleObjectAndEmptyBodies() throws Exception {
+        List<SmsMessage> messages = new ArrayList<>();
+        new SmsStreamParser(new StringReader(" {\"id\":\"9\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"pending\"} "))
+                .parse(messages::add);
+        assertEquals(1, messages.size());
+
+        new SmsStreamParser(new StringReader("[]")).parse(messages::add);
+        new SmsStreamParser(new StringReader("  ")).parse(messages::add);
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void optionalStatus_treatsMissingStatusAsPending() throws Exception {
+        String json = "[{\"id\":\"1\",\"phone_number\":\"1\",\"message\":\"m\"},"
+                + "{\"id\":\"2\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"success\"}]";
+        List<SmsMessage> messages = new ArrayList<>();
+        new SmsStreamParser(new StringReader(json), false).parse(messages::add);
+        assertEquals(1, messages.size());
+        assertEquals("1", messages.get(0).getId());
+
+        messages.clear();
+        SmsStreamParser strict = new SmsStreamParser(new StringReader(json));
+        strict.parse(messages::add);
+        assertEquals(0, messages.size());
+        assertEquals(1, strict.getInvalidCount());
+    }
+
+    @Test
+    public void priorityAndSendAt_areRead() throws Exception {
+        String json = "[{\"id\":\"1\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"pending\","
+                + "\"priority\":\"otp\",\"send_at\":1700000000},"
+                + "{\"id\":\"2\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"pending\",\"priority\":0},"
+                + "{\"id\":\"3\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"pending\",\"priority\":\"soon\"}]";
+        List<SmsMessage> messages = new ArrayList<>();
+        new SmsStreamParser(new StringReader(json)).parse(messages::add);
+
+        assertEquals(SmsMessage.PRIORITY_HIGH, messages.get(0).getPriority());
+        assertEquals(1_700_000_000_000L, messages.get(0).getSendAt());
+        assertEquals(SmsMessage.PRIORITY_LOW, messages.get(1).getPriority());
+        assertEquals(0, messages.get(1).getSendAt());
+        assertEquals(SmsMessage.PRIORITY_NORMAL, messages.get(2).getPriority());
+    }
+
+    @Test
+    public void campaign_isRenderedPerRecipient() throws Exception {
+        String json = "[{\"id\":\"1\",\"phone_number\":\"+100\",\"message\":\"m\",\"status\":\"pending\"},"
+                + "{\"campaign\":\"spring\",\"template\":\"Hi {{name|there}}, use {{code}}\",\"priority\":\"bulk\","
+                + "\"sim\":2,\"recipients\":["
+                + "{\"id\":\"10\",\"phone_number\":\"+110\",\"vars\":{\"name\":\"Ann\",\"code\":\"A1\",\"unused\":[1]}},"
+                + "{\"vars\":{\"code\":42},\"phone_number\":\"+111\",\"id\":11},"
+                + "{\"id\":\"12\",\"phone_number\":\"+112\",\"vars\":{\"name\":\"Cy\"}},"
+                + "{\"id\":\"13\",\"phone_number\":\"+113\",\"status\":\"success\",\"vars\":{\"code\":\"x\"}}]}]";
+        List<SmsMessage> messages = new ArrayList<>();
+        SmsStreamParser parser = new SmsStreamParser(new StringReader(json));
+        parser.setSource("shop");
+        parser.parse(messages::add);
+
+        assertEquals(3, messages.size());
+        assertEquals("Hi Ann, use A1", messages.get(1).getMessage());
+        assertEquals("10", messages.get(1).getId());
+        assertEquals(SmsMessage.PRIORITY_LOW, messages.get(1).getPriority());
+        assertEquals(2, messages.get(1).getSimSlot());
+        assertEquals("shop", messages.get(1).getSource());
+        assertEquals("11", messages.get(2).getId());
+        assertEquals("Hi there, use 42", messages.get(2).getMessage());
+        assertEquals(5, parser.getObjectCount());
+        assertEquals(1, parser.getInvalidCount());
+        assertEquals(1, parser.getCampaignCount());
+    }
+
+    @Test
+    public void campaignRecipientsBeforeTemplate_isAnError() throws Exception {
+        try {
+            new SmsStreamParser(new StringReader("{\"recipients\":[],\"template\":\"t\"}")).parse(sms -> {
+            });
+            fail("Expected a syntax error");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("template"));
+        }
+    }
+
+    @Test
+    public void truncatedBody_isAnError() throws Exception {
+        List<SmsMessage> messages = new ArrayList<>();
+        try {
+            new SmsStreamParser(new StringReader("[{\"id\":\"1\",\"phone_number\":\"1\",\"message\":\"m\",\"status\":\"pending\"},{\"id\":"))
+                    .parse(messages::add);
+            fail("Expected a syntax error");
+        } catch (IOException expected) {
+            // The complete first message was still delivered
+            assertEquals(1, messages.size());
+        }
+    }
+
+    @Test
+    public void hundredThousandMessages_areParsedWithoutReadingAhead() throws Exception {
+        final int count = 100_000;
+        final GeneratedPayload payload = new GeneratedPayload(count);
+        SmsStreamParser parser = new SmsStreamParser(payload);
+        final int[] seen = {0};
+        parser.parse(sms -> {
+            assertEquals(String.valueOf(seen[0]), sms.getId());
+            payload.delivered(seen[0]++);
+        });
+
+        assertEquals(count, seen[0]);
+        assertEquals(count, parser.getMessageCount());
+        // The payload is well over 10 MB of text; the reader never let the parser get more
+        // than a buffer or two ahead of what it had handed out
+        assertTrue(payload.length > 10_000_000L);
+    }
+
+    /**
+     * Produces a get_sms.php style array on the fly, so the test itself never holds the payload.
+     * Fails the read if the parser asks for more than {@link #MAX_READ_AHEAD} characters past
+     * the end of the last message it handed out, which it could only need if it were holding
+     * on to messages instead of streaming them.
+     */
+    private static class GeneratedPayload extends Reader {
+        // Two of the parser's 8192 char buffers
+        static final int MAX_READ_AHEAD = 16384;
+        // Message ends not yet handed out, far more than fit in MAX_READ_AHEAD
+        private final long[] ends = new long[1024];
+        private final int count;
+        private int next;
+        private String chunk = "[";
+        private int chunkPos;
+        private long deliveredEnd;
+        long length;
+
+        GeneratedPayload(int count) {
+            this.count = count;
+        }
+
+        void delivered(int index) {
+            deliveredEnd = ends[index % ends.length];
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            if (length - deliveredEnd > MAX_READ_AHEAD) {
+                throw new IOException("Parser read " + (length - deliveredEnd) + " chars past its last message");
+            }
+            if (chunkPos == chunk.length()) {
+                if (next > count) {
+                    return -1;
+                }
+                chunk = next == count ? "]" : (next > 0 ? "," : "")
+                        + "{\"id\":\"" + next + "\",\"phone_number\":\"+15550" + next + "\","
+                        + "\"message\":\"Your verification code is " + next + ". It expires in 10 minutes."
+                        + " Do not share it with anyone.\",\"status\":\"pending\"}";
+                if (next < count) {
+                    ends[next % ends.length] = length + chunk.length();
+                }
+                next++;
+                chunkPos = 0;
+            }
+            int n = Math.min(len, chunk.length() - chunkPos);
+            chunk.getChars(chunkPos, chunkPos + n, buf, off);
+            chunkPos += n;
+            length += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
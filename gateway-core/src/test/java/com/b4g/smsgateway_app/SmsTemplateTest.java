@@ -0,0 +1,51 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmsTemplate}.
+ */
+public class SmsTemplateTest {
+
+    @Test
+    public void variables_areRenderedByIndexInOrderOfFirstUse() {
+        SmsTemplate template = SmsTemplate.compile("Hi {{ name }}, code {{code}}. Bye {{name}}!");
+
+        assertEquals(2, template.getVariableCount());
+        assertEquals("name", template.getVariable(0));
+        assertEquals(1, template.indexOf(new StringBuilder("code")));
+        assertEquals(-1, template.indexOf("other"));
+        assertEquals("Hi Ann, code 42. Bye Ann!", template.render(new String[]{"Ann", "42"}));
+        assertEquals("Hi Bob, code 7. Bye Bob!", template.render(new String[]{"Bob", "7"}));
+    }
+
+    @Test
+    public void missingValue_usesFallbackOrFails() {
+        SmsTemplate template = SmsTemplate.compile("Hello {{name|there}}, {{code}}");
+
+        assertEquals("Hello there, 1", template.render(new String[]{null, "1"}));
+        assertEquals("Hello there, 1", template.render(new String[]{"", "1"}));
+        assertNull(template.render(new String[]{"Ann", null}));
+        assertNull(template.render(new String[0]));
+    }
+
+    @Test
+    public void bracesThatArentPlaceholders_areKeptAsText() {
+        assertEquals("a {{}} b {{ {c} c", SmsTemplate.compile("a {{}} b {{ {c} c").render(new String[0]));
+        assertEquals("{ x", SmsTemplate.compile("{ {{v}}").render(new String[]{"x"}));
+        assertEquals("plain", SmsTemplate.compile("plain").render(new String[0]));
+    }
+
+    @Test
+    public void longValues_growTheBuffer() {
+        SmsTemplate template = SmsTemplate.compile("<{{v}}>");
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            value.append('x');
+        }
+        assertEquals("<" + value + ">", template.render(new String[]{value.toString()}));
+        assertEquals("<y>", template.render(new String[]{"y"}));
+    }
+}
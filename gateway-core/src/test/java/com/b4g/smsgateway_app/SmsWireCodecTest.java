@@ -0,0 +1,196 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SmsWireCodec}.
+ */
+public class SmsWireCodecTest {
+
+    @Test
+    public void messages_roundTripWithOptionalFields() throws Exception {
+        List<SmsMessage> sent = Arrays.asList(
+                new SmsMessage("1", "+15550001", "Your code is 1234"),
+                new SmsMessage("2", "+15550002", "Ваш код 5678", 2, "ignored", SmsMessage.PRIORITY_HIGH,
+                        1_700_000_000_123L));
+
+        List<SmsMessage> read = read(SmsWireCodec.encodeMessages(sent), "shop");
+
+        assertEquals(2, read.size());
+        SmsMessage plain = read.get(0);
+        assertEquals("1", plain.getId());
+        assertEquals("+15550001", plain.getPhoneNumber());
+        assertEquals("Your code is 1234", plain.getMessage());
+        assertEquals(0, plain.getSimSlot());
+        assertEquals(SmsMessage.PRIORITY_NORMAL, plain.getPriority());
+        assertEquals(0, plain.getSendAt());
+        assertEquals("shop", plain.getSource());
+
+        SmsMessage flagged = read.get(1);
+        assertEquals("Ваш код 5678", flagged.getMessage());
+        assertEquals(2, flagged.getSimSlot());
+        assertEquals(SmsMessage.PRIORITY_HIGH, flagged.getPriority());
+        assertEquals(1_700_000_000_123L, flagged.getSendAt());
+    }
+
+    @Test
+    public void messages_areSmallerThanJson() {
+        List<SmsMessage> batch = new ArrayList<>();
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            batch.add(new SmsMessage(String.valueOf(i), "+1555000" + i, "Your verification code is " + i));
+            json.append(i > 0 ? "," : "").append("{\"id\":\"").append(i).append("\",\"phone_number\":\"+1555000")
+                    .append(i).append("\",\"message\":\"Your verification code is ").append(i)
+                    .append("\",\"status\":\"pending\"}");
+        }
+        json.append(']');
+
+        assertTrue(SmsWireCodec.encodeMessages(batch).length * 2 < json.length());
+    }
+
+    @Test
+    public void campaign_roundTripsAsMessagesPerRecipient() throws Exception {
+        Map<String, String> ann = new HashMap<>();
+        ann.put("name", "Ann");
+        ann.put("code", "A1");
+        SmsCampaign campaign = new SmsCampaign("spring", "{{name|Hi}}: {{code}}", 1, SmsMessage.PRIORITY_LOW, 0)
+                .addRecipient("10", "+110", ann)
+                .addRecipient("11", "+111", Collections.singletonMap("code", "B2"))
+                .addRecipient("12", "+112", Collections.<String, String>emptyMap());
+
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(
+                SmsWireCodec.encodeMessages(Arrays.asList(new SmsMessage("1", "+1", "plain")),
+                        Collections.singletonList(campaign))));
+        List<SmsMessage> read = new ArrayList<>();
+        reader.parse(read::add);
+
+        assertEquals(3, read.size());
+        assertEquals("plain", read.get(0).getMessage());
+        assertEquals("Ann: A1", read.get(1).getMessage());
+        assertEquals("10", read.get(1).getId());
+        assertEquals(1, read.get(1).getSimSlot());
+        assertEquals(SmsMessage.PRIORITY_LOW, read.get(1).getPriority());
+        assertEquals("Hi: B2", read.get(2).getMessage());
+        assertEquals(1, reader.getInvalidCount());
+        assertEquals(1, reader.getCampaignCount());
+        assertEquals(4, reader.getObjectCount());
+    }
+
+    @Test
+    public void longText_spanningReadBuffers_isReadWhole() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20_000) {
+            text.append("part ").append(text.length()).append(' ');
+        }
+        List<SmsMessage> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new SmsMessage(String.valueOf(i), "+1555", text.toString()));
+        }
+
+        List<SmsMessage> read = read(SmsWireCodec.encodeMessages(batch), "default");
+
+        assertEquals(3, read.size());
+        assertEquals(text.toString(), read.get(2).getMessage());
+    }
+
+    @Test
+    public void recordsMissingFields_areCountedAndSkipped() throws Exception {
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(
+                SmsWireCodec.encodeMessages(Arrays.asList(
+                        new SmsMessage("1", "", "text"),
+                        new SmsMessage("2", "+1555", "text")))));
+        final List<SmsMessage> read = new ArrayList<>();
+        reader.parse(read::add);
+
+        assertEquals(2, reader.getObjectCount());
+        assertEquals(1, reader.getMessageCount());
+        assertEquals(1, reader.getInvalidCount());
+        assertEquals("2", read.get(0).getId());
+    }
+
+    @Test
+    public void truncatedOrForeignBody_isAnError() throws Exception {
+        byte[] whole = SmsWireCodec.encodeMessages(Arrays.asList(new SmsMessage("1", "+1555", "text")));
+        try {
+            read(Arrays.copyOf(whole, whole.length - 1), "default");
+            fail("Expected a cut-off body to fail");
+        } catch (IOException expected) {
+            // Without the end marker a partial batch isn't mistaken for a whole one
+        }
+        try {
+            read("[{\"id\":\"1\"}]".getBytes("UTF-8"), "default");
+            fail("Expected JSON to be rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Not an SMS gateway"));
+        }
+    }
+
+    @Test
+    public void statuses_roundTripWithDeviceId() throws Exception {
+        List<StatusReporter.Update> updates = Arrays.asList(
+                new StatusReporter.Update("1", "success", 0),
+                new StatusReporter.Update("2", "failed", 0),
+                new StatusReporter.Update("3", "pending", 0),
+                new StatusReporter.Update("shop:4", "4", "delivered", 0));
+        final List<String> read = new ArrayList<>();
+
+        String deviceId = SmsWireCodec.readStatuses(
+                new ByteArrayInputStream(SmsWireCodec.encodeStatuses(updates, "dev-1")),
+                new SmsWireCodec.StatusListener() {
+                    @Override
+                    public void onStatus(String source, String smsId, String status) {
+                        read.add(source + ":" + smsId + "=" + status);
+                    }
+                });
+
+        assertEquals("dev-1", deviceId);
+        assertEquals("[default:1=success, default:2=failed, default:3=pending, shop:4=delivered]", read.toString());
+        assertNull(SmsWireCodec.readStatuses(new ByteArrayInputStream(
+                SmsWireCodec.encodeStatuses(updates, null)), (source, smsId, status) -> { }));
+    }
+
+    @Test
+    public void versionOneStatuses_areReadAsTheDefaultSource() throws Exception {
+        byte[] v1 = {'S', 'G', 1, 'S', 0, 1, 1, '7', 0};
+        final List<String> read = new ArrayList<>();
+        SmsWireCodec.readStatuses(new ByteArrayInputStream(v1),
+                (source, smsId, status) -> read.add(source + ":" + smsId + "=" + status));
+        assertEquals("[default:7=success]", read.toString());
+    }
+
+    @Test
+    public void varints_useSevenBitsPerByte() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SmsWireCodec.writeVarint(out, 127);
+        assertEquals(1, out.size());
+        SmsWireCodec.writeVarint(out, 300);
+        assertArrayEquals(new byte[]{127, (byte) 0xAC, 0x02}, out.toByteArray());
+    }
+
+    @Test
+    public void contentType_matchesWithParameters() {
+        assertTrue(SmsWireCodec.isWireType("application/x-smsgateway; version=1"));
+        assertFalse(SmsWireCodec.isWireType("application/json"));
+        assertFalse(SmsWireCodec.isWireType(null));
+    }
+
+    private static List<SmsMessage> read(byte[] body, String source) throws Exception {
+        SmsWireCodec.MessageReader reader = new SmsWireCodec.MessageReader(new ByteArrayInputStream(body));
+        reader.setSource(source);
+        List<SmsMessage> read = new ArrayList<>();
+        reader.parse(read::add);
+        return read;
+    }
+}
@@ -0,0 +1,145 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.*;
+
+/**
+ * End to end against the {@link LoadGenerator}: fetch, parse, dispatch over two simulated SIMs,
+ * send and report, the same way the service wires it. Runs for a few seconds by default; set
+ * {@code soak.seconds} and {@code soak.perMinute} (or use {@code ./gradlew :gateway-core:soak})
+ * for a long run. Prints sustained throughput and heap use at the end.
+ */
+public class SoakTest {
+    private static final int FETCH_LIMIT = 200;
+
+    private LoadGenerator generator;
+    private SimDispatcher dispatcher;
+    private SmsSendEngine engine;
+    private StatusReporter reporter;
+    private volatile boolean polling = true;
+
+    @After
+    public void tearDown() throws Exception {
+        polling = false;
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+        if (reporter != null) {
+            reporter.shutdown();
+        }
+        if (generator != null) {
+            generator.stop();
+        }
+    }
+
+    @Test
+    public void sustainedLoad_everyMessageFinishesOnce() throws Exception {
+        long seconds = Long.getLong("soak.seconds", 5);
+        int perMinute = Integer.getInteger("soak.perMinute", 12_000);
+
+        generator = new LoadGenerator(perMinute, 50_000, 60_000);
+        generator.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        String base = "http://127.0.0.1:" + generator.getPort() + "/v1/";
+        OkHttpClient client = HttpClients.create(10, null);
+
+        reporter = new StatusReporter(client, base + "update_sms_status_batch.php", base + "update_sms_status.php",
+                100, 200);
+        engine = new SmsSendEngine(new SmsSendEngine.Callback() {
+            @Override
+            public void onSent(SmsMessage sms, boolean success, int errorCode) {
+                dispatcher.onResult(sms, success);
+                reporter.report(sms.getId(), success ? "success" : "failed");
+            }
+
+            @Override
+            public void onDelivered(SmsMessage sms, String status) {
+                // The service doesn't report deliveries upstream either
+            }
+        }, 30_000, 30_000);
+
+        // Fast enough that the gateway, not the carrier, is what's being measured
+        SimulatedTransport.Profile carrier = new SimulatedTransport.Profile(5, 50, 0.01, 0, 0.9, 20);
+        List<SimDispatcher.SimChannel> channels = new ArrayList<>();
+        for (int slot = 1; slot <= 2; slot++) {
+            channels.add(new SimDispatcher.SimChannel(slot, slot, "SIM" + slot,
+                    new SimulatedTransport(engine, carrier, new Random(slot)),
+                    new SendRateLimiter(1_000_000, 60_000_000), 500));
+        }
+        dispatcher = new SimDispatcher(channels, SimDispatcher.Strategy.LEAST_LOADED,
+                new SimDispatcher.Sender() {
+                    @Override
+                    public void send(SmsMessage sms, SimDispatcher.SimChannel channel) {
+                        SmsTransport transport = channel.getTransport();
+                        List<String> parts = transport.divide(sms.getMessage());
+                        dispatcher.onHandedOff(sms, channel);
+                        engine.send(sms, transport, parts);
+                    }
+                }, 1000, 1000);
+
+        Runtime runtime = Runtime.getRuntime();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        long peakHeap = 0;
+        while (System.nanoTime() < deadline) {
+            int fetched = poll(client, base + "get_sms.php?limit=" + FETCH_LIMIT);
+            peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+            if (fetched < FETCH_LIMIT) {
+                Thread.sleep(50);
+            }
+        }
+        generator.pause();
+
+        // Drain what's left
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (generator.getOutstandingCount() > 0 && System.nanoTime() < drainUntil) {
+            if (poll(client, base + "get_sms.php?limit=" + FETCH_LIMIT) == 0) {
+                Thread.sleep(50);
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long finished = generator.getSentCount() + generator.getFailedCount();
+
+        System.out.println(String.format(Locale.US, "soak: %.1f s, %.0f SMS/min sustained, peak heap %d MB",
+                elapsed, finished * 60 / elapsed, peakHeap >> 20));
+        System.out.println("soak: " + generator.summary());
+
+        assertTrue(generator.getGeneratedCount() > 0);
+        assertEquals(0, generator.getOutstandingCount());
+        assertEquals(generator.getGeneratedCount(), finished);
+        assertEquals(0, generator.getDuplicateCount());
+    }
+
+    private int poll(OkHttpClient client, String url) throws Exception {
+        if (!polling) {
+            return 0;
+        }
+        Request request = new Request.Builder().url(url).build();
+        try (Response response = client.newCall(request).execute()) {
+            assertTrue(response.isSuccessful());
+            Reader body = new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8);
+            SmsStreamParser parser = new SmsStreamParser(body);
+            parser.parse(dispatcher::dispatch);
+            return parser.getMessageCount();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StatusFeed}.
+ */
+public class StatusFeedTest {
+    private static final String TAG = "StatusFeedTest";
+
+    private final AtomicInteger snapshots = new AtomicInteger();
+    private final BlockingQueue<StatusFeed.Update> updates = new LinkedBlockingQueue<>();
+    private final StatusFeed.Listener listener = updates::add;
+    private final StatusFeed feed = new StatusFeed(() -> new StatusFeed.Snapshot(snapshots.incrementAndGet(), 0, 0,
+            0, 0, 0, 0, 0, Collections.<StatusFeed.SimState>emptyList()), 20, GatewayLog.INFO, 100);
+
+    @After
+    public void tearDown() {
+        feed.close();
+    }
+
+    @Test
+    public void newListener_getsWhatIsBufferedRightAway() throws Exception {
+        GatewayLog.i(TAG, "before joining");
+        GatewayLog.d(TAG, "too quiet");
+        feed.setStatus("Polling");
+
+        feed.addListener(listener);
+        StatusFeed.Update first = updates.poll(5, TimeUnit.SECONDS);
+
+        assertTrue(first.running);
+        assertEquals("Polling", first.status);
+        assertNotNull(first.snapshot);
+        List<String> own = ownMessages(first.events);
+        assertEquals("before joining", own.get(own.size() - 1));
+        assertFalse(own.contains("too quiet"));
+    }
+
+    @Test
+    public void laterUpdates_onlyCarryNewEvents() throws Exception {
+        feed.addListener(listener);
+        updates.poll(5, TimeUnit.SECONDS);
+
+        GatewayLog.w(TAG, "one");
+        GatewayLog.e(TAG, "two");
+        List<String> seen = new ArrayList<>();
+        StatusFeed.Update update = null;
+        while (seen.size() < 2) {
+            update = updates.poll(5, TimeUnit.SECONDS);
+            seen.addAll(ownMessages(update.events));
+        }
+
+        assertEquals(2, seen.size());
+        assertEquals("two", update.lastError.message);
+        assertTrue(ownMessages(updates.poll(5, TimeUnit.SECONDS).events).isEmpty());
+    }
+
+    @Test
+    public void withoutListeners_noSnapshotsAreTaken() throws Exception {
+        feed.addListener(listener);
+        updates.poll(5, TimeUnit.SECONDS);
+        updates.poll(5, TimeUnit.SECONDS);
+        feed.removeListener(listener);
+        Thread.sleep(50);
+
+        int taken = snapshots.get();
+        Thread.sleep(100);
+        assertEquals(taken, snapshots.get());
+    }
+
+    @Test
+    public void close_tellsListenersTheGatewayStopped() throws Exception {
+        feed.addListener(listener);
+        updates.poll(5, TimeUnit.SECONDS);
+
+        feed.close();
+        StatusFeed.Update update;
+        do {
+            update = updates.poll(5, TimeUnit.SECONDS);
+        } while (update.running);
+        assertFalse(update.running);
+    }
+
+    private static List<String> ownMessages(List<StatusFeed.Event> events) {
+        List<String> messages = new ArrayList<>();
+        for (StatusFeed.Event event : events) {
+            if (TAG.equals(event.tag)) {
+                messages.add(event.message);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,269 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link StatusReporter} batches updates against a local server.
+ */
+public class StatusReporterTest {
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void fiveHundredUpdates_sendOnlyAHandfulOfRequests() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200));
+        }
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                100, 60_000);
+
+        for (int i = 0; i < 500; i++) {
+            reporter.report(String.valueOf(i), "success");
+        }
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(5, server.getRequestCount());
+        for (int i = 0; i < 5; i++) {
+            RecordedRequest request = server.takeRequest(1, TimeUnit.SECONDS);
+            assertNotNull(request);
+            assertEquals("/update_sms_status_batch.php", request.getPath());
+            assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+            assertTrue(request.getBody().readUtf8().startsWith("[{\"id\":"));
+        }
+    }
+
+    @Test
+    public void partialBatch_flushesAfterDelay() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                100, 50);
+
+        reporter.report("1", "success");
+        reporter.report("2", "pending");
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals("[{\"id\":\"1\",\"status\":\"success\",\"source\":\"default\"},"
+                + "{\"id\":\"2\",\"status\":\"pending\",\"source\":\"default\"}]",
+                request.getBody().readUtf8());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void missingBatchEndpoint_fallsBackToFormPosts() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200));
+        }
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                3, 60_000);
+
+        reporter.report("7", "success");
+        reporter.report("8", "success");
+        reporter.report("9", "pending");
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertFalse(reporter.isBatchSupported());
+        assertEquals(4, server.getRequestCount());
+        assertEquals("/update_sms_status_batch.php", server.takeRequest().getPath());
+
+        RecordedRequest form = server.takeRequest();
+        assertEquals("/update_sms_status.php", form.getPath());
+        assertEquals("id=7&status=success&source=default", form.getBody().readUtf8());
+    }
+
+    @Test
+    public void serverError_retriesTheBatchInsteadOfFormPosts() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                2, 20, 3, 1000);
+        final List<String> reported = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        reporter.setListener(listener(reported, failed));
+
+        reporter.report("1", "success");
+        reporter.report("2", "pending");
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        RecordedRequest retried = server.takeRequest(5, TimeUnit.SECONDS);
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals("/update_sms_status_batch.php", retried.getPath());
+        assertEquals("[{\"id\":\"1\",\"status\":\"success\",\"source\":\"default\"},"
+                + "{\"id\":\"2\",\"status\":\"pending\",\"source\":\"default\"}]",
+                retried.getBody().readUtf8());
+        assertEquals(2, server.getRequestCount());
+        assertTrue(reporter.isBatchSupported());
+        assertEquals(2, reported.size());
+        assertTrue(failed.isEmpty());
+    }
+
+    @Test
+    public void batchFailingForGood_isHandedBackForRetry() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                2, 20, 2, 1000);
+        final List<String> reported = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        reporter.setListener(listener(reported, failed));
+
+        reporter.report("1", "success");
+        reporter.report("2", "pending");
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Two batch attempts, never a form post
+        assertEquals(2, server.getRequestCount());
+        assertTrue(reported.isEmpty());
+        assertEquals("[1=success, 2=pending]", failed.toString());
+    }
+
+    @Test
+    public void rejectedFormPosts_areHandedBackForRetry() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                2, 60_000);
+        final List<String> reported = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        reporter.setListener(listener(reported, failed));
+
+        reporter.report("1", "success");
+        reporter.report("2", "pending");
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Batch endpoint missing, then one form post each
+        assertEquals(3, server.getRequestCount());
+        assertEquals("[1]", reported.toString());
+        assertEquals("[2=pending]", failed.toString());
+    }
+
+    @Test
+    public void wireBatchRejected_isResentAsJson() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                2, 60_000);
+        reporter.setWireSupported(true);
+
+        reporter.report("1", "success");
+        reporter.report("2", "failed");
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+
+        RecordedRequest wire = server.takeRequest();
+        assertEquals(SmsWireCodec.MEDIA_TYPE, wire.getHeader("Content-Type"));
+        final List<String> decoded = new ArrayList<>();
+        SmsWireCodec.readStatuses(wire.getBody().inputStream(), new SmsWireCodec.StatusListener() {
+            @Override
+            public void onStatus(String source, String smsId, String status) {
+                decoded.add(source + ":" + smsId + "=" + status);
+            }
+        });
+        assertEquals("[default:1=success, default:2=failed]", decoded.toString());
+
+        RecordedRequest json = server.takeRequest();
+        assertEquals("/update_sms_status_batch.php", json.getPath());
+        assertTrue(json.getHeader("Content-Type").startsWith("application/json"));
+        assertFalse(reporter.isWireSupported());
+        assertTrue(reporter.isBatchSupported());
+    }
+
+    @Test
+    public void keyedUpdates_sendTheIdAndSourceAndReportTheKey() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        StatusReporter reporter = new StatusReporter(client,
+                server.url("/update_sms_status_batch.php").toString(),
+                server.url("/update_sms_status.php").toString(),
+                2, 50);
+        final List<String> reported = new ArrayList<>();
+        reporter.setListener(listener(reported, new ArrayList<String>()));
+
+        reporter.report("shop:1", "1", "success");
+        reporter.report("bank:1", "1", "failed");
+
+        RecordedRequest request = server.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals("[{\"id\":\"1\",\"status\":\"success\",\"source\":\"shop\"},"
+                + "{\"id\":\"1\",\"status\":\"failed\",\"source\":\"bank\"}]",
+                request.getBody().readUtf8());
+        reporter.shutdown();
+        assertTrue(reporter.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals("[shop:1, bank:1]", reported.toString());
+    }
+
+    @Test
+    public void toJson_escapesQuotes() {
+        List<StatusReporter.Update> entries = new ArrayList<>();
+        entries.add(new StatusReporter.Update("a\"b", "success", 0));
+        assertEquals("[{\"id\":\"a\\\"b\",\"status\":\"success\",\"source\":\"default\"}]", StatusReporter.toJson(entries));
+    }
+
+    private static StatusReporter.Listener listener(final List<String> reported, final List<String> failed) {
+        return new StatusReporter.Listener() {
+            @Override
+            public void onReported(List<String> keys) {
+                reported.addAll(keys);
+            }
+
+            @Override
+            public void onFailed(String key, String status) {
+                failed.add(key + "=" + status);
+            }
+        };
+    }
+}
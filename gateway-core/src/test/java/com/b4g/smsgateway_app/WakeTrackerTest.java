@@ -0,0 +1,89 @@
+package com.b4g.smsgateway_app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link WakeTracker} against a lock that only counts calls.
+ */
+public class WakeTrackerTest {
+    private static final long MS = 1_000_000;
+
+    private int acquires;
+    private int releases;
+    private final WakeTracker tracker = new WakeTracker(new WakeTracker.Lock() {
+        @Override
+        public void acquire() {
+            acquires++;
+        }
+
+        @Override
+        public void release() {
+            releases++;
+        }
+    });
+
+    @Test
+    public void lock_isHeldOnlyWhileSomethingIsInFlight() {
+        tracker.begin("a", 0);
+        tracker.begin("b", 10 * MS);
+        tracker.end("a", 20 * MS);
+        assertTrue(tracker.isHeld());
+        assertEquals(0, releases);
+
+        tracker.end("b", 50 * MS);
+        assertFalse(tracker.isHeld());
+        assertEquals(1, releases);
+        assertEquals(1, tracker.getAcquisitionCount());
+        assertEquals(50, tracker.getHeldMillis(60 * MS));
+    }
+
+    @Test
+    public void everyBegin_refreshesTheLock() {
+        tracker.begin("a", 0);
+        tracker.begin("b", 0);
+        assertEquals(2, acquires);
+    }
+
+    @Test
+    public void unmatchedEnds_areHarmless() {
+        tracker.end("never", 0);
+        tracker.begin("a", 0);
+        tracker.end("a", 10 * MS);
+        tracker.end("a", 20 * MS);
+
+        assertEquals(1, releases);
+        assertEquals(10, tracker.getHeldMillis(100 * MS));
+    }
+
+    @Test
+    public void heldTime_includesTheCurrentHold() {
+        tracker.begin("a", 0);
+        tracker.end("a", 10 * MS);
+        tracker.begin("b", 100 * MS);
+
+        assertEquals(40, tracker.getHeldMillis(130 * MS));
+    }
+
+    @Test
+    public void wakeups_areCountedPerReason() {
+        tracker.onWakeup("alarm");
+        tracker.onWakeup("alarm");
+        tracker.onWakeup("network");
+
+        assertEquals(2, tracker.getWakeupCount("alarm"));
+        assertEquals(1, tracker.getWakeupCount("network"));
+        assertEquals(0, tracker.getWakeupCount("push"));
+    }
+
+    @Test
+    public void releaseAll_dropsEverything() {
+        tracker.begin("a");
+        tracker.begin("b");
+        tracker.releaseAll();
+
+        assertFalse(tracker.isHeld());
+        assertEquals(1, releases);
+    }
+}
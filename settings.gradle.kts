@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "SMSGateway-App"
 include(":app")
+include(":gateway-core")
  
\ No newline at end of file